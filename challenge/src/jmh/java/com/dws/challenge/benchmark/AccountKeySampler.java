@@ -0,0 +1,57 @@
+package com.dws.challenge.benchmark;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/*
+ * Pre-computes a cyclic sequence of account indexes so the benchmarks pay no
+ * sampling cost inside the measured method. "zipfian" concentrates traffic on
+ * a few low indexes (hot merchant accounts), "uniform" spreads it evenly.
+ */
+final class AccountKeySampler {
+
+	private static final int SEQUENCE_SIZE = 1 << 16;
+
+	private static final double ZIPF_EXPONENT = 0.99;
+
+	private final int[] sequence;
+
+	private int cursor;
+
+	AccountKeySampler(String distribution, int accountCount, long seed) {
+		SplittableRandom random = new SplittableRandom(seed);
+		this.sequence = new int[SEQUENCE_SIZE];
+		if ("uniform".equals(distribution)) {
+			for (int i = 0; i < SEQUENCE_SIZE; i++) {
+				sequence[i] = random.nextInt(accountCount);
+			}
+		} else if ("zipfian".equals(distribution)) {
+			double[] cumulative = zipfCumulative(accountCount);
+			for (int i = 0; i < SEQUENCE_SIZE; i++) {
+				int index = Arrays.binarySearch(cumulative, random.nextDouble());
+				sequence[i] = Math.min(index < 0 ? -index - 1 : index, accountCount - 1);
+			}
+		} else {
+			throw new IllegalArgumentException("Unknown distribution " + distribution);
+		}
+	}
+
+	int next() {
+		int index = sequence[cursor];
+		cursor = (cursor + 1) & (SEQUENCE_SIZE - 1);
+		return index;
+	}
+
+	private static double[] zipfCumulative(int accountCount) {
+		double[] cumulative = new double[accountCount];
+		double sum = 0;
+		for (int i = 0; i < accountCount; i++) {
+			sum += 1.0 / Math.pow(i + 1, ZIPF_EXPONENT);
+			cumulative[i] = sum;
+		}
+		for (int i = 0; i < accountCount; i++) {
+			cumulative[i] /= sum;
+		}
+		return cumulative;
+	}
+}
@@ -0,0 +1,120 @@
+package com.dws.challenge.benchmark;
+
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.TransferResult;
+import com.dws.challenge.repository.AccountsRepository;
+
+/*
+ * Run with: ./gradlew jmh -PjmhThreads=8 -PjmhInclude=AccountsRepositoryBenchmark
+ * The sample mode result carries the p99 latency next to the throughput score.
+ */
+public class AccountsRepositoryBenchmark {
+
+	private static final BigDecimal AMOUNT = new BigDecimal("0.01");
+
+	// accounts createAccount adds before the store is emptied again; well below the off-heap capacity
+	private static final long CREATED_PER_LAP = 1 << 16;
+
+	@State(Scope.Benchmark)
+	public static class Accounts {
+
+		@Param({ "in-memory", "fixed-point", "off-heap", "sharded" })
+		public String repository;
+
+		@Param({ "1000", "100000" })
+		public int accountCount;
+
+		@Param({ "uniform", "zipfian" })
+		public String distribution;
+
+		AccountsRepository accountsRepository;
+
+		String[] accountIds;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			accountsRepository = BenchmarkAccounts.newRepository(repository);
+			accountIds = BenchmarkAccounts.populate(accountsRepository, accountCount);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			BenchmarkAccounts.close(accountsRepository);
+		}
+	}
+
+	/*
+	 * A store of its own for createAccount, emptied before every iteration and
+	 * again after every CREATED_PER_LAP accounts, so it never fills up however
+	 * long the run. Ids never repeat, so a create racing a clear still succeeds.
+	 */
+	@State(Scope.Benchmark)
+	public static class NewAccounts {
+
+		@Param({ "in-memory", "fixed-point", "off-heap", "sharded" })
+		public String repository;
+
+		AccountsRepository accountsRepository;
+
+		final AtomicLong created = new AtomicLong();
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			accountsRepository = BenchmarkAccounts.newRepository(repository);
+		}
+
+		@Setup(Level.Iteration)
+		public void clear() {
+			accountsRepository.clearAccounts();
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			BenchmarkAccounts.close(accountsRepository);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Keys {
+
+		AccountKeySampler sampler;
+
+		@Setup(Level.Trial)
+		public void setUp(Accounts accounts, ThreadParams threadParams) {
+			sampler = new AccountKeySampler(accounts.distribution, accounts.accountCount,
+					31L * threadParams.getThreadIndex() + 17);
+		}
+	}
+
+	@Benchmark
+	public void createAccount(NewAccounts accounts) {
+		long id = accounts.created.incrementAndGet();
+		if (id % CREATED_PER_LAP == 0) {
+			accounts.accountsRepository.clearAccounts();
+		}
+		accounts.accountsRepository.createAccount(new Account("New-" + id, BigDecimal.ZERO));
+	}
+
+	@Benchmark
+	public Account getAccount(Accounts accounts, Keys keys) {
+		return accounts.accountsRepository.getAccount(accounts.accountIds[keys.sampler.next()]);
+	}
+
+	@Benchmark
+	public TransferResult performBalanceTransfer(Accounts accounts, Keys keys) {
+		return accounts.accountsRepository.performBalanceTransfer(accounts.accountIds[keys.sampler.next()],
+				accounts.accountIds[keys.sampler.next()], AMOUNT);
+	}
+}
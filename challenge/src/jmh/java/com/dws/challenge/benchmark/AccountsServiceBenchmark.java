@@ -0,0 +1,82 @@
+package com.dws.challenge.benchmark;
+
+import java.math.BigDecimal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import com.dws.challenge.domain.TransferResult;
+import com.dws.challenge.outbox.TransferOutbox;
+import com.dws.challenge.service.AccountsService;
+import com.dws.challenge.service.AsyncNotificationDispatcher;
+import com.dws.challenge.service.NotificationOverflowPolicy;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/*
+ * End-to-end transfer through AccountsService without the web layer.
+ * Run with: ./gradlew jmh -PjmhThreads=8 -PjmhInclude=AccountsServiceBenchmark
+ */
+public class AccountsServiceBenchmark {
+
+	private static final BigDecimal AMOUNT = new BigDecimal("0.01");
+
+	@State(Scope.Benchmark)
+	public static class Service {
+
+		@Param({ "in-memory", "fixed-point", "off-heap", "sharded" })
+		public String repository;
+
+		@Param({ "1000", "100000" })
+		public int accountCount;
+
+		@Param({ "uniform", "zipfian" })
+		public String distribution;
+
+		AccountsService accountsService;
+
+		AsyncNotificationDispatcher notifications;
+
+		String[] accountIds;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			// real dispatcher, no-op delivery: the benchmark pays for enqueueing only
+			notifications = new AsyncNotificationDispatcher((account, description) -> {
+			}, 2, 10000, 100, NotificationOverflowPolicy.DROP_OLDEST, null, new SimpleMeterRegistry());
+			accountsService = new AccountsService(BenchmarkAccounts.newRepository(repository), notifications,
+					(TransferOutbox) null, null, null, null);
+			accountIds = BenchmarkAccounts.populate(accountsService.getAccountsRepository(), accountCount);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			notifications.close();
+			BenchmarkAccounts.close(accountsService.getAccountsRepository());
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Keys {
+
+		AccountKeySampler sampler;
+
+		@Setup(Level.Trial)
+		public void setUp(Service service, ThreadParams threadParams) {
+			sampler = new AccountKeySampler(service.distribution, service.accountCount,
+					31L * threadParams.getThreadIndex() + 17);
+		}
+	}
+
+	@Benchmark
+	public TransferResult performBalanceTransfer(Service service, Keys keys) {
+		return service.accountsService.performBalanceTransfer(service.accountIds[keys.sampler.next()],
+				service.accountIds[keys.sampler.next()], AMOUNT);
+	}
+}
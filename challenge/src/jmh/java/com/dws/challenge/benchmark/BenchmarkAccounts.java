@@ -0,0 +1,51 @@
+package com.dws.challenge.benchmark;
+
+import java.math.BigDecimal;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.journal.TransferJournal;
+import com.dws.challenge.repository.AccountsRepository;
+import com.dws.challenge.repository.AccountsRepositoryFixedPoint;
+import com.dws.challenge.repository.AccountsRepositoryInMemory;
+import com.dws.challenge.repository.AccountsRepositoryOffHeap;
+import com.dws.challenge.repository.AccountsRepositorySharded;
+import com.dws.challenge.repository.TransferHistory;
+
+final class BenchmarkAccounts {
+
+	static final BigDecimal OPENING_BALANCE = new BigDecimal("1000000000.00");
+
+	private BenchmarkAccounts() {
+	}
+
+	static AccountsRepository newRepository(String type) {
+		switch (type) {
+		case "in-memory":
+			return new AccountsRepositoryInMemory(1024, (TransferJournal) null, null, null, null, null,
+					TransferHistory.DEFAULT_MAX_ENTRIES_PER_ACCOUNT);
+		case "fixed-point":
+			return new AccountsRepositoryFixedPoint(2);
+		case "off-heap":
+			return new AccountsRepositoryOffHeap(2, 1 << 20, 46, 1024);
+		case "sharded":
+			return new AccountsRepositorySharded(Runtime.getRuntime().availableProcessors(), 65536);
+		default:
+			throw new IllegalArgumentException("Unknown repository " + type);
+		}
+	}
+
+	static void close(AccountsRepository repository) {
+		if (repository instanceof AccountsRepositorySharded) {
+			((AccountsRepositorySharded) repository).shutdown();
+		}
+	}
+
+	static String[] populate(AccountsRepository repository, int accountCount) {
+		String[] accountIds = new String[accountCount];
+		for (int i = 0; i < accountCount; i++) {
+			accountIds[i] = "Id-" + i;
+			repository.createAccount(new Account(accountIds[i], OPENING_BALANCE));
+		}
+		return accountIds;
+	}
+}
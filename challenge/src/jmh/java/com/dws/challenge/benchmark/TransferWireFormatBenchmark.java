@@ -0,0 +1,198 @@
+package com.dws.challenge.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import javax.validation.Validation;
+import javax.validation.Validator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+
+import com.dws.challenge.ChallengeApplication;
+import com.dws.challenge.domain.AccountTransfer;
+import com.dws.challenge.service.AccountsService;
+import com.dws.challenge.web.BinaryTransferCodec;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/*
+ * JSON against BinaryTransferCodec for the transfer endpoints. The decode
+ * benchmarks cover what the web layer spends turning a body into validated
+ * transfers (Jackson plus Bean Validation, or the codec and its hand-written
+ * checks); the http benchmarks post the same transfers to a running server
+ * over loopback and include everything from the socket to the repository.
+ * Run with: ./gradlew jmh -PjmhInclude=TransferWireFormatBenchmark
+ */
+public class TransferWireFormatBenchmark {
+
+	private static final TypeReference<List<AccountTransfer>> TRANSFER_LIST = new TypeReference<List<AccountTransfer>>() {
+	};
+
+	private static final int ACCOUNTS = 1000;
+
+	@State(Scope.Benchmark)
+	public static class Payloads {
+
+		@Param({ "1", "100" })
+		public int batchSize;
+
+		ObjectMapper objectMapper;
+
+		Validator validator;
+
+		byte[] json;
+
+		byte[] binary;
+
+		@Setup(Level.Trial)
+		public void setUp() throws IOException {
+			objectMapper = new ObjectMapper();
+			validator = Validation.buildDefaultValidatorFactory().getValidator();
+			List<AccountTransfer> transfers = transfers(new SplittableRandom(17), batchSize);
+			json = batchSize == 1 ? objectMapper.writeValueAsBytes(transfers.get(0))
+					: objectMapper.writeValueAsBytes(transfers);
+			binary = batchSize == 1 ? BinaryTransferCodec.encodeTransfer(transfers.get(0))
+					: BinaryTransferCodec.encodeTransfers(transfers);
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class Server {
+
+		@Param({ "json", "binary" })
+		public String format;
+
+		@Param({ "1", "100" })
+		public int batchSize;
+
+		ServletWebServerApplicationContext context;
+
+		URL url;
+
+		String contentType;
+
+		byte[][] bodies;
+
+		@Setup(Level.Trial)
+		public void setUp() throws IOException {
+			context = (ServletWebServerApplicationContext) new SpringApplicationBuilder(ChallengeApplication.class)
+					.properties("server.port=0", "accounts.audit.sample-rate=0",
+							"logging.level.com.dws.challenge=WARN")
+					.run();
+			BenchmarkAccounts.populate(context.getBean(AccountsService.class).getAccountsRepository(), ACCOUNTS);
+			url = new URL("http://localhost:" + context.getWebServer().getPort() + "/v1/accounts/"
+					+ (batchSize == 1 ? "balanceTransfer" : "balanceTransfers"));
+			contentType = format.equals("json") ? "application/json" : BinaryTransferCodec.MEDIA_TYPE;
+
+			// a fixed rotation of prepared bodies, so encoding is not part of the measurement
+			ObjectMapper objectMapper = new ObjectMapper();
+			SplittableRandom random = new SplittableRandom(17);
+			bodies = new byte[64][];
+			for (int i = 0; i < bodies.length; i++) {
+				List<AccountTransfer> transfers = transfers(random, batchSize);
+				if (format.equals("json")) {
+					bodies[i] = batchSize == 1 ? objectMapper.writeValueAsBytes(transfers.get(0))
+							: objectMapper.writeValueAsBytes(transfers);
+				} else {
+					bodies[i] = batchSize == 1 ? BinaryTransferCodec.encodeTransfer(transfers.get(0))
+							: BinaryTransferCodec.encodeTransfers(transfers);
+				}
+			}
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			context.close();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Client {
+
+		int next;
+
+		final byte[] buffer = new byte[8192];
+	}
+
+	@Benchmark
+	public void decodeJson(Payloads payloads, Blackhole blackhole) throws IOException {
+		if (payloads.batchSize == 1) {
+			AccountTransfer transfer = payloads.objectMapper.readValue(payloads.json, AccountTransfer.class);
+			blackhole.consume(payloads.validator.validate(transfer).isEmpty());
+			blackhole.consume(transfer);
+		} else {
+			List<AccountTransfer> transfers = payloads.objectMapper.readValue(payloads.json, TRANSFER_LIST);
+			for (AccountTransfer transfer : transfers) {
+				blackhole.consume(payloads.validator.validate(transfer).isEmpty());
+			}
+			blackhole.consume(transfers);
+		}
+	}
+
+	@Benchmark
+	public Object decodeBinary(Payloads payloads) {
+		return payloads.batchSize == 1 ? BinaryTransferCodec.decodeTransfer(payloads.binary)
+				: BinaryTransferCodec.decodeTransfers(payloads.binary);
+	}
+
+	@Benchmark
+	public int http(Server server, Client client) throws IOException {
+		byte[] body = server.bodies[client.next++ & (server.bodies.length - 1)];
+		HttpURLConnection connection = (HttpURLConnection) server.url.openConnection();
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		connection.setFixedLengthStreamingMode(body.length);
+		connection.setRequestProperty("Content-Type", server.contentType);
+		connection.setRequestProperty("Accept", server.contentType);
+		try (OutputStream out = connection.getOutputStream()) {
+			out.write(body);
+		}
+		// reading the response to the end lets HttpURLConnection keep the connection alive for the next request
+		int status = connection.getResponseCode();
+		InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+		int length = 0;
+		if (in != null) {
+			try {
+				int n;
+				while ((n = in.read(client.buffer)) >= 0) {
+					length += n;
+				}
+			} finally {
+				in.close();
+			}
+		}
+		if (status != 200) {
+			throw new IllegalStateException("Transfer request answered " + status);
+		}
+		return length;
+	}
+
+	private static List<AccountTransfer> transfers(SplittableRandom random, int count) {
+		List<AccountTransfer> transfers = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			AccountTransfer transfer = new AccountTransfer();
+			int from = random.nextInt(ACCOUNTS);
+			transfer.setAccountFrom("Id-" + from);
+			transfer.setAccountTo("Id-" + (from + 1 + random.nextInt(ACCOUNTS - 1)) % ACCOUNTS);
+			transfer.setTransferAmount(new BigDecimal("0.01"));
+			transfers.add(transfer);
+		}
+		return transfers;
+	}
+}
@@ -0,0 +1,176 @@
+package com.dws.challenge.load;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import com.dws.challenge.domain.TransferLeg;
+import com.dws.challenge.domain.TransferResult;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/*
+ * A running service reached over its JSON API, for capacity runs against a
+ * real deployment. Every answer, errors included, carries the transfer
+ * result's message, which is mapped back to the result. A single transfer
+ * that gets no answer is retried once under the same Idempotency-Key, so it
+ * is applied at most once and its outcome is usually still known; a
+ * multi-leg transfer has no key and is reported unknown.
+ */
+public class HttpTransferTarget implements TransferTarget {
+
+	private static final int TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(10);
+
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	private final String baseUrl;
+
+	public HttpTransferTarget(String baseUrl) {
+		this.baseUrl = (baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl)
+				+ "/v1/accounts";
+	}
+
+	@Override
+	public void createAccount(String accountId, BigDecimal balance) {
+		ObjectNode account = mapper.createObjectNode().put("accountId", accountId).put("balance", balance);
+		try {
+			int status = post("", account, null).status;
+			if (status != HttpURLConnection.HTTP_CREATED) {
+				throw new IllegalStateException("Creating " + accountId + " answered " + status);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public TransferResult transfer(String accountFrom, String accountTo, BigDecimal amount) {
+		ObjectNode transfer = mapper.createObjectNode().put("accountFrom", accountFrom).put("accountTo", accountTo)
+				.put("transferAmount", amount);
+		String idempotencyKey = UUID.randomUUID().toString();
+		for (int attempt = 0; attempt < 2; attempt++) {
+			try {
+				return result(post("/balanceTransfer", transfer, idempotencyKey));
+			} catch (IOException e) {
+				// retried below with the same key
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public TransferResult multiLegTransfer(String accountFrom, List<TransferLeg> legs) {
+		ObjectNode transfer = mapper.createObjectNode().put("accountFrom", accountFrom);
+		ArrayNode array = transfer.putArray("legs");
+		for (TransferLeg leg : legs) {
+			array.addObject().put("accountTo", leg.getAccountTo()).put("transferAmount", leg.getTransferAmount());
+		}
+		try {
+			return result(post("/multiLegTransfer", transfer, null));
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	@Override
+	public BigDecimal balance(String accountId) {
+		try {
+			HttpURLConnection connection = open("/" + URLEncoder.encode(accountId, "UTF-8"));
+			Response response = read(connection);
+			if (response.status != HttpURLConnection.HTTP_OK) {
+				throw new IllegalStateException("Reading " + accountId + " answered " + response.status);
+			}
+			// an unknown account is a 200 without a body
+			return response.body.length == 0 ? null : mapper.readTree(response.body).get("balance").decimalValue();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void close() {
+	}
+
+	private TransferResult result(Response response) throws IOException {
+		if (response.status == 429) {
+			return TransferResult.RATE_LIMITED;
+		}
+		JsonNode status = response.body.length == 0 ? null : mapper.readTree(response.body).get("status");
+		if (status != null) {
+			for (TransferResult result : TransferResult.values()) {
+				if (result.getMessage().equals(status.asText())) {
+					return result;
+				}
+			}
+		}
+		// answered, but not with a transfer result, so nothing was moved
+		return TransferResult.INVALID;
+	}
+
+	private Response post(String path, JsonNode body, String idempotencyKey) throws IOException {
+		HttpURLConnection connection = open(path);
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		connection.setRequestProperty("Content-Type", "application/json");
+		if (idempotencyKey != null) {
+			connection.setRequestProperty("Idempotency-Key", idempotencyKey);
+		}
+		try (OutputStream out = connection.getOutputStream()) {
+			out.write(mapper.writeValueAsBytes(body));
+		}
+		return read(connection);
+	}
+
+	private HttpURLConnection open(String path) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+		connection.setConnectTimeout(TIMEOUT_MILLIS);
+		connection.setReadTimeout(TIMEOUT_MILLIS);
+		connection.setRequestProperty("Accept", "application/json");
+		return connection;
+	}
+
+	// reads the body through to the end, errors included, so the connection is kept alive for reuse
+	private static Response read(HttpURLConnection connection) throws IOException {
+		int status = connection.getResponseCode();
+		InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+		byte[] body = new byte[0];
+		if (in != null) {
+			try (InputStream stream = in) {
+				byte[] buffer = new byte[1024];
+				int length = 0;
+				int read;
+				while ((read = stream.read(buffer, length, buffer.length - length)) >= 0) {
+					length += read;
+					if (length == buffer.length) {
+						buffer = Arrays.copyOf(buffer, buffer.length * 2);
+					}
+				}
+				body = Arrays.copyOf(buffer, length);
+			}
+		}
+		return new Response(status, body);
+	}
+
+	private static final class Response {
+
+		private final int status;
+
+		private final byte[] body;
+
+		private Response(int status, byte[] body) {
+			this.status = status;
+			this.body = body;
+		}
+	}
+}
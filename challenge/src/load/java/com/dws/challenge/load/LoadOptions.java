@@ -0,0 +1,178 @@
+package com.dws.challenge.load;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Settings for one load run, read from --name=value arguments. threads may
+ * list several levels, comma separated, to sweep concurrency for capacity
+ * planning; each level gets a fresh set of accounts.
+ */
+public final class LoadOptions {
+
+	/** repository type to drive in process, or an http:// base URL of a running service */
+	String target = "in-memory";
+
+	List<Integer> threads = listOf(8);
+
+	int accounts = 1000;
+
+	/** Zipf exponent of the account choice, 0 for uniform, around 1 for a few very hot accounts */
+	double skew = 0.99;
+
+	/** measured run length, ignored when operations is set */
+	long durationMillis = TimeUnit.SECONDS.toMillis(30);
+
+	long warmupMillis = TimeUnit.SECONDS.toMillis(5);
+
+	/** transfers per thread, for a fixed amount of work instead of a fixed time */
+	long operations;
+
+	/** total transfers per second to offer, paced per thread; 0 runs closed loop, as fast as answered */
+	double rate;
+
+	BigDecimal openingBalance = new BigDecimal("1000.00");
+
+	/** largest amount moved by one transfer, amounts are uniform in 0.01..maxAmount */
+	BigDecimal maxAmount = new BigDecimal("10.00");
+
+	/** share of transfers sent as multi-leg transfers */
+	double multiLegRatio = 0.1;
+
+	int maxLegs = 5;
+
+	/** how often balances are sampled for negatives while running, 0 for only at the end */
+	long checkIntervalMillis = 1000;
+
+	long seed = 42;
+
+	/** fail the run below this many transfers per second, 0 for no gate */
+	double minThroughput;
+
+	/** fail the run when the 99th percentile latency is above this, 0 for no gate */
+	double maxP99Millis;
+
+	/** directory to write each run's percentile distribution to, as .hgrm */
+	String histogramDir;
+
+	public static LoadOptions parse(String... args) {
+		Map<String, String> values = new LinkedHashMap<>();
+		for (String arg : args) {
+			if (!arg.startsWith("--") || arg.indexOf('=') < 0) {
+				throw new IllegalArgumentException("Expected --name=value but got " + arg);
+			}
+			values.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+		}
+		LoadOptions options = new LoadOptions();
+		for (Map.Entry<String, String> entry : values.entrySet()) {
+			options.set(entry.getKey(), entry.getValue());
+		}
+		options.validate();
+		return options;
+	}
+
+	private void set(String name, String value) {
+		switch (name) {
+		case "target":
+			target = value;
+			break;
+		case "threads":
+			threads = new ArrayList<>();
+			for (String level : value.split(",")) {
+				threads.add(Integer.parseInt(level.trim()));
+			}
+			break;
+		case "accounts":
+			accounts = Integer.parseInt(value);
+			break;
+		case "skew":
+			skew = Double.parseDouble(value);
+			break;
+		case "duration":
+			durationMillis = parseMillis(value);
+			break;
+		case "warmup":
+			warmupMillis = parseMillis(value);
+			break;
+		case "operations":
+			operations = Long.parseLong(value);
+			break;
+		case "rate":
+			rate = Double.parseDouble(value);
+			break;
+		case "opening-balance":
+			openingBalance = new BigDecimal(value);
+			break;
+		case "max-amount":
+			maxAmount = new BigDecimal(value);
+			break;
+		case "multi-leg-ratio":
+			multiLegRatio = Double.parseDouble(value);
+			break;
+		case "max-legs":
+			maxLegs = Integer.parseInt(value);
+			break;
+		case "check-interval":
+			checkIntervalMillis = parseMillis(value);
+			break;
+		case "seed":
+			seed = Long.parseLong(value);
+			break;
+		case "min-throughput":
+			minThroughput = Double.parseDouble(value);
+			break;
+		case "max-p99-ms":
+			maxP99Millis = Double.parseDouble(value);
+			break;
+		case "histogram-dir":
+			histogramDir = value;
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown option --" + name);
+		}
+	}
+
+	private void validate() {
+		if (accounts < 2) {
+			throw new IllegalArgumentException("--accounts must be at least 2");
+		}
+		for (int level : threads) {
+			if (level < 1) {
+				throw new IllegalArgumentException("--threads must be positive");
+			}
+		}
+		if (skew < 0 || rate < 0 || operations < 0 || multiLegRatio < 0 || multiLegRatio > 1 || maxLegs < 1) {
+			throw new IllegalArgumentException("--skew, --rate, --operations and --max-legs must not be negative,"
+					+ " --multi-leg-ratio must be within 0..1");
+		}
+		// amounts and balances are moved as whole cents
+		if (maxAmount.scale() > 2 || openingBalance.scale() > 2 || maxAmount.signum() <= 0
+				|| openingBalance.signum() < 0) {
+			throw new IllegalArgumentException("--max-amount and --opening-balance must be cents, not negative");
+		}
+	}
+
+	// 30s, 500ms, 2m, or plain milliseconds
+	private static long parseMillis(String value) {
+		if (value.endsWith("ms")) {
+			return Long.parseLong(value.substring(0, value.length() - 2));
+		}
+		if (value.endsWith("s")) {
+			return TimeUnit.SECONDS.toMillis(Long.parseLong(value.substring(0, value.length() - 1)));
+		}
+		if (value.endsWith("m")) {
+			return TimeUnit.MINUTES.toMillis(Long.parseLong(value.substring(0, value.length() - 1)));
+		}
+		return Long.parseLong(value);
+	}
+
+	private static List<Integer> listOf(int level) {
+		List<Integer> levels = new ArrayList<>();
+		levels.add(level);
+		return levels;
+	}
+}
@@ -0,0 +1,142 @@
+package com.dws.challenge.load;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+
+import com.dws.challenge.domain.TransferResult;
+
+/*
+ * What one run at one concurrency level did: transfers answered per result,
+ * their latency, and every broken invariant found while running or after.
+ */
+public class LoadReport {
+
+	private static final double[] PERCENTILES = { 50, 90, 99, 99.9, 99.99 };
+
+	private final String label;
+
+	private final int threads;
+
+	private final long elapsedNanos;
+
+	private final long[] results;
+
+	private final long unknown;
+
+	private final Histogram latency;
+
+	private final List<String> violations = new ArrayList<>();
+
+	private final List<String> checks = new ArrayList<>();
+
+	LoadReport(String label, int threads, long elapsedNanos, long[] results, long unknown, Histogram latency) {
+		this.label = label;
+		this.threads = threads;
+		this.elapsedNanos = elapsedNanos;
+		this.results = results;
+		this.unknown = unknown;
+		this.latency = latency;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/** transfers answered or not, measured phase only */
+	public long getTransfers() {
+		long transfers = unknown;
+		for (long count : results) {
+			transfers += count;
+		}
+		return transfers;
+	}
+
+	public long getCount(TransferResult result) {
+		return results[result.ordinal()];
+	}
+
+	public long getUnknown() {
+		return unknown;
+	}
+
+	public double getThroughput() {
+		return getTransfers() * (double) TimeUnit.SECONDS.toNanos(1) / Math.max(1, elapsedNanos);
+	}
+
+	/** latency at a percentile, in microseconds */
+	public double getLatencyMicros(double percentile) {
+		return latency.getValueAtPercentile(percentile) / 1000.0;
+	}
+
+	public Histogram getLatency() {
+		return latency;
+	}
+
+	public List<String> getViolations() {
+		return Collections.unmodifiableList(violations);
+	}
+
+	public boolean isConsistent() {
+		return violations.isEmpty();
+	}
+
+	void violation(String violation) {
+		violations.add(violation);
+	}
+
+	void passed(String check) {
+		checks.add("ok          " + check);
+	}
+
+	void skipped(String check) {
+		checks.add("skipped     " + check);
+	}
+
+	void print(PrintStream out) {
+		out.printf("%s, %d threads%n", label, threads);
+		out.printf("  transfers   %d in %.2f s, %.1f/s%n", getTransfers(), elapsedNanos / 1e9, getThroughput());
+		StringBuilder counts = new StringBuilder();
+		for (TransferResult result : TransferResult.values()) {
+			if (results[result.ordinal()] > 0) {
+				counts.append(counts.length() == 0 ? "" : ", ").append(result).append(' ')
+						.append(results[result.ordinal()]);
+			}
+		}
+		if (unknown > 0) {
+			counts.append(counts.length() == 0 ? "" : ", ").append("UNKNOWN ").append(unknown);
+		}
+		out.printf("  results     %s%n", counts);
+		StringBuilder percentiles = new StringBuilder();
+		for (double percentile : PERCENTILES) {
+			percentiles.append(String.format("p%s %.1f  ", format(percentile), getLatencyMicros(percentile)));
+		}
+		out.printf("  latency us  %smax %.1f%n", percentiles, latency.getMaxValue() / 1000.0);
+		for (String check : checks) {
+			out.printf("  %s%n", check);
+		}
+		for (String violation : violations) {
+			out.printf("  VIOLATION   %s%n", violation);
+		}
+	}
+
+	// in milliseconds, the unit HdrHistogram's plotter expects
+	void writeHistogram(String directory) throws FileNotFoundException {
+		File dir = new File(directory);
+		dir.mkdirs();
+		File file = new File(dir, label.replaceAll("[^A-Za-z0-9.-]", "_") + "-" + threads + "t.hgrm");
+		try (PrintStream out = new PrintStream(file)) {
+			latency.outputPercentileDistribution(out, 1_000_000.0);
+		}
+	}
+
+	private static String format(double percentile) {
+		return percentile == Math.rint(percentile) ? String.valueOf((long) percentile) : String.valueOf(percentile);
+	}
+}
@@ -0,0 +1,77 @@
+package com.dws.challenge.load;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.TransferLeg;
+import com.dws.challenge.domain.TransferResult;
+import com.dws.challenge.journal.TransferJournal;
+import com.dws.challenge.outbox.TransferOutbox;
+import com.dws.challenge.repository.AccountsRepository;
+import com.dws.challenge.repository.AccountsRepositoryFixedPoint;
+import com.dws.challenge.repository.AccountsRepositoryInMemory;
+import com.dws.challenge.repository.AccountsRepositoryOffHeap;
+import com.dws.challenge.repository.AccountsRepositorySharded;
+import com.dws.challenge.repository.TransferHistory;
+import com.dws.challenge.service.AccountsService;
+
+/*
+ * AccountsService in this process over one of the repositories, without the
+ * web layer and with notifications dropped, so the run measures the
+ * service's own locking.
+ */
+public class ServiceTransferTarget implements TransferTarget {
+
+	private final AccountsService accountsService;
+
+	public ServiceTransferTarget(AccountsRepository repository) {
+		this.accountsService = new AccountsService(repository, (account, description) -> {
+		}, (TransferOutbox) null, null, null, null);
+	}
+
+	public static ServiceTransferTarget of(String repository, int accountCount) {
+		switch (repository) {
+		case "in-memory":
+			return new ServiceTransferTarget(new AccountsRepositoryInMemory(1024, (TransferJournal) null, null, null,
+					null, null, TransferHistory.DEFAULT_MAX_ENTRIES_PER_ACCOUNT));
+		case "fixed-point":
+			return new ServiceTransferTarget(new AccountsRepositoryFixedPoint(2));
+		case "off-heap":
+			return new ServiceTransferTarget(new AccountsRepositoryOffHeap(2, accountCount, 46, 1024));
+		case "sharded":
+			return new ServiceTransferTarget(
+					new AccountsRepositorySharded(Runtime.getRuntime().availableProcessors(), 65536));
+		default:
+			throw new IllegalArgumentException("Unknown repository " + repository);
+		}
+	}
+
+	@Override
+	public void createAccount(String accountId, BigDecimal balance) {
+		accountsService.createAccount(new Account(accountId, balance));
+	}
+
+	@Override
+	public TransferResult transfer(String accountFrom, String accountTo, BigDecimal amount) {
+		return accountsService.performBalanceTransfer(accountFrom, accountTo, amount);
+	}
+
+	@Override
+	public TransferResult multiLegTransfer(String accountFrom, List<TransferLeg> legs) {
+		return accountsService.performMultiLegTransfer(accountFrom, legs);
+	}
+
+	@Override
+	public BigDecimal balance(String accountId) {
+		Account account = accountsService.getAccount(accountId);
+		return account == null ? null : account.getBalance();
+	}
+
+	@Override
+	public void close() {
+		if (accountsService.getAccountsRepository() instanceof AccountsRepositorySharded) {
+			((AccountsRepositorySharded) accountsService.getAccountsRepository()).shutdown();
+		}
+	}
+}
@@ -0,0 +1,47 @@
+package com.dws.challenge.load;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/*
+ * Picks account indexes from a Zipf distribution: index i is chosen in
+ * proportion to 1 / (i + 1)^skew, so skew 0 is uniform and around 1 a handful
+ * of low indexes, the hot merchant accounts, take most of the traffic. The
+ * cumulative table is shared between threads, each of which brings its own
+ * seeded random so a run's sequence of transfers is repeatable.
+ */
+final class SkewedAccountSampler {
+
+	private final double[] cumulative;
+
+	SkewedAccountSampler(int accountCount, double skew) {
+		this.cumulative = new double[accountCount];
+		double sum = 0;
+		for (int i = 0; i < accountCount; i++) {
+			sum += skew == 0 ? 1 : 1.0 / Math.pow(i + 1, skew);
+			cumulative[i] = sum;
+		}
+		for (int i = 0; i < accountCount; i++) {
+			cumulative[i] /= sum;
+		}
+	}
+
+	int next(SplittableRandom random) {
+		int index = Arrays.binarySearch(cumulative, random.nextDouble());
+		return Math.min(index < 0 ? -index - 1 : index, cumulative.length - 1);
+	}
+
+	// a second, different account, so no transfer is a no-op to itself
+	int nextOther(SplittableRandom random, int account) {
+		int index = next(random);
+		while (index == account) {
+			index = next(random);
+		}
+		return index;
+	}
+
+	/** share of picks landing on the single hottest account */
+	double hottestShare() {
+		return cumulative[0];
+	}
+}
@@ -0,0 +1,384 @@
+package com.dws.challenge.load;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+import org.HdrHistogram.Histogram;
+
+import com.dws.challenge.domain.TransferLeg;
+import com.dws.challenge.domain.TransferResult;
+
+/*
+ * Drives concurrent transfers at AccountsService, or a running service over
+ * HTTP, and checks the accounts afterwards: no money created or lost, no
+ * balance below zero, and, when every transfer was answered, every balance
+ * exactly what the transfers answered OK add up to. That last check is what
+ * catches a lost update which happens to conserve the total. Balances are
+ * also sampled for negatives while the load runs.
+ *
+ * Each thread draws its transfers from its own seeded random, so with
+ * --operations and --warmup=0 a run asks for the same transfers every time.
+ * Latency is measured from when a transfer was due: closed loop, each thread
+ * sends its next transfer as soon as the last is answered; with --rate the
+ * threads pace themselves and a late answer also counts the wait it caused.
+ *
+ * Run with: ./gradlew loadTest -PloadArgs="--target=sharded --threads=1,4,16 --skew=1.2 --duration=60s"
+ * The process exits with 1 when an invariant or a --min-throughput or
+ * --max-p99-ms gate fails, so the task can gate a build.
+ */
+public final class TransferLoadGenerator {
+
+	private static final long HIGHEST_LATENCY_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+	private static final int MAX_LISTED_MISMATCHES = 10;
+
+	private final LoadOptions options;
+
+	private final Supplier<TransferTarget> targets;
+
+	private final PrintStream out;
+
+	public TransferLoadGenerator(LoadOptions options, PrintStream out) {
+		this(options, options.target.startsWith("http") ? () -> new HttpTransferTarget(options.target)
+				: () -> ServiceTransferTarget.of(options.target, options.accounts), out);
+	}
+
+	public TransferLoadGenerator(LoadOptions options, Supplier<TransferTarget> targets, PrintStream out) {
+		this.options = options;
+		this.targets = targets;
+		this.out = out;
+	}
+
+	public static void main(String[] args) throws Exception {
+		List<LoadReport> reports = new TransferLoadGenerator(LoadOptions.parse(args), System.out).run();
+		for (LoadReport report : reports) {
+			if (!report.isConsistent()) {
+				System.exit(1);
+			}
+		}
+	}
+
+	/** one report per concurrency level, in the order given */
+	public List<LoadReport> run() throws InterruptedException, FileNotFoundException {
+		List<LoadReport> reports = new ArrayList<>();
+		for (int threads : options.threads) {
+			try (TransferTarget target = targets.get()) {
+				LoadReport report = run(target, threads);
+				report.print(out);
+				if (options.histogramDir != null) {
+					report.writeHistogram(options.histogramDir);
+				}
+				reports.add(report);
+			}
+		}
+		if (reports.size() > 1) {
+			printSummary(reports);
+		}
+		return reports;
+	}
+
+	private LoadReport run(TransferTarget target, int threads) throws InterruptedException {
+		// ids unique to the run, so runs against a shared service do not meet each other's accounts
+		String prefix = "Load-" + Long.toString(System.nanoTime(), 36) + "-";
+		String[] accountIds = new String[options.accounts];
+		for (int i = 0; i < accountIds.length; i++) {
+			accountIds[i] = prefix + i;
+			target.createAccount(accountIds[i], options.openingBalance);
+		}
+
+		SkewedAccountSampler sampler = new SkewedAccountSampler(options.accounts, options.skew);
+		Phase phase = new Phase();
+		phase.start = System.nanoTime();
+		// without a warmup every transfer is measured, from the first
+		phase.measuring = options.warmupMillis == 0;
+		long measureStart = phase.start;
+		CountDownLatch done = new CountDownLatch(threads);
+		List<Worker> workers = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			Worker worker = new Worker(target, accountIds, sampler, phase, t, threads, done);
+			workers.add(worker);
+			Thread thread = new Thread(worker, "load-" + t);
+			thread.setDaemon(true);
+			thread.start();
+		}
+		Queue<String> negatives = new ConcurrentLinkedQueue<>();
+		Thread checker = null;
+		if (options.checkIntervalMillis > 0) {
+			checker = new Thread(() -> sampleBalances(target, accountIds, done, negatives), "load-checker");
+			checker.setDaemon(true);
+			checker.start();
+		}
+
+		if (options.warmupMillis > 0) {
+			done.await(options.warmupMillis, TimeUnit.MILLISECONDS);
+			measureStart = System.nanoTime();
+			phase.measuring = true;
+		}
+		if (options.operations == 0) {
+			done.await(options.durationMillis, TimeUnit.MILLISECONDS);
+			phase.stopped = true;
+		}
+		done.await();
+		long elapsed = System.nanoTime() - measureStart;
+		if (checker != null) {
+			checker.join();
+		}
+
+		long[] results = new long[TransferResult.values().length];
+		long unknown = 0;
+		long[] ledger = new long[options.accounts];
+		Histogram latency = new Histogram(HIGHEST_LATENCY_NANOS, 3);
+		String error = null;
+		for (Worker worker : workers) {
+			for (int i = 0; i < results.length; i++) {
+				results[i] += worker.results[i];
+			}
+			unknown += worker.unknown;
+			for (int i = 0; i < ledger.length; i++) {
+				ledger[i] += worker.ledger[i];
+			}
+			latency.add(worker.latency);
+			error = error == null ? worker.error : error;
+		}
+
+		LoadReport report = new LoadReport(options.target, threads, elapsed, results, unknown, latency);
+		for (String negative : negatives) {
+			report.violation(negative);
+		}
+		if (error != null) {
+			report.violation("transfers threw, first with " + error);
+		}
+		check(report, target, accountIds, ledger, workers);
+		gate(report);
+		return report;
+	}
+
+	private void check(LoadReport report, TransferTarget target, String[] accountIds, long[] ledger,
+			List<Worker> workers) {
+		long openingCents = cents(options.openingBalance);
+		BigDecimal expectedTotal = options.openingBalance.multiply(BigDecimal.valueOf(accountIds.length));
+		BigDecimal total = BigDecimal.ZERO;
+		boolean ledgerKnown = workers.stream().allMatch(worker -> worker.unknown == 0 && worker.warmupUnknown == 0);
+		int negatives = 0;
+		int mismatches = 0;
+		for (int i = 0; i < accountIds.length; i++) {
+			BigDecimal balance = target.balance(accountIds[i]);
+			if (balance == null) {
+				report.violation(accountIds[i] + " is missing");
+				continue;
+			}
+			total = total.add(balance);
+			if (balance.signum() < 0) {
+				negatives++;
+				report.violation(accountIds[i] + " ended at " + balance);
+			}
+			BigDecimal expected = BigDecimal.valueOf(openingCents + ledger[i], 2);
+			if (ledgerKnown && balance.compareTo(expected) != 0 && mismatches++ < MAX_LISTED_MISMATCHES) {
+				report.violation(accountIds[i] + " ended at " + balance + " but its OK transfers add up to " + expected);
+			}
+		}
+
+		if (total.compareTo(expectedTotal) == 0) {
+			report.passed("money conserved, " + total + " over " + accountIds.length + " accounts");
+		} else {
+			report.violation("money not conserved, " + total + " over " + accountIds.length + " accounts instead of "
+					+ expectedTotal + ", off by " + total.subtract(expectedTotal));
+		}
+		if (negatives == 0) {
+			report.passed("no balance below zero");
+		}
+		if (!ledgerKnown) {
+			report.skipped("matching balances to transfers, some transfers went unanswered");
+		} else if (mismatches == 0) {
+			report.passed("every balance matches the transfers answered OK");
+		} else if (mismatches > MAX_LISTED_MISMATCHES) {
+			report.violation((mismatches - MAX_LISTED_MISMATCHES) + " more accounts off their OK transfers");
+		}
+	}
+
+	private void gate(LoadReport report) {
+		if (options.minThroughput > 0 && report.getThroughput() < options.minThroughput) {
+			report.violation(String.format("throughput %.1f/s below --min-throughput=%s", report.getThroughput(),
+					options.minThroughput));
+		}
+		double p99Millis = report.getLatencyMicros(99) / 1000;
+		if (options.maxP99Millis > 0 && p99Millis > options.maxP99Millis) {
+			report.violation(String.format("p99 latency %.3f ms above --max-p99-ms=%s", p99Millis,
+					options.maxP99Millis));
+		}
+	}
+
+	// while running only a negative balance is a violation, a total read across accounts is not a snapshot
+	private void sampleBalances(TransferTarget target, String[] accountIds, CountDownLatch done,
+			Queue<String> negatives) {
+		try {
+			while (!done.await(options.checkIntervalMillis, TimeUnit.MILLISECONDS)) {
+				for (String accountId : accountIds) {
+					BigDecimal balance = target.balance(accountId);
+					if (balance != null && balance.signum() < 0) {
+						negatives.add(accountId + " was at " + balance + " while running");
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (RuntimeException e) {
+			negatives.add("reading balances while running failed with " + e);
+		}
+	}
+
+	private void printSummary(List<LoadReport> reports) {
+		out.printf("%n%8s %14s %10s %10s %10s %10s %s%n", "threads", "transfers/s", "p50 us", "p99 us", "p99.9 us",
+				"max us", "violations");
+		for (LoadReport report : reports) {
+			out.printf("%8d %14.1f %10.1f %10.1f %10.1f %10.1f %d%n", report.getThreads(), report.getThroughput(),
+					report.getLatencyMicros(50), report.getLatencyMicros(99), report.getLatencyMicros(99.9),
+					report.getLatency().getMaxValue() / 1000.0, report.getViolations().size());
+		}
+	}
+
+	private static long cents(BigDecimal amount) {
+		return amount.movePointRight(2).longValueExact();
+	}
+
+	// set by the driving thread, read by every worker
+	private static final class Phase {
+
+		volatile long start;
+
+		volatile boolean measuring;
+
+		volatile boolean stopped;
+	}
+
+	/*
+	 * One load thread. Its counts, ledger and histogram are its own until the
+	 * driving thread reads them after the thread has counted down.
+	 */
+	private final class Worker implements Runnable {
+
+		private final TransferTarget target;
+
+		private final String[] accountIds;
+
+		private final SkewedAccountSampler sampler;
+
+		private final Phase phase;
+
+		private final SplittableRandom random;
+
+		private final long intervalNanos;
+
+		private final long maxCents;
+
+		private final CountDownLatch done;
+
+		private final long[] results = new long[TransferResult.values().length];
+
+		/** cents each account gained, or lost, through this thread's OK transfers */
+		private final long[] ledger;
+
+		private final Histogram latency = new Histogram(HIGHEST_LATENCY_NANOS, 3);
+
+		private long unknown;
+
+		private long warmupUnknown;
+
+		private String error;
+
+		Worker(TransferTarget target, String[] accountIds, SkewedAccountSampler sampler, Phase phase, int index,
+				int threads, CountDownLatch done) {
+			this.target = target;
+			this.accountIds = accountIds;
+			this.sampler = sampler;
+			this.phase = phase;
+			this.random = new SplittableRandom(options.seed * 1_000_003 + index);
+			this.intervalNanos = options.rate == 0 ? 0 : (long) (TimeUnit.SECONDS.toNanos(1) * threads / options.rate);
+			this.maxCents = cents(options.maxAmount);
+			this.ledger = new long[accountIds.length];
+			this.done = done;
+		}
+
+		@Override
+		public void run() {
+			try {
+				long due = phase.start;
+				long measured = 0;
+				while (!phase.stopped && (options.operations == 0 || measured < options.operations)) {
+					if (intervalNanos > 0) {
+						due += intervalNanos;
+						long wait;
+						while ((wait = due - System.nanoTime()) > 0) {
+							LockSupport.parkNanos(wait);
+						}
+					} else {
+						due = System.nanoTime();
+					}
+					boolean measuring = phase.measuring;
+					TransferResult result = transfer();
+					long end = System.nanoTime();
+					if (measuring) {
+						measured++;
+						latency.recordValue(Math.min(end - due, HIGHEST_LATENCY_NANOS));
+						if (result == null) {
+							unknown++;
+						} else {
+							results[result.ordinal()]++;
+						}
+					} else if (result == null) {
+						warmupUnknown++;
+					}
+				}
+			} finally {
+				done.countDown();
+			}
+		}
+
+		private TransferResult transfer() {
+			int from = sampler.next(random);
+			boolean multiLeg = options.multiLegRatio > 0 && random.nextDouble() < options.multiLegRatio;
+			int legCount = multiLeg ? 1 + random.nextInt(options.maxLegs) : 1;
+			int[] to = new int[legCount];
+			long[] amounts = new long[legCount];
+			for (int i = 0; i < legCount; i++) {
+				to[i] = sampler.nextOther(random, from);
+				amounts[i] = 1 + random.nextLong(maxCents);
+			}
+
+			TransferResult result;
+			try {
+				if (multiLeg) {
+					List<TransferLeg> legs = new ArrayList<>(legCount);
+					for (int i = 0; i < legCount; i++) {
+						legs.add(new TransferLeg(accountIds[to[i]], BigDecimal.valueOf(amounts[i], 2)));
+					}
+					result = target.multiLegTransfer(accountIds[from], legs);
+				} else {
+					result = target.transfer(accountIds[from], accountIds[to[0]], BigDecimal.valueOf(amounts[0], 2));
+				}
+			} catch (RuntimeException e) {
+				if (error == null) {
+					error = e.toString();
+				}
+				return null;
+			}
+			if (result == TransferResult.OK) {
+				for (int i = 0; i < legCount; i++) {
+					ledger[from] -= amounts[i];
+					ledger[to[i]] += amounts[i];
+				}
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package com.dws.challenge.load;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import com.dws.challenge.domain.TransferLeg;
+import com.dws.challenge.domain.TransferResult;
+
+/*
+ * What the load generator drives. Transfers answer null when their outcome
+ * is unknown, as after a timed out request, so the checker knows it cannot
+ * account for every cent exactly.
+ */
+public interface TransferTarget extends AutoCloseable {
+
+	void createAccount(String accountId, BigDecimal balance);
+
+	TransferResult transfer(String accountFrom, String accountTo, BigDecimal amount);
+
+	TransferResult multiLegTransfer(String accountFrom, List<TransferLeg> legs);
+
+	/** current balance, or null when the account is not there */
+	BigDecimal balance(String accountId);
+
+	@Override
+	void close();
+}
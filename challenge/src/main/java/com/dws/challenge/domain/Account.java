@@ -5,8 +5,10 @@ import java.math.BigDecimal;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotEmpty;
 import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import lombok.Data;
@@ -14,14 +16,22 @@ import lombok.Data;
 @Data
 public class Account {
 
+  /** longest id accepted, well inside what the journal and snapshots can record */
+  public static final int MAX_ID_LENGTH = 255;
+
   @NotNull
   @NotEmpty
+  @Size(max = MAX_ID_LENGTH)
   private final String accountId;
 
   @NotNull
   @Min(value = 0, message = "Initial balance must be positive.")
   private BigDecimal balance;
 
+  /** number of balance changes applied since creation, used to fence journal replay */
+  @JsonIgnore
+  private long version;
+
   public Account(String accountId) {
     this.accountId = accountId;
     this.balance = BigDecimal.ZERO;
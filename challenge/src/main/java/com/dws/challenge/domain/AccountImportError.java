@@ -0,0 +1,16 @@
+package com.dws.challenge.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+@Getter
+@ToString
+@AllArgsConstructor
+public class AccountImportError {
+
+	/** 1-based line of the import body, header included */
+	private final long line;
+
+	private final String message;
+}
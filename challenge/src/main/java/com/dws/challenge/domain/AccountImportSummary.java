@@ -0,0 +1,22 @@
+package com.dws.challenge.domain;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+public class AccountImportSummary {
+
+	private final long records;
+
+	private final long created;
+
+	private final long rejected;
+
+	/** the first rejected records in line order, up to accounts.import.max-errors */
+	private final List<AccountImportError> errors;
+
+	private final boolean errorsTruncated;
+}
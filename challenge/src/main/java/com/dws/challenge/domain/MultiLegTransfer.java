@@ -0,0 +1,31 @@
+package com.dws.challenge.domain;
+
+import java.util.List;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.NotNull;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+/*
+ * One debit from accountFrom paying every leg, applied all or nothing: the
+ * sender must cover the sum of the legs and every receiver must exist.
+ */
+@Getter
+@ToString
+@Setter
+@NoArgsConstructor
+public class MultiLegTransfer {
+
+	@NotNull
+	@NotEmpty
+	private String accountFrom;
+
+	@NotNull
+	@NotEmpty
+	private List<@NotNull @Valid TransferLeg> legs;
+}
@@ -0,0 +1,24 @@
+package com.dws.challenge.domain;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+@Getter
+@ToString
+@AllArgsConstructor
+public class TransferHistoryEntry {
+
+	private final long transferId;
+
+	private final Instant timestamp;
+
+	private final TransferDirection direction;
+
+	private final String counterparty;
+
+	private final BigDecimal amount;
+}
@@ -0,0 +1,16 @@
+package com.dws.challenge.domain;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+public class TransferHistoryPage {
+
+	private final List<TransferHistoryEntry> transfers;
+
+	/** pass back as cursor to continue after the last entry, null when there is nothing more */
+	private final Long nextCursor;
+}
@@ -0,0 +1,30 @@
+package com.dws.challenge.domain;
+
+import java.math.BigDecimal;
+
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Positive;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+/* One credit of a MultiLegTransfer. */
+@Getter
+@ToString
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class TransferLeg {
+
+	@NotNull
+	@NotEmpty
+	private String accountTo;
+
+	@NotNull
+	@Positive(message = "Transfer Amount is invalid")
+	private BigDecimal transferAmount;
+}
@@ -0,0 +1,27 @@
+package com.dws.challenge.domain;
+
+import lombok.Getter;
+
+@Getter
+public enum TransferResult {
+
+	OK("balance transfer processed successfully"),
+
+	INSUFFICIENT("Sender Account low balance"),
+
+	SENDER_NOT_FOUND("Sender Account Not Found"),
+
+	RECEIVER_NOT_FOUND("Receiver Account Not Found"),
+
+	INVALID("Transfer request is invalid"),
+
+	FAILED("balance transfer process failed"),
+
+	RATE_LIMITED("Transfer rate limit exceeded");
+
+	private final String message;
+
+	TransferResult(String message) {
+		this.message = message;
+	}
+}
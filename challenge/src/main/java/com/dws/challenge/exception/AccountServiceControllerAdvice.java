@@ -1,5 +1,6 @@
 package com.dws.challenge.exception;
 
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
@@ -18,7 +19,7 @@ public class AccountServiceControllerAdvice {
 	@ExceptionHandler(InsufficientBalanceException.class)
     public ResponseEntity<BalanceTransfer> insufficientBalance(InsufficientBalanceException ex,final WebRequest request) {
 		
-		log.info("insufficient balance found in source account");
+		log.debug("insufficient balance found in source account");
 		
 		BalanceTransfer balanceTransfer = new BalanceTransfer();
 		balanceTransfer.setStatus(ex.getMessage());
@@ -29,11 +30,92 @@ public class AccountServiceControllerAdvice {
 	@ExceptionHandler(AccountNotFoundException.class)
     public ResponseEntity<BalanceTransfer> accountNotFound(AccountNotFoundException ex) {
 		
-		log.info(ex.getMessage());
+		log.debug(ex.getMessage());
 		
 		BalanceTransfer balanceTransfer = new BalanceTransfer();
 		balanceTransfer.setStatus(ex.getMessage());
 		
 		return new ResponseEntity<BalanceTransfer>(balanceTransfer,HttpStatus.NOT_FOUND);
     }
+
+	@ExceptionHandler(IdempotencyKeyReuseException.class)
+    public ResponseEntity<BalanceTransfer> idempotencyKeyReuse(IdempotencyKeyReuseException ex) {
+		
+		log.info(ex.getMessage());
+		
+		BalanceTransfer balanceTransfer = new BalanceTransfer();
+		balanceTransfer.setStatus(ex.getMessage());
+		
+		return new ResponseEntity<BalanceTransfer>(balanceTransfer,HttpStatus.UNPROCESSABLE_ENTITY);
+    }
+
+	@ExceptionHandler(TransferRateLimitedException.class)
+    public ResponseEntity<BalanceTransfer> transferRateLimited(TransferRateLimitedException ex) {
+		
+		log.debug(ex.getMessage());
+		
+		BalanceTransfer balanceTransfer = new BalanceTransfer();
+		balanceTransfer.setStatus(ex.getMessage());
+		
+		// limits refill within a second at any rate worth setting
+		return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).header(HttpHeaders.RETRY_AFTER, "1")
+				.body(balanceTransfer);
+    }
+
+	@ExceptionHandler(InvalidBalanceException.class)
+    public ResponseEntity<BalanceTransfer> invalidBalance(InvalidBalanceException ex) {
+		
+		log.debug(ex.getMessage());
+		
+		BalanceTransfer balanceTransfer = new BalanceTransfer();
+		balanceTransfer.setStatus(ex.getMessage());
+		
+		return new ResponseEntity<BalanceTransfer>(balanceTransfer,HttpStatus.BAD_REQUEST);
+    }
+
+	@ExceptionHandler(InvalidAccountIdException.class)
+    public ResponseEntity<BalanceTransfer> invalidAccountId(InvalidAccountIdException ex) {
+		
+		log.debug(ex.getMessage());
+		
+		BalanceTransfer balanceTransfer = new BalanceTransfer();
+		balanceTransfer.setStatus(ex.getMessage());
+		
+		return new ResponseEntity<BalanceTransfer>(balanceTransfer,HttpStatus.BAD_REQUEST);
+    }
+
+	@ExceptionHandler(AccountStoreFullException.class)
+    public ResponseEntity<BalanceTransfer> accountStoreFull(AccountStoreFullException ex) {
+		
+		log.error(ex.getMessage());
+		
+		BalanceTransfer balanceTransfer = new BalanceTransfer();
+		balanceTransfer.setStatus(ex.getMessage());
+		
+		// the store is sized at startup, so retrying will not help until it is reconfigured
+		return new ResponseEntity<BalanceTransfer>(balanceTransfer,HttpStatus.INSUFFICIENT_STORAGE);
+    }
+
+	@ExceptionHandler(TransferOutcomeUnknownException.class)
+    public ResponseEntity<BalanceTransfer> transferOutcomeUnknown(TransferOutcomeUnknownException ex) {
+		
+		log.error(ex.getMessage(), ex.getCause());
+		
+		BalanceTransfer balanceTransfer = new BalanceTransfer();
+		balanceTransfer.setStatus(ex.getMessage());
+		
+		return new ResponseEntity<BalanceTransfer>(balanceTransfer,HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
+	@ExceptionHandler(WritesSuspendedException.class)
+    public ResponseEntity<BalanceTransfer> writesSuspended(WritesSuspendedException ex) {
+		
+		log.debug(ex.getMessage());
+		
+		BalanceTransfer balanceTransfer = new BalanceTransfer();
+		balanceTransfer.setStatus(ex.getMessage());
+		
+		// nothing was applied; the journal is trusted again only once a restart has replayed it
+		return new ResponseEntity<BalanceTransfer>(balanceTransfer,HttpStatus.SERVICE_UNAVAILABLE);
+    }
 }
@@ -0,0 +1,10 @@
+package com.dws.challenge.exception;
+
+public class AccountStoreFullException extends RuntimeException {
+
+	private static final long serialVersionUID = 6106218437519908732L;
+
+	public AccountStoreFullException(String message) {
+		super(message);
+	}
+}
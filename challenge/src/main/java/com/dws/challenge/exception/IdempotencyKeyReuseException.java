@@ -0,0 +1,10 @@
+package com.dws.challenge.exception;
+
+public class IdempotencyKeyReuseException extends RuntimeException {
+
+	private static final long serialVersionUID = 2805390466472104817L;
+
+	public IdempotencyKeyReuseException(String message) {
+		super(message);
+	}
+}
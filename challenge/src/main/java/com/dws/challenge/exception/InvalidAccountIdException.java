@@ -0,0 +1,10 @@
+package com.dws.challenge.exception;
+
+public class InvalidAccountIdException extends RuntimeException {
+
+	private static final long serialVersionUID = -2296453870412251984L;
+
+	public InvalidAccountIdException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,10 @@
+package com.dws.challenge.exception;
+
+public class InvalidBalanceException extends RuntimeException {
+
+	private static final long serialVersionUID = 4872215098357230411L;
+
+	public InvalidBalanceException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,15 @@
+package com.dws.challenge.exception;
+
+/*
+ * A change was applied in memory but its journal or outbox records could not
+ * be made durable, so whether it survives a restart is unknown. The client
+ * must not take it as failed and retry blindly.
+ */
+public class TransferOutcomeUnknownException extends RuntimeException {
+
+	private static final long serialVersionUID = -2931570457180915724L;
+
+	public TransferOutcomeUnknownException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
@@ -0,0 +1,10 @@
+package com.dws.challenge.exception;
+
+public class TransferRateLimitedException extends RuntimeException {
+
+	private static final long serialVersionUID = -6190722530168315243L;
+
+	public TransferRateLimitedException(String message) {
+		super(message);
+	}
+}
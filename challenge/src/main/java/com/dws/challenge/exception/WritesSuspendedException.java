@@ -0,0 +1,10 @@
+package com.dws.challenge.exception;
+
+public class WritesSuspendedException extends RuntimeException {
+
+	private static final long serialVersionUID = 4410962585513271760L;
+
+	public WritesSuspendedException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
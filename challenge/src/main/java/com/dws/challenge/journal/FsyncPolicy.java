@@ -0,0 +1,16 @@
+package com.dws.challenge.journal;
+
+public enum FsyncPolicy {
+
+	/** force the segment after every appended record */
+	PER_WRITE,
+
+	/** force the active segment every accounts.journal.fsync-interval-ms */
+	GROUP,
+
+	/** callers wait until a shared force covers their record, see GroupCommitter */
+	GROUP_COMMIT,
+
+	/** leave write-back to the OS, force only on segment roll and shutdown */
+	OS
+}
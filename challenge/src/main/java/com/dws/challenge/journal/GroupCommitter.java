@@ -0,0 +1,208 @@
+package com.dws.challenge.journal;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+import lombok.extern.slf4j.Slf4j;
+
+/*
+ * Shares one durability call between concurrent writers. Callers append their
+ * record as usual, then park in awaitDurable; a single committer thread waits
+ * for the first caller, keeps collecting until the batch window elapses or the
+ * batch is full, forces the journal once and releases every caller whose
+ * record is now durable. When the force fails every caller whose record it
+ * covered is released with the failure instead.
+ */
+@Slf4j
+public class GroupCommitter implements AutoCloseable {
+
+	/** position the next force will cover */
+	private final LongSupplier appended;
+
+	/** forces the journal and returns the position now durable */
+	private final LongSupplier force;
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final Condition arrived = lock.newCondition();
+
+	private final Condition committed = lock.newCondition();
+
+	private final Thread committer;
+
+	private final AtomicLong batches = new AtomicLong();
+
+	private final AtomicLong commits = new AtomicLong();
+
+	private volatile long windowMicros;
+
+	private volatile int maxBatchSize;
+
+	private volatile int lastBatchSize;
+
+	private int pending;
+
+	private long durablePosition;
+
+	/** every record up to here was in a force that failed, and its caller told so */
+	private long failedPosition;
+
+	private RuntimeException failure;
+
+	private volatile boolean running = true;
+
+	GroupCommitter(TransferJournal journal, long windowMicros, int maxBatchSize) {
+		this(journal::getAppendedPosition, journal::force, windowMicros, maxBatchSize);
+	}
+
+	public GroupCommitter(LongSupplier appended, LongSupplier force, long windowMicros, int maxBatchSize) {
+		this.appended = appended;
+		this.force = force;
+		this.windowMicros = windowMicros;
+		this.maxBatchSize = maxBatchSize;
+		this.committer = new Thread(this::run, "journal-group-commit");
+		this.committer.setDaemon(true);
+		this.committer.start();
+	}
+
+	public void awaitDurable(long position) {
+		lock.lock();
+		try {
+			if (durablePosition >= position) {
+				return;
+			}
+			if (failedPosition < position && running) {
+				if (++pending == 1 || pending >= maxBatchSize) {
+					arrived.signal();
+				}
+				while (durablePosition < position && failedPosition < position && running) {
+					committed.awaitUninterruptibly();
+				}
+			}
+			if (durablePosition < position) {
+				throw new IllegalStateException("Journal position " + position + " was not made durable", failure);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public long getWindowMicros() {
+		return windowMicros;
+	}
+
+	public void setWindowMicros(long windowMicros) {
+		this.windowMicros = windowMicros;
+	}
+
+	public int getMaxBatchSize() {
+		return maxBatchSize;
+	}
+
+	public void setMaxBatchSize(int maxBatchSize) {
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	public int getLastBatchSize() {
+		return lastBatchSize;
+	}
+
+	public long getBatches() {
+		return batches.get();
+	}
+
+	public long getCommits() {
+		return commits.get();
+	}
+
+	/*
+	 * Forces once more for the callers still waiting, then releases them; a
+	 * caller whose record that force did not cover is told it is not durable.
+	 */
+	@Override
+	public void close() {
+		running = false;
+		committer.interrupt();
+		long attempted = appended.getAsLong();
+		long position = -1;
+		RuntimeException cause = null;
+		try {
+			position = force.getAsLong();
+		} catch (RuntimeException e) {
+			log.error("Exception in journal group commit on close reason", e);
+			cause = e;
+		}
+		lock.lock();
+		try {
+			if (cause == null) {
+				durablePosition = Math.max(durablePosition, position);
+			} else {
+				fail(attempted, cause);
+			}
+			committed.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void run() {
+		while (running) {
+			int batch;
+			lock.lock();
+			try {
+				while (pending == 0) {
+					arrived.await();
+				}
+				long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(windowMicros);
+				long remaining;
+				while (pending < maxBatchSize && (remaining = deadline - System.nanoTime()) > 0) {
+					arrived.awaitNanos(remaining);
+				}
+				batch = pending;
+				pending = 0;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} finally {
+				lock.unlock();
+			}
+
+			// everything appended before the force is covered by it, whether it succeeds or not
+			long attempted = appended.getAsLong();
+			long position;
+			try {
+				position = force.getAsLong();
+			} catch (RuntimeException e) {
+				log.error("Exception in journal group commit reason", e);
+				lock.lock();
+				try {
+					fail(attempted, e);
+					committed.signalAll();
+				} finally {
+					lock.unlock();
+				}
+				continue;
+			}
+
+			lock.lock();
+			try {
+				durablePosition = Math.max(durablePosition, position);
+				committed.signalAll();
+			} finally {
+				lock.unlock();
+			}
+			lastBatchSize = batch;
+			batches.incrementAndGet();
+			commits.addAndGet(batch);
+		}
+	}
+
+	// called with the lock held
+	private void fail(long position, RuntimeException cause) {
+		failedPosition = Math.max(failedPosition, position);
+		failure = cause;
+	}
+}
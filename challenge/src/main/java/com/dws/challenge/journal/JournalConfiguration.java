@@ -0,0 +1,60 @@
+package com.dws.challenge.journal;
+
+import java.nio.file.Paths;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+@Configuration
+@ConditionalOnProperty(name = "accounts.journal.enabled", havingValue = "true")
+public class JournalConfiguration {
+
+	@Bean(destroyMethod = "close")
+	public TransferJournal transferJournal(@Value("${accounts.journal.directory:data/journal}") String directory,
+			@Value("${accounts.journal.segment-size:67108864}") int segmentSize,
+			@Value("${accounts.journal.fsync-policy:GROUP}") FsyncPolicy fsyncPolicy,
+			@Value("${accounts.journal.fsync-interval-ms:10}") long fsyncIntervalMillis,
+			@Value("${accounts.journal.group-commit.window-us:200}") long groupCommitWindowMicros,
+			@Value("${accounts.journal.group-commit.max-batch:256}") int groupCommitMaxBatch) {
+		return new TransferJournal(Paths.get(directory), segmentSize, fsyncPolicy, fsyncIntervalMillis,
+				groupCommitWindowMicros, groupCommitMaxBatch);
+	}
+
+	@Bean
+	@ConditionalOnProperty(name = "accounts.snapshot.enabled", havingValue = "true")
+	public SnapshotStore snapshotStore(@Value("${accounts.snapshot.directory:data/snapshots}") String directory,
+			@Value("${accounts.snapshot.retained:2}") int retained,
+			@Value("${accounts.snapshot.interval-ms:60000}") long intervalMillis) {
+		return new SnapshotStore(Paths.get(directory), retained, intervalMillis);
+	}
+
+	@Bean
+	public MeterBinder transferJournalMetrics(TransferJournal journal) {
+		return registry -> {
+			FunctionCounter.builder("accounts.journal.appended", journal, TransferJournal::getAppendedPosition)
+					.baseUnit("bytes").register(registry);
+			FunctionCounter.builder("accounts.journal.forces", journal, TransferJournal::getForces)
+					.register(registry);
+
+			GroupCommitter groupCommitter = journal.getGroupCommitter();
+			if (groupCommitter != null) {
+				FunctionCounter.builder("accounts.journal.group.batches", groupCommitter, GroupCommitter::getBatches)
+						.register(registry);
+				FunctionCounter.builder("accounts.journal.group.commits", groupCommitter, GroupCommitter::getCommits)
+						.register(registry);
+				Gauge.builder("accounts.journal.group.last.batch.size", groupCommitter,
+						GroupCommitter::getLastBatchSize).register(registry);
+				Gauge.builder("accounts.journal.group.window", groupCommitter, GroupCommitter::getWindowMicros)
+						.baseUnit("microseconds").register(registry);
+				Gauge.builder("accounts.journal.group.max.batch.size", groupCommitter, GroupCommitter::getMaxBatchSize)
+						.register(registry);
+			}
+		};
+	}
+}
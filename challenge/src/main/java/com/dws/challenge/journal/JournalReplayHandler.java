@@ -0,0 +1,20 @@
+package com.dws.challenge.journal;
+
+import java.math.BigDecimal;
+
+public interface JournalReplayHandler {
+
+	void onCreate(String accountId, BigDecimal balance);
+
+	void onTransfer(String accountFrom, String accountTo, BigDecimal amount, long fromVersion, long toVersion,
+			long outboxOffset);
+
+	void onMultiLegTransfer(String accountFrom, long fromVersion, String[] accountsTo, BigDecimal[] amounts,
+			long[] toVersions, long outboxOffset);
+
+	void onBalance(String accountId, BigDecimal balance, long version);
+
+	void onOutboxCancel(long outboxOffset, int count);
+
+	void onClear();
+}
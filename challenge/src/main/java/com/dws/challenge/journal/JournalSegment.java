@@ -0,0 +1,81 @@
+package com.dws.challenge.journal;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * One pre-allocated, memory-mapped log file. Records are laid out back to back
+ * as [int length][int crc32][body]; a zero length marks the end of the data.
+ */
+class JournalSegment {
+
+	static final int HEADER_SIZE = 8;
+
+	private final Path path;
+
+	private final long sequence;
+
+	private final FileChannel channel;
+
+	private final MappedByteBuffer buffer;
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private boolean closed;
+
+	JournalSegment(Path path, long sequence, int size) throws IOException {
+		this.path = path;
+		this.sequence = sequence;
+		this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+	}
+
+	Path path() {
+		return path;
+	}
+
+	long sequence() {
+		return sequence;
+	}
+
+	MappedByteBuffer buffer() {
+		return buffer;
+	}
+
+	int remaining() {
+		return buffer.remaining();
+	}
+
+	/*
+	 * May run on the group commit thread while appends continue; a segment that
+	 * was already closed was forced when it was rolled.
+	 */
+	void force() {
+		lock.lock();
+		try {
+			if (!closed) {
+				buffer.force();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	void close() throws IOException {
+		lock.lock();
+		try {
+			if (!closed) {
+				closed = true;
+				buffer.force();
+				channel.close();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+}
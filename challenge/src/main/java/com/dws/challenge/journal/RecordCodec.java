@@ -0,0 +1,54 @@
+package com.dws.challenge.journal;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Field encodings shared by journal records and snapshot entries: strings as
+ * [short length][UTF-8], decimals as [int scale][byte length][unscaled bytes].
+ * A value too long for its length field is refused before anything is put,
+ * since a record holding it would pass its checksum and still fail to decode.
+ */
+public final class RecordCodec {
+
+	public static final int MAX_STRING_BYTES = 0xFFFF;
+
+	public static final int MAX_UNSCALED_BYTES = 0xFF;
+
+	private RecordCodec() {
+	}
+
+	public static void putString(ByteBuffer buffer, String value) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length > MAX_STRING_BYTES) {
+			throw new IllegalArgumentException("String of " + bytes.length + " bytes is too long to record");
+		}
+		buffer.putShort((short) bytes.length);
+		buffer.put(bytes);
+	}
+
+	public static void putDecimal(ByteBuffer buffer, BigDecimal value) {
+		byte[] unscaled = value.unscaledValue().toByteArray();
+		if (unscaled.length > MAX_UNSCALED_BYTES) {
+			throw new IllegalArgumentException("Decimal of " + unscaled.length + " bytes is too large to record");
+		}
+		buffer.putInt(value.scale());
+		buffer.put((byte) unscaled.length);
+		buffer.put(unscaled);
+	}
+
+	public static String getString(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	public static BigDecimal getDecimal(ByteBuffer buffer) {
+		int scale = buffer.getInt();
+		byte[] unscaled = new byte[buffer.get() & 0xFF];
+		buffer.get(unscaled);
+		return new BigDecimal(new BigInteger(unscaled), scale);
+	}
+}
@@ -0,0 +1,255 @@
+package com.dws.challenge.journal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import lombok.extern.slf4j.Slf4j;
+
+/*
+ * Compact binary images of all accounts, each tagged with the journal mark it
+ * was started at. Layout: [int magic][int format][long mark], then entries of
+ * [string id][decimal balance][long version], then [short -1][long count]
+ * [int crc32 of the entries]. Files are written and read through large direct
+ * buffers, published with an atomic rename, and the newest few are retained.
+ */
+@Slf4j
+public class SnapshotStore {
+
+	private static final int MAGIC = 0x41435353;
+
+	private static final int FORMAT = 1;
+
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private static final int MAX_ENTRY_SIZE = Short.BYTES + 0xFFFF + Integer.BYTES + 1 + 0xFF + Long.BYTES;
+
+	private static final String SNAPSHOT_PREFIX = "snapshot-";
+
+	private static final String SNAPSHOT_SUFFIX = ".snap";
+
+	private final Path directory;
+
+	private final int retained;
+
+	private final long intervalMillis;
+
+	public SnapshotStore(Path directory, int retained, long intervalMillis) {
+		if (retained < 1) {
+			throw new IllegalArgumentException("At least one snapshot must be retained");
+		}
+		this.directory = directory;
+		this.retained = retained;
+		this.intervalMillis = intervalMillis;
+	}
+
+	public long getIntervalMillis() {
+		return intervalMillis;
+	}
+
+	/*
+	 * Loads the newest intact snapshot into the handler as balance entries and
+	 * returns its journal mark, or 0 when there is none. A snapshot that fails
+	 * its checksum is dropped with onClear and the next older one is tried.
+	 */
+	public long load(JournalReplayHandler handler) {
+		try {
+			Files.createDirectories(directory);
+			List<Path> snapshots = listSnapshots();
+			for (int i = snapshots.size() - 1; i >= 0; i--) {
+				Path path = snapshots.get(i);
+				long mark = read(path, handler);
+				if (mark >= 0) {
+					log.info("loaded snapshot {}", path);
+					return mark;
+				}
+				log.warn("snapshot {} is corrupt, trying an older one", path);
+				handler.onClear();
+			}
+			return 0;
+		} catch (IOException e) {
+			throw new UncheckedIOException("Unable to load snapshot from " + directory, e);
+		}
+	}
+
+	public Writer begin(long mark) {
+		try {
+			Files.createDirectories(directory);
+			return new Writer(mark);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Unable to start snapshot in " + directory, e);
+		}
+	}
+
+	private long read(Path path, JournalReplayHandler handler) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+			CRC32 crc = new CRC32();
+			channel.read(buffer);
+			buffer.flip();
+			if (buffer.remaining() < 16 || buffer.getInt() != MAGIC || buffer.getInt() != FORMAT) {
+				return -1;
+			}
+			long mark = buffer.getLong();
+			long count = 0;
+			boolean eof = false;
+			while (true) {
+				// refill whenever less than one maximum-sized entry is left
+				if (!eof && buffer.remaining() < MAX_ENTRY_SIZE) {
+					buffer.compact();
+					eof = channel.read(buffer) < 0;
+					buffer.flip();
+				}
+				if (buffer.remaining() < Short.BYTES) {
+					return -1;
+				}
+				int start = buffer.position();
+				if (buffer.getShort(start) == -1) {
+					buffer.getShort();
+					if (buffer.remaining() < Long.BYTES + Integer.BYTES) {
+						return -1;
+					}
+					return buffer.getLong() == count && buffer.getInt() == (int) crc.getValue() ? mark : -1;
+				}
+				String accountId = RecordCodec.getString(buffer);
+				BigDecimal balance = RecordCodec.getDecimal(buffer);
+				long version = buffer.getLong();
+				ByteBuffer entry = buffer.duplicate();
+				entry.position(start).limit(buffer.position());
+				crc.update(entry);
+				handler.onBalance(accountId, balance, version);
+				count++;
+			}
+		} catch (RuntimeException e) {
+			log.error("Exception in reading snapshot {} reason", path, e);
+			return -1;
+		}
+	}
+
+	private List<Path> listSnapshots() throws IOException {
+		List<Path> snapshots = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+				SNAPSHOT_PREFIX + "*" + SNAPSHOT_SUFFIX)) {
+			for (Path path : stream) {
+				snapshots.add(path);
+			}
+		}
+		Collections.sort(snapshots);
+		return snapshots;
+	}
+
+	private static long markOf(Path path) {
+		String name = path.getFileName().toString();
+		return Long.parseLong(name.substring(SNAPSHOT_PREFIX.length(), name.length() - SNAPSHOT_SUFFIX.length()));
+	}
+
+	public class Writer implements AutoCloseable {
+
+		private final long mark;
+
+		private final Path target;
+
+		private final Path temporary;
+
+		private final FileChannel channel;
+
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+		private final CRC32 crc = new CRC32();
+
+		private long count;
+
+		private boolean committed;
+
+		private Writer(long mark) throws IOException {
+			this.mark = mark;
+			this.target = directory.resolve(String.format("%s%020d%s", SNAPSHOT_PREFIX, mark, SNAPSHOT_SUFFIX));
+			this.temporary = directory.resolve(target.getFileName() + ".tmp");
+			this.channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+			buffer.putInt(MAGIC);
+			buffer.putInt(FORMAT);
+			buffer.putLong(mark);
+		}
+
+		public void write(String accountId, BigDecimal balance, long version) {
+			try {
+				if (buffer.remaining() < MAX_ENTRY_SIZE) {
+					drain();
+				}
+				int start = buffer.position();
+				RecordCodec.putString(buffer, accountId);
+				RecordCodec.putDecimal(buffer, balance);
+				buffer.putLong(version);
+				ByteBuffer entry = buffer.duplicate();
+				entry.position(start).limit(buffer.position());
+				crc.update(entry);
+				count++;
+			} catch (IOException e) {
+				throw new UncheckedIOException("Unable to write snapshot " + temporary, e);
+			}
+		}
+
+		/*
+		 * Makes the snapshot durable, publishes it and prunes older ones.
+		 * Returns the mark of the oldest retained snapshot: journal segments
+		 * before it are no longer needed.
+		 */
+		public long commit() {
+			try {
+				buffer.putShort((short) -1);
+				buffer.putLong(count);
+				buffer.putInt((int) crc.getValue());
+				drain();
+				channel.force(true);
+				channel.close();
+				Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+				committed = true;
+				log.info("wrote snapshot {} with {} accounts", target, count);
+
+				List<Path> snapshots = listSnapshots();
+				for (int i = 0; i < snapshots.size() - retained; i++) {
+					Files.delete(snapshots.get(i));
+				}
+				return markOf(snapshots.get(Math.max(0, snapshots.size() - retained)));
+			} catch (IOException e) {
+				throw new UncheckedIOException("Unable to commit snapshot " + target, e);
+			}
+		}
+
+		public long getMark() {
+			return mark;
+		}
+
+		@Override
+		public void close() {
+			if (!committed) {
+				try {
+					channel.close();
+					Files.deleteIfExists(temporary);
+				} catch (IOException e) {
+					log.error("Exception in discarding snapshot {} reason", temporary, e);
+				}
+			}
+		}
+
+		private void drain() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			buffer.clear();
+		}
+	}
+}
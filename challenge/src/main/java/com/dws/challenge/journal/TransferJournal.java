@@ -0,0 +1,511 @@
+package com.dws.challenge.journal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import lombok.extern.slf4j.Slf4j;
+
+/*
+ * Append-only write-ahead log of account creations and balance changes. Every
+ * record goes into the active memory-mapped segment, so appends are sequential
+ * memory writes; durability is decided by the configured FsyncPolicy. Callers
+ * append under the account locks before applying a change, which keeps the log
+ * order consistent with the order changes were applied to each account.
+ * Appends serialize on a ReentrantLock rather than a monitor so a PER_WRITE
+ * fsync does not pin the carrier of a virtual thread waiting to append.
+ */
+@Slf4j
+public class TransferJournal implements AutoCloseable {
+
+	static final byte CREATE = 1;
+
+	static final byte TRANSFER = 2;
+
+	static final byte BALANCE = 3;
+
+	static final byte CLEAR = 4;
+
+	static final byte MULTI_LEG_TRANSFER = 5;
+
+	static final byte OUTBOX_CANCEL = 6;
+
+	private static final String SEGMENT_SUFFIX = ".log";
+
+	private final Path directory;
+
+	private final int segmentSize;
+
+	private final FsyncPolicy fsyncPolicy;
+
+	private final ScheduledExecutorService fsyncScheduler;
+
+	private final GroupCommitter groupCommitter;
+
+	private final ByteBuffer scratch;
+
+	private final CRC32 crc = new CRC32();
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final AtomicLong forces = new AtomicLong();
+
+	private JournalSegment active;
+
+	private volatile boolean dirty;
+
+	// logical end of the log in bytes, across all segments
+	private volatile long appendedPosition;
+
+	public TransferJournal(Path directory, int segmentSize, FsyncPolicy fsyncPolicy, long fsyncIntervalMillis) {
+		this(directory, segmentSize, fsyncPolicy, fsyncIntervalMillis, 200, 256);
+	}
+
+	public TransferJournal(Path directory, int segmentSize, FsyncPolicy fsyncPolicy, long fsyncIntervalMillis,
+			long groupCommitWindowMicros, int groupCommitMaxBatch) {
+		if (segmentSize <= JournalSegment.HEADER_SIZE) {
+			throw new IllegalArgumentException("Journal segment size is too small");
+		}
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.fsyncPolicy = fsyncPolicy;
+		this.scratch = ByteBuffer.allocate(segmentSize - JournalSegment.HEADER_SIZE);
+		if (fsyncPolicy == FsyncPolicy.GROUP) {
+			this.fsyncScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "journal-fsync");
+				thread.setDaemon(true);
+				return thread;
+			});
+			this.fsyncScheduler.scheduleWithFixedDelay(this::flush, fsyncIntervalMillis, fsyncIntervalMillis,
+					TimeUnit.MILLISECONDS);
+		} else {
+			this.fsyncScheduler = null;
+		}
+		this.groupCommitter = fsyncPolicy == FsyncPolicy.GROUP_COMMIT
+				? new GroupCommitter(this, groupCommitWindowMicros, groupCommitMaxBatch) : null;
+	}
+
+	public void open(JournalReplayHandler handler) {
+		open(handler, 0);
+	}
+
+	/*
+	 * Replays every intact record from the given mark in sequence order and
+	 * leaves the journal positioned after the last one. A torn or corrupt record
+	 * ends the log: the rest of that segment is zeroed and any later segments
+	 * are discarded.
+	 */
+	public void open(JournalReplayHandler handler, long fromMark) {
+		lock.lock();
+		try {
+			Files.createDirectories(directory);
+			List<Path> segments = listSegments();
+			boolean truncated = false;
+			for (Path path : segments) {
+				long sequence = sequenceOf(path);
+				if (sequence < markSequence(fromMark)) {
+					continue;
+				}
+				if (truncated) {
+					log.warn("discarding journal segment {} after corrupt record", path);
+					Files.delete(path);
+					continue;
+				}
+				if (active != null) {
+					active.close();
+				}
+				active = new JournalSegment(path, sequence, (int) Math.max(Files.size(path), segmentSize));
+				int start = sequence == markSequence(fromMark) ? markOffset(fromMark) : 0;
+				truncated = !replay(active.buffer(), start, handler);
+			}
+			if (active == null) {
+				active = newSegment(markSequence(fromMark));
+				active.buffer().position(markOffset(fromMark));
+			}
+			log.info("journal opened at {} segment {} position {}", directory, active.sequence(),
+					active.buffer().position());
+		} catch (IOException e) {
+			throw new UncheckedIOException("Unable to open journal " + directory, e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void appendCreate(String accountId, BigDecimal balance) {
+		lock.lock();
+		try {
+			scratch.clear();
+			scratch.put(CREATE);
+			RecordCodec.putString(scratch, accountId);
+			RecordCodec.putDecimal(scratch, balance);
+			write();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * The outbox offset is -1 when the transfer has no outbox entry.
+	 */
+	public void appendTransfer(String accountFrom, String accountTo, BigDecimal amount, long fromVersion,
+			long toVersion, long outboxOffset) {
+		lock.lock();
+		try {
+			scratch.clear();
+			scratch.put(TRANSFER);
+			RecordCodec.putString(scratch, accountFrom);
+			RecordCodec.putString(scratch, accountTo);
+			RecordCodec.putDecimal(scratch, amount);
+			scratch.putLong(fromVersion);
+			scratch.putLong(toVersion);
+			scratch.putLong(outboxOffset);
+			write();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * All legs in one record, so replay applies the whole transfer or, when
+	 * the record is torn, none of it. Legs with an outbox entry have
+	 * consecutive offsets starting at outboxOffset.
+	 */
+	public void appendMultiLegTransfer(String accountFrom, long fromVersion, String[] accountsTo,
+			BigDecimal[] amounts, long[] toVersions, long outboxOffset) {
+		lock.lock();
+		try {
+			scratch.clear();
+			scratch.put(MULTI_LEG_TRANSFER);
+			RecordCodec.putString(scratch, accountFrom);
+			scratch.putLong(fromVersion);
+			scratch.putLong(outboxOffset);
+			scratch.putInt(accountsTo.length);
+			for (int i = 0; i < accountsTo.length; i++) {
+				RecordCodec.putString(scratch, accountsTo[i]);
+				RecordCodec.putDecimal(scratch, amounts[i]);
+				scratch.putLong(toVersions[i]);
+			}
+			write();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void appendBalance(String accountId, BigDecimal balance, long version) {
+		lock.lock();
+		try {
+			scratch.clear();
+			scratch.put(BALANCE);
+			RecordCodec.putString(scratch, accountId);
+			RecordCodec.putDecimal(scratch, balance);
+			scratch.putLong(version);
+			write();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * Withdraws the outbox entries of a transfer that was rolled back, so
+	 * replay does not hand them back to the outbox. Follows the balance
+	 * records that undo the transfer.
+	 */
+	public void appendOutboxCancel(long outboxOffset, int count) {
+		lock.lock();
+		try {
+			scratch.clear();
+			scratch.put(OUTBOX_CANCEL);
+			scratch.putLong(outboxOffset);
+			scratch.putInt(count);
+			write();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void appendClear() {
+		lock.lock();
+		try {
+			scratch.clear();
+			scratch.put(CLEAR);
+			write();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * Blocks until everything appended so far is durable. Only GROUP_COMMIT
+	 * defers durability to this point; call it after releasing account locks.
+	 */
+	public void commit() {
+		if (groupCommitter != null) {
+			groupCommitter.awaitDurable(appendedPosition);
+		}
+	}
+
+	public void flush() {
+		if (dirty) {
+			force();
+		}
+	}
+
+	/*
+	 * Forces the active segment without holding the append lock and returns
+	 * the log position that is now durable. Earlier segments were forced when
+	 * they were rolled.
+	 */
+	long force() {
+		JournalSegment segment;
+		long position;
+		lock.lock();
+		try {
+			if (active == null) {
+				return appendedPosition;
+			}
+			segment = active;
+			position = appendedPosition;
+			dirty = false;
+		} finally {
+			lock.unlock();
+		}
+		segment.force();
+		forces.incrementAndGet();
+		return position;
+	}
+
+	/*
+	 * Position of the next record as [segment sequence << 32 | offset]. Every
+	 * record before the mark has been applied once its appender's locks are
+	 * released, which is what lets a snapshot started at the mark be fuzzy.
+	 */
+	public long mark() {
+		lock.lock();
+		try {
+			return active == null ? 0 : active.sequence() << 32 | active.buffer().position();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * Deletes whole segments that lie before the mark; they are covered by a
+	 * snapshot and no longer needed for recovery.
+	 */
+	public void deleteSegmentsBefore(long mark) {
+		lock.lock();
+		try {
+			for (Path path : listSegments()) {
+				if (sequenceOf(path) < markSequence(mark) && (active == null || !path.equals(active.path()))) {
+					Files.delete(path);
+					log.info("deleted journal segment {} covered by snapshot", path);
+				}
+			}
+		} catch (IOException e) {
+			log.error("Exception in deleting journal segments reason", e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	static long markSequence(long mark) {
+		return mark >>> 32;
+	}
+
+	static int markOffset(long mark) {
+		return (int) mark;
+	}
+
+	public GroupCommitter getGroupCommitter() {
+		return groupCommitter;
+	}
+
+	public long getAppendedPosition() {
+		return appendedPosition;
+	}
+
+	public long getForces() {
+		return forces.get();
+	}
+
+	@Override
+	public void close() {
+		lock.lock();
+		try {
+			if (fsyncScheduler != null) {
+				fsyncScheduler.shutdownNow();
+			}
+			if (groupCommitter != null) {
+				groupCommitter.close();
+			}
+			if (active != null) {
+				try {
+					active.close();
+				} catch (IOException e) {
+					log.error("Exception in closing journal segment {} reason", active.path(), e);
+				}
+				active = null;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void write() {
+		if (active == null) {
+			throw new IllegalStateException("Journal is not open");
+		}
+		scratch.flip();
+		int length = scratch.remaining();
+		if (active.remaining() < JournalSegment.HEADER_SIZE + length) {
+			roll();
+		}
+
+		crc.reset();
+		crc.update(scratch.array(), 0, length);
+		MappedByteBuffer buffer = active.buffer();
+		int start = buffer.position();
+		// body and checksum first, length last, so a reader never sees a length without its record
+		buffer.position(start + 4);
+		buffer.putInt((int) crc.getValue());
+		buffer.put(scratch);
+		buffer.putInt(start, length);
+		appendedPosition += JournalSegment.HEADER_SIZE + length;
+
+		if (fsyncPolicy == FsyncPolicy.PER_WRITE) {
+			active.force();
+			forces.incrementAndGet();
+		} else {
+			dirty = true;
+		}
+	}
+
+	private void roll() {
+		try {
+			if (active.buffer().remaining() >= Integer.BYTES) {
+				active.buffer().putInt(active.buffer().position(), 0);
+			}
+			active.close();
+			active = newSegment(active.sequence() + 1);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Unable to roll journal segment", e);
+		}
+	}
+
+	private JournalSegment newSegment(long sequence) throws IOException {
+		Path path = directory.resolve(String.format("%020d%s", sequence, SEGMENT_SUFFIX));
+		return new JournalSegment(path, sequence, segmentSize);
+	}
+
+	private boolean replay(MappedByteBuffer buffer, int from, JournalReplayHandler handler) {
+		buffer.position(from);
+		while (buffer.remaining() >= JournalSegment.HEADER_SIZE) {
+			int start = buffer.position();
+			int length = buffer.getInt();
+			if (length == 0) {
+				buffer.position(start);
+				return true;
+			}
+			int checksum = buffer.getInt();
+			if (length < 0 || length > buffer.remaining()) {
+				return truncate(buffer, start);
+			}
+			ByteBuffer body = buffer.slice();
+			body.limit(length);
+			crc.reset();
+			for (int i = 0; i < length; i++) {
+				crc.update(body.get(i));
+			}
+			if ((int) crc.getValue() != checksum) {
+				return truncate(buffer, start);
+			}
+			dispatch(body, handler);
+			buffer.position(start + JournalSegment.HEADER_SIZE + length);
+		}
+		return true;
+	}
+
+	private boolean truncate(MappedByteBuffer buffer, int position) {
+		log.warn("corrupt journal record at position {}, truncating", position);
+		buffer.position(position);
+		while (buffer.hasRemaining()) {
+			buffer.put((byte) 0);
+		}
+		buffer.position(position);
+		buffer.force();
+		return false;
+	}
+
+	private static void dispatch(ByteBuffer body, JournalReplayHandler handler) {
+		byte type = body.get();
+		switch (type) {
+		case CREATE:
+			handler.onCreate(RecordCodec.getString(body), RecordCodec.getDecimal(body));
+			break;
+		case TRANSFER:
+			handler.onTransfer(RecordCodec.getString(body), RecordCodec.getString(body), RecordCodec.getDecimal(body),
+					body.getLong(), body.getLong(), body.getLong());
+			break;
+		case BALANCE:
+			handler.onBalance(RecordCodec.getString(body), RecordCodec.getDecimal(body), body.getLong());
+			break;
+		case CLEAR:
+			handler.onClear();
+			break;
+		case MULTI_LEG_TRANSFER:
+			dispatchMultiLegTransfer(body, handler);
+			break;
+		case OUTBOX_CANCEL:
+			handler.onOutboxCancel(body.getLong(), body.getInt());
+			break;
+		default:
+			throw new IllegalStateException("Unknown journal record type " + type);
+		}
+	}
+
+	private static void dispatchMultiLegTransfer(ByteBuffer body, JournalReplayHandler handler) {
+		String accountFrom = RecordCodec.getString(body);
+		long fromVersion = body.getLong();
+		long outboxOffset = body.getLong();
+		int legs = body.getInt();
+		String[] accountsTo = new String[legs];
+		BigDecimal[] amounts = new BigDecimal[legs];
+		long[] toVersions = new long[legs];
+		for (int i = 0; i < legs; i++) {
+			accountsTo[i] = RecordCodec.getString(body);
+			amounts[i] = RecordCodec.getDecimal(body);
+			toVersions[i] = body.getLong();
+		}
+		handler.onMultiLegTransfer(accountFrom, fromVersion, accountsTo, amounts, toVersions, outboxOffset);
+	}
+
+	private List<Path> listSegments() throws IOException {
+		List<Path> segments = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+			for (Path path : stream) {
+				segments.add(path);
+			}
+		}
+		Collections.sort(segments);
+		return segments;
+	}
+
+	private static long sequenceOf(Path path) {
+		String name = path.getFileName().toString();
+		return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+	}
+}
@@ -0,0 +1,122 @@
+package com.dws.challenge.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.dws.challenge.domain.TransferResult;
+import com.dws.challenge.repository.AccountsRepository;
+import com.dws.challenge.repository.StripedLockManager;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/*
+ * Meters for the balance transfer pipeline. Every meter is registered up front
+ * and outcome counters are indexed by ordinal, so recording on the request path
+ * is a nanoTime difference handed to an existing meter and allocates nothing.
+ * Stage timers share one name and differ by the stage tag:
+ *
+ * accounts.transfer.stage{stage=validation|lookup|lock.wait|lock.hold}
+ * accounts.transfer (controller entry to response, without JSON; see
+ * http.server.requests for the whole request)
+ */
+@Component
+public class TransferMetrics {
+
+	private static final double[] PERCENTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+	private final MeterRegistry registry;
+
+	private final boolean stripeContention;
+
+	private final Timer validation;
+
+	private final Timer lookup;
+
+	private final Timer lockWait;
+
+	private final Timer lockHold;
+
+	private final Timer total;
+
+	private final Counter[] outcomes;
+
+	public TransferMetrics(MeterRegistry registry) {
+		this(registry, false);
+	}
+
+	@Autowired
+	public TransferMetrics(MeterRegistry registry,
+			@Value("${accounts.metrics.stripe-contention:false}") boolean stripeContention) {
+		this.registry = registry;
+		this.stripeContention = stripeContention;
+		this.validation = stage("validation");
+		this.lookup = stage("lookup");
+		this.lockWait = stage("lock.wait");
+		this.lockHold = stage("lock.hold");
+		this.total = Timer.builder("accounts.transfer").publishPercentiles(PERCENTILES)
+				.publishPercentileHistogram().register(registry);
+		TransferResult[] results = TransferResult.values();
+		this.outcomes = new Counter[results.length];
+		for (TransferResult result : results) {
+			outcomes[result.ordinal()] = Counter.builder("accounts.transfer.outcome")
+					.tag("outcome", result.name().toLowerCase()).register(registry);
+		}
+	}
+
+	public void recordValidation(long nanos) {
+		validation.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	public void recordLookup(long nanos) {
+		lookup.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	public void recordLockWait(long nanos) {
+		lockWait.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	public void recordLockHold(long nanos) {
+		lockHold.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	public void recordTotal(long nanos) {
+		total.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	public void recordOutcome(TransferResult result) {
+		outcomes[result.ordinal()].increment();
+	}
+
+	public void bindAccounts(AccountsRepository repository) {
+		Gauge.builder("accounts.count", repository, AccountsRepository::getAccountCount).register(registry);
+	}
+
+	/*
+	 * Contended acquisitions over all stripes, and per stripe only when asked
+	 * for: with a thousand stripes that is a thousand time series.
+	 */
+	public void bindLockStripes(StripedLockManager lockManager) {
+		FunctionCounter.builder("accounts.lock.contended", lockManager, StripedLockManager::getContendedAcquisitions)
+				.register(registry);
+		if (stripeContention) {
+			for (int i = 0; i < lockManager.stripeCount(); i++) {
+				int stripe = i;
+				FunctionCounter.builder("accounts.lock.stripe.contended", lockManager,
+						m -> m.getContendedAcquisitions(stripe)).tag("stripe", Integer.toString(stripe))
+						.register(registry);
+			}
+		}
+	}
+
+	private Timer stage(String stage) {
+		return Timer.builder("accounts.transfer.stage").tag("stage", stage).publishPercentiles(PERCENTILES)
+				.publishPercentileHistogram().register(registry);
+	}
+}
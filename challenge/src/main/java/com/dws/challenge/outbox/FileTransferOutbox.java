@@ -0,0 +1,347 @@
+package com.dws.challenge.outbox;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import com.dws.challenge.journal.RecordCodec;
+
+import lombok.extern.slf4j.Slf4j;
+
+/*
+ * Local file-backed stand-in for a durable outbox table. Entries are appended
+ * to outbox.log as [int length][int crc32][long offset][string from][string to]
+ * [decimal amount] and the relay's progress is kept in outbox.ack, replaced
+ * atomically on every acknowledgement. A cancellation is a marker holding
+ * only [long ~offset]; it drops the entry on load and keeps its offset from
+ * being reused. Appends and cancellations only stage the change in memory;
+ * sync writes and forces them, and only then are entries handed to the relay.
+ * The repository syncs after the journal is durable, so a crash can lose a
+ * staged entry but never persist one for a transfer that did not commit; the
+ * lost ones are re-added from the journal on recovery.
+ */
+@Slf4j
+public class FileTransferOutbox implements TransferOutbox, AutoCloseable {
+
+	private static final String LOG_FILE = "outbox.log";
+
+	private static final String ACK_FILE = "outbox.ack";
+
+	private static final int MAX_ENTRY_SIZE = Long.BYTES + 2 * (Short.BYTES + 0xFFFF) + Integer.BYTES + 1 + 0xFF;
+
+	private static final long COMPACT_THRESHOLD = 1 << 20;
+
+	private final Path logPath;
+
+	private final Path ackPath;
+
+	private final FileChannel channel;
+
+	// serializes file writes so the log stays in offset order; not a monitor, it is held across fsync
+	private final ReentrantLock ioLock = new ReentrantLock();
+
+	private final ByteBuffer buffer = ByteBuffer.allocate(1 << 18);
+
+	private final CRC32 crc = new CRC32();
+
+	private final ArrayDeque<OutboxEntry> staged = new ArrayDeque<>();
+
+	private final ArrayDeque<Long> stagedCancels = new ArrayDeque<>();
+
+	private final ArrayDeque<OutboxEntry> unacknowledged = new ArrayDeque<>();
+
+	private long nextOffset;
+
+	private long acknowledgedOffset;
+
+	public FileTransferOutbox(Path directory) {
+		try {
+			Files.createDirectories(directory);
+			this.logPath = directory.resolve(LOG_FILE);
+			this.ackPath = directory.resolve(ACK_FILE);
+			if (Files.exists(ackPath)) {
+				acknowledgedOffset = ByteBuffer.wrap(Files.readAllBytes(ackPath)).getLong();
+			}
+			nextOffset = acknowledgedOffset;
+			this.channel = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+					StandardOpenOption.WRITE);
+			load();
+			log.info("outbox opened at {} with {} unacknowledged entries from offset {}", directory,
+					unacknowledged.size(), acknowledgedOffset);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Unable to open outbox " + directory, e);
+		}
+	}
+
+	@Override
+	public synchronized long getNextOffset() {
+		return nextOffset;
+	}
+
+	@Override
+	public synchronized long append(String accountFrom, String accountTo, BigDecimal amount) {
+		long offset = nextOffset++;
+		staged.addLast(new OutboxEntry(offset, accountFrom, accountTo, amount));
+		return offset;
+	}
+
+	@Override
+	public synchronized void recover(long offset, String accountFrom, String accountTo, BigDecimal amount) {
+		if (offset < nextOffset) {
+			return;
+		}
+		if (offset > nextOffset) {
+			log.warn("outbox entries {} to {} are missing and cannot be recovered", nextOffset, offset - 1);
+		}
+		nextOffset = offset;
+		append(accountFrom, accountTo, amount);
+	}
+
+	@Override
+	public synchronized void cancel(long offset) {
+		staged.removeIf(entry -> entry.getOffset() == offset);
+		unacknowledged.removeIf(entry -> entry.getOffset() == offset);
+		stagedCancels.addLast(offset);
+		nextOffset = Math.max(nextOffset, offset + 1);
+	}
+
+	@Override
+	public void sync() {
+		ioLock.lock();
+		try {
+			List<OutboxEntry> batch;
+			List<Long> cancels;
+			synchronized (this) {
+				if (staged.isEmpty() && stagedCancels.isEmpty()) {
+					return;
+				}
+				batch = new ArrayList<>(staged);
+				staged.clear();
+				cancels = new ArrayList<>(stagedCancels);
+				stagedCancels.clear();
+			}
+			long size = -1;
+			try {
+				size = channel.position();
+				for (OutboxEntry entry : batch) {
+					if (buffer.remaining() < 2 * Integer.BYTES + MAX_ENTRY_SIZE) {
+						drain();
+					}
+					put(entry);
+				}
+				for (long offset : cancels) {
+					if (buffer.remaining() < 2 * Integer.BYTES + Long.BYTES) {
+						drain();
+					}
+					putCancel(offset);
+				}
+				drain();
+				channel.force(false);
+			} catch (IOException e) {
+				buffer.clear();
+				discardFrom(size);
+				synchronized (this) {
+					// put them back so the next sync retries them in order
+					for (int i = batch.size() - 1; i >= 0; i--) {
+						if (!stagedCancels.contains(batch.get(i).getOffset())) {
+							staged.addFirst(batch.get(i));
+						}
+					}
+					for (int i = cancels.size() - 1; i >= 0; i--) {
+						stagedCancels.addFirst(cancels.get(i));
+					}
+				}
+				throw new UncheckedIOException("Unable to write outbox " + logPath, e);
+			}
+			synchronized (this) {
+				// an entry cancelled while it was being written is withdrawn by the next sync's marker
+				for (OutboxEntry entry : batch) {
+					if (!stagedCancels.contains(entry.getOffset())) {
+						unacknowledged.addLast(entry);
+					}
+				}
+			}
+		} finally {
+			ioLock.unlock();
+		}
+	}
+
+	@Override
+	public synchronized List<OutboxEntry> read(long fromOffset, int maxEntries) {
+		List<OutboxEntry> batch = new ArrayList<>(Math.min(maxEntries, unacknowledged.size()));
+		Iterator<OutboxEntry> iterator = unacknowledged.iterator();
+		while (iterator.hasNext() && batch.size() < maxEntries) {
+			OutboxEntry entry = iterator.next();
+			if (entry.getOffset() >= fromOffset) {
+				batch.add(entry);
+			}
+		}
+		return batch;
+	}
+
+	/*
+	 * Records the new offset durably before dropping the entries. Once every
+	 * written entry is acknowledged and the log has grown past the threshold it
+	 * is truncated; the ack file alone then carries the next offset.
+	 */
+	@Override
+	public void acknowledge(long offset) {
+		ioLock.lock();
+		try {
+			synchronized (this) {
+				if (offset <= acknowledgedOffset) {
+					return;
+				}
+			}
+			try {
+				Path temporary = ackPath.resolveSibling(ACK_FILE + ".tmp");
+				try (FileChannel ack = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+						StandardOpenOption.TRUNCATE_EXISTING)) {
+					ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES).putLong(offset);
+					buffer.flip();
+					ack.write(buffer);
+					ack.force(true);
+				}
+				Files.move(temporary, ackPath, StandardCopyOption.ATOMIC_MOVE);
+
+				boolean drained;
+				synchronized (this) {
+					while (!unacknowledged.isEmpty() && unacknowledged.peekFirst().getOffset() < offset) {
+						unacknowledged.pollFirst();
+					}
+					acknowledgedOffset = offset;
+					drained = unacknowledged.isEmpty();
+				}
+				if (drained && channel.size() > COMPACT_THRESHOLD) {
+					channel.truncate(0);
+					channel.force(true);
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException("Unable to acknowledge outbox offset " + offset, e);
+			}
+		} finally {
+			ioLock.unlock();
+		}
+	}
+
+	@Override
+	public synchronized long getAcknowledgedOffset() {
+		return acknowledgedOffset;
+	}
+
+	@Override
+	public void close() {
+		try {
+			sync();
+		} finally {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				log.error("Exception in closing outbox {} reason", logPath, e);
+			}
+		}
+	}
+
+	/*
+	 * Reads every intact entry; a torn entry at the tail is cut off so later
+	 * appends continue from the last good one.
+	 */
+	private void load() throws IOException {
+		ByteBuffer content = ByteBuffer.wrap(Files.readAllBytes(logPath));
+		while (content.remaining() >= 2 * Integer.BYTES) {
+			int start = content.position();
+			int length = content.getInt();
+			int checksum = content.getInt();
+			if (length <= 0 || length > content.remaining()) {
+				truncateAt(start);
+				return;
+			}
+			crc.reset();
+			crc.update(content.array(), content.position(), length);
+			if ((int) crc.getValue() != checksum) {
+				truncateAt(start);
+				return;
+			}
+			long offset = content.getLong();
+			if (offset < 0) {
+				long cancelled = ~offset;
+				unacknowledged.removeIf(entry -> entry.getOffset() == cancelled);
+				nextOffset = Math.max(nextOffset, cancelled + 1);
+				content.position(start + 2 * Integer.BYTES + length);
+				continue;
+			}
+			OutboxEntry entry = new OutboxEntry(offset, RecordCodec.getString(content),
+					RecordCodec.getString(content), RecordCodec.getDecimal(content));
+			if (offset >= acknowledgedOffset) {
+				unacknowledged.addLast(entry);
+			}
+			nextOffset = Math.max(nextOffset, offset + 1);
+			content.position(start + 2 * Integer.BYTES + length);
+		}
+		if (content.hasRemaining()) {
+			truncateAt(content.position());
+		}
+		channel.position(channel.size());
+	}
+
+	private void discardFrom(long position) {
+		try {
+			if (position >= 0) {
+				channel.truncate(position);
+				channel.position(position);
+			}
+		} catch (IOException e) {
+			log.error("Exception in discarding partial outbox write reason", e);
+		}
+	}
+
+	private void truncateAt(long position) throws IOException {
+		log.warn("torn outbox entry at position {}, truncating", position);
+		channel.truncate(position);
+		channel.position(position);
+	}
+
+	private void put(OutboxEntry entry) {
+		int start = buffer.position();
+		buffer.position(start + 2 * Integer.BYTES);
+		buffer.putLong(entry.getOffset());
+		RecordCodec.putString(buffer, entry.getAccountFrom());
+		RecordCodec.putString(buffer, entry.getAccountTo());
+		RecordCodec.putDecimal(buffer, entry.getAmount());
+		int length = buffer.position() - start - 2 * Integer.BYTES;
+		crc.reset();
+		crc.update(buffer.array(), start + 2 * Integer.BYTES, length);
+		buffer.putInt(start, length);
+		buffer.putInt(start + Integer.BYTES, (int) crc.getValue());
+	}
+
+	private void putCancel(long offset) {
+		int start = buffer.position();
+		buffer.position(start + 2 * Integer.BYTES);
+		buffer.putLong(~offset);
+		crc.reset();
+		crc.update(buffer.array(), start + 2 * Integer.BYTES, Long.BYTES);
+		buffer.putInt(start, Long.BYTES);
+		buffer.putInt(start + Integer.BYTES, (int) crc.getValue());
+	}
+
+	private void drain() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+}
@@ -0,0 +1,78 @@
+package com.dws.challenge.outbox;
+
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/*
+ * Outbox for the plain in-memory repository: entries live exactly as long as
+ * the balances they describe, so appending under the transfer locks is all the
+ * atomicity needed.
+ */
+public class InMemoryTransferOutbox implements TransferOutbox {
+
+	private final ArrayDeque<OutboxEntry> entries = new ArrayDeque<>();
+
+	private long nextOffset;
+
+	private long acknowledgedOffset;
+
+	@Override
+	public synchronized long getNextOffset() {
+		return nextOffset;
+	}
+
+	@Override
+	public synchronized long append(String accountFrom, String accountTo, BigDecimal amount) {
+		long offset = nextOffset++;
+		entries.addLast(new OutboxEntry(offset, accountFrom, accountTo, amount));
+		return offset;
+	}
+
+	@Override
+	public synchronized void recover(long offset, String accountFrom, String accountTo, BigDecimal amount) {
+		if (offset >= nextOffset) {
+			nextOffset = offset;
+			append(accountFrom, accountTo, amount);
+		}
+	}
+
+	@Override
+	public synchronized void cancel(long offset) {
+		entries.removeIf(entry -> entry.getOffset() == offset);
+		nextOffset = Math.max(nextOffset, offset + 1);
+	}
+
+	@Override
+	public void sync() {
+		// nothing to make durable
+	}
+
+	@Override
+	public synchronized List<OutboxEntry> read(long fromOffset, int maxEntries) {
+		List<OutboxEntry> batch = new ArrayList<>(Math.min(maxEntries, entries.size()));
+		Iterator<OutboxEntry> iterator = entries.iterator();
+		while (iterator.hasNext() && batch.size() < maxEntries) {
+			OutboxEntry entry = iterator.next();
+			if (entry.getOffset() >= fromOffset) {
+				batch.add(entry);
+			}
+		}
+		return batch;
+	}
+
+	@Override
+	public synchronized void acknowledge(long offset) {
+		while (!entries.isEmpty() && entries.peekFirst().getOffset() < offset) {
+			entries.pollFirst();
+		}
+		acknowledgedOffset = Math.max(acknowledgedOffset, offset);
+	}
+
+	@Override
+	public synchronized long getAcknowledgedOffset() {
+		return acknowledgedOffset;
+	}
+}
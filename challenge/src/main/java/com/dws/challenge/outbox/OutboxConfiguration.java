@@ -0,0 +1,44 @@
+package com.dws.challenge.outbox;
+
+import java.nio.file.Paths;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.dws.challenge.repository.AccountsRepository;
+import com.dws.challenge.service.EmailNotificationService;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/*
+ * With the outbox enabled the in-memory repository records every committed
+ * transfer and the relay, not the request thread, sends the notifications.
+ * The relay calls the email service directly: it already runs off the request
+ * path, and an intermediate queue would be acknowledged before delivery.
+ */
+@Configuration
+@ConditionalOnProperty(name = "accounts.outbox.enabled", havingValue = "true")
+public class OutboxConfiguration {
+
+	@Bean(destroyMethod = "close")
+	@ConditionalOnProperty(name = "accounts.outbox.store", havingValue = "file", matchIfMissing = true)
+	public FileTransferOutbox fileTransferOutbox(@Value("${accounts.outbox.directory:data/outbox}") String directory) {
+		return new FileTransferOutbox(Paths.get(directory));
+	}
+
+	@Bean
+	@ConditionalOnProperty(name = "accounts.outbox.store", havingValue = "memory")
+	public InMemoryTransferOutbox inMemoryTransferOutbox() {
+		return new InMemoryTransferOutbox();
+	}
+
+	@Bean(initMethod = "start", destroyMethod = "close")
+	public OutboxRelay outboxRelay(TransferOutbox outbox, AccountsRepository accountsRepository,
+			MeterRegistry registry, @Value("${accounts.outbox.batch-size:100}") int batchSize,
+			@Value("${accounts.outbox.poll-interval-ms:50}") long pollIntervalMillis) {
+		return new OutboxRelay(outbox, accountsRepository, new EmailNotificationService(), batchSize,
+				pollIntervalMillis, registry);
+	}
+}
@@ -0,0 +1,21 @@
+package com.dws.challenge.outbox;
+
+import java.math.BigDecimal;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+@Getter
+@ToString
+@AllArgsConstructor
+public class OutboxEntry {
+
+	private final long offset;
+
+	private final String accountFrom;
+
+	private final String accountTo;
+
+	private final BigDecimal amount;
+}
@@ -0,0 +1,122 @@
+package com.dws.challenge.outbox;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.repository.AccountsRepository;
+import com.dws.challenge.service.NotificationService;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/*
+ * Drains the outbox into the notification service on a background thread.
+ * Each batch is acknowledged only after both notifications of every entry in
+ * it were handed over, so delivery is at-least-once: a crash between the two
+ * steps repeats the batch after restart, and the entry offset can serve as a
+ * de-duplication key downstream. A failing delivery is retried from the same
+ * offset after the poll interval.
+ */
+@Slf4j
+public class OutboxRelay implements AutoCloseable {
+
+	private final TransferOutbox outbox;
+
+	private final AccountsRepository accountsRepository;
+
+	private final NotificationService notificationService;
+
+	private final int batchSize;
+
+	private final long pollIntervalMillis;
+
+	private final Counter relayed;
+
+	private final Counter failed;
+
+	private final Thread worker;
+
+	private volatile boolean running = true;
+
+	public OutboxRelay(TransferOutbox outbox, AccountsRepository accountsRepository,
+			NotificationService notificationService, int batchSize, long pollIntervalMillis, MeterRegistry registry) {
+		this.outbox = outbox;
+		this.accountsRepository = accountsRepository;
+		this.notificationService = notificationService;
+		this.batchSize = batchSize;
+		this.pollIntervalMillis = pollIntervalMillis;
+		this.relayed = Counter.builder("accounts.outbox.relayed").register(registry);
+		this.failed = Counter.builder("accounts.outbox.failed").register(registry);
+		Gauge.builder("accounts.outbox.lag", outbox, o -> o.getNextOffset() - o.getAcknowledgedOffset())
+				.register(registry);
+		this.worker = new Thread(this::run, "outbox-relay");
+		this.worker.setDaemon(true);
+	}
+
+	public void start() {
+		worker.start();
+	}
+
+	/*
+	 * Delivers one batch from the acknowledged offset and returns the number of
+	 * entries relayed.
+	 */
+	public int relayOnce() {
+		List<OutboxEntry> entries = outbox.read(outbox.getAcknowledgedOffset(), batchSize);
+		if (entries.isEmpty()) {
+			return 0;
+		}
+		for (OutboxEntry entry : entries) {
+			String amount = entry.getAmount().toPlainString();
+			notificationService.notifyAboutTransfer(accountOf(entry.getAccountFrom()),
+					"Transferred " + amount + " to account " + entry.getAccountTo());
+			notificationService.notifyAboutTransfer(accountOf(entry.getAccountTo()),
+					"Received " + amount + " from account " + entry.getAccountFrom());
+		}
+		outbox.acknowledge(entries.get(entries.size() - 1).getOffset() + 1);
+		relayed.increment(entries.size());
+		return entries.size();
+	}
+
+	@Override
+	public void close() {
+		running = false;
+		worker.interrupt();
+		try {
+			worker.join(TimeUnit.SECONDS.toMillis(5));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void run() {
+		while (running) {
+			try {
+				if (relayOnce() == 0) {
+					Thread.sleep(pollIntervalMillis);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (RuntimeException e) {
+				failed.increment();
+				log.error("Exception in relaying outbox from offset {} reason", outbox.getAcknowledgedOffset(), e);
+				try {
+					Thread.sleep(pollIntervalMillis);
+				} catch (InterruptedException interrupted) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	// the account may have been cleared since the transfer; the id is all a notification needs
+	private Account accountOf(String accountId) {
+		Account account = accountsRepository.getAccount(accountId);
+		return account == null ? new Account(accountId) : account;
+	}
+}
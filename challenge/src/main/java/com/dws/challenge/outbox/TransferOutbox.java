@@ -0,0 +1,36 @@
+package com.dws.challenge.outbox;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/*
+ * Ordered record of committed transfers whose notifications still have to be
+ * sent. Offsets are increasing, and dense but for entries cancelled because
+ * their transfer was rolled back; the relay reads from the acknowledged offset
+ * and acknowledges once the notifications are handed over.
+ * Implementations are thread-safe; the in-memory repository also serializes
+ * appends with its journal append so offsets follow journal order.
+ */
+public interface TransferOutbox {
+
+	/** offset the next appended entry will get */
+	long getNextOffset();
+
+	long append(String accountFrom, String accountTo, BigDecimal amount);
+
+	/** re-adds an entry found in the journal during recovery if the outbox lost it */
+	void recover(long offset, String accountFrom, String accountTo, BigDecimal amount);
+
+	/** withdraws an appended entry whose transfer was rolled back, so the relay never delivers it */
+	void cancel(long offset);
+
+	/** makes appended entries durable and visible to the relay */
+	void sync();
+
+	List<OutboxEntry> read(long fromOffset, int maxEntries);
+
+	/** every entry before the given offset has been delivered */
+	void acknowledge(long offset);
+
+	long getAcknowledgedOffset();
+}
@@ -1,19 +1,54 @@
 package com.dws.challenge.repository;
 
 import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.List;
+import java.util.function.Consumer;
 
 import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.AccountTransfer;
+import com.dws.challenge.domain.TransferHistoryPage;
+import com.dws.challenge.domain.TransferLeg;
+import com.dws.challenge.domain.TransferResult;
 import com.dws.challenge.exception.DuplicateAccountIdException;
 
 public interface AccountsRepository {
 
   void createAccount(Account account) throws DuplicateAccountIdException;
 
+  /*
+   * Creates every account of the batch it can, in one pass. The result holds,
+   * per account and in order, whether it was created or its id already existed.
+   */
+  List<Boolean> createAccounts(List<Account> accounts);
+
   Account getAccount(String accountId);
   
-  boolean performBalanceTransfer(Account fromAccount, Account toAccount, BigDecimal transferAmount);
+  TransferResult performBalanceTransfer(String accountFrom, String accountTo, BigDecimal transferAmount);
+
+  List<TransferResult> performBalanceTransfers(List<AccountTransfer> transfers);
+
+  /*
+   * Debits the sum of the legs from accountFrom once and credits every leg,
+   * all or nothing: a short sender, a missing receiver or a failure part way
+   * leaves every balance as it was. A receiver may appear in several legs.
+   */
+  TransferResult performMultiLegTransfer(String accountFrom, List<TransferLeg> legs);
+
+  /*
+   * Hands every account to the visitor without pausing transfers. Each account
+   * is read as one committed balance and version, at some instant between the
+   * start and the end of the scan, so accounts changed meanwhile may appear
+   * before or after a given transfer. When parallel, the visitor is called
+   * concurrently from fork-join workers.
+   */
+  void scan(boolean parallel, Consumer<Account> visitor);
+
+  TransferHistoryPage findTransfers(String accountId, Instant from, Instant to, Long cursor, int limit);
   
   boolean save(Account account);
 
+  int getAccountCount();
+
   void clearAccounts();
 }
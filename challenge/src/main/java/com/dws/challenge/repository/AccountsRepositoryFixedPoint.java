@@ -0,0 +1,319 @@
+package com.dws.challenge.repository;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.AccountTransfer;
+import com.dws.challenge.domain.TransferHistoryPage;
+import com.dws.challenge.domain.TransferLeg;
+import com.dws.challenge.domain.TransferResult;
+import com.dws.challenge.exception.DuplicateAccountIdException;
+import com.dws.challenge.exception.InvalidBalanceException;
+import com.dws.challenge.metrics.TransferMetrics;
+import com.dws.challenge.outbox.TransferOutbox;
+
+import lombok.extern.slf4j.Slf4j;
+
+/*
+ * Keeps every balance as a count of minor units in an AtomicLong, so debits and
+ * credits are CAS loops with no BigDecimal allocation on the transfer path.
+ * The sender is always debited first and the credit cannot fail, which keeps
+ * every balance non-negative without taking a lock. Accounts handed out by
+ * getAccount are detached views converted back to BigDecimal. Nothing here is
+ * durable, so an outbox entry is simply appended once the credit has landed.
+ * History is recorded the same way, so without locks two transfers touching
+ * one account may be listed in the opposite order their debits landed.
+ */
+@Repository
+@ConditionalOnProperty(name = "accounts.repository", havingValue = "fixed-point")
+@Slf4j
+public class AccountsRepositoryFixedPoint implements AccountsRepository {
+
+	// map entries per fork-join task of a parallel scan
+	private static final long SCAN_PARALLELISM_THRESHOLD = 4096;
+
+	private final ConcurrentHashMap<String, AtomicLong> balances = new ConcurrentHashMap<>();
+
+	private final int scale;
+
+	private final TransferHistory history;
+
+	private final TransferOutbox outbox;
+
+	private final TransferMetrics metrics;
+
+	public AccountsRepositoryFixedPoint(int scale) {
+		this(scale, (TransferOutbox) null);
+	}
+
+	@Autowired
+	public AccountsRepositoryFixedPoint(@Value("${accounts.balance.scale:2}") int scale,
+			ObjectProvider<TransferOutbox> outbox, TransferMetrics metrics,
+			@Value("${accounts.history.max-entries-per-account:100000}") int maxHistoryEntries) {
+		this(scale, outbox.getIfAvailable(), metrics, maxHistoryEntries);
+	}
+
+	public AccountsRepositoryFixedPoint(int scale, TransferOutbox outbox) {
+		this(scale, outbox, null);
+	}
+
+	public AccountsRepositoryFixedPoint(int scale, TransferOutbox outbox, TransferMetrics metrics) {
+		this(scale, outbox, metrics, TransferHistory.DEFAULT_MAX_ENTRIES_PER_ACCOUNT);
+	}
+
+	public AccountsRepositoryFixedPoint(int scale, TransferOutbox outbox, TransferMetrics metrics,
+			int maxHistoryEntries) {
+		this.history = new TransferHistory(maxHistoryEntries);
+		this.scale = scale;
+		this.outbox = outbox;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public void createAccount(Account account) throws DuplicateAccountIdException {
+		AtomicLong previous = balances.putIfAbsent(account.getAccountId(), new AtomicLong(balanceUnits(account)));
+		if (previous != null) {
+			throw new DuplicateAccountIdException(
+					"Account id " + account.getAccountId() + " already exists!");
+		}
+	}
+
+	@Override
+	public List<Boolean> createAccounts(List<Account> accounts) {
+		// converted up front, so a balance too precise for the scale fails the batch before anything is created
+		long[] units = new long[accounts.size()];
+		for (int i = 0; i < units.length; i++) {
+			units[i] = balanceUnits(accounts.get(i));
+		}
+		List<Boolean> created = new ArrayList<>(units.length);
+		for (int i = 0; i < units.length; i++) {
+			created.add(balances.putIfAbsent(accounts.get(i).getAccountId(), new AtomicLong(units[i])) == null);
+		}
+		return created;
+	}
+
+	@Override
+	public Account getAccount(String accountId) {
+		AtomicLong balance = balances.get(accountId);
+		return balance == null ? null : new Account(accountId, toDecimal(balance.get()));
+	}
+
+	@Override
+	public TransferResult performBalanceTransfer(String accountFrom, String accountTo, BigDecimal transferAmount) {
+		long start = metrics == null ? 0 : System.nanoTime();
+		AtomicLong fromBalance = balances.get(accountFrom);
+		AtomicLong toBalance = fromBalance == null ? null : balances.get(accountTo);
+		if (metrics != null) {
+			metrics.recordLookup(System.nanoTime() - start);
+		}
+		if (fromBalance == null) {
+			return TransferResult.SENDER_NOT_FOUND;
+		}
+		if (toBalance == null) {
+			return TransferResult.RECEIVER_NOT_FOUND;
+		}
+
+		long units;
+		try {
+			units = toUnits(transferAmount);
+		} catch (ArithmeticException e) {
+			log.debug("Transfer amount {} does not fit scale {}", transferAmount, scale);
+			return TransferResult.INVALID;
+		}
+
+		if (!debit(fromBalance, units)) {
+			return TransferResult.INSUFFICIENT;
+		}
+		try {
+			credit(toBalance, units);
+		} catch (ArithmeticException e) {
+			log.error("Exception in balancetranfer reason", e);
+			log.info("initiating rollback");
+			credit(fromBalance, units);
+			return TransferResult.FAILED;
+		}
+		history.record(accountFrom, accountTo, transferAmount);
+		if (outbox != null) {
+			outbox.append(accountFrom, accountTo, transferAmount);
+			outbox.sync();
+		}
+		return TransferResult.OK;
+	}
+
+	@Override
+	public List<TransferResult> performBalanceTransfers(List<AccountTransfer> transfers) {
+		List<TransferResult> results = new ArrayList<>(transfers.size());
+		for (AccountTransfer transfer : transfers) {
+			results.add(performBalanceTransfer(transfer.getAccountFrom(), transfer.getAccountTo(),
+					transfer.getTransferAmount()));
+		}
+		return results;
+	}
+
+	/*
+	 * The total is debited in one CAS and the legs are credited after it, so
+	 * readers can see a transfer part way; the outcome is still all or
+	 * nothing. Every receiver's headroom is checked before the debit, so a
+	 * credit can only overflow when concurrent credits fill the cell in
+	 * between. Only then are the legs before it undone, and should a receiver
+	 * have spent its credit already, the sender is refunded only what could
+	 * be taken back, so the undo never creates money.
+	 */
+	@Override
+	public TransferResult performMultiLegTransfer(String accountFrom, List<TransferLeg> legs) {
+		AtomicLong fromBalance = balances.get(accountFrom);
+		if (fromBalance == null) {
+			return TransferResult.SENDER_NOT_FOUND;
+		}
+		AtomicLong[] toBalances = new AtomicLong[legs.size()];
+		long[] units = new long[legs.size()];
+		long total = 0;
+		for (int i = 0; i < toBalances.length; i++) {
+			TransferLeg leg = legs.get(i);
+			toBalances[i] = balances.get(leg.getAccountTo());
+			if (toBalances[i] == null) {
+				return TransferResult.RECEIVER_NOT_FOUND;
+			}
+			try {
+				units[i] = toUnits(leg.getTransferAmount());
+				total = Math.addExact(total, units[i]);
+			} catch (ArithmeticException e) {
+				log.debug("Transfer amount {} does not fit scale {}", leg.getTransferAmount(), scale);
+				return TransferResult.INVALID;
+			}
+		}
+
+		// a receiver named twice needs room for both its legs
+		Map<AtomicLong, Long> credits = new IdentityHashMap<>();
+		for (int i = 0; i < toBalances.length; i++) {
+			credits.merge(toBalances[i], units[i], Long::sum);
+		}
+		for (Map.Entry<AtomicLong, Long> credit : credits.entrySet()) {
+			if (Long.MAX_VALUE - credit.getKey().get() < credit.getValue()) {
+				log.error("Multi-leg transfer from {} would overflow a receiver's balance", accountFrom);
+				return TransferResult.FAILED;
+			}
+		}
+
+		if (!debit(fromBalance, total)) {
+			return TransferResult.INSUFFICIENT;
+		}
+		int credited = 0;
+		try {
+			for (; credited < toBalances.length; credited++) {
+				credit(toBalances[credited], units[credited]);
+			}
+		} catch (ArithmeticException e) {
+			log.error("Exception in multi-leg transfer reason", e);
+			log.info("initiating rollback");
+			long refund = total;
+			for (int i = credited - 1; i >= 0; i--) {
+				if (!debit(toBalances[i], units[i])) {
+					log.error("Unable to take back leg {} of multi-leg transfer from {}", i, accountFrom);
+					refund -= units[i];
+				}
+			}
+			credit(fromBalance, refund);
+			return TransferResult.FAILED;
+		}
+		for (TransferLeg leg : legs) {
+			history.record(accountFrom, leg.getAccountTo(), leg.getTransferAmount());
+			if (outbox != null) {
+				outbox.append(accountFrom, leg.getAccountTo(), leg.getTransferAmount());
+			}
+		}
+		if (outbox != null) {
+			outbox.sync();
+		}
+		return TransferResult.OK;
+	}
+
+	@Override
+	public int getAccountCount() {
+		return balances.size();
+	}
+
+	@Override
+	public TransferHistoryPage findTransfers(String accountId, Instant from, Instant to, Long cursor, int limit) {
+		return balances.containsKey(accountId) ? history.find(accountId, from, to, cursor, limit) : null;
+	}
+
+	@Override
+	public boolean save(Account account) {
+		try {
+			long units = toUnits(account.getBalance());
+			balances.computeIfAbsent(account.getAccountId(), id -> new AtomicLong()).set(units);
+			return true;
+		} catch (ArithmeticException e) {
+			log.error("Exception in saving Account {} reason {}", account, e);
+		}
+		return false;
+	}
+
+	@Override
+	public void scan(boolean parallel, Consumer<Account> visitor) {
+		balances.forEach(parallel ? SCAN_PARALLELISM_THRESHOLD : Long.MAX_VALUE,
+				(accountId, balance) -> visitor.accept(new Account(accountId, toDecimal(balance.get()))));
+	}
+
+	@Override
+	public void clearAccounts() {
+		balances.clear();
+		history.clear();
+	}
+
+	private static boolean debit(AtomicLong balance, long units) {
+		long current;
+		do {
+			current = balance.get();
+			if (current < units) {
+				return false;
+			}
+		} while (!balance.compareAndSet(current, current - units));
+		return true;
+	}
+
+	private static void credit(AtomicLong balance, long units) {
+		long current;
+		do {
+			current = balance.get();
+		} while (!balance.compareAndSet(current, Math.addExact(current, units)));
+	}
+
+	// an opening balance the cells cannot hold is the caller's mistake, not a failure here
+	private long balanceUnits(Account account) {
+		BigDecimal balance = account.getBalance();
+		if (balance.scale() > scale && balance.stripTrailingZeros().scale() > scale) {
+			throw new InvalidBalanceException("Balance " + balance + " of account " + account.getAccountId()
+					+ " has more than " + scale + " decimal places");
+		}
+		try {
+			return toUnits(balance);
+		} catch (ArithmeticException e) {
+			throw new InvalidBalanceException("Balance " + balance + " of account " + account.getAccountId()
+					+ " is too large");
+		}
+	}
+
+	private long toUnits(BigDecimal amount) {
+		return amount.movePointRight(scale).longValueExact();
+	}
+
+	private BigDecimal toDecimal(long units) {
+		return BigDecimal.valueOf(units, scale);
+	}
+}
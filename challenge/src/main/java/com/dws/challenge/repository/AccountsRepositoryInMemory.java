@@ -1,74 +1,716 @@
 package com.dws.challenge.repository;
 
 import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Repository;
 
 import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.AccountTransfer;
+import com.dws.challenge.domain.TransferHistoryPage;
+import com.dws.challenge.domain.TransferLeg;
+import com.dws.challenge.domain.TransferResult;
 import com.dws.challenge.exception.DuplicateAccountIdException;
+import com.dws.challenge.exception.TransferOutcomeUnknownException;
+import com.dws.challenge.exception.WritesSuspendedException;
+import com.dws.challenge.journal.JournalReplayHandler;
+import com.dws.challenge.journal.SnapshotStore;
+import com.dws.challenge.journal.TransferJournal;
+import com.dws.challenge.metrics.TransferMetrics;
+import com.dws.challenge.outbox.TransferOutbox;
 
 import lombok.extern.slf4j.Slf4j;
 
+/*
+ * Accounts are mutated in place under their stripe locks. After every change
+ * the new balance and version are published as an immutable snapshot, and
+ * readers only ever see those: getAccount never takes a lock and can never
+ * observe a balance without its matching version.
+ *
+ * With a HotAccountDetector the busiest accounts are split: their balance
+ * moves to a SplitBalance and transfers touching them take only the other
+ * account's stripe. A split account is read as the sum of its sub-balances
+ * with no lock, like LongAdder, so a read during a transfer may pair a
+ * balance with a neighbouring version. Splitting needs the journal and the
+ * outbox to be off, since both record per-account versions in the order the
+ * stripe lock gives them.
+ *
+ * Once a journal commit or outbox sync fails, changes already applied in
+ * memory may or may not be on disk. The caller is told the outcome is
+ * unknown, and every later write is refused until a restart replays the
+ * journal, which holds exactly what did reach the disk.
+ */
 @Repository
+@ConditionalOnProperty(name = "accounts.repository", havingValue = "in-memory", matchIfMissing = true)
 @Slf4j
 public class AccountsRepositoryInMemory implements AccountsRepository {
 
+	// map entries per fork-join task of a parallel scan
+	private static final long SCAN_PARALLELISM_THRESHOLD = 4096;
+
 	private final Map<String, Account> accounts = new ConcurrentHashMap<>();
 
+	private final ConcurrentHashMap<String, BalanceSnapshot> published = new ConcurrentHashMap<>();
+
+	private final StripedLockManager lockManager;
+
+	private final TransferHistory history;
+
+	private final TransferJournal journal;
+
+	private final SnapshotStore snapshotStore;
+
+	private final TransferOutbox outbox;
+
+	private final ReentrantLock outboxLock = new ReentrantLock();
+
+	private final TransferMetrics metrics;
+
+	private final HotAccountDetector hotAccounts;
+
+	private final ConcurrentHashMap<String, SplitBalance> split = new ConcurrentHashMap<>();
+
+	// the commit or sync failure after which writes are refused, null while healthy
+	private volatile RuntimeException durabilityFailure;
+
+	private ScheduledExecutorService snapshotScheduler;
+
+	private long lastSnapshotMark = -1;
+
+	@Autowired
+	public AccountsRepositoryInMemory(@Value("${accounts.lock.stripes:1024}") int lockStripes,
+			ObjectProvider<TransferJournal> journal, ObjectProvider<SnapshotStore> snapshotStore,
+			ObjectProvider<TransferOutbox> outbox, TransferMetrics metrics,
+			ObjectProvider<HotAccountDetector> hotAccounts, @Value("${accounts.history.max-entries-per-account:100000}") int maxHistoryEntries) {
+		this(lockStripes, journal.getIfAvailable(), snapshotStore.getIfAvailable(), outbox.getIfAvailable(), metrics,
+				hotAccounts.getIfAvailable(), maxHistoryEntries);
+	}
+
+	public AccountsRepositoryInMemory(int lockStripes, TransferJournal journal, SnapshotStore snapshotStore,
+			TransferOutbox outbox, TransferMetrics metrics, HotAccountDetector hotAccounts, int maxHistoryEntries) {
+		this.lockManager = new StripedLockManager(lockStripes, metrics);
+		this.history = new TransferHistory(maxHistoryEntries);
+		this.journal = journal;
+		this.snapshotStore = journal == null ? null : snapshotStore;
+		this.outbox = outbox;
+		this.metrics = metrics;
+		if (hotAccounts != null && (journal != null || outbox != null)) {
+			log.warn("accounts.hot.enabled is ignored while the journal or the outbox is enabled");
+			hotAccounts = null;
+		}
+		this.hotAccounts = hotAccounts;
+	}
+
+	/*
+	 * Loads the newest snapshot, if any, and replays only the journal records
+	 * written after it was started; record versions skip changes the snapshot
+	 * already contains. Transfer records also re-add outbox entries the outbox
+	 * lost because the process died before syncing it.
+	 */
+	@PostConstruct
+	public void recover() {
+		if (hotAccounts != null) {
+			hotAccounts.start(this::splitAccount);
+		}
+		if (journal == null) {
+			return;
+		}
+		Replay replay = new Replay();
+		long mark = snapshotStore == null ? 0 : snapshotStore.load(replay);
+		journal.open(replay, mark);
+		published.clear();
+		accounts.values().forEach(this::publish);
+		if (outbox != null) {
+			outbox.sync();
+		}
+		log.info("recovered {} accounts from snapshot and journal", accounts.size());
+
+		if (snapshotStore != null && snapshotStore.getIntervalMillis() > 0) {
+			snapshotScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "accounts-snapshot");
+				thread.setDaemon(true);
+				return thread;
+			});
+			snapshotScheduler.scheduleWithFixedDelay(this::scheduledSnapshot, snapshotStore.getIntervalMillis(),
+					snapshotStore.getIntervalMillis(), TimeUnit.MILLISECONDS);
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		if (snapshotScheduler != null) {
+			snapshotScheduler.shutdownNow();
+		}
+	}
+
+	/*
+	 * Writes a snapshot without pausing transfers. Each account's published
+	 * snapshot is copied, so the image is fuzzy across accounts but every entry
+	 * carries its version; replay from the journal mark taken first fills in
+	 * whatever a given entry missed. A change journaled before the mark is
+	 * published before its stripe is released, so passing every stripe once
+	 * after the mark ensures none of those is missing from the image.
+	 */
+	public synchronized void snapshot() {
+		if (snapshotStore == null) {
+			throw new IllegalStateException("Snapshots need accounts.journal.enabled and accounts.snapshot.enabled");
+		}
+		long mark = journal.mark();
+		if (mark == lastSnapshotMark) {
+			return;
+		}
+		lockManager.awaitHolders();
+		try (SnapshotStore.Writer writer = snapshotStore.begin(mark)) {
+			for (Map.Entry<String, BalanceSnapshot> entry : published.entrySet()) {
+				writer.write(entry.getKey(), entry.getValue().balance, entry.getValue().version);
+			}
+			journal.deleteSegmentsBefore(writer.commit());
+			lastSnapshotMark = mark;
+		}
+	}
+
+	private void scheduledSnapshot() {
+		try {
+			snapshot();
+		} catch (RuntimeException e) {
+			log.error("Exception in writing snapshot reason", e);
+		}
+	}
+
 	@Override
 	public void createAccount(Account account) throws DuplicateAccountIdException {
-		Account previousAccount = accounts.putIfAbsent(account.getAccountId(), account);
+		checkWritable();
+		Account previousAccount = lockManager.withLock(account.getAccountId(), () -> {
+			Account existing = accounts.get(account.getAccountId());
+			if (existing == null) {
+				if (journal != null) {
+					journal.appendCreate(account.getAccountId(), account.getBalance());
+				}
+				accounts.put(account.getAccountId(), account);
+				publish(account);
+			}
+			return existing;
+		});
 		if (previousAccount != null) {
 			throw new DuplicateAccountIdException(
 					"Account id " + account.getAccountId() + " already exists!");
 		}
+		awaitDurable();
+		if (hotAccounts != null && hotAccounts.isDesignated(account.getAccountId())) {
+			hotAccounts.splitDesignated(account.getAccountId());
+		}
+	}
+
+	@Override
+	public List<Boolean> createAccounts(List<Account> batch) {
+		checkWritable();
+		Set<String> accountIds = new HashSet<>();
+		for (Account account : batch) {
+			accountIds.add(account.getAccountId());
+		}
+
+		// stripes are taken once for the whole batch and one journal commit covers all of it
+		List<Boolean> created = lockManager.withLocks(accountIds, () -> {
+			List<Boolean> batchCreated = new ArrayList<>(batch.size());
+			for (Account account : batch) {
+				boolean absent = !accounts.containsKey(account.getAccountId());
+				if (absent) {
+					if (journal != null) {
+						journal.appendCreate(account.getAccountId(), account.getBalance());
+					}
+					accounts.put(account.getAccountId(), account);
+					publish(account);
+				}
+				batchCreated.add(absent);
+			}
+			return batchCreated;
+		});
+		awaitDurable();
+		if (hotAccounts != null) {
+			for (String accountId : accountIds) {
+				if (hotAccounts.isDesignated(accountId)) {
+					hotAccounts.splitDesignated(accountId);
+				}
+			}
+		}
+		return created;
+	}
+
+	/*
+	 * Moves the account's balance into a SplitBalance of the detector's
+	 * width; true when this call split it. The account's stripe lock is held,
+	 * so no unsplit transfer is halfway through it, and each later one finds
+	 * the split under that same lock.
+	 */
+	public boolean splitAccount(String accountId) {
+		if (hotAccounts == null || split.containsKey(accountId)) {
+			return false;
+		}
+		return lockManager.withLock(accountId, () -> {
+			Account account = accounts.get(accountId);
+			if (account == null || split.containsKey(accountId)) {
+				return false;
+			}
+			split.put(accountId, new SplitBalance(hotAccounts.getStripes(), account.getBalance(), account.getVersion()));
+			return true;
+		});
 	}
 
 	@Override
 	public Account getAccount(String accountId) {
-		return accounts.get(accountId);
+		SplitBalance splitBalance = split.get(accountId);
+		if (splitBalance != null) {
+			return splitBalance.toAccount(accountId);
+		}
+		BalanceSnapshot snapshot = published.get(accountId);
+		if (snapshot == null) {
+			return null;
+		}
+		Account account = new Account(accountId, snapshot.balance);
+		account.setVersion(snapshot.version);
+		return account;
+	}
+
+	// the published snapshots are immutable, so the scan reads them without a lock
+	@Override
+	public void scan(boolean parallel, Consumer<Account> visitor) {
+		published.forEach(parallel ? SCAN_PARALLELISM_THRESHOLD : Long.MAX_VALUE, (accountId, snapshot) -> {
+			SplitBalance splitBalance = split.get(accountId);
+			if (splitBalance != null) {
+				visitor.accept(splitBalance.toAccount(accountId));
+				return;
+			}
+			Account account = new Account(accountId, snapshot.balance);
+			account.setVersion(snapshot.version);
+			visitor.accept(account);
+		});
 	}
 
 	@Override
 	public void clearAccounts() {
+		checkWritable();
+		if (journal != null) {
+			journal.appendClear();
+		}
 		accounts.clear();
+		published.clear();
+		split.clear();
+		history.clear();
+	}
+
+	@Override
+	public TransferResult performBalanceTransfer(String accountFrom, String accountTo, BigDecimal transferAmount) {
+		checkWritable();
+		long start = metrics == null ? 0 : System.nanoTime();
+		Account fromAccount = accounts.get(accountFrom);
+		Account toAccount = fromAccount == null ? null : accounts.get(accountTo);
+		if (metrics != null) {
+			metrics.recordLookup(System.nanoTime() - start);
+		}
+		if (fromAccount == null) {
+			return TransferResult.SENDER_NOT_FOUND;
+		}
+		if (toAccount == null) {
+			return TransferResult.RECEIVER_NOT_FOUND;
+		}
+
+		// a split account's stripe is never taken; only the other side's is
+		if (!split.isEmpty() && (split.containsKey(accountFrom) || split.containsKey(accountTo))) {
+			return splitTransfer(fromAccount, toAccount, transferAmount);
+		}
+
+		long requested = hotAccounts == null ? 0 : System.nanoTime();
+		TransferResult result = lockManager.withLocks(accountFrom, accountTo, () -> {
+			if (hotAccounts != null) {
+				hotAccounts.recordLockWait(accountFrom, accountTo, System.nanoTime() - requested);
+			}
+			return underOutboxLock(() -> doBalanceTransfer(fromAccount, toAccount, transferAmount));
+		});
+		awaitDurable();
+		return result;
+	}
+
+	@Override
+	public List<TransferResult> performBalanceTransfers(List<AccountTransfer> transfers) {
+		checkWritable();
+		Set<String> accountIds = new HashSet<>();
+		for (AccountTransfer transfer : transfers) {
+			accountIds.add(transfer.getAccountFrom());
+			accountIds.add(transfer.getAccountTo());
+		}
+
+		// every stripe of the batch is taken once, in order, and held while all legs are applied
+		List<TransferResult> results = lockManager.withLocks(accountIds, () -> {
+			List<TransferResult> batchResults = new ArrayList<>(transfers.size());
+			for (AccountTransfer transfer : transfers) {
+				Account fromAccount = accounts.get(transfer.getAccountFrom());
+				Account toAccount = accounts.get(transfer.getAccountTo());
+				if (fromAccount == null) {
+					batchResults.add(TransferResult.SENDER_NOT_FOUND);
+				} else if (toAccount == null) {
+					batchResults.add(TransferResult.RECEIVER_NOT_FOUND);
+				} else {
+					batchResults.add(underOutboxLock(
+							() -> doBalanceTransfer(fromAccount, toAccount, transfer.getTransferAmount())));
+				}
+			}
+			return batchResults;
+		});
+		awaitDurable();
+
+		log.debug("processed batch of {} balance transfers", transfers.size());
+		return results;
 	}
 
 	@Override
-	public boolean performBalanceTransfer(Account fromAccount, Account toAccount, BigDecimal transferAmount) {
-		BigDecimal fromAccountPreviousBalance = fromAccount.getBalance(); 
-		BigDecimal toAccountPreviousBalance = toAccount.getBalance(); 
+	public TransferResult performMultiLegTransfer(String accountFrom, List<TransferLeg> legs) {
+		checkWritable();
+		Account fromAccount = accounts.get(accountFrom);
+		if (fromAccount == null) {
+			return TransferResult.SENDER_NOT_FOUND;
+		}
+		Account[] toAccounts = new Account[legs.size()];
+		Set<String> accountIds = new HashSet<>();
+		accountIds.add(accountFrom);
+		BigDecimal total = BigDecimal.ZERO;
+		for (int i = 0; i < toAccounts.length; i++) {
+			TransferLeg leg = legs.get(i);
+			toAccounts[i] = accounts.get(leg.getAccountTo());
+			if (toAccounts[i] == null) {
+				return TransferResult.RECEIVER_NOT_FOUND;
+			}
+			accountIds.add(leg.getAccountTo());
+			total = total.add(leg.getTransferAmount());
+		}
+
+		// the sender's stripe is taken once, together with every receiver's, in stripe order
+		BigDecimal transferTotal = total;
+		TransferResult result = lockManager.withLocks(accountIds,
+				() -> underOutboxLock(() -> doMultiLegTransfer(fromAccount, toAccounts, legs, transferTotal)));
+		awaitDurable();
+		return result;
+	}
 
-		synchronized (fromAccount.getAccountId()) {
+	@Override
+	public int getAccountCount() {
+		return accounts.size();
+	}
+
+	@Override
+	public TransferHistoryPage findTransfers(String accountId, Instant from, Instant to, Long cursor, int limit) {
+		return accounts.containsKey(accountId) ? history.find(accountId, from, to, cursor, limit) : null;
+	}
+
+	private TransferResult doBalanceTransfer(Account fromAccount, Account toAccount, BigDecimal transferAmount) {
+		// either account may have been split while this transfer waited for its stripes
+		if (!split.isEmpty() && (split.containsKey(fromAccount.getAccountId())
+				|| split.containsKey(toAccount.getAccountId()))) {
+			return splitTransfer(fromAccount, toAccount, transferAmount);
+		}
+
+		BigDecimal fromAccountPreviousBalance = fromAccount.getBalance();
+		BigDecimal toAccountPreviousBalance = toAccount.getBalance();
+
+		// check and debit under the same locks so no other transfer can drain the sender in between
+		if (fromAccountPreviousBalance.compareTo(transferAmount) < 0) {
+			return TransferResult.INSUFFICIENT;
+		}
+
+		long fromVersion = fromAccount.getVersion() + 1;
+		long toVersion = fromAccount == toAccount ? fromVersion : toAccount.getVersion() + 1;
+
+		// write-ahead: the change is applied only once its journal record is appended
+		long outboxOffset = -1;
+		if (journal != null) {
 			try {
-				
-				fromAccount.setBalance(fromAccountPreviousBalance.subtract(transferAmount));
-				save(fromAccount);
+				outboxOffset = appendTransfer(fromAccount.getAccountId(), toAccount.getAccountId(), transferAmount,
+						fromVersion, toVersion);
+			} catch (RuntimeException e) {
+				log.error("Exception in journaling balancetranfer reason", e);
+				return TransferResult.FAILED;
+			}
+		}
 
-				toAccount.setBalance(toAccountPreviousBalance.add(transferAmount));
-				save(toAccount);
+		try {
+			fromAccount.setVersion(fromVersion);
+			toAccount.setVersion(toVersion);
+			fromAccount.setBalance(fromAccountPreviousBalance.subtract(transferAmount));
+			toAccount.setBalance(toAccount.getBalance().add(transferAmount));
+			publish(fromAccount);
+			publish(toAccount);
+			if (outbox != null) {
+				outbox.append(fromAccount.getAccountId(), toAccount.getAccountId(), transferAmount);
+			}
+			history.record(fromAccount.getAccountId(), toAccount.getAccountId(), transferAmount);
 
-				return true;
-			}catch(Exception e) {
-				log.error("Exception in balancetranfer reason",e);
-				log.info("initiating rollback");
-				fromAccount.setBalance(fromAccountPreviousBalance);
-				toAccount.setBalance(toAccountPreviousBalance);
-				doRollBack(fromAccount, toAccount);
-			}finally {
-				log.info("post transfer sender account details {}",fromAccount);
-				log.info("post transfer receiver account details {}",toAccount);
+			return TransferResult.OK;
+		}catch(Exception e) {
+			log.error("Exception in balancetranfer reason",e);
+			log.info("initiating rollback");
+			doRollBack(Arrays.asList(fromAccount, toAccount),
+					Arrays.asList(fromAccountPreviousBalance, toAccountPreviousBalance));
+			cancelOutbox(outboxOffset, 1);
+		}
+		return TransferResult.FAILED;
+	}
+
+	private TransferResult doMultiLegTransfer(Account fromAccount, Account[] toAccounts, List<TransferLeg> legs,
+			BigDecimal total) {
+		SplitBalance splitFrom = split.isEmpty() ? null : split.get(fromAccount.getAccountId());
+		if (splitFrom == null && fromAccount.getBalance().compareTo(total) < 0) {
+			return TransferResult.INSUFFICIENT;
+		}
+
+		// each leg bumps its receiver's version once more, so a receiver named twice gets two versions
+		long fromVersion = fromAccount.getVersion() + 1;
+		Map<Account, Long> versions = new IdentityHashMap<>();
+		versions.put(fromAccount, fromVersion);
+		String[] accountsTo = new String[toAccounts.length];
+		BigDecimal[] amounts = new BigDecimal[toAccounts.length];
+		long[] toVersions = new long[toAccounts.length];
+		for (int i = 0; i < toAccounts.length; i++) {
+			Long version = versions.get(toAccounts[i]);
+			toVersions[i] = (version == null ? toAccounts[i].getVersion() : version) + 1;
+			versions.put(toAccounts[i], toVersions[i]);
+			accountsTo[i] = toAccounts[i].getAccountId();
+			amounts[i] = legs.get(i).getTransferAmount();
+		}
+
+		long outboxOffset = -1;
+		if (journal != null) {
+			try {
+				outboxOffset = appendMultiLegTransfer(fromAccount.getAccountId(), fromVersion, accountsTo, amounts,
+						toVersions);
+			} catch (RuntimeException e) {
+				log.error("Exception in journaling multi-leg transfer reason", e);
+				return TransferResult.FAILED;
 			}
 		}
-		return false;
+
+		List<Account> changed = new ArrayList<>(toAccounts.length + 1);
+		List<BigDecimal> previousBalances = new ArrayList<>(toAccounts.length + 1);
+		boolean debited = false;
+		int credited = 0;
+		try {
+			if (splitFrom != null) {
+				if (!splitFrom.tryDebit(total)) {
+					return TransferResult.INSUFFICIENT;
+				}
+			} else {
+				changed.add(fromAccount);
+				previousBalances.add(fromAccount.getBalance());
+				fromAccount.setVersion(fromVersion);
+				fromAccount.setBalance(fromAccount.getBalance().subtract(total));
+				publish(fromAccount);
+			}
+			debited = true;
+			for (; credited < toAccounts.length; credited++) {
+				Account toAccount = toAccounts[credited];
+				SplitBalance splitTo = split.isEmpty() ? null : split.get(accountsTo[credited]);
+				if (splitTo != null) {
+					splitTo.credit(amounts[credited]);
+				} else {
+					changed.add(toAccount);
+					previousBalances.add(toAccount.getBalance());
+					toAccount.setVersion(toVersions[credited]);
+					toAccount.setBalance(toAccount.getBalance().add(amounts[credited]));
+					publish(toAccount);
+				}
+			}
+			if (outbox != null) {
+				for (int i = 0; i < accountsTo.length; i++) {
+					outbox.append(fromAccount.getAccountId(), accountsTo[i], amounts[i]);
+				}
+			}
+		} catch (RuntimeException e) {
+			log.error("Exception in multi-leg transfer reason", e);
+			log.info("initiating rollback");
+			doRollBack(changed, previousBalances);
+			// split balances are not in changed; they are undone by the opposite change
+			for (int i = credited - 1; i >= 0; i--) {
+				SplitBalance splitTo = split.get(accountsTo[i]);
+				if (splitTo != null && !splitTo.tryDebit(amounts[i])) {
+					log.error("Unable to take back {} credited to split account {}", amounts[i], accountsTo[i]);
+				}
+			}
+			if (debited && splitFrom != null) {
+				splitFrom.credit(total);
+			}
+			cancelOutbox(outboxOffset, accountsTo.length);
+			return TransferResult.FAILED;
+		}
+
+		for (int i = 0; i < accountsTo.length; i++) {
+			history.record(fromAccount.getAccountId(), accountsTo[i], amounts[i]);
+		}
+		return TransferResult.OK;
+	}
+
+	/*
+	 * A transfer with at least one split side. An unsplit side is changed and
+	 * its history entry written under its own stripe lock, which is reentrant
+	 * for callers already holding it; no stripe is taken while another one or
+	 * a sub-balance lock is held, other than by a caller that already holds
+	 * both stripes. Splits are not undone, so a side found split stays
+	 * split, and an unsplit side is checked again once its stripe is held.
+	 */
+	private TransferResult splitTransfer(Account fromAccount, Account toAccount, BigDecimal transferAmount) {
+		String accountFrom = fromAccount.getAccountId();
+		String accountTo = toAccount.getAccountId();
+		SplitBalance splitFrom = split.get(accountFrom);
+		if (splitFrom != null) {
+			return splitSenderTransfer(splitFrom, fromAccount, toAccount, transferAmount);
+		}
+		TransferResult result = lockManager.withLock(accountFrom, () -> {
+			// split while this waited: handled below, after the sender's stripe is released
+			if (split.containsKey(accountFrom)) {
+				return null;
+			}
+			if (fromAccount.getBalance().compareTo(transferAmount) < 0) {
+				return TransferResult.INSUFFICIENT;
+			}
+			fromAccount.setVersion(fromAccount.getVersion() + 1);
+			fromAccount.setBalance(fromAccount.getBalance().subtract(transferAmount));
+			publish(fromAccount);
+			split.get(accountTo).credit(transferAmount);
+			history.record(accountFrom, accountTo, transferAmount);
+			return TransferResult.OK;
+		});
+		return result != null ? result
+				: splitSenderTransfer(split.get(accountFrom), fromAccount, toAccount, transferAmount);
+	}
+
+	private TransferResult splitSenderTransfer(SplitBalance splitFrom, Account fromAccount, Account toAccount,
+			BigDecimal transferAmount) {
+		if (!splitFrom.tryDebit(transferAmount)) {
+			return TransferResult.INSUFFICIENT;
+		}
+		String accountTo = toAccount.getAccountId();
+		SplitBalance splitTo = split.get(accountTo);
+		if (splitTo != null) {
+			splitTo.credit(transferAmount);
+			history.record(fromAccount.getAccountId(), accountTo, transferAmount);
+			return TransferResult.OK;
+		}
+		lockManager.withLock(accountTo, () -> {
+			SplitBalance splitReceiver = split.get(accountTo);
+			if (splitReceiver != null) {
+				splitReceiver.credit(transferAmount);
+			} else {
+				toAccount.setVersion(toAccount.getVersion() + 1);
+				toAccount.setBalance(toAccount.getBalance().add(transferAmount));
+				publish(toAccount);
+			}
+			history.record(fromAccount.getAccountId(), accountTo, transferAmount);
+			return null;
+		});
+		return TransferResult.OK;
+	}
+
+	/*
+	 * With both a journal and an outbox, a transfer runs under the outbox lock
+	 * from its journal record to its outbox entries. Offsets then follow
+	 * journal order, so each journal record can name the entries recovery owes
+	 * the outbox, and the entries are appended only once the transfer has been
+	 * applied. Without a journal no record names an offset, so entries take
+	 * whatever offset the outbox gives them and the stripe locks are enough.
+	 */
+	private TransferResult underOutboxLock(Supplier<TransferResult> transfer) {
+		if (outbox == null || journal == null) {
+			return transfer.get();
+		}
+		outboxLock.lock();
+		try {
+			return transfer.get();
+		} finally {
+			outboxLock.unlock();
+		}
+	}
+
+	// returns the offset the transfer's outbox entry will get, or -1 without an outbox
+	private long appendTransfer(String accountFrom, String accountTo, BigDecimal amount, long fromVersion,
+			long toVersion) {
+		long outboxOffset = outbox == null ? -1 : outbox.getNextOffset();
+		journal.appendTransfer(accountFrom, accountTo, amount, fromVersion, toVersion, outboxOffset);
+		return outboxOffset;
+	}
+
+	private long appendMultiLegTransfer(String accountFrom, long fromVersion, String[] accountsTo,
+			BigDecimal[] amounts, long[] toVersions) {
+		long outboxOffset = outbox == null ? -1 : outbox.getNextOffset();
+		journal.appendMultiLegTransfer(accountFrom, fromVersion, accountsTo, amounts, toVersions, outboxOffset);
+		return outboxOffset;
+	}
+
+	/*
+	 * A rolled-back transfer never appended its outbox entries, but the
+	 * journal already names their offsets. Cancelling them keeps the offsets
+	 * from being reused and stops replay from recovering the entries.
+	 */
+	private void cancelOutbox(long outboxOffset, int count) {
+		if (outboxOffset < 0) {
+			return;
+		}
+		try {
+			journal.appendOutboxCancel(outboxOffset, count);
+			for (int i = 0; i < count; i++) {
+				outbox.cancel(outboxOffset + i);
+			}
+		} catch (RuntimeException e) {
+			log.error("Unable to cancel outbox entries from {} of a rolled back transfer", outboxOffset, e);
+		}
 	}
 
 	@Override
 	public boolean save(Account account) {
+		checkWritable();
+		boolean saved = store(account);
+		awaitDurable();
+		return saved;
+	}
+
+	private boolean store(Account account) {
 		try {
-			accounts.put(account.getAccountId(), account);
+			lockManager.withLock(account.getAccountId(), () -> {
+				SplitBalance splitBalance = split.get(account.getAccountId());
+				if (splitBalance != null) {
+					account.setVersion(splitBalance.set(account.getBalance()));
+					return null;
+				}
+				Account existing = accounts.get(account.getAccountId());
+				long version = (existing == null ? account.getVersion() : existing.getVersion()) + 1;
+				if (journal != null) {
+					journal.appendBalance(account.getAccountId(), account.getBalance(), version);
+				}
+				account.setVersion(version);
+				Account previous = accounts.put(account.getAccountId(), account);
+				publish(account);
+				return previous;
+			});
 			return true;
 		}catch(Exception e) {
 			log.error("Exception in saving Account {} reason {}",account,e);
@@ -76,8 +718,253 @@ public class AccountsRepositoryInMemory implements AccountsRepository {
 		return false;
 	}
 
-	private void doRollBack(Account fromAccount, Account toAccount) {
-		save(fromAccount);
-		save(toAccount);
+	/*
+	 * Puts every changed account back to the balance it had before, newest
+	 * change first so an account changed twice ends at its first balance. The
+	 * restored balance is stored like a save, with a new version and, when
+	 * journaling, a balance record that supersedes the transfer on replay.
+	 */
+	private void doRollBack(List<Account> changed, List<BigDecimal> previousBalances) {
+		for (int i = changed.size() - 1; i >= 0; i--) {
+			Account account = changed.get(i);
+			account.setBalance(previousBalances.get(i));
+			store(account);
+		}
+	}
+
+	// called with the account's stripe lock held, so snapshots of one account are published in order
+	private void publish(Account account) {
+		published.put(account.getAccountId(), new BalanceSnapshot(account.getBalance(), account.getVersion()));
+	}
+
+	private void checkWritable() {
+		RuntimeException failure = durabilityFailure;
+		if (failure != null) {
+			throw new WritesSuspendedException("Writes are suspended until a restart after a journal failure",
+					failure);
+		}
+	}
+
+	/*
+	 * With group commit the caller waits here, after its locks are released,
+	 * for the shared fsync. Its change is already applied and published, so a
+	 * failure is not a FAILED result but an unknown outcome.
+	 */
+	private void awaitDurable() {
+		try {
+			if (journal != null) {
+				journal.commit();
+			}
+			// outbox entries become durable and visible to the relay only after their transfers are
+			if (outbox != null) {
+				outbox.sync();
+			}
+		} catch (RuntimeException e) {
+			durabilityFailure = e;
+			throw new TransferOutcomeUnknownException("Change applied but not made durable, outcome unknown", e);
+		}
+	}
+
+	private static final class BalanceSnapshot {
+
+		private final BigDecimal balance;
+
+		private final long version;
+
+		private BalanceSnapshot(BigDecimal balance, long version) {
+			this.balance = balance;
+			this.version = version;
+		}
+	}
+
+	/*
+	 * A hot account's balance spread over sub-balances, each behind its own
+	 * lock. A credit adds to a random sub-balance. A debit first tries a
+	 * random sub-balance alone; when that one is short it locks all of them in
+	 * index order, so it sees the true total, and takes the amount across
+	 * them. No sub-balance ever goes below zero, so neither does the total,
+	 * and the unlocked sum a reader sees is never negative either.
+	 */
+	private static final class SplitBalance {
+
+		private final ReentrantLock[] locks;
+
+		private final AtomicReferenceArray<BigDecimal> balances;
+
+		private final AtomicLong version;
+
+		private SplitBalance(int stripes, BigDecimal balance, long version) {
+			this.locks = new ReentrantLock[stripes];
+			this.balances = new AtomicReferenceArray<>(stripes);
+			BigDecimal zero = BigDecimal.ZERO.setScale(Math.max(balance.scale(), 0));
+			for (int i = 0; i < stripes; i++) {
+				locks[i] = new ReentrantLock();
+				balances.set(i, i == 0 ? balance : zero);
+			}
+			this.version = new AtomicLong(version);
+		}
+
+		private void credit(BigDecimal amount) {
+			int stripe = ThreadLocalRandom.current().nextInt(locks.length);
+			locks[stripe].lock();
+			try {
+				balances.set(stripe, balances.get(stripe).add(amount));
+				version.incrementAndGet();
+			} finally {
+				locks[stripe].unlock();
+			}
+		}
+
+		private boolean tryDebit(BigDecimal amount) {
+			int stripe = ThreadLocalRandom.current().nextInt(locks.length);
+			locks[stripe].lock();
+			try {
+				BigDecimal balance = balances.get(stripe);
+				if (balance.compareTo(amount) >= 0) {
+					balances.set(stripe, balance.subtract(amount));
+					version.incrementAndGet();
+					return true;
+				}
+			} finally {
+				locks[stripe].unlock();
+			}
+
+			lockAll();
+			try {
+				BigDecimal total = BigDecimal.ZERO;
+				for (int i = 0; i < locks.length; i++) {
+					total = total.add(balances.get(i));
+				}
+				if (total.compareTo(amount) < 0) {
+					return false;
+				}
+				BigDecimal remaining = amount;
+				for (int i = 0; i < locks.length && remaining.signum() > 0; i++) {
+					BigDecimal taken = balances.get(i).min(remaining);
+					balances.set(i, balances.get(i).subtract(taken));
+					remaining = remaining.subtract(taken);
+				}
+				version.incrementAndGet();
+				return true;
+			} finally {
+				unlockAll();
+			}
+		}
+
+		// replaces the whole balance and returns the new version
+		private long set(BigDecimal balance) {
+			lockAll();
+			try {
+				BigDecimal zero = BigDecimal.ZERO.setScale(Math.max(balance.scale(), 0));
+				for (int i = 0; i < locks.length; i++) {
+					balances.set(i, i == 0 ? balance : zero);
+				}
+				return version.incrementAndGet();
+			} finally {
+				unlockAll();
+			}
+		}
+
+		private Account toAccount(String accountId) {
+			long currentVersion = version.get();
+			BigDecimal total = balances.get(0);
+			for (int i = 1; i < locks.length; i++) {
+				total = total.add(balances.get(i));
+			}
+			Account account = new Account(accountId, total);
+			account.setVersion(currentVersion);
+			return account;
+		}
+
+		private void lockAll() {
+			for (ReentrantLock lock : locks) {
+				lock.lock();
+			}
+		}
+
+		private void unlockAll() {
+			for (int i = locks.length - 1; i >= 0; i--) {
+				locks[i].unlock();
+			}
+		}
+	}
+
+	private class Replay implements JournalReplayHandler {
+
+		@Override
+		public void onCreate(String accountId, BigDecimal balance) {
+			accounts.putIfAbsent(accountId, new Account(accountId, balance));
+		}
+
+		@Override
+		public void onTransfer(String accountFrom, String accountTo, BigDecimal amount, long fromVersion,
+				long toVersion, long outboxOffset) {
+			if (outbox != null && outboxOffset >= 0) {
+				outbox.recover(outboxOffset, accountFrom, accountTo, amount);
+			}
+			Account fromAccount = accounts.get(accountFrom);
+			Account toAccount = accounts.get(accountTo);
+			if (fromAccount == toAccount) {
+				fromAccount.setVersion(Math.max(fromAccount.getVersion(), fromVersion));
+				return;
+			}
+			// a leg at or below the account's version is already part of the loaded snapshot
+			if (fromVersion > fromAccount.getVersion()) {
+				fromAccount.setBalance(fromAccount.getBalance().subtract(amount));
+				fromAccount.setVersion(fromVersion);
+			}
+			if (toVersion > toAccount.getVersion()) {
+				toAccount.setBalance(toAccount.getBalance().add(amount));
+				toAccount.setVersion(toVersion);
+			}
+		}
+
+		@Override
+		public void onMultiLegTransfer(String accountFrom, long fromVersion, String[] accountsTo,
+				BigDecimal[] amounts, long[] toVersions, long outboxOffset) {
+			BigDecimal total = BigDecimal.ZERO;
+			for (int i = 0; i < accountsTo.length; i++) {
+				if (outbox != null && outboxOffset >= 0) {
+					outbox.recover(outboxOffset + i, accountFrom, accountsTo[i], amounts[i]);
+				}
+				total = total.add(amounts[i]);
+			}
+			Account fromAccount = accounts.get(accountFrom);
+			if (fromVersion > fromAccount.getVersion()) {
+				fromAccount.setBalance(fromAccount.getBalance().subtract(total));
+				fromAccount.setVersion(fromVersion);
+			}
+			for (int i = 0; i < accountsTo.length; i++) {
+				Account toAccount = accounts.get(accountsTo[i]);
+				if (toVersions[i] > toAccount.getVersion()) {
+					toAccount.setBalance(toAccount.getBalance().add(amounts[i]));
+					toAccount.setVersion(toVersions[i]);
+				}
+			}
+		}
+
+		@Override
+		public void onBalance(String accountId, BigDecimal balance, long version) {
+			Account account = accounts.get(accountId);
+			if (account == null || version > account.getVersion()) {
+				Account restored = new Account(accountId, balance);
+				restored.setVersion(version);
+				accounts.put(accountId, restored);
+			}
+		}
+
+		@Override
+		public void onOutboxCancel(long outboxOffset, int count) {
+			if (outbox != null) {
+				for (int i = 0; i < count; i++) {
+					outbox.cancel(outboxOffset + i);
+				}
+			}
+		}
+
+		@Override
+		public void onClear() {
+			accounts.clear();
+		}
 	}
 }
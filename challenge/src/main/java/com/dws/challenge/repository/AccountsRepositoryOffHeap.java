@@ -0,0 +1,581 @@
+package com.dws.challenge.repository;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.AccountTransfer;
+import com.dws.challenge.domain.TransferHistoryPage;
+import com.dws.challenge.domain.TransferLeg;
+import com.dws.challenge.domain.TransferResult;
+import com.dws.challenge.exception.AccountStoreFullException;
+import com.dws.challenge.exception.DuplicateAccountIdException;
+import com.dws.challenge.exception.InvalidAccountIdException;
+import com.dws.challenge.exception.InvalidBalanceException;
+import com.dws.challenge.metrics.TransferMetrics;
+import com.dws.challenge.outbox.TransferOutbox;
+
+import lombok.extern.slf4j.Slf4j;
+
+/*
+ * Keeps accounts outside the Java heap so the heap and GC pause times stay flat
+ * however many accounts there are. Each account is a fixed-width record in
+ * direct ByteBuffer segments: [long balance in minor units][long version]
+ * [short id length][id bytes, UTF-8, zero padded]. An open-addressing index
+ * maps the id to its record; each index entry is one long holding the id hash
+ * and the record number, so a probe only compares id bytes when the hash
+ * matches. The index lives in primitive long arrays, which the collector never
+ * has to trace. Records are never moved or freed until the accounts are
+ * cleared, and Account objects exist only as views handed out at the API
+ * boundary.
+ *
+ * A record's balance and version are read and written only under its
+ * account's stripe lock. Inserts also take the insert lock, so only one thread
+ * at a time adds to the index, while probes run without a lock: an entry is
+ * published with an ordered write after its record is complete and read back
+ * with a volatile read, so a probe that sees the entry also sees the id bytes.
+ */
+@Repository
+@ConditionalOnProperty(name = "accounts.repository", havingValue = "off-heap")
+@Slf4j
+public class AccountsRepositoryOffHeap implements AccountsRepository {
+
+	private static final int BALANCE = 0;
+
+	private static final int VERSION = 8;
+
+	private static final int ID_LENGTH = 16;
+
+	private static final int ID = 18;
+
+	private static final int MAX_ID_BYTES = 1024;
+
+	private static final int RECORD_SHIFT = 20;
+
+	private static final int RECORDS_PER_SEGMENT = 1 << RECORD_SHIFT;
+
+	private static final int INDEX_SHIFT = 24;
+
+	private static final int INDEX_ENTRIES_PER_SEGMENT = 1 << INDEX_SHIFT;
+
+	private final int scale;
+
+	private final int maxAccounts;
+
+	private final int maxIdBytes;
+
+	private final int recordBytes;
+
+	// record segments are allocated as the account count reaches them
+	private final AtomicReferenceArray<ByteBuffer> records;
+
+	private final AtomicLongArray[] index;
+
+	private final long indexMask;
+
+	private final StripedLockManager lockManager;
+
+	private final ReentrantLock insertLock = new ReentrantLock();
+
+	private final TransferHistory history;
+
+	private final TransferOutbox outbox;
+
+	private final TransferMetrics metrics;
+
+	private volatile int count;
+
+	public AccountsRepositoryOffHeap(int scale, int maxAccounts, int maxIdBytes, int lockStripes) {
+		this(scale, maxAccounts, maxIdBytes, lockStripes, (TransferOutbox) null, null);
+	}
+
+	@Autowired
+	public AccountsRepositoryOffHeap(@Value("${accounts.balance.scale:2}") int scale,
+			@Value("${accounts.off-heap.max-accounts:1048576}") int maxAccounts,
+			@Value("${accounts.off-heap.max-id-bytes:46}") int maxIdBytes,
+			@Value("${accounts.lock.stripes:1024}") int lockStripes, ObjectProvider<TransferOutbox> outbox,
+			TransferMetrics metrics, @Value("${accounts.history.max-entries-per-account:100000}") int maxHistoryEntries) {
+		this(scale, maxAccounts, maxIdBytes, lockStripes, outbox.getIfAvailable(), metrics, maxHistoryEntries);
+	}
+
+	public AccountsRepositoryOffHeap(int scale, int maxAccounts, int maxIdBytes, int lockStripes,
+			TransferOutbox outbox, TransferMetrics metrics) {
+		this(scale, maxAccounts, maxIdBytes, lockStripes, outbox, metrics,
+				TransferHistory.DEFAULT_MAX_ENTRIES_PER_ACCOUNT);
+	}
+
+	public AccountsRepositoryOffHeap(int scale, int maxAccounts, int maxIdBytes, int lockStripes,
+			TransferOutbox outbox, TransferMetrics metrics, int maxHistoryEntries) {
+		if (maxAccounts < 1) {
+			throw new IllegalArgumentException("accounts.off-heap.max-accounts must be positive");
+		}
+		if (maxIdBytes < 1 || maxIdBytes > MAX_ID_BYTES) {
+			throw new IllegalArgumentException("accounts.off-heap.max-id-bytes must be between 1 and " + MAX_ID_BYTES);
+		}
+		this.history = new TransferHistory(maxHistoryEntries);
+		this.scale = scale;
+		this.maxAccounts = maxAccounts;
+		this.maxIdBytes = maxIdBytes;
+		// whole longs, so the balance and version of every record stay 8-byte aligned
+		this.recordBytes = (ID + maxIdBytes + 7) & ~7;
+		this.records = new AtomicReferenceArray<>((maxAccounts + RECORDS_PER_SEGMENT - 1) >>> RECORD_SHIFT);
+
+		// at most half full keeps probe sequences short
+		long indexSize = Long.highestOneBit(Math.max(2L, 2L * maxAccounts - 1)) << 1;
+		this.indexMask = indexSize - 1;
+		this.index = new AtomicLongArray[(int) ((indexSize + INDEX_ENTRIES_PER_SEGMENT - 1) >>> INDEX_SHIFT)];
+		for (int i = 0; i < index.length; i++) {
+			index[i] = new AtomicLongArray((int) Math.min(indexSize, INDEX_ENTRIES_PER_SEGMENT));
+		}
+		this.lockManager = new StripedLockManager(lockStripes, metrics);
+		this.outbox = outbox;
+		this.metrics = metrics;
+		log.info("off-heap account store for {} accounts with {} byte records and {} index entries", maxAccounts,
+				recordBytes, indexSize);
+	}
+
+	@Override
+	public void createAccount(Account account) throws DuplicateAccountIdException {
+		String accountId = account.getAccountId();
+		byte[] id = idBytes(accountId);
+		long units = balanceUnits(account);
+		boolean created = lockManager.withLock(accountId, () -> {
+			if (find(id, hash(accountId)) >= 0) {
+				return false;
+			}
+			insert(id, hash(accountId), units);
+			return true;
+		});
+		if (!created) {
+			throw new DuplicateAccountIdException("Account id " + accountId + " already exists!");
+		}
+	}
+
+	@Override
+	public List<Boolean> createAccounts(List<Account> accounts) {
+		// ids and balances are checked before any stripe is taken, so a bad record fails the batch untouched
+		byte[][] ids = new byte[accounts.size()][];
+		long[] units = new long[ids.length];
+		Set<String> accountIds = new HashSet<>();
+		for (int i = 0; i < ids.length; i++) {
+			String accountId = accounts.get(i).getAccountId();
+			ids[i] = idBytes(accountId);
+			units[i] = balanceUnits(accounts.get(i));
+			accountIds.add(accountId);
+		}
+		return lockManager.withLocks(accountIds, () -> {
+			List<Boolean> created = new ArrayList<>(ids.length);
+			for (int i = 0; i < ids.length; i++) {
+				int hash = hash(accounts.get(i).getAccountId());
+				boolean absent = find(ids[i], hash) < 0;
+				if (absent) {
+					insert(ids[i], hash, units[i]);
+				}
+				created.add(absent);
+			}
+			return created;
+		});
+	}
+
+	@Override
+	public Account getAccount(String accountId) {
+		byte[] id = encode(accountId);
+		return lockManager.withLock(accountId, () -> {
+			int record = find(id, hash(accountId));
+			if (record < 0) {
+				return null;
+			}
+			Account account = new Account(accountId, toDecimal(balance(record)));
+			account.setVersion(version(record));
+			return account;
+		});
+	}
+
+	@Override
+	public TransferResult performBalanceTransfer(String accountFrom, String accountTo, BigDecimal transferAmount) {
+		byte[] fromId = encode(accountFrom);
+		byte[] toId = encode(accountTo);
+		TransferResult result = lockManager.withLocks(accountFrom, accountTo,
+				() -> doBalanceTransfer(accountFrom, fromId, accountTo, toId, transferAmount));
+		if (result == TransferResult.OK && outbox != null) {
+			outbox.sync();
+		}
+		return result;
+	}
+
+	@Override
+	public List<TransferResult> performBalanceTransfers(List<AccountTransfer> transfers) {
+		Set<String> accountIds = new HashSet<>();
+		for (AccountTransfer transfer : transfers) {
+			accountIds.add(transfer.getAccountFrom());
+			accountIds.add(transfer.getAccountTo());
+		}
+
+		List<TransferResult> results = lockManager.withLocks(accountIds, () -> {
+			List<TransferResult> batchResults = new ArrayList<>(transfers.size());
+			for (AccountTransfer transfer : transfers) {
+				batchResults.add(doBalanceTransfer(transfer.getAccountFrom(), encode(transfer.getAccountFrom()),
+						transfer.getAccountTo(), encode(transfer.getAccountTo()), transfer.getTransferAmount()));
+			}
+			return batchResults;
+		});
+		if (outbox != null && results.contains(TransferResult.OK)) {
+			outbox.sync();
+		}
+		return results;
+	}
+
+	@Override
+	public TransferResult performMultiLegTransfer(String accountFrom, List<TransferLeg> legs) {
+		Set<String> accountIds = new HashSet<>();
+		accountIds.add(accountFrom);
+		for (TransferLeg leg : legs) {
+			accountIds.add(leg.getAccountTo());
+		}
+		TransferResult result = lockManager.withLocks(accountIds, () -> doMultiLegTransfer(accountFrom, legs));
+		if (result == TransferResult.OK && outbox != null) {
+			outbox.sync();
+		}
+		return result;
+	}
+
+	@Override
+	public TransferHistoryPage findTransfers(String accountId, Instant from, Instant to, Long cursor, int limit) {
+		byte[] id = encode(accountId);
+		boolean exists = lockManager.withLock(accountId, () -> find(id, hash(accountId)) >= 0);
+		return exists ? history.find(accountId, from, to, cursor, limit) : null;
+	}
+
+	@Override
+	public boolean save(Account account) {
+		String accountId = account.getAccountId();
+		byte[] id = encode(accountId);
+		try {
+			long units = toUnits(account.getBalance());
+			return lockManager.withLock(accountId, () -> {
+				int record = find(id, hash(accountId));
+				if (record < 0) {
+					if (id.length > maxIdBytes) {
+						return false;
+					}
+					insert(id, hash(accountId), units);
+				} else {
+					write(record, units, version(record) + 1);
+				}
+				return true;
+			});
+		} catch (ArithmeticException | AccountStoreFullException e) {
+			log.error("Exception in saving Account {} reason {}", account, e);
+		}
+		return false;
+	}
+
+	/*
+	 * Walks the records in order; record ids never change once written, and
+	 * each balance and version pair is read under its stripe lock. Parallel
+	 * scans split the record range over the common fork-join pool.
+	 */
+	@Override
+	public void scan(boolean parallel, Consumer<Account> visitor) {
+		IntStream records = IntStream.range(0, count);
+		(parallel ? records.parallel() : records).forEach(record -> {
+			String accountId = accountId(record);
+			Account account = lockManager.withLock(accountId, () -> {
+				Account view = new Account(accountId, toDecimal(balance(record)));
+				view.setVersion(version(record));
+				return view;
+			});
+			visitor.accept(account);
+		});
+	}
+
+	@Override
+	public void clearAccounts() {
+		insertLock.lock();
+		try {
+			for (AtomicLongArray segment : index) {
+				for (int i = 0; i < segment.length(); i++) {
+					segment.lazySet(i, 0L);
+				}
+			}
+			count = 0;
+			history.clear();
+		} finally {
+			insertLock.unlock();
+		}
+	}
+
+	@Override
+	public int getAccountCount() {
+		return count;
+	}
+
+	private TransferResult doBalanceTransfer(String accountFrom, byte[] fromId, String accountTo, byte[] toId,
+			BigDecimal transferAmount) {
+		long start = metrics == null ? 0 : System.nanoTime();
+		int fromRecord = find(fromId, hash(accountFrom));
+		int toRecord = fromRecord < 0 ? -1 : find(toId, hash(accountTo));
+		if (metrics != null) {
+			metrics.recordLookup(System.nanoTime() - start);
+		}
+		if (fromRecord < 0) {
+			return TransferResult.SENDER_NOT_FOUND;
+		}
+		if (toRecord < 0) {
+			return TransferResult.RECEIVER_NOT_FOUND;
+		}
+
+		long units;
+		try {
+			units = toUnits(transferAmount);
+		} catch (ArithmeticException e) {
+			log.debug("Transfer amount {} does not fit scale {}", transferAmount, scale);
+			return TransferResult.INVALID;
+		}
+		long fromBalance = balance(fromRecord);
+		if (fromBalance < units) {
+			return TransferResult.INSUFFICIENT;
+		}
+		if (fromRecord == toRecord) {
+			write(fromRecord, fromBalance, version(fromRecord) + 1);
+		} else {
+			long toBalance;
+			try {
+				toBalance = Math.addExact(balance(toRecord), units);
+			} catch (ArithmeticException e) {
+				log.debug("Transfer of {} would overflow the balance of {}", transferAmount, accountTo);
+				return TransferResult.INVALID;
+			}
+			write(fromRecord, fromBalance - units, version(fromRecord) + 1);
+			write(toRecord, toBalance, version(toRecord) + 1);
+		}
+		history.record(accountFrom, accountTo, transferAmount);
+		if (outbox != null) {
+			outbox.append(accountFrom, accountTo, transferAmount);
+		}
+		return TransferResult.OK;
+	}
+
+	// every new balance and version is worked out before the first write, so nothing can fail half way
+	private TransferResult doMultiLegTransfer(String accountFrom, List<TransferLeg> legs) {
+		int fromRecord = find(encode(accountFrom), hash(accountFrom));
+		if (fromRecord < 0) {
+			return TransferResult.SENDER_NOT_FOUND;
+		}
+		int[] toRecords = new int[legs.size()];
+		long[] units = new long[legs.size()];
+		long total = 0;
+		for (int i = 0; i < toRecords.length; i++) {
+			TransferLeg leg = legs.get(i);
+			toRecords[i] = find(encode(leg.getAccountTo()), hash(leg.getAccountTo()));
+			if (toRecords[i] < 0) {
+				return TransferResult.RECEIVER_NOT_FOUND;
+			}
+			try {
+				units[i] = toUnits(leg.getTransferAmount());
+				total = Math.addExact(total, units[i]);
+			} catch (ArithmeticException e) {
+				log.debug("Transfer amount {} does not fit scale {}", leg.getTransferAmount(), scale);
+				return TransferResult.INVALID;
+			}
+		}
+		long fromBalance = balance(fromRecord);
+		if (fromBalance < total) {
+			return TransferResult.INSUFFICIENT;
+		}
+
+		// record -> { balance, version } after the transfer
+		Map<Integer, long[]> updates = new LinkedHashMap<>();
+		updates.put(fromRecord, new long[] { fromBalance - total, version(fromRecord) + 1 });
+		for (int i = 0; i < toRecords.length; i++) {
+			long[] update = updates.computeIfAbsent(toRecords[i],
+					record -> new long[] { balance(record), version(record) });
+			try {
+				update[0] = Math.addExact(update[0], units[i]);
+			} catch (ArithmeticException e) {
+				log.debug("Multi-leg transfer from {} would overflow a receiver's balance", accountFrom);
+				return TransferResult.INVALID;
+			}
+			update[1]++;
+		}
+		for (Map.Entry<Integer, long[]> update : updates.entrySet()) {
+			write(update.getKey(), update.getValue()[0], update.getValue()[1]);
+		}
+		for (TransferLeg leg : legs) {
+			history.record(accountFrom, leg.getAccountTo(), leg.getTransferAmount());
+			if (outbox != null) {
+				outbox.append(accountFrom, leg.getAccountTo(), leg.getTransferAmount());
+			}
+		}
+		return TransferResult.OK;
+	}
+
+	/*
+	 * Returns the record number for the id, or -1. Entries are only ever added
+	 * between clears, so the first empty index slot ends the probe.
+	 */
+	private int find(byte[] id, int hash) {
+		if (id.length > maxIdBytes) {
+			return -1;
+		}
+		for (long slot = hash & indexMask;; slot = (slot + 1) & indexMask) {
+			long entry = indexEntry(slot);
+			if (entry == 0) {
+				return -1;
+			}
+			if ((int) (entry >>> 32) == hash) {
+				int record = (int) entry - 1;
+				if (idEquals(record, id)) {
+					return record;
+				}
+			}
+		}
+	}
+
+	private void insert(byte[] id, int hash, long units) {
+		insertLock.lock();
+		try {
+			int record = count;
+			if (record == maxAccounts) {
+				throw new AccountStoreFullException("Off-heap account store is full at " + maxAccounts + " accounts");
+			}
+			ByteBuffer segment = records.get(record >>> RECORD_SHIFT);
+			if (segment == null) {
+				int segmentRecords = Math.min(RECORDS_PER_SEGMENT, maxAccounts - record);
+				segment = ByteBuffer.allocateDirect(segmentRecords * recordBytes);
+				records.set(record >>> RECORD_SHIFT, segment);
+			}
+			int offset = offsetOf(record);
+			segment.putLong(offset + BALANCE, units);
+			segment.putLong(offset + VERSION, 0L);
+			segment.putShort(offset + ID_LENGTH, (short) id.length);
+			for (int i = 0; i < id.length; i++) {
+				segment.put(offset + ID + i, id[i]);
+			}
+
+			// the ordered write makes the entry visible only after every record write above it
+			long slot = hash & indexMask;
+			while (indexEntry(slot) != 0) {
+				slot = (slot + 1) & indexMask;
+			}
+			index[(int) (slot >>> INDEX_SHIFT)].lazySet(indexOffset(slot),
+					((long) hash << 32) | ((record + 1) & 0xFFFFFFFFL));
+			count = record + 1;
+		} finally {
+			insertLock.unlock();
+		}
+	}
+
+	private boolean idEquals(int record, byte[] id) {
+		ByteBuffer segment = records.get(record >>> RECORD_SHIFT);
+		if (segment == null) {
+			return false;
+		}
+		int offset = offsetOf(record);
+		if (segment.getShort(offset + ID_LENGTH) != id.length) {
+			return false;
+		}
+		for (int i = 0; i < id.length; i++) {
+			if (segment.get(offset + ID + i) != id[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private String accountId(int record) {
+		ByteBuffer segment = records.get(record >>> RECORD_SHIFT);
+		int offset = offsetOf(record);
+		byte[] id = new byte[segment.getShort(offset + ID_LENGTH)];
+		for (int i = 0; i < id.length; i++) {
+			id[i] = segment.get(offset + ID + i);
+		}
+		return new String(id, StandardCharsets.UTF_8);
+	}
+
+	private long balance(int record) {
+		return records.get(record >>> RECORD_SHIFT).getLong(offsetOf(record) + BALANCE);
+	}
+
+	private long version(int record) {
+		return records.get(record >>> RECORD_SHIFT).getLong(offsetOf(record) + VERSION);
+	}
+
+	private void write(int record, long balance, long version) {
+		ByteBuffer segment = records.get(record >>> RECORD_SHIFT);
+		int offset = offsetOf(record);
+		segment.putLong(offset + BALANCE, balance);
+		segment.putLong(offset + VERSION, version);
+	}
+
+	private long indexEntry(long slot) {
+		return index[(int) (slot >>> INDEX_SHIFT)].get(indexOffset(slot));
+	}
+
+	private static int indexOffset(long slot) {
+		return (int) (slot & (INDEX_ENTRIES_PER_SEGMENT - 1));
+	}
+
+	private int offsetOf(int record) {
+		return (record & (RECORDS_PER_SEGMENT - 1)) * recordBytes;
+	}
+
+	private static byte[] encode(String accountId) {
+		return accountId.getBytes(StandardCharsets.UTF_8);
+	}
+
+	// ids and opening balances a record cannot hold are the caller's mistake, not a failure here
+	private byte[] idBytes(String accountId) {
+		byte[] id = encode(accountId);
+		if (id.length > maxIdBytes) {
+			throw new InvalidAccountIdException("Account id " + accountId + " is longer than " + maxIdBytes + " bytes");
+		}
+		return id;
+	}
+
+	private long balanceUnits(Account account) {
+		BigDecimal balance = account.getBalance();
+		if (balance.scale() > scale && balance.stripTrailingZeros().scale() > scale) {
+			throw new InvalidBalanceException("Balance " + balance + " of account " + account.getAccountId()
+					+ " has more than " + scale + " decimal places");
+		}
+		try {
+			return toUnits(balance);
+		} catch (ArithmeticException e) {
+			throw new InvalidBalanceException("Balance " + balance + " of account " + account.getAccountId()
+					+ " is too large");
+		}
+	}
+
+	private static int hash(String accountId) {
+		int h = accountId.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	private long toUnits(BigDecimal amount) {
+		return amount.movePointRight(scale).longValueExact();
+	}
+
+	private BigDecimal toDecimal(long units) {
+		return BigDecimal.valueOf(units, scale);
+	}
+}
@@ -0,0 +1,827 @@
+package com.dws.challenge.repository;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.AccountTransfer;
+import com.dws.challenge.domain.TransferHistoryPage;
+import com.dws.challenge.domain.TransferLeg;
+import com.dws.challenge.domain.TransferResult;
+import com.dws.challenge.exception.DuplicateAccountIdException;
+import com.dws.challenge.outbox.TransferOutbox;
+
+import lombok.extern.slf4j.Slf4j;
+
+/*
+ * Partitions accounts by id hash across single-threaded shards. Each shard
+ * owns its balances in a plain HashMap and is the only thread that ever reads
+ * or writes them; request threads publish commands to the shard's ring buffer
+ * and park until the shard completes them, so there is no lock on any balance.
+ *
+ * A transfer between accounts of one shard runs as a single command. Across
+ * shards the same command object is handed from shard to shard: the sender's
+ * shard debits the amount into a reservation, the receiver's shard credits it
+ * (the commit point) and hands the command back, and the sender's shard then
+ * confirms the reservation, or refunds it when the credit could not be
+ * applied. Shard to shard handoffs use an unbounded inbox rather than the ring
+ * so two shards can never block on each other's full ring.
+ *
+ * A multi-leg transfer reserves its total on the sender's shard, visits
+ * every receiver's shard once to check the receivers still exist, and only
+ * then a second time to credit them, so no credit is ever taken back; a
+ * missing receiver refunds the reservation instead.
+ *
+ * Batches run leg by leg in order but are not isolated from concurrent
+ * transfers the way the locked repository's are. There is no journal; an
+ * outbox entry is appended at the commit point and synced by the caller.
+ */
+@Repository
+@ConditionalOnProperty(name = "accounts.repository", havingValue = "sharded")
+@Slf4j
+public class AccountsRepositorySharded implements AccountsRepository {
+
+	private static final int SPINS_BEFORE_PARK = 100;
+
+	private static final long PARK_NANOS = 1_000_000;
+
+	private static final Object NONE = new Object();
+
+	private final Shard[] shards;
+
+	// ids only, so request threads can reject unknown accounts without a round trip
+	private final Set<String> accountIds = ConcurrentHashMap.newKeySet();
+
+	private final TransferHistory history;
+
+	private final TransferOutbox outbox;
+
+	private volatile boolean running = true;
+
+	public AccountsRepositorySharded(int shardCount, int ringSize) {
+		this(shardCount, ringSize, (TransferOutbox) null);
+	}
+
+	@Autowired
+	public AccountsRepositorySharded(@Value("${accounts.sharded.shards:4}") int shardCount,
+			@Value("${accounts.sharded.ring-size:65536}") int ringSize, ObjectProvider<TransferOutbox> outbox,
+			@Value("${accounts.history.max-entries-per-account:100000}") int maxHistoryEntries) {
+		this(shardCount, ringSize, outbox.getIfAvailable(), maxHistoryEntries);
+	}
+
+	public AccountsRepositorySharded(int shardCount, int ringSize, TransferOutbox outbox) {
+		this(shardCount, ringSize, outbox, TransferHistory.DEFAULT_MAX_ENTRIES_PER_ACCOUNT);
+	}
+
+	public AccountsRepositorySharded(int shardCount, int ringSize, TransferOutbox outbox, int maxHistoryEntries) {
+		if (shardCount < 1) {
+			throw new IllegalArgumentException("accounts.sharded.shards must be at least 1");
+		}
+		this.outbox = outbox;
+		this.history = new TransferHistory(maxHistoryEntries);
+		this.shards = new Shard[shardCount];
+		int capacity = Integer.highestOneBit(Math.max(2, ringSize - 1)) << 1;
+		for (int i = 0; i < shardCount; i++) {
+			shards[i] = new Shard(i, capacity);
+		}
+		for (Shard shard : shards) {
+			shard.thread.start();
+		}
+		log.info("started {} account shards with ring size {}", shardCount, capacity);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		running = false;
+		for (Shard shard : shards) {
+			LockSupport.unpark(shard.thread);
+		}
+	}
+
+	@Override
+	public void createAccount(Account account) throws DuplicateAccountIdException {
+		Create create = new Create(account.getAccountId(), account.getBalance());
+		if (!(Boolean) submit(shardOf(create.accountId), create)) {
+			throw new DuplicateAccountIdException("Account id " + account.getAccountId() + " already exists!");
+		}
+		accountIds.add(create.accountId);
+	}
+
+	@Override
+	public List<Boolean> createAccounts(List<Account> accounts) {
+		// every create is queued before the first is awaited, so the shards work through the batch in parallel
+		List<Create> creates = new ArrayList<>(accounts.size());
+		for (Account account : accounts) {
+			Create create = new Create(account.getAccountId(), account.getBalance());
+			enqueue(shardOf(create.accountId), create);
+			creates.add(create);
+		}
+		List<Boolean> created = new ArrayList<>(creates.size());
+		for (Create create : creates) {
+			boolean absent = (Boolean) create.await(this);
+			if (absent) {
+				accountIds.add(create.accountId);
+			}
+			created.add(absent);
+		}
+		return created;
+	}
+
+	@Override
+	public Account getAccount(String accountId) {
+		if (!accountIds.contains(accountId)) {
+			return null;
+		}
+		Object account = submit(shardOf(accountId), new Get(accountId));
+		return account == NONE ? null : (Account) account;
+	}
+
+	@Override
+	public TransferResult performBalanceTransfer(String accountFrom, String accountTo, BigDecimal transferAmount) {
+		if (!accountIds.contains(accountFrom)) {
+			return TransferResult.SENDER_NOT_FOUND;
+		}
+		if (!accountIds.contains(accountTo)) {
+			return TransferResult.RECEIVER_NOT_FOUND;
+		}
+		Shard from = shardOf(accountFrom);
+		Transfer transfer = new Transfer(accountFrom, accountTo, transferAmount, from, shardOf(accountTo));
+		TransferResult result = (TransferResult) submit(from, transfer);
+		if (result == TransferResult.OK && outbox != null) {
+			outbox.sync();
+		}
+		return result;
+	}
+
+	@Override
+	public List<TransferResult> performBalanceTransfers(List<AccountTransfer> transfers) {
+		List<TransferResult> results = new ArrayList<>(transfers.size());
+		for (AccountTransfer transfer : transfers) {
+			results.add(performBalanceTransfer(transfer.getAccountFrom(), transfer.getAccountTo(),
+					transfer.getTransferAmount()));
+		}
+		return results;
+	}
+
+	@Override
+	public TransferResult performMultiLegTransfer(String accountFrom, List<TransferLeg> legs) {
+		if (!accountIds.contains(accountFrom)) {
+			return TransferResult.SENDER_NOT_FOUND;
+		}
+		for (TransferLeg leg : legs) {
+			if (!accountIds.contains(leg.getAccountTo())) {
+				return TransferResult.RECEIVER_NOT_FOUND;
+			}
+		}
+		Shard from = shardOf(accountFrom);
+		TransferResult result = (TransferResult) submit(from, new MultiLegTransfer(accountFrom, legs, from));
+		if (result == TransferResult.OK && outbox != null) {
+			outbox.sync();
+		}
+		return result;
+	}
+
+	@Override
+	public TransferHistoryPage findTransfers(String accountId, Instant from, Instant to, Long cursor, int limit) {
+		return accountIds.contains(accountId) ? history.find(accountId, from, to, cursor, limit) : null;
+	}
+
+	@Override
+	public boolean save(Account account) {
+		submit(shardOf(account.getAccountId()), new Save(account.getAccountId(), account.getBalance()));
+		accountIds.add(account.getAccountId());
+		return true;
+	}
+
+	/*
+	 * Shard maps belong to their threads, so the scan asks the owning shard for
+	 * each known id in turn instead of holding a shard up for the whole walk.
+	 */
+	@Override
+	public void scan(boolean parallel, Consumer<Account> visitor) {
+		Stream<String> ids = parallel ? accountIds.parallelStream() : accountIds.stream();
+		ids.forEach(accountId -> {
+			Object account = submit(shardOf(accountId), new Get(accountId));
+			if (account != NONE) {
+				visitor.accept((Account) account);
+			}
+		});
+	}
+
+	@Override
+	public void clearAccounts() {
+		for (Shard shard : shards) {
+			submit(shard, new Clear());
+		}
+		accountIds.clear();
+		history.clear();
+	}
+
+	@Override
+	public int getAccountCount() {
+		return accountIds.size();
+	}
+
+	/*
+	 * Sum of every balance plus every amount still reserved by a cross-shard
+	 * transfer in flight; constant under transfers.
+	 */
+	public BigDecimal getTotalHoldings() {
+		BigDecimal total = BigDecimal.ZERO;
+		for (Shard shard : shards) {
+			total = total.add((BigDecimal) submit(shard, new Total()));
+		}
+		return total;
+	}
+
+	private Shard shardOf(String accountId) {
+		int h = accountId.hashCode();
+		return shards[((h ^ (h >>> 16)) & Integer.MAX_VALUE) % shards.length];
+	}
+
+	private Object submit(Shard shard, Command command) {
+		enqueue(shard, command);
+		return command.await(this);
+	}
+
+	private void enqueue(Shard shard, Command command) {
+		if (!running) {
+			throw new IllegalStateException("Sharded accounts repository is shut down");
+		}
+		shard.ring.put(command);
+		shard.wake();
+	}
+
+	/*
+	 * Work executed on a shard thread. The submitting thread parks until one of
+	 * the shards completes the command with a non-null result.
+	 */
+	private abstract static class Command {
+
+		private final Thread waiter = Thread.currentThread();
+
+		private volatile Object result;
+
+		abstract void execute(Shard shard);
+
+		// called on the shard thread when execute throws
+		void fail(RuntimeException e) {
+			complete(e);
+		}
+
+		final void complete(Object value) {
+			result = value;
+			LockSupport.unpark(waiter);
+		}
+
+		final Object await(AccountsRepositorySharded repository) {
+			Object value;
+			int spins = 0;
+			while ((value = result) == null) {
+				if (++spins < SPINS_BEFORE_PARK) {
+					Thread.yield();
+				} else if (repository.running) {
+					LockSupport.parkNanos(this, PARK_NANOS);
+				} else {
+					throw new IllegalStateException("Sharded accounts repository is shut down");
+				}
+			}
+			if (value instanceof RuntimeException) {
+				throw (RuntimeException) value;
+			}
+			return value;
+		}
+	}
+
+	private static final class Holding {
+
+		private BigDecimal balance;
+
+		private BigDecimal reserved = BigDecimal.ZERO;
+
+		// bumped with every balance change, as the locked repositories do
+		private long version;
+
+		private Holding(BigDecimal balance) {
+			this.balance = balance;
+		}
+	}
+
+	private static final class Create extends Command {
+
+		private final String accountId;
+
+		private final BigDecimal balance;
+
+		private Create(String accountId, BigDecimal balance) {
+			this.accountId = accountId;
+			this.balance = balance;
+		}
+
+		@Override
+		void execute(Shard shard) {
+			complete(shard.accounts.putIfAbsent(accountId, new Holding(balance)) == null);
+		}
+	}
+
+	private static final class Get extends Command {
+
+		private final String accountId;
+
+		private Get(String accountId) {
+			this.accountId = accountId;
+		}
+
+		@Override
+		void execute(Shard shard) {
+			Holding holding = shard.accounts.get(accountId);
+			if (holding == null) {
+				complete(NONE);
+				return;
+			}
+			Account account = new Account(accountId, holding.balance);
+			account.setVersion(holding.version);
+			complete(account);
+		}
+	}
+
+	private static final class Save extends Command {
+
+		private final String accountId;
+
+		private final BigDecimal balance;
+
+		private Save(String accountId, BigDecimal balance) {
+			this.accountId = accountId;
+			this.balance = balance;
+		}
+
+		@Override
+		void execute(Shard shard) {
+			Holding holding = shard.accounts.get(accountId);
+			if (holding == null) {
+				shard.accounts.put(accountId, new Holding(balance));
+			} else {
+				holding.balance = balance;
+				holding.version++;
+			}
+			complete(Boolean.TRUE);
+		}
+	}
+
+	private static final class Clear extends Command {
+
+		@Override
+		void execute(Shard shard) {
+			shard.accounts.clear();
+			complete(Boolean.TRUE);
+		}
+	}
+
+	private static final class Total extends Command {
+
+		@Override
+		void execute(Shard shard) {
+			BigDecimal total = BigDecimal.ZERO;
+			for (Holding holding : shard.accounts.values()) {
+				total = total.add(holding.balance).add(holding.reserved);
+			}
+			complete(total);
+		}
+	}
+
+	private enum Stage {
+		DEBIT, CHECK, CREDIT, CONFIRM, REFUND
+	}
+
+	/*
+	 * One transfer, moved between the two shards as it progresses. Only the
+	 * shard currently holding it touches its fields; the ring and inbox
+	 * handoffs publish them to the next one.
+	 */
+	private final class Transfer extends Command {
+
+		private final String accountFrom;
+
+		private final String accountTo;
+
+		private final BigDecimal amount;
+
+		private final Shard fromShard;
+
+		private final Shard toShard;
+
+		private Stage stage = Stage.DEBIT;
+
+		private boolean reserved;
+
+		private boolean credited;
+
+		private TransferResult refundResult = TransferResult.RECEIVER_NOT_FOUND;
+
+		private Transfer(String accountFrom, String accountTo, BigDecimal amount, Shard fromShard, Shard toShard) {
+			this.accountFrom = accountFrom;
+			this.accountTo = accountTo;
+			this.amount = amount;
+			this.fromShard = fromShard;
+			this.toShard = toShard;
+		}
+
+		@Override
+		void execute(Shard shard) {
+			switch (stage) {
+			case DEBIT:
+				debit(shard);
+				break;
+			case CREDIT:
+				credit(shard);
+				break;
+			case CONFIRM:
+				Holding confirmed = shard.accounts.get(accountFrom);
+				if (confirmed != null) {
+					confirmed.reserved = confirmed.reserved.subtract(amount);
+				}
+				break;
+			case REFUND:
+				Holding refunded = shard.accounts.get(accountFrom);
+				if (refunded != null) {
+					refunded.reserved = refunded.reserved.subtract(amount);
+					refunded.balance = refunded.balance.add(amount);
+					refunded.version++;
+				}
+				complete(refundResult);
+				break;
+			default:
+				throw new IllegalStateException("Unknown transfer stage " + stage);
+			}
+		}
+
+		/*
+		 * Before the credit a reservation is refunded before the caller hears of
+		 * the failure; after it the money has moved and cannot be taken back, so
+		 * the caller is told the transfer went through.
+		 */
+		@Override
+		void fail(RuntimeException e) {
+			if (credited) {
+				complete(TransferResult.OK);
+			} else if (reserved && stage != Stage.REFUND) {
+				refundResult = TransferResult.FAILED;
+				stage = Stage.REFUND;
+				fromShard.handoff(this);
+			} else {
+				complete(TransferResult.FAILED);
+			}
+		}
+
+		private void debit(Shard shard) {
+			Holding from = shard.accounts.get(accountFrom);
+			if (from == null) {
+				complete(TransferResult.SENDER_NOT_FOUND);
+				return;
+			}
+			if (toShard == shard) {
+				Holding to = shard.accounts.get(accountTo);
+				if (to == null) {
+					complete(TransferResult.RECEIVER_NOT_FOUND);
+				} else if (from.balance.compareTo(amount) < 0) {
+					complete(TransferResult.INSUFFICIENT);
+				} else {
+					// both new balances are worked out first, so a failure leaves neither written
+					BigDecimal fromBalance = from.balance.subtract(amount);
+					BigDecimal toBalance = (to == from ? fromBalance : to.balance).add(amount);
+					from.balance = fromBalance;
+					to.balance = toBalance;
+					from.version++;
+					if (to != from) {
+						to.version++;
+					}
+					credited = true;
+					committed();
+				}
+				return;
+			}
+			if (from.balance.compareTo(amount) < 0) {
+				complete(TransferResult.INSUFFICIENT);
+				return;
+			}
+			from.balance = from.balance.subtract(amount);
+			from.reserved = from.reserved.add(amount);
+			from.version++;
+			reserved = true;
+			stage = Stage.CREDIT;
+			toShard.handoff(this);
+		}
+
+		private void credit(Shard shard) {
+			Holding to = shard.accounts.get(accountTo);
+			if (to == null) {
+				stage = Stage.REFUND;
+				fromShard.handoff(this);
+				return;
+			}
+			to.balance = to.balance.add(amount);
+			to.version++;
+			credited = true;
+			stage = Stage.CONFIRM;
+			fromShard.handoff(this);
+			committed();
+		}
+
+		private void committed() {
+			history.record(accountFrom, accountTo, amount);
+			if (outbox != null) {
+				outbox.append(accountFrom, accountTo, amount);
+			}
+			complete(TransferResult.OK);
+		}
+	}
+
+	/*
+	 * A multi-leg transfer, moved from the sender's shard through each
+	 * receiver shard for CHECK, then again for CREDIT, and back to the
+	 * sender's shard to confirm or refund the reservation. A failure part way
+	 * through CREDIT refunds whatever was not yet credited.
+	 */
+	private final class MultiLegTransfer extends Command {
+
+		private final String accountFrom;
+
+		private final List<TransferLeg> legs;
+
+		private final Shard fromShard;
+
+		private final Shard[] legShards;
+
+		// each receiver shard once, in order of first appearance
+		private final List<Shard> route = new ArrayList<>();
+
+		private final BigDecimal total;
+
+		private Stage stage = Stage.DEBIT;
+
+		private int next;
+
+		private boolean reserved;
+
+		// reserved, but not yet credited to any receiver
+		private BigDecimal uncredited;
+
+		private TransferResult refundResult = TransferResult.RECEIVER_NOT_FOUND;
+
+		private MultiLegTransfer(String accountFrom, List<TransferLeg> legs, Shard fromShard) {
+			this.accountFrom = accountFrom;
+			this.legs = legs;
+			this.fromShard = fromShard;
+			this.legShards = new Shard[legs.size()];
+			BigDecimal sum = BigDecimal.ZERO;
+			for (int i = 0; i < legShards.length; i++) {
+				legShards[i] = shardOf(legs.get(i).getAccountTo());
+				if (!route.contains(legShards[i])) {
+					route.add(legShards[i]);
+				}
+				sum = sum.add(legs.get(i).getTransferAmount());
+			}
+			this.total = sum;
+			this.uncredited = sum;
+		}
+
+		@Override
+		void execute(Shard shard) {
+			switch (stage) {
+			case DEBIT:
+				Holding from = shard.accounts.get(accountFrom);
+				if (from == null) {
+					complete(TransferResult.SENDER_NOT_FOUND);
+				} else if (from.balance.compareTo(total) < 0) {
+					complete(TransferResult.INSUFFICIENT);
+				} else {
+					from.balance = from.balance.subtract(total);
+					from.reserved = from.reserved.add(total);
+					from.version++;
+					reserved = true;
+					stage = Stage.CHECK;
+					route.get(0).handoff(this);
+				}
+				break;
+			case CHECK:
+				for (int i = 0; i < legShards.length; i++) {
+					if (legShards[i] == shard && !shard.accounts.containsKey(legs.get(i).getAccountTo())) {
+						stage = Stage.REFUND;
+						fromShard.handoff(this);
+						return;
+					}
+				}
+				advance(Stage.CREDIT);
+				break;
+			case CREDIT:
+				for (int i = 0; i < legShards.length; i++) {
+					if (legShards[i] == shard) {
+						Holding to = shard.accounts.get(legs.get(i).getAccountTo());
+						to.balance = to.balance.add(legs.get(i).getTransferAmount());
+						to.version++;
+						uncredited = uncredited.subtract(legs.get(i).getTransferAmount());
+					}
+				}
+				advance(Stage.CONFIRM);
+				break;
+			case CONFIRM:
+				Holding confirmed = shard.accounts.get(accountFrom);
+				if (confirmed != null) {
+					confirmed.reserved = confirmed.reserved.subtract(total);
+				}
+				committed();
+				break;
+			case REFUND:
+				Holding refunded = shard.accounts.get(accountFrom);
+				if (refunded != null) {
+					refunded.reserved = refunded.reserved.subtract(total);
+					refunded.balance = refunded.balance.add(uncredited);
+					refunded.version++;
+				}
+				complete(refundResult);
+				break;
+			default:
+				throw new IllegalStateException("Unknown transfer stage " + stage);
+			}
+		}
+
+		// a reservation is settled on the sender's shard before the caller hears of the failure
+		@Override
+		void fail(RuntimeException e) {
+			if (stage == Stage.CONFIRM && uncredited.signum() == 0) {
+				complete(TransferResult.OK);
+			} else if (reserved && stage != Stage.REFUND) {
+				if (uncredited.compareTo(total) != 0) {
+					log.error("Multi-leg transfer from {} failed with {} of {} credited", accountFrom,
+							total.subtract(uncredited), total);
+				}
+				refundResult = TransferResult.FAILED;
+				stage = Stage.REFUND;
+				fromShard.handoff(this);
+			} else {
+				complete(TransferResult.FAILED);
+			}
+		}
+
+		// on to the next shard of the route, or to the first one of the following stage
+		private void advance(Stage following) {
+			if (++next < route.size()) {
+				route.get(next).handoff(this);
+				return;
+			}
+			next = 0;
+			stage = following;
+			(following == Stage.CONFIRM ? fromShard : route.get(0)).handoff(this);
+		}
+
+		private void committed() {
+			for (TransferLeg leg : legs) {
+				history.record(accountFrom, leg.getAccountTo(), leg.getTransferAmount());
+				if (outbox != null) {
+					outbox.append(accountFrom, leg.getAccountTo(), leg.getTransferAmount());
+				}
+			}
+			complete(TransferResult.OK);
+		}
+	}
+
+	private final class Shard implements Runnable {
+
+		private final Map<String, Holding> accounts = new HashMap<>();
+
+		private final CommandRing ring;
+
+		private final ConcurrentLinkedQueue<Command> inbox = new ConcurrentLinkedQueue<>();
+
+		private final Thread thread;
+
+		private volatile boolean parked;
+
+		private Shard(int index, int ringSize) {
+			this.ring = new CommandRing(ringSize);
+			this.thread = new Thread(this, "accounts-shard-" + index);
+			this.thread.setDaemon(true);
+		}
+
+		private void handoff(Command command) {
+			inbox.offer(command);
+			wake();
+		}
+
+		private void wake() {
+			if (parked) {
+				LockSupport.unpark(thread);
+			}
+		}
+
+		@Override
+		public void run() {
+			int idle = 0;
+			while (running) {
+				boolean worked = false;
+				Command command;
+				// handoffs first: they finish transfers that already hold a reservation
+				while ((command = inbox.poll()) != null) {
+					process(command);
+					worked = true;
+				}
+				for (int i = 0; i < ring.capacity && (command = ring.poll()) != null; i++) {
+					process(command);
+					worked = true;
+				}
+				if (worked) {
+					idle = 0;
+				} else if (++idle < SPINS_BEFORE_PARK) {
+					Thread.yield();
+				} else {
+					parked = true;
+					// re-check after announcing, a producer that missed the flag has published by now
+					if (inbox.isEmpty() && ring.isEmpty()) {
+						LockSupport.parkNanos(this, PARK_NANOS);
+					}
+					parked = false;
+				}
+			}
+		}
+
+		private void process(Command command) {
+			try {
+				command.execute(this);
+			} catch (RuntimeException e) {
+				log.error("Exception in shard {} processing {} reason", thread.getName(), command, e);
+				command.fail(e);
+			}
+		}
+	}
+
+	/*
+	 * Bounded multi-producer, single-consumer ring. Producers claim a sequence
+	 * with one atomic increment, wait while the ring is a full lap ahead of the
+	 * consumer and then publish into the slot; the consumer takes slots in
+	 * sequence order and frees each one before advancing its head.
+	 */
+	private static final class CommandRing {
+
+		private final AtomicReferenceArray<Command> slots;
+
+		private final int capacity;
+
+		private final int mask;
+
+		private final AtomicLong tail = new AtomicLong();
+
+		// written by the consumer only
+		private volatile long head;
+
+		private CommandRing(int capacity) {
+			this.slots = new AtomicReferenceArray<>(capacity);
+			this.capacity = capacity;
+			this.mask = capacity - 1;
+		}
+
+		private void put(Command command) {
+			long sequence = tail.getAndIncrement();
+			while (sequence - head >= capacity) {
+				Thread.yield();
+			}
+			slots.set((int) sequence & mask, command);
+		}
+
+		private Command poll() {
+			long current = head;
+			int index = (int) current & mask;
+			Command command = slots.get(index);
+			if (command == null) {
+				return null;
+			}
+			slots.lazySet(index, null);
+			head = current + 1;
+			return command;
+		}
+
+		private boolean isEmpty() {
+			return slots.get((int) head & mask) == null;
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package com.dws.challenge.repository;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+@Configuration
+@ConditionalOnProperty(name = "accounts.hot.enabled", havingValue = "true")
+public class HotAccountConfiguration {
+
+	@Bean(destroyMethod = "close")
+	public HotAccountDetector hotAccountDetector(@Value("${accounts.hot.stripes:16}") int stripes,
+			@Value("${accounts.hot.lock-wait-threshold-us:200}") long lockWaitThresholdMicros,
+			@Value("${accounts.hot.min-slow-waits:100}") long minSlowWaits,
+			@Value("${accounts.hot.interval-ms:1000}") long intervalMillis,
+			@Value("${accounts.hot.accounts:}") List<String> designated) {
+		return new HotAccountDetector(stripes, lockWaitThresholdMicros, minSlowWaits, intervalMillis, designated);
+	}
+
+	@Bean
+	public MeterBinder hotAccountMetrics(HotAccountDetector detector) {
+		return registry -> FunctionCounter.builder("accounts.hot.splits", detector, HotAccountDetector::getSplits)
+				.register(registry);
+	}
+}
@@ -0,0 +1,157 @@
+package com.dws.challenge.repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+import lombok.extern.slf4j.Slf4j;
+
+/*
+ * Decides which accounts the in-memory repository splits into sub-balances.
+ * Designated accounts are split as soon as they exist. Otherwise every
+ * transfer whose lock wait reaches the threshold counts against both of its
+ * accounts, and once per interval each account counted at least
+ * minSlowWaits times is split; a merchant every payer credits collects those
+ * counts while the payers themselves collect one each. Counts start over each
+ * interval, and only a bounded number of accounts is tracked between
+ * evaluations.
+ */
+@Slf4j
+public class HotAccountDetector implements AutoCloseable {
+
+	private static final int MAX_CANDIDATES = 4096;
+
+	private final int stripes;
+
+	private final long lockWaitThresholdNanos;
+
+	private final long minSlowWaits;
+
+	private final long intervalMillis;
+
+	private final Set<String> designated;
+
+	private final Map<String, LongAdder> slowWaits = new ConcurrentHashMap<>();
+
+	private final AtomicLong splits = new AtomicLong();
+
+	private volatile Predicate<String> splitter;
+
+	private ScheduledExecutorService scheduler;
+
+	public HotAccountDetector(int stripes, long lockWaitThresholdMicros, long minSlowWaits, long intervalMillis,
+			Collection<String> designated) {
+		if (stripes < 2) {
+			throw new IllegalArgumentException("accounts.hot.stripes must be at least 2");
+		}
+		this.stripes = stripes;
+		this.lockWaitThresholdNanos = TimeUnit.MICROSECONDS.toNanos(lockWaitThresholdMicros);
+		this.minSlowWaits = minSlowWaits;
+		this.intervalMillis = intervalMillis;
+		this.designated = new HashSet<>(designated);
+	}
+
+	public int getStripes() {
+		return stripes;
+	}
+
+	public long getSplits() {
+		return splits.get();
+	}
+
+	public boolean isDesignated(String accountId) {
+		return designated.contains(accountId);
+	}
+
+	/*
+	 * Hands the detector the repository's split operation, which returns true
+	 * when it split the account, and starts the periodic evaluation.
+	 */
+	public synchronized void start(Predicate<String> splitter) {
+		this.splitter = splitter;
+		if (scheduler == null && intervalMillis > 0) {
+			scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "accounts-hot-detector");
+				thread.setDaemon(true);
+				return thread;
+			});
+			scheduler.scheduleWithFixedDelay(this::scheduledEvaluate, intervalMillis, intervalMillis,
+					TimeUnit.MILLISECONDS);
+		}
+	}
+
+	public void recordLockWait(String accountFrom, String accountTo, long waitNanos) {
+		if (waitNanos < lockWaitThresholdNanos) {
+			return;
+		}
+		count(accountFrom);
+		if (!accountTo.equals(accountFrom)) {
+			count(accountTo);
+		}
+	}
+
+	/*
+	 * Splits every account over the slow-wait count since the last evaluation
+	 * and returns their ids.
+	 */
+	public List<String> evaluate() {
+		List<String> split = new ArrayList<>();
+		Predicate<String> currentSplitter = splitter;
+		for (Map.Entry<String, LongAdder> entry : slowWaits.entrySet()) {
+			if (entry.getValue().sum() >= minSlowWaits && currentSplitter != null
+					&& currentSplitter.test(entry.getKey())) {
+				split.add(entry.getKey());
+			}
+		}
+		slowWaits.clear();
+		if (!split.isEmpty()) {
+			splits.addAndGet(split.size());
+			log.info("split hot accounts {} over {} sub-balances", split, stripes);
+		}
+		return split;
+	}
+
+	void splitDesignated(String accountId) {
+		Predicate<String> currentSplitter = splitter;
+		if (currentSplitter != null && currentSplitter.test(accountId)) {
+			splits.incrementAndGet();
+			log.info("split designated hot account {} over {} sub-balances", accountId, stripes);
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+		}
+	}
+
+	private void count(String accountId) {
+		LongAdder count = slowWaits.get(accountId);
+		if (count == null) {
+			if (slowWaits.size() >= MAX_CANDIDATES) {
+				return;
+			}
+			count = slowWaits.computeIfAbsent(accountId, id -> new LongAdder());
+		}
+		count.increment();
+	}
+
+	private void scheduledEvaluate() {
+		try {
+			evaluate();
+		} catch (RuntimeException e) {
+			log.error("Exception in detecting hot accounts reason", e);
+		}
+	}
+}
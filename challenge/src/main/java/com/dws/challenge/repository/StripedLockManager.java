@@ -0,0 +1,181 @@
+package com.dws.challenge.repository;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import com.dws.challenge.metrics.TransferMetrics;
+
+/*
+ * Fixed pool of locks indexed by account id hash. Two-account operations take
+ * both stripes in ascending index order so concurrent transfers can never
+ * deadlock; when both ids hash to the same stripe only that one lock is taken.
+ * Every acquisition tries the lock first and counts a contended acquisition
+ * against the stripe when it has to wait; with metrics, the two-account and
+ * batch paths also time how long they waited for and then held their locks.
+ */
+public class StripedLockManager {
+
+	private final ReentrantLock[] stripes;
+
+	private final int mask;
+
+	private final AtomicLongArray contended;
+
+	private final TransferMetrics metrics;
+
+	public StripedLockManager(int stripeCount) {
+		this(stripeCount, null);
+	}
+
+	public StripedLockManager(int stripeCount, TransferMetrics metrics) {
+		if (stripeCount <= 0) {
+			throw new IllegalArgumentException("Lock stripe count must be positive");
+		}
+		int size = Integer.highestOneBit(stripeCount);
+		if (size < stripeCount) {
+			size <<= 1;
+		}
+		this.stripes = new ReentrantLock[size];
+		for (int i = 0; i < size; i++) {
+			stripes[i] = new ReentrantLock();
+		}
+		this.mask = size - 1;
+		this.contended = new AtomicLongArray(size);
+		this.metrics = metrics;
+		if (metrics != null) {
+			metrics.bindLockStripes(this);
+		}
+	}
+
+	public int stripeCount() {
+		return stripes.length;
+	}
+
+	public int stripeFor(String accountId) {
+		int h = accountId.hashCode();
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	public long getContendedAcquisitions(int stripe) {
+		return contended.get(stripe);
+	}
+
+	public long getContendedAcquisitions() {
+		long total = 0;
+		for (int i = 0; i < contended.length(); i++) {
+			total += contended.get(i);
+		}
+		return total;
+	}
+
+	/*
+	 * Takes and releases every stripe in turn, so anything that held a stripe
+	 * when this was called has finished with it on return.
+	 */
+	public void awaitHolders() {
+		for (int i = 0; i < stripes.length; i++) {
+			lock(i);
+			stripes[i].unlock();
+		}
+	}
+
+	public <T> T withLock(String accountId, Supplier<T> action) {
+		int stripe = stripeFor(accountId);
+		lock(stripe);
+		try {
+			return action.get();
+		} finally {
+			stripes[stripe].unlock();
+		}
+	}
+
+	public <T> T withLocks(String firstAccountId, String secondAccountId, Supplier<T> action) {
+		int first = stripeFor(firstAccountId);
+		int second = stripeFor(secondAccountId);
+		long start = metrics == null ? 0 : System.nanoTime();
+		if (first == second) {
+			lock(first);
+			long acquired = acquired(start);
+			try {
+				return action.get();
+			} finally {
+				stripes[first].unlock();
+				released(acquired);
+			}
+		}
+
+		int lower = Math.min(first, second);
+		int upper = Math.max(first, second);
+		lock(lower);
+		try {
+			lock(upper);
+			long acquired = acquired(start);
+			try {
+				return action.get();
+			} finally {
+				stripes[upper].unlock();
+				released(acquired);
+			}
+		} finally {
+			stripes[lower].unlock();
+		}
+	}
+
+	public <T> T withLocks(Collection<String> accountIds, Supplier<T> action) {
+		int[] indexes = new int[accountIds.size()];
+		int count = 0;
+		for (String accountId : accountIds) {
+			indexes[count++] = stripeFor(accountId);
+		}
+		Arrays.sort(indexes);
+
+		// compact the sorted indexes to the distinct stripes actually taken
+		long start = metrics == null ? 0 : System.nanoTime();
+		long acquired = 0;
+		int locked = 0;
+		try {
+			for (int i = 0; i < count; i++) {
+				if (locked > 0 && indexes[locked - 1] == indexes[i]) {
+					continue;
+				}
+				lock(indexes[i]);
+				indexes[locked++] = indexes[i];
+			}
+			acquired = acquired(start);
+			return action.get();
+		} finally {
+			while (locked > 0) {
+				stripes[indexes[--locked]].unlock();
+			}
+			if (acquired != 0) {
+				released(acquired);
+			}
+		}
+	}
+
+	private void lock(int stripe) {
+		ReentrantLock lock = stripes[stripe];
+		if (!lock.tryLock()) {
+			contended.incrementAndGet(stripe);
+			lock.lock();
+		}
+	}
+
+	private long acquired(long start) {
+		if (metrics == null) {
+			return 0;
+		}
+		long now = System.nanoTime();
+		metrics.recordLockWait(now - start);
+		return now;
+	}
+
+	private void released(long acquired) {
+		if (metrics != null) {
+			metrics.recordLockHold(System.nanoTime() - acquired);
+		}
+	}
+}
@@ -0,0 +1,271 @@
+package com.dws.challenge.repository;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import com.dws.challenge.domain.TransferDirection;
+import com.dws.challenge.domain.TransferHistoryEntry;
+import com.dws.challenge.domain.TransferHistoryPage;
+
+/*
+ * Record of the most recent committed transfer legs, per account. Each
+ * account's log is a list of chunks holding one primitive or reference array
+ * per column, so an entry costs no object of its own; the first chunk grows
+ * from a few entries, later ones are allocated at full size. Once an account
+ * holds more than maxEntriesPerAccount entries its oldest whole chunks are
+ * dropped, so it keeps between that many and one chunk more. Positions, and
+ * so cursors, keep counting from the account's first entry; a cursor into
+ * dropped entries continues at the oldest one kept. Entry timestamps never
+ * decrease within an account, which lets a time range be found by binary
+ * search over the position. One writer appends at a time per account and
+ * publishes through a volatile size; queries read up to the size they saw and
+ * take no lock.
+ *
+ * The history lives on the heap only: it is neither journalled nor part of a
+ * snapshot, so after a restart it starts empty even when balances are
+ * recovered.
+ */
+public class TransferHistory {
+
+	public static final int DEFAULT_MAX_ENTRIES_PER_ACCOUNT = 100_000;
+
+	private static final int CHUNK_SHIFT = 12;
+
+	private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	// most accounts see few transfers, so an account's first chunk starts small and doubles up to CHUNK_SIZE
+	private static final int FIRST_CHUNK_SIZE = 16;
+
+	private final Map<String, AccountLog> logs = new ConcurrentHashMap<>();
+
+	private final AtomicLong transferIds = new AtomicLong();
+
+	private final LongSupplier clock;
+
+	private final int maxEntriesPerAccount;
+
+	public TransferHistory() {
+		this(DEFAULT_MAX_ENTRIES_PER_ACCOUNT);
+	}
+
+	/** maxEntriesPerAccount 0 keeps every entry */
+	public TransferHistory(int maxEntriesPerAccount) {
+		this(System::currentTimeMillis, maxEntriesPerAccount);
+	}
+
+	public TransferHistory(LongSupplier clock) {
+		this(clock, DEFAULT_MAX_ENTRIES_PER_ACCOUNT);
+	}
+
+	public TransferHistory(LongSupplier clock, int maxEntriesPerAccount) {
+		if (maxEntriesPerAccount < 0) {
+			throw new IllegalArgumentException("maxEntriesPerAccount must not be negative: " + maxEntriesPerAccount);
+		}
+		this.clock = clock;
+		this.maxEntriesPerAccount = maxEntriesPerAccount;
+	}
+
+	/*
+	 * Records both legs of a committed transfer under one transfer id. Callers
+	 * append while still holding the accounts' locks so each account's log
+	 * follows the order its balance changed. A split account has no lock of
+	 * its own, so its entries follow the order they were appended in.
+	 */
+	public void record(String accountFrom, String accountTo, BigDecimal amount) {
+		long transferId = transferIds.incrementAndGet();
+		long timestamp = clock.getAsLong();
+		logOf(accountFrom).append(transferId, timestamp, TransferDirection.DEBIT, accountTo, amount);
+		logOf(accountTo).append(transferId, timestamp, TransferDirection.CREDIT, accountFrom, amount);
+	}
+
+	/*
+	 * Returns up to limit entries with from <= timestamp < to, oldest first,
+	 * starting at the cursor position when one is given.
+	 */
+	public TransferHistoryPage find(String accountId, Instant from, Instant to, Long cursor, int limit) {
+		AccountLog log = logs.get(accountId);
+		if (log == null) {
+			return new TransferHistoryPage(new ArrayList<>(), null);
+		}
+		return log.find(from == null ? Long.MIN_VALUE : from.toEpochMilli(),
+				to == null ? Long.MAX_VALUE : to.toEpochMilli(), cursor == null ? 0 : cursor, limit);
+	}
+
+	public void clear() {
+		logs.clear();
+	}
+
+	private AccountLog logOf(String accountId) {
+		AccountLog log = logs.get(accountId);
+		return log != null ? log : logs.computeIfAbsent(accountId, id -> new AccountLog(maxEntriesPerAccount));
+	}
+
+	private static final class Chunk {
+
+		private final long[] transferIds;
+
+		private final long[] timestamps;
+
+		private final byte[] directions;
+
+		private final String[] counterparties;
+
+		private final BigDecimal[] amounts;
+
+		private Chunk(int capacity) {
+			this(new long[capacity], new long[capacity], new byte[capacity], new String[capacity],
+					new BigDecimal[capacity]);
+		}
+
+		private Chunk(long[] transferIds, long[] timestamps, byte[] directions, String[] counterparties,
+				BigDecimal[] amounts) {
+			this.transferIds = transferIds;
+			this.timestamps = timestamps;
+			this.directions = directions;
+			this.counterparties = counterparties;
+			this.amounts = amounts;
+		}
+
+		private int capacity() {
+			return timestamps.length;
+		}
+
+		// readers still holding this chunk keep seeing every entry it had, so it is copied rather than resized
+		private Chunk grow() {
+			int capacity = Math.min(capacity() * 2, CHUNK_SIZE);
+			return new Chunk(Arrays.copyOf(transferIds, capacity), Arrays.copyOf(timestamps, capacity),
+					Arrays.copyOf(directions, capacity), Arrays.copyOf(counterparties, capacity),
+					Arrays.copyOf(amounts, capacity));
+		}
+	}
+
+	// the chunks kept and the number of the first, published together so a reader never pairs one with the other's
+	private static final class Window {
+
+		private final Chunk[] chunks;
+
+		private final long first;
+
+		private Window(Chunk[] chunks, long first) {
+			this.chunks = chunks;
+			this.first = first;
+		}
+
+		private long start() {
+			return first << CHUNK_SHIFT;
+		}
+
+		private Chunk chunk(long index) {
+			return chunks[(int) ((index >>> CHUNK_SHIFT) - first)];
+		}
+
+		private long timestampAt(long index) {
+			return chunk(index).timestamps[(int) (index & CHUNK_MASK)];
+		}
+	}
+
+	private static final class AccountLog {
+
+		private static final TransferDirection[] DIRECTIONS = TransferDirection.values();
+
+		private final int maxEntries;
+
+		private volatile Window window = new Window(new Chunk[4], 0);
+
+		// entries below size are fully written; the volatile write publishes them to readers
+		private volatile long size;
+
+		private long lastTimestamp = Long.MIN_VALUE;
+
+		private AccountLog(int maxEntries) {
+			this.maxEntries = maxEntries;
+		}
+
+		// mostly uncontended: the caller holds this account's lock, except for a split account
+		private synchronized void append(long transferId, long timestamp, TransferDirection direction,
+				String counterparty, BigDecimal amount) {
+			long index = size;
+			Window current = window;
+			int slot = (int) ((index >>> CHUNK_SHIFT) - current.first);
+			Chunk[] chunks = current.chunks;
+			if (slot == chunks.length) {
+				chunks = Arrays.copyOf(chunks, chunks.length * 2);
+			}
+			int offset = (int) (index & CHUNK_MASK);
+			Chunk chunk = chunks[slot];
+			if (chunk == null || offset == chunk.capacity()) {
+				chunk = chunk == null ? new Chunk(index >>> CHUNK_SHIFT == 0 ? FIRST_CHUNK_SIZE : CHUNK_SIZE) : chunk.grow();
+				chunks[slot] = chunk;
+				current = new Window(chunks, current.first);
+				window = current;
+			}
+			lastTimestamp = Math.max(lastTimestamp, timestamp);
+			chunk.transferIds[offset] = transferId;
+			chunk.timestamps[offset] = lastTimestamp;
+			chunk.directions[offset] = (byte) direction.ordinal();
+			chunk.counterparties[offset] = counterparty;
+			chunk.amounts[offset] = amount;
+			size = index + 1;
+
+			// a reader still on the old window keeps its chunks, so the kept ones are copied into a new array
+			int dropped = 0;
+			while (maxEntries > 0 && index + 1 - ((current.first + dropped + 1) << CHUNK_SHIFT) >= maxEntries) {
+				dropped++;
+			}
+			if (dropped > 0) {
+				window = new Window(Arrays.copyOfRange(chunks, dropped, dropped + chunks.length),
+						current.first + dropped);
+			}
+		}
+
+		private TransferHistoryPage find(long from, long to, long cursor, int limit) {
+			long end;
+			Window current;
+			// read again in the rare case the writer dropped every entry this size covers before the window was read
+			do {
+				end = size;
+				current = window;
+			} while (end < current.start());
+			long start = Math.min(Math.max(Math.max(cursor, current.start()), firstAtOrAfter(current, end, from)),
+					end);
+			List<TransferHistoryEntry> entries = new ArrayList<>((int) Math.min(limit, end - start));
+			long index = start;
+			while (index < end && entries.size() < limit) {
+				Chunk chunk = current.chunk(index);
+				int offset = (int) (index & CHUNK_MASK);
+				long timestamp = chunk.timestamps[offset];
+				if (timestamp >= to) {
+					return new TransferHistoryPage(entries, null);
+				}
+				entries.add(new TransferHistoryEntry(chunk.transferIds[offset], Instant.ofEpochMilli(timestamp),
+						DIRECTIONS[chunk.directions[offset]], chunk.counterparties[offset], chunk.amounts[offset]));
+				index++;
+			}
+			boolean more = index < end && current.timestampAt(index) < to;
+			return new TransferHistoryPage(entries, more ? Long.valueOf(index) : null);
+		}
+
+		private static long firstAtOrAfter(Window window, long end, long timestamp) {
+			long low = window.start();
+			long high = end;
+			while (low < high) {
+				long middle = (low + high) >>> 1;
+				if (window.timestampAt(middle) < timestamp) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			return low;
+		}
+	}
+}
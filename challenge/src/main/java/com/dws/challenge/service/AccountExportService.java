@@ -0,0 +1,75 @@
+package com.dws.challenge.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.dws.challenge.domain.Account;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.extern.slf4j.Slf4j;
+
+/*
+ * Writes every account as one NDJSON line, {"accountId":..,"balance":..,
+ * "version":..}, straight from a repository scan into the output stream. Only
+ * the generator's buffer is held, so memory is the same for any number of
+ * accounts; a parallel scan reads the store on fork-join workers and takes
+ * turns on the generator.
+ */
+@Slf4j
+@Service
+public class AccountExportService {
+
+	private final AccountsService accountsService;
+
+	private final JsonFactory jsonFactory;
+
+	@Autowired
+	public AccountExportService(AccountsService accountsService, ObjectMapper objectMapper) {
+		this.accountsService = accountsService;
+		this.jsonFactory = objectMapper.getFactory();
+	}
+
+	public long exportAccounts(OutputStream out, boolean parallel) throws IOException {
+		AtomicLong exported = new AtomicLong();
+		JsonGenerator generator = jsonFactory.createGenerator(out);
+		// the caller owns the stream; each line ends with its own newline
+		generator.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+		generator.setRootValueSeparator(null);
+		try {
+			this.accountsService.scanAccounts(parallel, account -> {
+				synchronized (generator) {
+					write(generator, account);
+				}
+				exported.incrementAndGet();
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} finally {
+			generator.close();
+		}
+		log.info("Exported {} accounts", exported.get());
+		return exported.get();
+	}
+
+	private static void write(JsonGenerator generator, Account account) {
+		try {
+			generator.writeStartObject();
+			generator.writeStringField("accountId", account.getAccountId());
+			generator.writeFieldName("balance");
+			// plain digits, never an exponent, for the consumers of the dump
+			generator.writeNumber(account.getBalance().toPlainString());
+			generator.writeNumberField("version", account.getVersion());
+			generator.writeEndObject();
+			generator.writeRaw('\n');
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
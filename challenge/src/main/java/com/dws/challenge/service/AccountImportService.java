@@ -0,0 +1,417 @@
+package com.dws.challenge.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import javax.annotation.PreDestroy;
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.AccountImportError;
+import com.dws.challenge.domain.AccountImportSummary;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.extern.slf4j.Slf4j;
+
+/*
+ * Bulk account creation from an NDJSON or CSV stream. The body is read one
+ * line at a time into a bounded buffer, each record is parsed with Jackson's
+ * streaming parser (NDJSON) or a small field splitter (CSV) and validated
+ * against the Account constraints, and valid records are handed to the
+ * repository in batches on a small worker pool. At most parallelism batches
+ * are in flight per import and only the first maxErrors rejections are kept,
+ * so memory does not grow with the size of the body.
+ */
+@Slf4j
+@Service
+public class AccountImportService implements AutoCloseable {
+
+	public enum Format {
+		NDJSON, CSV
+	}
+
+	private static final Comparator<AccountImportError> BY_LINE = Comparator.comparingLong(AccountImportError::getLine);
+
+	private final AccountsService accountsService;
+
+	private final Validator validator;
+
+	private final JsonFactory jsonFactory;
+
+	private final int batchSize;
+
+	private final int parallelism;
+
+	private final int maxErrors;
+
+	private final int maxLineLength;
+
+	private final ThreadPoolExecutor executor;
+
+	@Autowired
+	public AccountImportService(AccountsService accountsService, Validator validator, ObjectMapper objectMapper,
+			@Value("${accounts.import.batch-size:1000}") int batchSize,
+			@Value("${accounts.import.parallelism:4}") int parallelism,
+			@Value("${accounts.import.max-errors:1000}") int maxErrors,
+			@Value("${accounts.import.max-line-length:4096}") int maxLineLength) {
+		this.accountsService = accountsService;
+		this.validator = validator;
+		this.jsonFactory = objectMapper.getFactory();
+		this.batchSize = batchSize;
+		this.parallelism = parallelism;
+		this.maxErrors = maxErrors;
+		this.maxLineLength = maxLineLength;
+		AtomicInteger threads = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(parallelism, parallelism, 0, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<>(), task -> {
+					Thread thread = new Thread(task, "account-import-" + threads.getAndIncrement());
+					thread.setDaemon(true);
+					return thread;
+				});
+	}
+
+	public AccountImportSummary importAccounts(InputStream body, Format format) throws IOException {
+		Import run = new Import();
+		LineReader reader = new LineReader(new InputStreamReader(body, StandardCharsets.UTF_8), maxLineLength);
+		List<Account> batch = new ArrayList<>(batchSize);
+		long[] lines = new long[batchSize];
+		boolean firstRecord = true;
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				long lineNumber = reader.lineNumber;
+				if (reader.truncated) {
+					run.records.incrementAndGet();
+					run.reject(lineNumber, "Line is longer than " + maxLineLength + " characters");
+					continue;
+				}
+				if (line.trim().isEmpty()) {
+					continue;
+				}
+				Account account;
+				try {
+					if (format == Format.CSV) {
+						List<String> fields = csvFields(line);
+						// an optional header row names the columns
+						if (firstRecord && "accountId".equalsIgnoreCase(fields.get(0).trim())) {
+							firstRecord = false;
+							continue;
+						}
+						firstRecord = false;
+						run.records.incrementAndGet();
+						account = csvAccount(fields);
+					} else {
+						run.records.incrementAndGet();
+						account = jsonAccount(line);
+					}
+				} catch (JsonProcessingException e) {
+					run.reject(lineNumber, e.getOriginalMessage());
+					continue;
+				} catch (IllegalArgumentException e) {
+					run.reject(lineNumber, e.getMessage());
+					continue;
+				}
+
+				String violations = violations(account);
+				if (violations != null) {
+					run.reject(lineNumber, violations);
+					continue;
+				}
+				lines[batch.size()] = lineNumber;
+				batch.add(account);
+				if (batch.size() == batchSize) {
+					run.submit(batch, lines);
+					batch = new ArrayList<>(batchSize);
+					lines = new long[batchSize];
+				}
+			}
+			if (!batch.isEmpty()) {
+				run.submit(batch, lines);
+			}
+			run.awaitBatches();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Account import interrupted");
+		}
+
+		AccountImportSummary summary = run.summary();
+		log.info("Imported {} of {} accounts, {} rejected", summary.getCreated(), summary.getRecords(),
+				summary.getRejected());
+		return summary;
+	}
+
+	@PreDestroy
+	@Override
+	public void close() {
+		executor.shutdown();
+	}
+
+	private Account jsonAccount(String line) throws IOException {
+		try (JsonParser parser = jsonFactory.createParser(line)) {
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				throw new IllegalArgumentException("Expected a JSON object");
+			}
+			String accountId = null;
+			BigDecimal balance = null;
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String field = parser.getCurrentName();
+				JsonToken value = parser.nextToken();
+				if ("accountId".equals(field)) {
+					if (value != JsonToken.VALUE_STRING && value != JsonToken.VALUE_NULL) {
+						throw new IllegalArgumentException("accountId must be a string");
+					}
+					accountId = parser.getValueAsString();
+				} else if ("balance".equals(field)) {
+					if (value.isNumeric()) {
+						balance = parser.getDecimalValue();
+					} else if (value == JsonToken.VALUE_STRING) {
+						balance = decimal(parser.getText());
+					} else if (value != JsonToken.VALUE_NULL) {
+						throw new IllegalArgumentException("balance must be a number");
+					}
+				} else {
+					parser.skipChildren();
+				}
+			}
+			if (parser.nextToken() != null) {
+				throw new IllegalArgumentException("Unexpected content after the JSON object");
+			}
+			return new Account(accountId, balance);
+		}
+	}
+
+	private static Account csvAccount(List<String> fields) {
+		if (fields.size() != 2) {
+			throw new IllegalArgumentException("Expected 2 fields, accountId and balance, found " + fields.size());
+		}
+		String balance = fields.get(1).trim();
+		return new Account(fields.get(0).trim(), balance.isEmpty() ? null : decimal(balance));
+	}
+
+	// RFC 4180 fields: commas split, double quotes enclose, and a doubled quote inside quotes is a quote
+	private static List<String> csvFields(String line) {
+		List<String> fields = new ArrayList<>(2);
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (quoted) {
+				if (c != '"') {
+					field.append(c);
+				} else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+					field.append('"');
+					i++;
+				} else {
+					quoted = false;
+				}
+			} else if (c == '"') {
+				quoted = true;
+			} else if (c == ',') {
+				fields.add(field.toString());
+				field.setLength(0);
+			} else {
+				field.append(c);
+			}
+		}
+		if (quoted) {
+			throw new IllegalArgumentException("Unterminated quoted field");
+		}
+		fields.add(field.toString());
+		return fields;
+	}
+
+	private static BigDecimal decimal(String text) {
+		try {
+			return new BigDecimal(text.trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("balance must be a number");
+		}
+	}
+
+	private String violations(Account account) {
+		Set<ConstraintViolation<Account>> violations = validator.validate(account);
+		if (violations.isEmpty()) {
+			return null;
+		}
+		return violations.stream().map(v -> v.getPropertyPath() + " " + v.getMessage()).sorted()
+				.collect(Collectors.joining("; "));
+	}
+
+	/*
+	 * State of one import. Batches are inserted on the shared pool; the permits
+	 * bound how many of this import's batches are parsed ahead of the store.
+	 */
+	private class Import {
+
+		private final Semaphore inFlight = new Semaphore(parallelism);
+
+		private final AtomicLong records = new AtomicLong();
+
+		private final AtomicLong created = new AtomicLong();
+
+		private final AtomicLong rejected = new AtomicLong();
+
+		// the maxErrors lowest lines seen so far, highest on top so it is the one evicted
+		private final PriorityQueue<AccountImportError> errors = new PriorityQueue<>(BY_LINE.reversed());
+
+		void submit(List<Account> batch, long[] lines) throws InterruptedException {
+			inFlight.acquire();
+			try {
+				executor.execute(() -> {
+					try {
+						insert(batch, lines);
+					} finally {
+						inFlight.release();
+					}
+				});
+			} catch (RuntimeException e) {
+				inFlight.release();
+				throw e;
+			}
+		}
+
+		void awaitBatches() throws InterruptedException {
+			inFlight.acquire(parallelism);
+			inFlight.release(parallelism);
+		}
+
+		private void insert(List<Account> batch, long[] lines) {
+			List<Boolean> results;
+			try {
+				results = accountsService.createAccounts(batch);
+			} catch (RuntimeException e) {
+				// a record the store cannot hold fails the batch call; one at a time finds which
+				for (int i = 0; i < batch.size(); i++) {
+					try {
+						accountsService.createAccount(batch.get(i));
+						created.incrementAndGet();
+					} catch (RuntimeException recordException) {
+						reject(lines[i], recordException.getMessage());
+					}
+				}
+				return;
+			}
+			for (int i = 0; i < results.size(); i++) {
+				if (results.get(i)) {
+					created.incrementAndGet();
+				} else {
+					reject(lines[i], "Account id " + batch.get(i).getAccountId() + " already exists!");
+				}
+			}
+		}
+
+		void reject(long line, String message) {
+			rejected.incrementAndGet();
+			if (maxErrors <= 0) {
+				return;
+			}
+			synchronized (errors) {
+				if (errors.size() < maxErrors) {
+					errors.add(new AccountImportError(line, message));
+				} else if (errors.peek().getLine() > line) {
+					errors.poll();
+					errors.add(new AccountImportError(line, message));
+				}
+			}
+		}
+
+		AccountImportSummary summary() {
+			List<AccountImportError> sorted;
+			synchronized (errors) {
+				sorted = new ArrayList<>(errors);
+			}
+			sorted.sort(BY_LINE);
+			return new AccountImportSummary(records.get(), created.get(), rejected.get(), sorted,
+					rejected.get() > sorted.size());
+		}
+	}
+
+	/*
+	 * Reads lines into one reused buffer of at most maxLength characters; the
+	 * rest of a longer line is skipped and the line reported as truncated.
+	 */
+	private static final class LineReader {
+
+		private final Reader reader;
+
+		private final int maxLength;
+
+		private final char[] buffer = new char[8192];
+
+		private final StringBuilder line = new StringBuilder();
+
+		private int position;
+
+		private int limit;
+
+		private long lineNumber;
+
+		private boolean truncated;
+
+		private LineReader(Reader reader, int maxLength) {
+			this.reader = reader;
+			this.maxLength = maxLength;
+		}
+
+		private String readLine() throws IOException {
+			line.setLength(0);
+			truncated = false;
+			boolean read = false;
+			while (true) {
+				if (position == limit) {
+					limit = reader.read(buffer);
+					position = 0;
+					if (limit <= 0) {
+						limit = 0;
+						if (!read) {
+							return null;
+						}
+						break;
+					}
+				}
+				read = true;
+				char c = buffer[position++];
+				if (c == '\n') {
+					break;
+				}
+				if (line.length() < maxLength) {
+					line.append(c);
+				} else {
+					truncated = true;
+				}
+			}
+			lineNumber++;
+			int length = line.length();
+			if (length > 0 && line.charAt(length - 1) == '\r') {
+				line.setLength(length - 1);
+			}
+			return line.toString();
+		}
+	}
+}
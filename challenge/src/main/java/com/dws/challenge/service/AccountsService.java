@@ -1,11 +1,23 @@
 package com.dws.challenge.service;
 
 import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
 
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.AccountTransfer;
+import com.dws.challenge.domain.TransferHistoryPage;
+import com.dws.challenge.domain.TransferLeg;
+import com.dws.challenge.domain.TransferResult;
+import com.dws.challenge.exception.TransferRateLimitedException;
+import com.dws.challenge.metrics.TransferMetrics;
+import com.dws.challenge.outbox.TransferOutbox;
 import com.dws.challenge.repository.AccountsRepository;
 
 import lombok.Getter;
@@ -16,29 +28,191 @@ public class AccountsService {
 	@Getter
 	private final AccountsRepository accountsRepository;
 
+	private final NotificationService notificationService;
+
+	// with an outbox the repository records notifications and the relay sends them
+	private final boolean notifyInline;
+
+	private final TransferMetrics metrics;
+
+	private final TransferAuditLog audit;
+
+	private final TransferAdmissionControl admission;
+
 	@Autowired
-	public AccountsService(AccountsRepository accountsRepository) {
+	public AccountsService(AccountsRepository accountsRepository, NotificationService notificationService,
+			ObjectProvider<TransferOutbox> outbox, TransferMetrics metrics, TransferAuditLog audit,
+			ObjectProvider<TransferAdmissionControl> admission) {
+		this(accountsRepository, notificationService, outbox.getIfAvailable(), metrics, audit,
+				admission.getIfAvailable());
+	}
+
+	public AccountsService(AccountsRepository accountsRepository, NotificationService notificationService,
+			TransferOutbox outbox, TransferMetrics metrics, TransferAuditLog audit,
+			TransferAdmissionControl admission) {
 		this.accountsRepository = accountsRepository;
+		this.notificationService = notificationService;
+		this.notifyInline = outbox == null;
+		this.metrics = metrics;
+		this.audit = audit;
+		this.admission = admission;
+		if (metrics != null) {
+			metrics.bindAccounts(accountsRepository);
+		}
 	}
 
 	public void createAccount(Account account) {
 		this.accountsRepository.createAccount(account);
 	}
 
+	public List<Boolean> createAccounts(List<Account> accounts) {
+		return this.accountsRepository.createAccounts(accounts);
+	}
+
 	public Account getAccount(String accountId) {
 		return this.accountsRepository.getAccount(accountId);
 	}
 
-	public boolean performBalanceTransfer(Account fromAccount, Account toAccount, BigDecimal Amount) {
-		return this.accountsRepository.performBalanceTransfer(fromAccount, toAccount, Amount);
+	public void scanAccounts(boolean parallel, Consumer<Account> visitor) {
+		this.accountsRepository.scan(parallel, visitor);
+	}
+
+	public TransferHistoryPage findTransfers(String accountId, Instant from, Instant to, Long cursor, int limit) {
+		return this.accountsRepository.findTransfers(accountId, from, to, cursor, limit);
+	}
+
+	/*
+	 * With admission control a transfer over its limits is refused here, before
+	 * it can queue on account locks, and the caller gets the exception rather
+	 * than a result so an idempotent retry runs again.
+	 */
+	public TransferResult performBalanceTransfer(String accountFrom, String accountTo, BigDecimal amount) {
+		if (admission == null) {
+			return doPerformBalanceTransfer(accountFrom, accountTo, amount);
+		}
+		checkAdmitted(admission.tryAdmit(accountFrom, accountTo));
+		try {
+			return doPerformBalanceTransfer(accountFrom, accountTo, amount);
+		} finally {
+			admission.release(accountFrom, accountTo);
+		}
+	}
+
+	// one transfer of the sender's however many legs it has, and one received by each leg's account
+	public TransferResult performMultiLegTransfer(String accountFrom, List<TransferLeg> legs) {
+		if (admission == null) {
+			return doPerformMultiLegTransfer(accountFrom, legs);
+		}
+		List<String> accountsTo = new ArrayList<>(legs.size());
+		for (TransferLeg leg : legs) {
+			accountsTo.add(leg.getAccountTo());
+		}
+		checkAdmitted(admission.tryAdmitMultiLeg(accountFrom, accountsTo));
+		try {
+			return doPerformMultiLegTransfer(accountFrom, legs);
+		} finally {
+			admission.release(accountFrom, accountFrom);
+		}
+	}
+
+	private void checkAdmitted(TransferAdmissionControl.Rejection rejection) {
+		if (rejection != null) {
+			if (metrics != null) {
+				metrics.recordOutcome(TransferResult.RATE_LIMITED);
+			}
+			throw new TransferRateLimitedException(rejection.getMessage());
+		}
 	}
 
-	public BigDecimal getCurrentBalance(Account account) {
-		
-		synchronized (account.getAccountId()) {
-			
-			return account.getBalance();
+	private TransferResult doPerformMultiLegTransfer(String accountFrom, List<TransferLeg> legs) {
+		TransferResult result = this.accountsRepository.performMultiLegTransfer(accountFrom, legs);
+		if (metrics != null) {
+			metrics.recordOutcome(result);
 		}
-		
+		for (TransferLeg leg : legs) {
+			if (audit != null) {
+				audit.record(accountFrom, leg.getAccountTo(), leg.getTransferAmount(), result);
+			}
+			if (notifyInline && result == TransferResult.OK) {
+				notifyParties(accountFrom, leg.getAccountTo(), leg.getTransferAmount());
+			}
+		}
+		return result;
+	}
+
+	private TransferResult doPerformBalanceTransfer(String accountFrom, String accountTo, BigDecimal amount) {
+		TransferResult result = this.accountsRepository.performBalanceTransfer(accountFrom, accountTo, amount);
+		if (metrics != null) {
+			metrics.recordOutcome(result);
+		}
+		// the repository has released its locks by now; the audit log only queues the event
+		if (audit != null) {
+			audit.record(accountFrom, accountTo, amount, result);
+		}
+		if (notifyInline && result == TransferResult.OK) {
+			notifyParties(accountFrom, accountTo, amount);
+		}
+		return result;
+	}
+
+	// legs over their rate are answered RATE_LIMITED in place and the rest go ahead
+	public List<TransferResult> performBalanceTransfers(List<AccountTransfer> transfers) {
+		List<TransferResult> results = admission == null ? this.accountsRepository.performBalanceTransfers(transfers)
+				: performAdmittedTransfers(transfers);
+		for (int i = 0; i < results.size(); i++) {
+			AccountTransfer transfer = transfers.get(i);
+			if (metrics != null) {
+				metrics.recordOutcome(results.get(i));
+			}
+			if (audit != null) {
+				audit.record(transfer.getAccountFrom(), transfer.getAccountTo(), transfer.getTransferAmount(),
+						results.get(i));
+			}
+			if (notifyInline && results.get(i) == TransferResult.OK) {
+				notifyParties(transfer.getAccountFrom(), transfer.getAccountTo(), transfer.getTransferAmount());
+			}
+		}
+		return results;
+	}
+
+	private List<TransferResult> performAdmittedTransfers(List<AccountTransfer> transfers) {
+		boolean[] admitted = new boolean[transfers.size()];
+		List<AccountTransfer> admittedTransfers = new ArrayList<>(transfers.size());
+		for (int i = 0; i < admitted.length; i++) {
+			AccountTransfer transfer = transfers.get(i);
+			admitted[i] = admission.tryAdmitLeg(transfer.getAccountFrom(), transfer.getAccountTo()) == null;
+			if (admitted[i]) {
+				admittedTransfers.add(transfer);
+			}
+		}
+		if (admittedTransfers.size() == transfers.size()) {
+			return this.accountsRepository.performBalanceTransfers(transfers);
+		}
+		List<TransferResult> admittedResults = admittedTransfers.isEmpty() ? new ArrayList<>()
+				: this.accountsRepository.performBalanceTransfers(admittedTransfers);
+		List<TransferResult> results = new ArrayList<>(admitted.length);
+		int next = 0;
+		for (boolean legAdmitted : admitted) {
+			results.add(legAdmitted ? admittedResults.get(next++) : TransferResult.RATE_LIMITED);
+		}
+		return results;
+	}
+
+	/*
+	 * The transfer is already committed. Only the ids go to the notifier; an
+	 * async dispatcher looks the accounts up on its worker, so the request
+	 * thread makes no store round trip per party.
+	 */
+	private void notifyParties(String accountFrom, String accountTo, BigDecimal amount) {
+		this.notificationService.notifyAboutTransfer(accountFrom, this::accountOf,
+				"Transferred " + amount.toPlainString() + " to account " + accountTo);
+		this.notificationService.notifyAboutTransfer(accountTo, this::accountOf,
+				"Received " + amount.toPlainString() + " from account " + accountFrom);
+	}
+
+	// the account may have been cleared since the transfer; the id is all a notification needs
+	private Account accountOf(String accountId) {
+		Account account = getAccount(accountId);
+		return account == null ? new Account(accountId) : account;
 	}
 }
@@ -0,0 +1,30 @@
+package com.dws.challenge.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+@Configuration
+@ConditionalOnProperty(name = "accounts.admission.enabled", havingValue = "true")
+public class AdmissionConfiguration {
+
+	@Bean
+	public TransferAdmissionControl transferAdmissionControl(MeterRegistry registry,
+			@Value("${accounts.admission.global-rate:0}") double globalRate,
+			@Value("${accounts.admission.global-burst:1000}") int globalBurst,
+			@Value("${accounts.admission.account-rate:100}") double accountRate,
+			@Value("${accounts.admission.account-burst:200}") int accountBurst,
+			@Value("${accounts.admission.account-concurrency:8}") int accountConcurrency,
+			@Value("${accounts.admission.slots:65536}") int slots) {
+		return new TransferAdmissionControl(new TransferAdmissionControl.Limits(globalRate, globalBurst, accountRate,
+				accountBurst, accountConcurrency), slots, registry);
+	}
+
+	@Bean
+	public TransferLimitsEndpoint transferLimitsEndpoint(TransferAdmissionControl admission) {
+		return new TransferLimitsEndpoint(admission);
+	}
+}
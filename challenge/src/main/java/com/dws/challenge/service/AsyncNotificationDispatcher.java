@@ -0,0 +1,343 @@
+package com.dws.challenge.service;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+import com.dws.challenge.domain.Account;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+/*
+ * Takes notifications off the transfer thread. Notifications are partitioned
+ * by account id over bounded queues, each drained by a single worker, so one
+ * account's notifications keep their order. A worker drains up to batchSize
+ * entries at a time and hands the delegate one combined notification per
+ * account in the batch, looking the account up only then. With SPILL, once
+ * a partition has spilled every later notification is spilled behind it
+ * until the worker has replayed the file, so the order holds across the
+ * spill as well.
+ */
+@Slf4j
+public class AsyncNotificationDispatcher implements NotificationService, AutoCloseable {
+
+	private static final long POLL_MILLIS = 100;
+
+	private final NotificationService delegate;
+
+	private final NotificationOverflowPolicy overflowPolicy;
+
+	private final int batchSize;
+
+	private final Partition[] partitions;
+
+	private final Counter dispatched;
+
+	private final Counter dropped;
+
+	private final Counter spilled;
+
+	private final Counter failed;
+
+	private final Timer lag;
+
+	private volatile boolean running = true;
+
+	public AsyncNotificationDispatcher(NotificationService delegate, int workers, int queueCapacity, int batchSize,
+			NotificationOverflowPolicy overflowPolicy, Path spillDirectory, MeterRegistry registry) {
+		this.delegate = delegate;
+		this.overflowPolicy = overflowPolicy;
+		this.batchSize = batchSize;
+		this.partitions = new Partition[workers];
+		if (overflowPolicy == NotificationOverflowPolicy.SPILL) {
+			try {
+				Files.createDirectories(spillDirectory);
+			} catch (IOException e) {
+				throw new UncheckedIOException("Unable to create notification spill directory " + spillDirectory, e);
+			}
+		}
+		int partitionCapacity = Math.max(1, queueCapacity / workers);
+		for (int i = 0; i < workers; i++) {
+			Path spillFile = overflowPolicy == NotificationOverflowPolicy.SPILL
+					? spillDirectory.resolve("notifications-" + i + ".spill") : null;
+			partitions[i] = new Partition(i, partitionCapacity, spillFile);
+		}
+
+		this.dispatched = Counter.builder("accounts.notifications.dispatched").register(registry);
+		this.dropped = Counter.builder("accounts.notifications.dropped").register(registry);
+		this.spilled = Counter.builder("accounts.notifications.spilled").register(registry);
+		this.failed = Counter.builder("accounts.notifications.failed").register(registry);
+		this.lag = Timer.builder("accounts.notifications.lag").publishPercentiles(0.5, 0.99).register(registry);
+		Gauge.builder("accounts.notifications.queue.depth", this, AsyncNotificationDispatcher::getQueueDepth)
+				.register(registry);
+
+		for (Partition partition : partitions) {
+			partition.worker.start();
+		}
+	}
+
+	@Override
+	public void notifyAboutTransfer(Account account, String transferDescription) {
+		enqueue(new Notification(account.getAccountId(), id -> account, transferDescription, System.nanoTime()));
+	}
+
+	// the account is looked up by the worker, just before sending, rather than by the transfer thread
+	@Override
+	public void notifyAboutTransfer(String accountId, Function<String, Account> accounts,
+			String transferDescription) {
+		enqueue(new Notification(accountId, accounts, transferDescription, System.nanoTime()));
+	}
+
+	private void enqueue(Notification notification) {
+		Partition partition = partitions[(notification.accountId.hashCode() & 0x7fffffff) % partitions.length];
+
+		switch (overflowPolicy) {
+		case BLOCK:
+			try {
+				partition.queue.put(notification);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				dropped.increment();
+			}
+			break;
+		case DROP_OLDEST:
+			while (!partition.queue.offer(notification)) {
+				if (partition.queue.poll() != null) {
+					dropped.increment();
+				}
+			}
+			break;
+		default:
+			if (partition.spilling || !partition.queue.offer(notification)) {
+				partition.spill(notification);
+			}
+		}
+	}
+
+	public int getQueueDepth() {
+		int depth = 0;
+		for (Partition partition : partitions) {
+			depth += partition.queue.size();
+		}
+		return depth;
+	}
+
+	/*
+	 * Stops accepting work once the queues are drained; anything still in a
+	 * spill file stays there and is delivered after the next start.
+	 */
+	@Override
+	public void close() {
+		running = false;
+		for (Partition partition : partitions) {
+			try {
+				partition.worker.join(TimeUnit.SECONDS.toMillis(5));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+		for (Partition partition : partitions) {
+			partition.closeSpillWriter();
+		}
+	}
+
+	private void dispatch(List<Notification> batch) {
+		Map<String, Notification> coalesced = new LinkedHashMap<>();
+		long now = System.nanoTime();
+		for (Notification notification : batch) {
+			coalesced.merge(notification.accountId, notification, Notification::combine);
+			if (notification.enqueuedNanos > 0) {
+				lag.record(now - notification.enqueuedNanos, TimeUnit.NANOSECONDS);
+			}
+		}
+		for (Notification notification : coalesced.values()) {
+			try {
+				delegate.notifyAboutTransfer(notification.accounts.apply(notification.accountId),
+						notification.description);
+				dispatched.increment();
+			} catch (RuntimeException e) {
+				failed.increment();
+				log.error("Exception in sending notification to {} reason", notification.accountId, e);
+			}
+		}
+	}
+
+	private static final class Notification {
+
+		private final String accountId;
+
+		private final Function<String, Account> accounts;
+
+		private final String description;
+
+		private final long enqueuedNanos;
+
+		private Notification(String accountId, Function<String, Account> accounts, String description,
+				long enqueuedNanos) {
+			this.accountId = accountId;
+			this.accounts = accounts;
+			this.description = description;
+			this.enqueuedNanos = enqueuedNanos;
+		}
+
+		private Notification combine(Notification next) {
+			return new Notification(accountId, next.accounts, description + "\n" + next.description, enqueuedNanos);
+		}
+	}
+
+	private final class Partition {
+
+		private final BlockingQueue<Notification> queue;
+
+		private final Path spillFile;
+
+		private final Path replayFile;
+
+		// guards the spill file and its writer; request threads write it, so a lock instead of a monitor
+		private final ReentrantLock spillLock = new ReentrantLock();
+
+		// kept open while spilling, so a spill costs a write and a flush rather than opening the file
+		private BufferedWriter spillWriter;
+
+		// set while spilled notifications wait for replay; written under spillLock
+		private volatile boolean spilling;
+
+		private final Thread worker;
+
+		private Partition(int index, int capacity, Path spillFile) {
+			this.queue = new ArrayBlockingQueue<>(capacity);
+			this.spillFile = spillFile;
+			this.replayFile = spillFile == null ? null : spillFile.resolveSibling(spillFile.getFileName() + ".replay");
+			// whatever the last run left spilled goes out before anything new
+			this.spilling = spillFile != null && (Files.exists(spillFile) || Files.exists(replayFile));
+			this.worker = new Thread(this::run, "notification-dispatcher-" + index);
+			this.worker.setDaemon(true);
+		}
+
+		private void run() {
+			List<Notification> batch = new ArrayList<>(batchSize);
+			while (running || !queue.isEmpty()) {
+				try {
+					// while spilling the queue only holds what came before the spill, so it is not waited on
+					Notification first = queue.poll(spilling ? 0 : POLL_MILLIS, TimeUnit.MILLISECONDS);
+					if (first == null) {
+						if (spilling && !replaySpill()) {
+							TimeUnit.MILLISECONDS.sleep(POLL_MILLIS);
+						}
+						continue;
+					}
+					batch.add(first);
+					queue.drainTo(batch, batchSize - 1);
+					dispatch(batch);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				} catch (RuntimeException e) {
+					log.error("Exception in notification dispatcher reason", e);
+				} finally {
+					batch.clear();
+				}
+			}
+		}
+
+		private void spill(Notification notification) {
+			spillLock.lock();
+			try {
+				spilling = true;
+				if (spillWriter == null) {
+					spillWriter = Files.newBufferedWriter(spillFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+							StandardOpenOption.APPEND);
+				}
+				spillWriter.write(notification.accountId);
+				spillWriter.write('\t');
+				spillWriter.write(notification.description.replace('\n', ' ').replace('\t', ' '));
+				spillWriter.newLine();
+				spillWriter.flush();
+				spilled.increment();
+			} catch (IOException e) {
+				dropped.increment();
+				log.error("Exception in spilling notification for {} reason", notification.accountId, e);
+				closeSpillWriter();
+			} finally {
+				spillLock.unlock();
+			}
+		}
+
+		private void closeSpillWriter() {
+			spillLock.lock();
+			try {
+				if (spillWriter != null) {
+					spillWriter.close();
+				}
+			} catch (IOException e) {
+				log.error("Exception in closing notification spill file {} reason", spillFile, e);
+			} finally {
+				spillWriter = null;
+				spillLock.unlock();
+			}
+		}
+
+		/*
+		 * Replays one spill file and returns false when it could not. Only the
+		 * account id and description are spilled, so replayed notifications
+		 * carry an Account stub without the balance. Notifications spilled
+		 * meanwhile start a new file, replayed on the next call; the partition
+		 * stops spilling once a call finds nothing left.
+		 */
+		private boolean replaySpill() {
+			try {
+				spillLock.lock();
+				try {
+					if (!Files.exists(replayFile)) {
+						closeSpillWriter();
+						if (!Files.exists(spillFile)) {
+							spilling = false;
+							return true;
+						}
+						Files.move(spillFile, replayFile, StandardCopyOption.ATOMIC_MOVE);
+					}
+				} finally {
+					spillLock.unlock();
+				}
+				List<Notification> batch = new ArrayList<>(batchSize);
+				try (BufferedReader reader = Files.newBufferedReader(replayFile, StandardCharsets.UTF_8)) {
+					String line;
+					while ((line = reader.readLine()) != null) {
+						int tab = line.indexOf('\t');
+						batch.add(new Notification(line.substring(0, tab), Account::new, line.substring(tab + 1), 0));
+						if (batch.size() == batchSize) {
+							dispatch(batch);
+							batch.clear();
+						}
+					}
+				}
+				dispatch(batch);
+				Files.delete(replayFile);
+				return true;
+			} catch (IOException e) {
+				log.error("Exception in replaying notification spill file {} reason", spillFile, e);
+				return false;
+			}
+		}
+	}
+}
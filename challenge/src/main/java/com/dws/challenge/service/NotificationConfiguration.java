@@ -0,0 +1,32 @@
+package com.dws.challenge.service;
+
+import java.nio.file.Paths;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+@Configuration
+public class NotificationConfiguration {
+
+	@Bean(destroyMethod = "close")
+	@ConditionalOnProperty(name = "accounts.notifications.async", havingValue = "true", matchIfMissing = true)
+	public AsyncNotificationDispatcher asyncNotificationService(MeterRegistry registry,
+			@Value("${accounts.notifications.workers:2}") int workers,
+			@Value("${accounts.notifications.queue-capacity:10000}") int queueCapacity,
+			@Value("${accounts.notifications.batch-size:100}") int batchSize,
+			@Value("${accounts.notifications.overflow-policy:DROP_OLDEST}") NotificationOverflowPolicy overflowPolicy,
+			@Value("${accounts.notifications.spill-directory:data/notifications}") String spillDirectory) {
+		return new AsyncNotificationDispatcher(new EmailNotificationService(), workers, queueCapacity, batchSize,
+				overflowPolicy, Paths.get(spillDirectory), registry);
+	}
+
+	@Bean
+	@ConditionalOnProperty(name = "accounts.notifications.async", havingValue = "false")
+	public NotificationService notificationService() {
+		return new EmailNotificationService();
+	}
+}
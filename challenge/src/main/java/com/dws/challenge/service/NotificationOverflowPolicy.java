@@ -0,0 +1,13 @@
+package com.dws.challenge.service;
+
+public enum NotificationOverflowPolicy {
+
+	/** the transfer thread waits for queue space */
+	BLOCK,
+
+	/** the oldest queued notification is discarded to make room */
+	DROP_OLDEST,
+
+	/** the notification is appended to a spill file and delivered once the queue drains */
+	SPILL
+}
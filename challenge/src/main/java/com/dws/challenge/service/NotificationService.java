@@ -1,8 +1,20 @@
 package com.dws.challenge.service;
 
+import java.util.function.Function;
+
 import com.dws.challenge.domain.Account;
 
 public interface NotificationService {
 
   void notifyAboutTransfer(Account account, String transferDescription);
+
+  /*
+   * Notifies the account with the given id, looking it up through accounts
+   * only when the notification is sent, so an implementation that sends off
+   * the caller's thread does the lookup there too.
+   */
+  default void notifyAboutTransfer(String accountId, Function<String, Account> accounts,
+      String transferDescription) {
+    notifyAboutTransfer(accounts.apply(accountId), transferDescription);
+  }
 }
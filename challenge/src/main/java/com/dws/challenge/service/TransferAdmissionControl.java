@@ -0,0 +1,286 @@
+package com.dws.challenge.service;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/*
+ * Admission control in front of the repository: a transfer is turned away
+ * straight away, rather than left to wait on account locks, when either
+ * account already has accountConcurrency transfers in flight, when either
+ * account or the service as a whole is over its rate. Rates are token buckets
+ * kept as the generic cell rate algorithm does, one theoretical arrival time
+ * per bucket, so a bucket is a single long updated by CAS. Accounts are
+ * hashed onto a fixed number of slots, each holding a bucket and an in-flight
+ * count; accounts sharing a slot share its limits, which only ever makes
+ * admission stricter. A rate of 0 leaves that bucket unlimited, a concurrency
+ * of 0 leaves accounts unbounded. Limits can be replaced while running.
+ */
+public class TransferAdmissionControl {
+
+	@Getter
+	public enum Rejection {
+
+		GLOBAL_RATE("Transfer rate limit exceeded"),
+
+		ACCOUNT_RATE("Account transfer rate limit exceeded"),
+
+		ACCOUNT_CONCURRENCY("Too many transfers in flight for the account");
+
+		private final String message;
+
+		Rejection(String message) {
+			this.message = message;
+		}
+	}
+
+	@Getter
+	@AllArgsConstructor
+	public static class Limits {
+
+		/** transfers per second over all accounts, 0 for no limit */
+		private final double globalRate;
+
+		private final int globalBurst;
+
+		/** transfers per second touching one account, as sender or receiver, 0 for no limit */
+		private final double accountRate;
+
+		private final int accountBurst;
+
+		/** transfers in flight per account, 0 for no limit */
+		private final int accountConcurrency;
+	}
+
+	private static final int GLOBAL = 0;
+
+	private final int slotMask;
+
+	private final AtomicLongArray accountBuckets;
+
+	private final AtomicLongArray globalBucket = new AtomicLongArray(1);
+
+	private final AtomicIntegerArray inFlight;
+
+	private final LongSupplier clock;
+
+	private final Counter[] rejected;
+
+	private volatile Settings settings;
+
+	public TransferAdmissionControl(Limits limits, int slots, MeterRegistry registry) {
+		this(limits, slots, registry, System::nanoTime);
+	}
+
+	public TransferAdmissionControl(Limits limits, int slots, MeterRegistry registry, LongSupplier clock) {
+		if (slots < 1 || Integer.bitCount(slots) != 1) {
+			throw new IllegalArgumentException("accounts.admission.slots must be a power of two");
+		}
+		this.slotMask = slots - 1;
+		this.accountBuckets = new AtomicLongArray(slots);
+		this.inFlight = new AtomicIntegerArray(slots);
+		// arrival times are kept relative to construction so a fresh bucket, at 0, is never ahead of now
+		long origin = clock.getAsLong();
+		this.clock = () -> clock.getAsLong() - origin;
+		setLimits(limits);
+
+		Rejection[] rejections = Rejection.values();
+		this.rejected = new Counter[rejections.length];
+		for (Rejection rejection : rejections) {
+			rejected[rejection.ordinal()] = Counter.builder("accounts.admission.rejected")
+					.tag("reason", rejection.name().toLowerCase()).register(registry);
+		}
+		Gauge.builder("accounts.admission.limit", this, a -> a.getLimits().getGlobalRate()).tag("limit", "global.rate")
+				.register(registry);
+		Gauge.builder("accounts.admission.limit", this, a -> a.getLimits().getAccountRate())
+				.tag("limit", "account.rate").register(registry);
+		Gauge.builder("accounts.admission.limit", this, a -> a.getLimits().getAccountConcurrency())
+				.tag("limit", "account.concurrency").register(registry);
+	}
+
+	public Limits getLimits() {
+		return settings.limits;
+	}
+
+	public void setLimits(Limits limits) {
+		if (limits.getGlobalRate() < 0 || limits.getAccountRate() < 0 || limits.getAccountConcurrency() < 0) {
+			throw new IllegalArgumentException("Transfer limits must not be negative");
+		}
+		this.settings = new Settings(limits);
+	}
+
+	/*
+	 * Admits a single transfer, or returns why not. An admitted transfer holds
+	 * a concurrency slot on both accounts until release is called.
+	 */
+	public Rejection tryAdmit(String accountFrom, String accountTo) {
+		Settings current = settings;
+		int fromSlot = slot(accountFrom);
+		int toSlot = slot(accountTo);
+		if (!enter(current, fromSlot)) {
+			return reject(Rejection.ACCOUNT_CONCURRENCY);
+		}
+		if (toSlot != fromSlot && !enter(current, toSlot)) {
+			inFlight.decrementAndGet(fromSlot);
+			return reject(Rejection.ACCOUNT_CONCURRENCY);
+		}
+		Rejection rejection = tryConsume(current, fromSlot, toSlot);
+		if (rejection != null) {
+			exit(fromSlot, toSlot);
+		}
+		return rejection;
+	}
+
+	/*
+	 * Admits a multi-leg transfer as one transfer of the sender's, each leg
+	 * also charged to its receiver's rate; a refusal on any receiver refunds
+	 * every token taken. As with batch legs, receivers are not counted as in
+	 * flight, so release(accountFrom, accountFrom) frees an admitted one.
+	 */
+	public Rejection tryAdmitMultiLeg(String accountFrom, List<String> accountsTo) {
+		Settings current = settings;
+		int fromSlot = slot(accountFrom);
+		if (!enter(current, fromSlot)) {
+			return reject(Rejection.ACCOUNT_CONCURRENCY);
+		}
+		Rejection rejection = tryConsume(current, fromSlot, fromSlot);
+		if (rejection != null) {
+			exit(fromSlot, fromSlot);
+			return rejection;
+		}
+		long now = clock.getAsLong();
+		for (int i = 0; i < accountsTo.size(); i++) {
+			int toSlot = slot(accountsTo.get(i));
+			if (toSlot != fromSlot && !take(accountBuckets, toSlot, current.accountInterval, current.accountWindow, now)) {
+				for (int j = 0; j < i; j++) {
+					int takenSlot = slot(accountsTo.get(j));
+					if (takenSlot != fromSlot) {
+						refund(accountBuckets, takenSlot, current.accountInterval);
+					}
+				}
+				refund(accountBuckets, fromSlot, current.accountInterval);
+				refund(globalBucket, GLOBAL, current.globalInterval);
+				exit(fromSlot, fromSlot);
+				return reject(Rejection.ACCOUNT_RATE);
+			}
+		}
+		return null;
+	}
+
+	public void release(String accountFrom, String accountTo) {
+		exit(slot(accountFrom), slot(accountTo));
+	}
+
+	/*
+	 * Admits one leg of a batch by rate alone. A batch holds its accounts'
+	 * locks once for all of its legs, so legs are not counted as in flight.
+	 */
+	public Rejection tryAdmitLeg(String accountFrom, String accountTo) {
+		return tryConsume(settings, slot(accountFrom), slot(accountTo));
+	}
+
+	private Rejection tryConsume(Settings current, int fromSlot, int toSlot) {
+		long now = clock.getAsLong();
+		if (!take(accountBuckets, fromSlot, current.accountInterval, current.accountWindow, now)) {
+			return reject(Rejection.ACCOUNT_RATE);
+		}
+		if (toSlot != fromSlot && !take(accountBuckets, toSlot, current.accountInterval, current.accountWindow, now)) {
+			refund(accountBuckets, fromSlot, current.accountInterval);
+			return reject(Rejection.ACCOUNT_RATE);
+		}
+		if (!take(globalBucket, GLOBAL, current.globalInterval, current.globalWindow, now)) {
+			refund(accountBuckets, fromSlot, current.accountInterval);
+			if (toSlot != fromSlot) {
+				refund(accountBuckets, toSlot, current.accountInterval);
+			}
+			return reject(Rejection.GLOBAL_RATE);
+		}
+		return null;
+	}
+
+	// the bucket is full up to window past now; each transfer moves its arrival time on by one interval
+	private static boolean take(AtomicLongArray buckets, int index, long interval, long window, long now) {
+		if (interval == 0) {
+			return true;
+		}
+		while (true) {
+			long arrival = buckets.get(index);
+			long next = Math.max(arrival, now) + interval;
+			if (next - now > window) {
+				return false;
+			}
+			if (buckets.compareAndSet(index, arrival, next)) {
+				return true;
+			}
+		}
+	}
+
+	private static void refund(AtomicLongArray buckets, int index, long interval) {
+		if (interval != 0) {
+			buckets.addAndGet(index, -interval);
+		}
+	}
+
+	private boolean enter(Settings current, int slot) {
+		if (current.limits.getAccountConcurrency() == 0) {
+			inFlight.incrementAndGet(slot);
+			return true;
+		}
+		if (inFlight.incrementAndGet(slot) <= current.limits.getAccountConcurrency()) {
+			return true;
+		}
+		inFlight.decrementAndGet(slot);
+		return false;
+	}
+
+	private void exit(int fromSlot, int toSlot) {
+		inFlight.decrementAndGet(fromSlot);
+		if (toSlot != fromSlot) {
+			inFlight.decrementAndGet(toSlot);
+		}
+	}
+
+	private Rejection reject(Rejection rejection) {
+		rejected[rejection.ordinal()].increment();
+		return rejection;
+	}
+
+	private int slot(String accountId) {
+		int hash = accountId.hashCode();
+		return (hash ^ (hash >>> 16)) & slotMask;
+	}
+
+	// limits with their intervals and burst windows in nanoseconds, replaced as one
+	private static final class Settings {
+
+		private final Limits limits;
+
+		private final long globalInterval;
+
+		private final long globalWindow;
+
+		private final long accountInterval;
+
+		private final long accountWindow;
+
+		private Settings(Limits limits) {
+			this.limits = limits;
+			this.globalInterval = interval(limits.getGlobalRate());
+			this.globalWindow = globalInterval * Math.max(1, limits.getGlobalBurst());
+			this.accountInterval = interval(limits.getAccountRate());
+			this.accountWindow = accountInterval * Math.max(1, limits.getAccountBurst());
+		}
+
+		private static long interval(double rate) {
+			return rate == 0 ? 0 : Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / rate));
+		}
+	}
+}
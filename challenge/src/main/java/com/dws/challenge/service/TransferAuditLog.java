@@ -0,0 +1,183 @@
+package com.dws.challenge.service;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.dws.challenge.domain.TransferResult;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/*
+ * Structured per-transfer audit events, written by one background thread to
+ * the com.dws.challenge.audit logger. Events live in a ring of pre-allocated,
+ * reused slots: a transfer thread claims a sequence with one CAS, copies
+ * references into the slot and publishes it, and never formats, blocks or
+ * allocates. When the writer is a full ring behind, the event is dropped and
+ * counted rather than slowing transfers down. Successful transfers are
+ * sampled at the configured rate; every other outcome is always recorded.
+ */
+@Component
+public class TransferAuditLog implements AutoCloseable {
+
+	private static final Logger AUDIT = LoggerFactory.getLogger("com.dws.challenge.audit");
+
+	private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private final Event[] events;
+
+	private final int mask;
+
+	private final double sampleRate;
+
+	private final Consumer<String> sink;
+
+	private final AtomicLong claimed = new AtomicLong();
+
+	// next sequence the writer will format; only the writer advances it
+	private volatile long written;
+
+	private final Counter recorded;
+
+	private final Counter dropped;
+
+	private final StringBuilder line = new StringBuilder(160);
+
+	private final Thread writer = new Thread(this::run, "transfer-audit");
+
+	private volatile boolean running = true;
+
+	@Autowired
+	public TransferAuditLog(@Value("${accounts.audit.capacity:8192}") int capacity,
+			@Value("${accounts.audit.sample-rate:1.0}") double sampleRate, MeterRegistry registry) {
+		this(capacity, sampleRate, AUDIT::info, registry);
+	}
+
+	public TransferAuditLog(int capacity, double sampleRate, Consumer<String> sink, MeterRegistry registry) {
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		this.events = new Event[size];
+		for (int i = 0; i < size; i++) {
+			events[i] = new Event();
+		}
+		this.mask = size - 1;
+		this.sampleRate = sampleRate;
+		this.sink = sink;
+		this.recorded = Counter.builder("accounts.audit.recorded").register(registry);
+		this.dropped = Counter.builder("accounts.audit.dropped").register(registry);
+		this.writer.setDaemon(true);
+	}
+
+	@PostConstruct
+	public void start() {
+		writer.start();
+	}
+
+	public void record(String accountFrom, String accountTo, BigDecimal amount, TransferResult result) {
+		if (result == TransferResult.OK && !sampled()) {
+			return;
+		}
+		long sequence;
+		do {
+			sequence = claimed.get();
+			if (sequence - written >= events.length) {
+				dropped.increment();
+				return;
+			}
+		} while (!claimed.compareAndSet(sequence, sequence + 1));
+
+		Event event = events[(int) sequence & mask];
+		event.timestamp = System.currentTimeMillis();
+		event.accountFrom = accountFrom;
+		event.accountTo = accountTo;
+		event.amount = amount;
+		event.result = result;
+		event.sequence = sequence;
+	}
+
+	/*
+	 * Writes every published event in sequence order and returns how many; the
+	 * writer thread calls this in a loop.
+	 */
+	public int drain() {
+		int count = 0;
+		long next = written;
+		Event event = events[(int) next & mask];
+		while (event.sequence == next) {
+			format(event);
+			event.accountFrom = null;
+			event.accountTo = null;
+			event.amount = null;
+			written = ++next;
+			try {
+				sink.accept(line.toString());
+				recorded.increment();
+			} catch (RuntimeException e) {
+				AUDIT.error("Exception in writing transfer audit event reason", e);
+			}
+			count++;
+			event = events[(int) next & mask];
+		}
+		return count;
+	}
+
+	@PreDestroy
+	@Override
+	public void close() {
+		running = false;
+		LockSupport.unpark(writer);
+		try {
+			writer.join(TimeUnit.SECONDS.toMillis(5));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private boolean sampled() {
+		return sampleRate >= 1 || (sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate);
+	}
+
+	private void format(Event event) {
+		line.setLength(0);
+		line.append("transfer at=").append(event.timestamp).append(" from=").append(event.accountFrom).append(" to=")
+				.append(event.accountTo).append(" amount=").append(event.amount.toPlainString()).append(" result=")
+				.append(event.result.name());
+	}
+
+	private void run() {
+		while (running) {
+			if (drain() == 0) {
+				LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+			}
+		}
+		drain();
+	}
+
+	private static final class Event {
+
+		// sequence this slot was last published for; written last so the other fields are visible with it
+		private volatile long sequence = -1;
+
+		private long timestamp;
+
+		private String accountFrom;
+
+		private String accountTo;
+
+		private BigDecimal amount;
+
+		private TransferResult result;
+	}
+}
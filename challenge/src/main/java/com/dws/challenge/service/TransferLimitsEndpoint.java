@@ -0,0 +1,47 @@
+package com.dws.challenge.service;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+
+import com.dws.challenge.service.TransferAdmissionControl.Limits;
+
+import lombok.extern.slf4j.Slf4j;
+
+/*
+ * Reads the admission limits in force; a write with any of the same fields
+ * replaces those and keeps the rest. Exposed over JMX only by default, since
+ * anyone who can reach it can lift the limits.
+ */
+@Endpoint(id = "transferlimits")
+@Slf4j
+public class TransferLimitsEndpoint {
+
+	private final TransferAdmissionControl admission;
+
+	public TransferLimitsEndpoint(TransferAdmissionControl admission) {
+		this.admission = admission;
+	}
+
+	@ReadOperation
+	public Limits limits() {
+		return admission.getLimits();
+	}
+
+	@WriteOperation
+	public Limits update(@Nullable Double globalRate, @Nullable Integer globalBurst, @Nullable Double accountRate,
+			@Nullable Integer accountBurst, @Nullable Integer accountConcurrency) {
+		Limits current = admission.getLimits();
+		Limits limits = new Limits(globalRate == null ? current.getGlobalRate() : globalRate,
+				globalBurst == null ? current.getGlobalBurst() : globalBurst,
+				accountRate == null ? current.getAccountRate() : accountRate,
+				accountBurst == null ? current.getAccountBurst() : accountBurst,
+				accountConcurrency == null ? current.getAccountConcurrency() : accountConcurrency);
+		admission.setLimits(limits);
+		log.info("Transfer limits changed to global {}/s burst {}, account {}/s burst {}, concurrency {}",
+				limits.getGlobalRate(), limits.getGlobalBurst(), limits.getAccountRate(), limits.getAccountBurst(),
+				limits.getAccountConcurrency());
+		return limits;
+	}
+}
@@ -1,11 +1,29 @@
 package com.dws.challenge.web;
 
-import java.math.BigDecimal;
-import java.util.Optional;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpServletRequest;
 import javax.validation.Valid;
+import javax.validation.Validator;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -13,15 +31,29 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 
 import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.AccountImportSummary;
 import com.dws.challenge.domain.AccountTransfer;
 import com.dws.challenge.domain.BalanceTransfer;
+import com.dws.challenge.domain.MultiLegTransfer;
+import com.dws.challenge.domain.TransferHistoryPage;
+import com.dws.challenge.domain.TransferResult;
 import com.dws.challenge.exception.AccountNotFoundException;
 import com.dws.challenge.exception.DuplicateAccountIdException;
+import com.dws.challenge.exception.IdempotencyKeyReuseException;
 import com.dws.challenge.exception.InsufficientBalanceException;
+import com.dws.challenge.exception.TransferOutcomeUnknownException;
+import com.dws.challenge.exception.TransferRateLimitedException;
+import com.dws.challenge.exception.WritesSuspendedException;
+import com.dws.challenge.metrics.TransferMetrics;
+import com.dws.challenge.service.AccountExportService;
+import com.dws.challenge.service.AccountImportService;
 import com.dws.challenge.service.AccountsService;
 
 import lombok.extern.slf4j.Slf4j;
@@ -31,11 +63,59 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class AccountsController {
 
+	private static final int MAX_HISTORY_PAGE = 1000;
+
+	private static final int EXPORT_CHUNK_BYTES = 64 * 1024;
+
 	private final AccountsService accountsService;
 
+	private final Validator validator;
+
+	private final IdempotencyCache idempotencyCache;
+
+	private final TransferMetrics metrics;
+
+	private final AccountImportService importService;
+
+	private final AccountExportService exportService;
+
+	private final int maxLegs;
+
+	private final int maxBatch;
+
+	private final long exportTimeoutMillis;
+
+	// one thread per export, for as long as the export runs; no queue, an export beyond the limit is turned away
+	private final ThreadPoolExecutor exportExecutor;
+
 	@Autowired
-	public AccountsController(AccountsService accountsService) {
+	public AccountsController(AccountsService accountsService, Validator validator,
+			IdempotencyCache idempotencyCache, TransferMetrics metrics, AccountImportService importService,
+			AccountExportService exportService, @Value("${accounts.multi-leg.max-legs:1000}") int maxLegs,
+			@Value("${accounts.batch.max-transfers:1000}") int maxBatch,
+			@Value("${accounts.export.timeout-ms:3600000}") long exportTimeoutMillis,
+			@Value("${accounts.export.max-concurrent:2}") int maxExports) {
 		this.accountsService = accountsService;
+		this.validator = validator;
+		this.idempotencyCache = idempotencyCache;
+		this.metrics = metrics;
+		this.importService = importService;
+		this.exportService = exportService;
+		this.maxLegs = maxLegs;
+		this.maxBatch = maxBatch;
+		this.exportTimeoutMillis = exportTimeoutMillis;
+		AtomicInteger threads = new AtomicInteger();
+		this.exportExecutor = new ThreadPoolExecutor(maxExports, maxExports, 0, TimeUnit.MILLISECONDS,
+				new SynchronousQueue<>(), task -> {
+					Thread thread = new Thread(task, "accounts-export-" + threads.getAndIncrement());
+					thread.setDaemon(true);
+					return thread;
+				});
+	}
+
+	@PreDestroy
+	public void close() {
+		this.exportExecutor.shutdown();
 	}
 
 	@PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
@@ -51,45 +131,327 @@ public class AccountsController {
 		return new ResponseEntity<>(HttpStatus.CREATED);
 	}
 
+	// the body is read as a stream and never held whole, whatever its size
+	@PostMapping(path = "/import", consumes = MediaType.APPLICATION_NDJSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+	public AccountImportSummary importNdjson(InputStream body) throws IOException {
+		log.info("Importing accounts from NDJSON");
+		return this.importService.importAccounts(body, AccountImportService.Format.NDJSON);
+	}
+
+	@PostMapping(path = "/import", consumes = "text/csv", produces = MediaType.APPLICATION_JSON_VALUE)
+	public AccountImportSummary importCsv(InputStream body) throws IOException {
+		log.info("Importing accounts from CSV");
+		return this.importService.importAccounts(body, AccountImportService.Format.CSV);
+	}
+
+	// written chunked from its own worker while transfers carry on; see AccountsRepository.scan for consistency.
+	// A full dump takes far longer than any other request, so it has a timeout of its own, and only a few run at once
+	@GetMapping(path = "/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+	public ResponseEntity<ResponseBodyEmitter> exportAccounts(@RequestParam(defaultValue = "false") boolean parallel) {
+		log.info("Exporting accounts, parallel {}", parallel);
+		ResponseBodyEmitter emitter = new ResponseBodyEmitter(this.exportTimeoutMillis);
+		try {
+			this.exportExecutor.execute(() -> export(emitter, parallel));
+		} catch (RejectedExecutionException e) {
+			log.info("Export refused, {} already running", this.exportExecutor.getMaximumPoolSize());
+			return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "60").build();
+		}
+		return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(emitter);
+	}
+
+	private void export(ResponseBodyEmitter emitter, boolean parallel) {
+		try (OutputStream out = new BufferedOutputStream(new EmitterOutputStream(emitter), EXPORT_CHUNK_BYTES)) {
+			this.exportService.exportAccounts(out, parallel);
+		} catch (IOException | RuntimeException e) {
+			// also how a timed out export stops, its next chunk having nowhere to go
+			log.warn("Export stopped", e);
+			emitter.completeWithError(e);
+			return;
+		}
+		emitter.complete();
+	}
+
 	@GetMapping(path = "/{accountId}")
-	public Account getAccount(@PathVariable String accountId) {
+	public ResponseEntity<Account> getAccount(@PathVariable String accountId) {
 		log.info("Retrieving account for id {}", accountId);
-		return this.accountsService.getAccount(accountId);
+		Account account = this.accountsService.getAccount(accountId);
+		if (account == null) {
+			return ResponseEntity.ok().build();
+		}
+		// Spring answers a matching If-None-Match with 304 before the body is serialized
+		return ResponseEntity.ok().eTag(etag(account)).body(account);
+	}
+
+	@GetMapping(path = "/{accountId}/transfers", produces = MediaType.APPLICATION_JSON_VALUE)
+	public TransferHistoryPage getTransfers(@PathVariable String accountId,
+			@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant from,
+			@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant to,
+			@RequestParam(required = false) Long cursor,
+			@RequestParam(defaultValue = "100") int limit) {
+		log.info("Retrieving transfers for id {} from {} to {} cursor {}", accountId, from, to, cursor);
+		TransferHistoryPage page = this.accountsService.findTransfers(accountId, from, to, cursor,
+				Math.max(1, Math.min(limit, MAX_HISTORY_PAGE)));
+		if (page == null) {
+			throw new AccountNotFoundException("Account Not Found");
+		}
+		return page;
 	}
 
 	@PostMapping(path = "/balanceTransfer",consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
-	public ResponseEntity<BalanceTransfer> balanceTransfer(@RequestBody @Valid AccountTransfer accountTransfer) {
-		log.info("Balance Transfer service {}", accountTransfer);
+	public ResponseEntity<BalanceTransfer> balanceTransfer(@RequestBody AccountTransfer accountTransfer,
+			@RequestHeader(name = "Idempotency-Key", required = false) String idempotencyKey) {
+		long start = System.nanoTime();
+		try {
+			return doBalanceTransfer(accountTransfer, idempotencyKey);
+		} finally {
+			metrics.recordTotal(System.nanoTime() - start);
+		}
+	}
 
+	private ResponseEntity<BalanceTransfer> doBalanceTransfer(AccountTransfer accountTransfer, String idempotencyKey) {
+		log.debug("Balance Transfer service {}", accountTransfer);
 
-		Account fromAccount = Optional.ofNullable(getAccount(accountTransfer.getAccountFrom())).orElseThrow(() -> new AccountNotFoundException("Sender Account Not Found"));
+		// validated here rather than by @Valid so its share of the latency can be timed
+		long validationStart = System.nanoTime();
+		boolean valid = validator.validate(accountTransfer).isEmpty();
+		metrics.recordValidation(System.nanoTime() - validationStart);
+		if (!valid) {
+			metrics.recordOutcome(TransferResult.INVALID);
+			BalanceTransfer balanceTransferObj = new BalanceTransfer();
+			balanceTransferObj.setStatus(TransferResult.INVALID.getMessage());
+			return new ResponseEntity<BalanceTransfer>(balanceTransferObj, HttpStatus.BAD_REQUEST);
+		}
 
-		Account accountTo = Optional.ofNullable(getAccount(accountTransfer.getAccountTo())).orElseThrow(() -> new AccountNotFoundException("Receiver Account Not Found"));
+		if (!validIdempotencyKey(idempotencyKey)) {
+			BalanceTransfer balanceTransferObj = new BalanceTransfer();
+			balanceTransferObj.setStatus("Idempotency-Key must be 1 to " + IdempotencyCache.MAX_KEY_LENGTH + " characters");
+			return new ResponseEntity<BalanceTransfer>(balanceTransferObj, HttpStatus.BAD_REQUEST);
+		}
+		return transferResponse(performBalanceTransfer(accountTransfer, idempotencyKey));
+	}
+
+	// one debit paying every leg, answered like a single transfer
+	@PostMapping(path = "/multiLegTransfer",consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<BalanceTransfer> multiLegTransfer(@RequestBody MultiLegTransfer multiLegTransfer) {
+		log.debug("Multi-leg transfer from {} with {} legs", multiLegTransfer.getAccountFrom(),
+				multiLegTransfer.getLegs() == null ? 0 : multiLegTransfer.getLegs().size());
 
-		BigDecimal currentBalance = accountsService.getCurrentBalance(fromAccount);
-		
-		log.info("sender account current state {}",fromAccount);
-		
-		log.info("receiver account current state {}",accountTo);
+		if (!validator.validate(multiLegTransfer).isEmpty() || multiLegTransfer.getLegs().size() > maxLegs) {
+			metrics.recordOutcome(TransferResult.INVALID);
+			BalanceTransfer balanceTransferObj = new BalanceTransfer();
+			balanceTransferObj.setStatus(TransferResult.INVALID.getMessage());
+			return new ResponseEntity<BalanceTransfer>(balanceTransferObj, HttpStatus.BAD_REQUEST);
+		}
+		return transferResponse(accountsService.performMultiLegTransfer(multiLegTransfer.getAccountFrom(),
+				multiLegTransfer.getLegs()));
+	}
 
-		if(currentBalance.doubleValue() > 0 
-				&& (currentBalance.subtract(accountTransfer.getTransferAmount()).doubleValue()) >= 0) {
+	private static ResponseEntity<BalanceTransfer> transferResponse(TransferResult result) {
+		switch (result) {
+		case INSUFFICIENT:
+			throw new InsufficientBalanceException(result.getMessage());
+		case SENDER_NOT_FOUND:
+		case RECEIVER_NOT_FOUND:
+			throw new AccountNotFoundException(result.getMessage());
+		case INVALID:
+			// passed validation but not the store, e.g. an amount finer than a fixed-point scale
+			BalanceTransfer invalid = new BalanceTransfer();
+			invalid.setStatus(result.getMessage());
+			return new ResponseEntity<BalanceTransfer>(invalid, HttpStatus.BAD_REQUEST);
+		default:
+			BalanceTransfer balanceTransferObj = new BalanceTransfer();
+			balanceTransferObj.setStatus(result.getMessage());
+			return new ResponseEntity<BalanceTransfer>(balanceTransferObj, HttpStatus.OK);
+		}
+	}
+
+	/*
+	 * The transfer in BinaryTransferCodec's layout, answered with its one byte
+	 * result code and the HTTP status the JSON endpoint would give.
+	 */
+	@PostMapping(path = "/balanceTransfer", consumes = BinaryTransferCodec.MEDIA_TYPE, produces = BinaryTransferCodec.MEDIA_TYPE)
+	public ResponseEntity<byte[]> balanceTransferBinary(HttpServletRequest request,
+			@RequestHeader(name = "Idempotency-Key", required = false) String idempotencyKey) throws IOException {
+		byte[] body = BinaryTransferCodec.readBody(request.getInputStream(), request.getContentLength());
+		long start = System.nanoTime();
+		try {
+			AccountTransfer accountTransfer = body == null ? null : BinaryTransferCodec.decodeTransfer(body);
+			metrics.recordValidation(System.nanoTime() - start);
+			if (accountTransfer == null) {
+				metrics.recordOutcome(TransferResult.INVALID);
+				return binaryResult(TransferResult.INVALID, HttpStatus.BAD_REQUEST);
+			}
+			if (!validIdempotencyKey(idempotencyKey)) {
+				return binaryResult(TransferResult.INVALID, HttpStatus.BAD_REQUEST);
+			}
 
-			boolean flag=accountsService.performBalanceTransfer(fromAccount, accountTo, accountTransfer.getTransferAmount()); 
+			TransferResult result;
+			try {
+				result = performBalanceTransfer(accountTransfer, idempotencyKey);
+			} catch (IdempotencyKeyReuseException e) {
+				log.info(e.getMessage());
+				return binaryResult(TransferResult.INVALID, HttpStatus.UNPROCESSABLE_ENTITY);
+			} catch (TransferRateLimitedException e) {
+				log.debug(e.getMessage());
+				return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).header(HttpHeaders.RETRY_AFTER, "1")
+						.contentType(MediaType.parseMediaType(BinaryTransferCodec.MEDIA_TYPE))
+						.body(BinaryTransferCodec.encodeResult(TransferResult.RATE_LIMITED));
+			} catch (TransferOutcomeUnknownException | WritesSuspendedException e) {
+				return unavailable(e);
+			}
+			switch (result) {
+			case INSUFFICIENT:
+				return binaryResult(result, HttpStatus.PRECONDITION_FAILED);
+			case SENDER_NOT_FOUND:
+			case RECEIVER_NOT_FOUND:
+				return binaryResult(result, HttpStatus.NOT_FOUND);
+			case INVALID:
+				return binaryResult(result, HttpStatus.BAD_REQUEST);
+			default:
+				return binaryResult(result, HttpStatus.OK);
+			}
+		} finally {
+			metrics.recordTotal(System.nanoTime() - start);
+		}
+	}
 
+	@PostMapping(path = "/balanceTransfers",consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<List<BalanceTransfer>> balanceTransfers(@RequestBody List<AccountTransfer> accountTransfers) {
+		log.debug("Balance Transfer batch of {} transfers", accountTransfers.size());
+		// an oversized batch is refused whole, answered with a single INVALID status like a broken binary one
+		if (accountTransfers.size() > maxBatch) {
+			metrics.recordOutcome(TransferResult.INVALID);
 			BalanceTransfer balanceTransferObj = new BalanceTransfer();
-			
-			if(flag) {
-				balanceTransferObj.setStatus("balance transfer processed successfully");
-			}else {
-				balanceTransferObj.setStatus("balance transfer process failed");
+			balanceTransferObj.setStatus(TransferResult.INVALID.getMessage());
+			return new ResponseEntity<List<BalanceTransfer>>(Collections.singletonList(balanceTransferObj),
+					HttpStatus.BAD_REQUEST);
+		}
+
+		// invalid items are answered individually so one bad leg does not reject the whole batch
+		boolean[] valid = new boolean[accountTransfers.size()];
+		List<AccountTransfer> validTransfers = new ArrayList<>(accountTransfers.size());
+		for (int i = 0; i < valid.length; i++) {
+			AccountTransfer accountTransfer = accountTransfers.get(i);
+			valid[i] = accountTransfer != null && validator.validate(accountTransfer).isEmpty();
+			if (valid[i]) {
+				validTransfers.add(accountTransfer);
 			}
-			return new ResponseEntity<BalanceTransfer>(balanceTransferObj, HttpStatus.OK);
-		}else {
-			// throw insufficient balance
-			throw new InsufficientBalanceException("Sender Account low balance");
 		}
+
+		List<TransferResult> results = accountsService.performBalanceTransfers(validTransfers);
+
+		List<BalanceTransfer> response = new ArrayList<>(valid.length);
+		int next = 0;
+		for (int i = 0; i < valid.length; i++) {
+			TransferResult result = valid[i] ? results.get(next++) : TransferResult.INVALID;
+			if (!valid[i]) {
+				metrics.recordOutcome(result);
+			}
+			BalanceTransfer balanceTransfer = new BalanceTransfer();
+			balanceTransfer.setStatus(result.getMessage());
+			response.add(balanceTransfer);
+		}
+		return new ResponseEntity<List<BalanceTransfer>>(response, HttpStatus.OK);
+	}
+
+	// a body whose framing is broken, or with more than the batch limit, is answered 400 with a single INVALID code
+	// instead of a result list
+	@PostMapping(path = "/balanceTransfers", consumes = BinaryTransferCodec.MEDIA_TYPE, produces = BinaryTransferCodec.MEDIA_TYPE)
+	public ResponseEntity<byte[]> balanceTransfersBinary(HttpServletRequest request) throws IOException {
+		byte[] body = BinaryTransferCodec.readBody(request.getInputStream(), request.getContentLength());
+		List<AccountTransfer> accountTransfers = body == null ? null : BinaryTransferCodec.decodeTransfers(body);
+		if (accountTransfers == null || accountTransfers.size() > maxBatch) {
+			metrics.recordOutcome(TransferResult.INVALID);
+			return binaryResult(TransferResult.INVALID, HttpStatus.BAD_REQUEST);
+		}
+		log.debug("Balance Transfer batch of {} binary transfers", accountTransfers.size());
+
+		// items failing the constraints were decoded as null and are answered INVALID in place
+		List<AccountTransfer> validTransfers = new ArrayList<>(accountTransfers.size());
+		for (AccountTransfer accountTransfer : accountTransfers) {
+			if (accountTransfer != null) {
+				validTransfers.add(accountTransfer);
+			}
+		}
+		List<TransferResult> results;
+		try {
+			results = accountsService.performBalanceTransfers(validTransfers);
+		} catch (TransferOutcomeUnknownException | WritesSuspendedException e) {
+			return unavailable(e);
+		}
+
+		List<TransferResult> response = new ArrayList<>(accountTransfers.size());
+		int next = 0;
+		for (AccountTransfer accountTransfer : accountTransfers) {
+			if (accountTransfer == null) {
+				metrics.recordOutcome(TransferResult.INVALID);
+				response.add(TransferResult.INVALID);
+			} else {
+				response.add(results.get(next++));
+			}
+		}
+		return ResponseEntity.ok().contentType(MediaType.parseMediaType(BinaryTransferCodec.MEDIA_TYPE))
+				.body(BinaryTransferCodec.encodeResults(response));
+	}
+
+	private TransferResult performBalanceTransfer(AccountTransfer accountTransfer, String idempotencyKey) {
+		if (idempotencyKey == null) {
+			return accountsService.performBalanceTransfer(accountTransfer.getAccountFrom(),
+					accountTransfer.getAccountTo(), accountTransfer.getTransferAmount());
+		}
+		// a retry replays the stored result, including the error status it mapped to
+		return idempotencyCache.execute(idempotencyKey, fingerprint(accountTransfer),
+				() -> accountsService.performBalanceTransfer(accountTransfer.getAccountFrom(),
+						accountTransfer.getAccountTo(), accountTransfer.getTransferAmount()));
+	}
+
+	private static boolean validIdempotencyKey(String idempotencyKey) {
+		return idempotencyKey == null
+				|| (!idempotencyKey.isEmpty() && idempotencyKey.length() <= IdempotencyCache.MAX_KEY_LENGTH);
+	}
+
+	private static ResponseEntity<byte[]> binaryResult(TransferResult result, HttpStatus status) {
+		return ResponseEntity.status(status).contentType(MediaType.parseMediaType(BinaryTransferCodec.MEDIA_TYPE))
+				.body(BinaryTransferCodec.encodeResult(result));
+	}
+
+	// the 503 status, not the FAILED code, says whether anything was applied: see the exceptions' JSON mapping
+	private static ResponseEntity<byte[]> unavailable(RuntimeException e) {
+		log.error(e.getMessage(), e.getCause());
+		return binaryResult(TransferResult.FAILED, HttpStatus.SERVICE_UNAVAILABLE);
+	}
+
+	// the version alone repeats after an account is cleared and recreated, so the balance is mixed in
+	private static String etag(Account account) {
+		return "\"" + account.getVersion() + "-"
+				+ Integer.toHexString(account.getBalance().stripTrailingZeros().hashCode()) + "\"";
 	}
 
+	// identifies the request a key was first used with; equal amounts at different scales match
+	private static List<Object> fingerprint(AccountTransfer accountTransfer) {
+		return Arrays.asList(accountTransfer.getAccountFrom(), accountTransfer.getAccountTo(),
+				accountTransfer.getTransferAmount().stripTrailingZeros());
+	}
+
+	// hands each buffered chunk to the emitter, which writes it to the response on the calling thread
+	private static final class EmitterOutputStream extends OutputStream {
+
+		private final ResponseBodyEmitter emitter;
+
+		private EmitterOutputStream(ResponseBodyEmitter emitter) {
+			this.emitter = emitter;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (len > 0) {
+				this.emitter.send(Arrays.copyOfRange(b, off, off + len), MediaType.APPLICATION_NDJSON);
+			}
+		}
+	}
 }
- 
\ No newline at end of file
@@ -0,0 +1,215 @@
+package com.dws.challenge.web;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.dws.challenge.domain.AccountTransfer;
+import com.dws.challenge.domain.TransferResult;
+
+/*
+ * Length-prefixed binary encoding of balance transfers for service-to-service
+ * clients, as an alternative to JSON on the transfer endpoints. Integers are
+ * big-endian and the amount is its unscaled value and scale:
+ *
+ * transfer: [u16 from length][from, UTF-8][u16 to length][to, UTF-8]
+ *           [i64 unscaled amount][i8 scale]
+ * batch:    [i32 count][transfer] * count
+ * result:   [u8 code], the TransferResult ordinal (results are only appended)
+ * results:  [i32 count][u8 code] * count
+ *
+ * Decoding reads straight out of the request bytes: ids become Strings from
+ * their slice and the amount is built from two primitives, with no token
+ * stream or tree in between. The checks match the AccountTransfer
+ * constraints, so a decoded transfer needs no Bean Validation pass.
+ */
+public final class BinaryTransferCodec {
+
+	public static final String MEDIA_TYPE = "application/x-dws-transfer";
+
+	private static final int MAX_BODY_BYTES = 16 * 1024 * 1024;
+
+	private BinaryTransferCodec() {
+	}
+
+	/*
+	 * Reads the whole body into one array sized from Content-Length when the
+	 * client sent it; null when the body is larger than MAX_BODY_BYTES.
+	 */
+	public static byte[] readBody(InputStream in, int contentLength) throws IOException {
+		if (contentLength > MAX_BODY_BYTES) {
+			return null;
+		}
+		if (contentLength >= 0) {
+			byte[] body = new byte[contentLength];
+			int read = 0;
+			while (read < contentLength) {
+				int n = in.read(body, read, contentLength - read);
+				if (n < 0) {
+					return null;
+				}
+				read += n;
+			}
+			return body;
+		}
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		byte[] chunk = new byte[8192];
+		int n;
+		while ((n = in.read(chunk)) >= 0) {
+			body.write(chunk, 0, n);
+			if (body.size() > MAX_BODY_BYTES) {
+				return null;
+			}
+		}
+		return body.toByteArray();
+	}
+
+	/*
+	 * Returns the transfer, or null when the body is not exactly one well
+	 * formed transfer or the transfer fails the AccountTransfer constraints.
+	 */
+	public static AccountTransfer decodeTransfer(byte[] body) {
+		ByteBuffer buffer = ByteBuffer.wrap(body);
+		AccountTransfer transfer = readTransfer(buffer);
+		return transfer == null || buffer.hasRemaining() || !isValid(transfer) ? null : transfer;
+	}
+
+	/*
+	 * Returns the batch with null in place of every item that fails the
+	 * AccountTransfer constraints, or null when the framing itself is broken.
+	 */
+	public static List<AccountTransfer> decodeTransfers(byte[] body) {
+		ByteBuffer buffer = ByteBuffer.wrap(body);
+		if (buffer.remaining() < Integer.BYTES) {
+			return null;
+		}
+		int count = buffer.getInt();
+		// every transfer takes at least 13 bytes, which bounds a hostile count before anything is allocated
+		if (count < 0 || count > buffer.remaining() / 13) {
+			return null;
+		}
+		List<AccountTransfer> transfers = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			AccountTransfer transfer = readTransfer(buffer);
+			if (transfer == null) {
+				return null;
+			}
+			transfers.add(isValid(transfer) ? transfer : null);
+		}
+		return buffer.hasRemaining() ? null : transfers;
+	}
+
+	public static byte[] encodeTransfer(AccountTransfer transfer) {
+		ByteBuffer buffer = ByteBuffer.allocate(encodedLength(transfer));
+		writeTransfer(buffer, transfer);
+		return buffer.array();
+	}
+
+	public static byte[] encodeTransfers(List<AccountTransfer> transfers) {
+		int length = Integer.BYTES;
+		for (AccountTransfer transfer : transfers) {
+			length += encodedLength(transfer);
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		buffer.putInt(transfers.size());
+		for (AccountTransfer transfer : transfers) {
+			writeTransfer(buffer, transfer);
+		}
+		return buffer.array();
+	}
+
+	public static byte[] encodeResult(TransferResult result) {
+		return new byte[] { (byte) result.ordinal() };
+	}
+
+	public static byte[] encodeResults(List<TransferResult> results) {
+		ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + results.size());
+		buffer.putInt(results.size());
+		for (TransferResult result : results) {
+			buffer.put((byte) result.ordinal());
+		}
+		return buffer.array();
+	}
+
+	public static TransferResult decodeResult(byte[] body) {
+		return TransferResult.values()[body[0] & 0xFF];
+	}
+
+	public static List<TransferResult> decodeResults(byte[] body) {
+		ByteBuffer buffer = ByteBuffer.wrap(body);
+		int count = buffer.getInt();
+		List<TransferResult> results = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			results.add(TransferResult.values()[buffer.get() & 0xFF]);
+		}
+		return results;
+	}
+
+	// same rules as @NotEmpty on both ids and @Positive on the amount; the layout already rules out nulls
+	private static boolean isValid(AccountTransfer transfer) {
+		return !transfer.getAccountFrom().isEmpty() && !transfer.getAccountTo().isEmpty()
+				&& transfer.getTransferAmount().signum() > 0;
+	}
+
+	private static AccountTransfer readTransfer(ByteBuffer buffer) {
+		String accountFrom = readId(buffer);
+		String accountTo = accountFrom == null ? null : readId(buffer);
+		if (accountTo == null || buffer.remaining() < Long.BYTES + 1) {
+			return null;
+		}
+		long unscaled = buffer.getLong();
+		int scale = buffer.get();
+		AccountTransfer transfer = new AccountTransfer();
+		transfer.setAccountFrom(accountFrom);
+		transfer.setAccountTo(accountTo);
+		transfer.setTransferAmount(BigDecimal.valueOf(unscaled, scale));
+		return transfer;
+	}
+
+	private static String readId(ByteBuffer buffer) {
+		if (buffer.remaining() < Short.BYTES) {
+			return null;
+		}
+		int length = buffer.getShort() & 0xFFFF;
+		if (buffer.remaining() < length) {
+			return null;
+		}
+		int offset = buffer.position();
+		buffer.position(offset + length);
+		return new String(buffer.array(), offset, length, StandardCharsets.UTF_8);
+	}
+
+	private static int encodedLength(AccountTransfer transfer) {
+		return 2 * Short.BYTES + utf8(transfer.getAccountFrom()).length + utf8(transfer.getAccountTo()).length
+				+ Long.BYTES + 1;
+	}
+
+	private static void writeTransfer(ByteBuffer buffer, AccountTransfer transfer) {
+		writeId(buffer, transfer.getAccountFrom());
+		writeId(buffer, transfer.getAccountTo());
+		BigDecimal amount = transfer.getTransferAmount();
+		if (amount.scale() < Byte.MIN_VALUE || amount.scale() > Byte.MAX_VALUE) {
+			throw new IllegalArgumentException("Transfer amount scale " + amount.scale() + " does not fit one byte");
+		}
+		buffer.putLong(amount.unscaledValue().longValueExact());
+		buffer.put((byte) amount.scale());
+	}
+
+	private static void writeId(ByteBuffer buffer, String accountId) {
+		byte[] id = utf8(accountId);
+		if (id.length > 0xFFFF) {
+			throw new IllegalArgumentException("Account id is longer than 65535 bytes");
+		}
+		buffer.putShort((short) id.length);
+		buffer.put(id);
+	}
+
+	private static byte[] utf8(String accountId) {
+		return accountId.getBytes(StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,302 @@
+package com.dws.challenge.web;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.dws.challenge.domain.TransferResult;
+import com.dws.challenge.exception.IdempotencyKeyReuseException;
+
+import lombok.extern.slf4j.Slf4j;
+
+/*
+ * Remembers the outcome of recent balance transfers by Idempotency-Key. Keys
+ * are spread over segments, each an open-addressing table (linear probing,
+ * backward-shift deletion) kept in parallel arrays, plus a ring of keys in
+ * insertion order. Every key lives for the same ttl, so insertion order is
+ * expiry order and the ring acts as a single-lap time wheel: expired keys are
+ * dropped from its head on every call. A duplicate that finds its key in flight
+ * waits on its segment's condition until the first request completes; a lock
+ * condition rather than a monitor wait, so a waiting virtual thread unmounts.
+ */
+@Component
+@Slf4j
+public class IdempotencyCache {
+
+	public static final int MAX_KEY_LENGTH = 255;
+
+	private static final int SEGMENTS = 16;
+
+	private static final byte IN_FLIGHT = 1;
+
+	private static final byte DONE = 2;
+
+	private final Segment[] segments = new Segment[SEGMENTS];
+
+	private final long ttlMillis;
+
+	private final LongSupplier clock;
+
+	@Autowired
+	public IdempotencyCache(@Value("${accounts.idempotency.max-keys:65536}") int maxKeys,
+			@Value("${accounts.idempotency.ttl-ms:600000}") long ttlMillis) {
+		this(maxKeys, ttlMillis, System::currentTimeMillis);
+	}
+
+	public IdempotencyCache(int maxKeys, long ttlMillis, LongSupplier clock) {
+		int perSegment = Math.max(1, (maxKeys + SEGMENTS - 1) / SEGMENTS);
+		for (int i = 0; i < SEGMENTS; i++) {
+			segments[i] = new Segment(perSegment);
+		}
+		this.ttlMillis = ttlMillis;
+		this.clock = clock;
+	}
+
+	/*
+	 * Runs the transfer once per key. A repeat of a completed key returns the
+	 * stored result; a repeat of one still running waits for it. A transfer that
+	 * throws leaves no entry, so its retry runs again. When a segment is full of
+	 * transfers still in flight the key cannot be tracked and the transfer runs
+	 * uncached. The fingerprint identifies the request and is compared with
+	 * equals, so two different requests can never pass for each other.
+	 */
+	public TransferResult execute(String key, Object fingerprint, Supplier<TransferResult> transfer) {
+		int hash = spread(key.hashCode());
+		Segment segment = segments[hash & (SEGMENTS - 1)];
+		int slotHash = hash >>> 4;
+		boolean tracked = true;
+		segment.lock.lock();
+		try {
+			while (true) {
+				long now = clock.getAsLong();
+				segment.expire(now);
+				int index = segment.indexOf(key, slotHash);
+				if (index < 0) {
+					if (segment.insert(key, slotHash, fingerprint, now, ttlMillis) < 0) {
+						log.warn("idempotency cache segment full, running transfer for key {} untracked", key);
+						tracked = false;
+					}
+					break;
+				}
+				if (!segment.fingerprints[index].equals(fingerprint)) {
+					throw new IdempotencyKeyReuseException(
+							"Idempotency-Key " + key + " was already used for a different transfer");
+				}
+				if (segment.states[index] == DONE) {
+					return segment.results[index];
+				}
+				try {
+					segment.completed.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException("Interrupted waiting for transfer with Idempotency-Key " + key, e);
+				}
+			}
+		} finally {
+			segment.lock.unlock();
+		}
+
+		if (!tracked) {
+			return transfer.get();
+		}
+		TransferResult result;
+		try {
+			result = transfer.get();
+		} catch (RuntimeException | Error e) {
+			segment.lock.lock();
+			try {
+				segment.remove(segment.indexOf(key, slotHash));
+				segment.completed.signalAll();
+			} finally {
+				segment.lock.unlock();
+			}
+			throw e;
+		}
+		segment.lock.lock();
+		try {
+			int index = segment.indexOf(key, slotHash);
+			segment.states[index] = DONE;
+			segment.results[index] = result;
+			segment.completed.signalAll();
+		} finally {
+			segment.lock.unlock();
+		}
+		return result;
+	}
+
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			segment.lock.lock();
+			try {
+				size += segment.count;
+			} finally {
+				segment.lock.unlock();
+			}
+		}
+		return size;
+	}
+
+	private static int spread(int h) {
+		return h ^ (h >>> 16);
+	}
+
+	private static final class Segment {
+
+		private final ReentrantLock lock = new ReentrantLock();
+
+		private final Condition completed = lock.newCondition();
+
+		private final String[] keys;
+
+		private final int[] hashes;
+
+		private final Object[] fingerprints;
+
+		private final long[] expiresAt;
+
+		private final byte[] states;
+
+		private final TransferResult[] results;
+
+		// insertion stamp of each entry, matched against the ring
+		private final long[] stamps;
+
+		private final int mask;
+
+		/*
+		 * Keys in insertion order with the stamp they were inserted with. A key
+		 * removed after a failure keeps its ring slot, and its retry gets a new
+		 * slot and stamp; the stale slot is skipped when it reaches the head.
+		 */
+		private final String[] ring;
+
+		private final long[] ringStamps;
+
+		private long nextStamp;
+
+		private int head;
+
+		private int ringSize;
+
+		private int count;
+
+		private Segment(int capacity) {
+			// table at most half full keeps probe sequences short
+			int size = Integer.highestOneBit(Math.max(2, capacity * 2 - 1)) << 1;
+			this.keys = new String[size];
+			this.hashes = new int[size];
+			this.fingerprints = new Object[size];
+			this.expiresAt = new long[size];
+			this.states = new byte[size];
+			this.results = new TransferResult[size];
+			this.stamps = new long[size];
+			this.mask = size - 1;
+			this.ring = new String[capacity];
+			this.ringStamps = new long[capacity];
+		}
+
+		private int indexOf(String key, int hash) {
+			for (int i = hash & mask; keys[i] != null; i = (i + 1) & mask) {
+				if (hashes[i] == hash && keys[i].equals(key)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		private int insert(String key, int hash, Object fingerprint, long now, long ttlMillis) {
+			if (ringSize == ring.length && !evictOldest()) {
+				return -1;
+			}
+			int i = hash & mask;
+			while (keys[i] != null) {
+				i = (i + 1) & mask;
+			}
+			keys[i] = key;
+			hashes[i] = hash;
+			fingerprints[i] = fingerprint;
+			expiresAt[i] = now + ttlMillis;
+			states[i] = IN_FLIGHT;
+			stamps[i] = ++nextStamp;
+			int tail = (head + ringSize++) % ring.length;
+			ring[tail] = key;
+			ringStamps[tail] = stamps[i];
+			count++;
+			return i;
+		}
+
+		private void expire(long now) {
+			while (ringSize > 0) {
+				int index = headIndex();
+				if (index >= 0) {
+					// completed entries go; one still in flight past its ttl stays until it completes
+					if (expiresAt[index] > now || states[index] == IN_FLIGHT) {
+						return;
+					}
+					remove(index);
+				}
+				popHead();
+			}
+		}
+
+		private boolean evictOldest() {
+			int index = headIndex();
+			if (index >= 0) {
+				if (states[index] == IN_FLIGHT) {
+					return false;
+				}
+				remove(index);
+			}
+			popHead();
+			return true;
+		}
+
+		// the entry the ring head was inserted as, or -1 when that entry is gone
+		private int headIndex() {
+			String key = ring[head];
+			int index = indexOf(key, spread(key.hashCode()) >>> 4);
+			return index >= 0 && stamps[index] == ringStamps[head] ? index : -1;
+		}
+
+		private void popHead() {
+			ring[head] = null;
+			head = (head + 1) % ring.length;
+			ringSize--;
+		}
+
+		private void remove(int index) {
+			if (index < 0) {
+				return;
+			}
+			count--;
+			// shift later members of the probe run back so lookups never stop at a hole
+			int hole = index;
+			for (int i = (index + 1) & mask; keys[i] != null; i = (i + 1) & mask) {
+				int home = hashes[i] & mask;
+				if (((i - home) & mask) >= ((i - hole) & mask)) {
+					move(i, hole);
+					hole = i;
+				}
+			}
+			keys[hole] = null;
+			fingerprints[hole] = null;
+			results[hole] = null;
+		}
+
+		private void move(int from, int to) {
+			keys[to] = keys[from];
+			hashes[to] = hashes[from];
+			fingerprints[to] = fingerprints[from];
+			expiresAt[to] = expiresAt[from];
+			states[to] = states[from];
+			results[to] = results[from];
+			stamps[to] = stamps[from];
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package com.dws.challenge.web;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.coyote.ProtocolHandler;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import lombok.extern.slf4j.Slf4j;
+
+/*
+ * Opt-in mode that runs every Tomcat request on its own virtual thread, so a
+ * request parked on an account lock, a group commit or an idempotent duplicate
+ * costs a small heap object instead of a pooled platform thread. Those waits
+ * use java.util.concurrent locks, which unmount the virtual thread rather than
+ * pin its carrier. The build targets Java 8, so the executor is looked up
+ * reflectively and the mode needs a JDK 21 or later runtime. Raise
+ * server.tomcat.max-connections and server.tomcat.accept-count along with it,
+ * since those bound concurrent requests once the thread pool no longer does.
+ */
+@Configuration
+@ConditionalOnProperty(name = "accounts.virtual-threads.enabled", havingValue = "true")
+@Slf4j
+public class VirtualThreadConfiguration implements DisposableBean {
+
+	private final ExecutorService executor = newVirtualThreadPerTaskExecutor();
+
+	@Bean
+	public TomcatProtocolHandlerCustomizer<ProtocolHandler> virtualThreadProtocolHandlerCustomizer() {
+		return protocolHandler -> {
+			protocolHandler.setExecutor(executor);
+			log.info("Tomcat requests run on virtual threads");
+		};
+	}
+
+	@Override
+	public void destroy() {
+		executor.shutdown();
+	}
+
+	static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (NoSuchMethodException | IllegalAccessException e) {
+			throw new IllegalStateException("accounts.virtual-threads.enabled needs a JDK 21 or later runtime", e);
+		} catch (InvocationTargetException e) {
+			// JDK 19 and 20 only offer virtual threads as a preview feature
+			throw new IllegalStateException("Virtual threads are not available on this JDK", e.getCause());
+		}
+	}
+}
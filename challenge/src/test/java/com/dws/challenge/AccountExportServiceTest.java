@@ -0,0 +1,79 @@
+package com.dws.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.journal.TransferJournal;
+import com.dws.challenge.outbox.TransferOutbox;
+import com.dws.challenge.repository.AccountsRepositoryInMemory;
+import com.dws.challenge.repository.TransferHistory;
+import com.dws.challenge.service.AccountExportService;
+import com.dws.challenge.service.AccountsService;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+class AccountExportServiceTest {
+
+	private static final int ACCOUNTS = 20_000;
+
+	private final AccountsService accountsService = new AccountsService(new AccountsRepositoryInMemory(16,
+			(TransferJournal) null, null, null, null, null, TransferHistory.DEFAULT_MAX_ENTRIES_PER_ACCOUNT),
+			(account, description) -> {
+			}, (TransferOutbox) null, null, null, null);
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	private final AccountExportService exportService = new AccountExportService(accountsService, objectMapper);
+
+	@Test
+	void exportsEveryAccountOncePerLine() throws Exception {
+		createAccounts();
+		accountsService.performBalanceTransfer("Id-0", "Id-1", new BigDecimal("0.25"));
+
+		for (boolean parallel : new boolean[] { false, true }) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			assertThat(exportService.exportAccounts(out, parallel)).isEqualTo(ACCOUNTS);
+
+			String[] lines = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n");
+			assertThat(lines).hasSize(ACCOUNTS);
+			Set<String> ids = new HashSet<>();
+			BigDecimal total = BigDecimal.ZERO;
+			for (String line : lines) {
+				JsonNode account = objectMapper.readTree(line);
+				ids.add(account.get("accountId").asText());
+				total = total.add(account.get("balance").decimalValue());
+				if (account.get("accountId").asText().equals("Id-1")) {
+					assertThat(account.get("balance").decimalValue()).isEqualByComparingTo("1.25");
+					assertThat(account.get("version").asLong()).isEqualTo(1);
+				}
+			}
+			assertThat(ids).hasSize(ACCOUNTS);
+			assertThat(total).isEqualByComparingTo(BigDecimal.valueOf(ACCOUNTS));
+		}
+	}
+
+	@Test
+	void writesPlainBalances() throws Exception {
+		accountsService.createAccount(new Account("Id-1", new BigDecimal("1E+3")));
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		exportService.exportAccounts(out, false);
+
+		assertThat(new String(out.toByteArray(), StandardCharsets.UTF_8))
+				.isEqualTo("{\"accountId\":\"Id-1\",\"balance\":1000,\"version\":0}\n");
+	}
+
+	private void createAccounts() {
+		for (int i = 0; i < ACCOUNTS; i++) {
+			accountsService.createAccount(new Account("Id-" + i, BigDecimal.ONE));
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package com.dws.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+import javax.validation.Validation;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.dws.challenge.domain.AccountImportSummary;
+import com.dws.challenge.journal.TransferJournal;
+import com.dws.challenge.outbox.TransferOutbox;
+import com.dws.challenge.repository.AccountsRepositoryInMemory;
+import com.dws.challenge.repository.TransferHistory;
+import com.dws.challenge.service.AccountImportService;
+import com.dws.challenge.service.AccountImportService.Format;
+import com.dws.challenge.service.AccountsService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+class AccountImportServiceTest {
+
+	private final AccountsService accountsService = new AccountsService(new AccountsRepositoryInMemory(16,
+			(TransferJournal) null, null, null, null, null, TransferHistory.DEFAULT_MAX_ENTRIES_PER_ACCOUNT),
+			(account, description) -> {
+			}, (TransferOutbox) null, null, null, null);
+
+	private final AccountImportService importService = new AccountImportService(accountsService,
+			Validation.buildDefaultValidatorFactory().getValidator(), new ObjectMapper(), 3, 2, 2, 64);
+
+	@AfterEach
+	void close() {
+		importService.close();
+	}
+
+	@Test
+	void importsNdjsonAndReportsRejectedLines() throws Exception {
+		AccountImportSummary summary = importService.importAccounts(body("{\"accountId\":\"Id-1\",\"balance\":10.5}\n"
+				+ "\n"
+				+ "{\"accountId\":\"Id-2\",\"balance\":\"20\",\"currency\":{\"code\":\"EUR\"}}\r\n"
+				+ "{\"accountId\":\"Id-1\",\"balance\":1}\n"
+				+ "{\"accountId\":\"Id-3\",\"balance\":-1}\n"
+				+ "{\"accountId\":\"Id-4\",\"balance\":\n"
+				+ "{\"accountId\":\"Id-5\",\"balance\":5}"), Format.NDJSON);
+
+		assertThat(summary.getRecords()).isEqualTo(6);
+		assertThat(summary.getCreated()).isEqualTo(3);
+		assertThat(summary.getRejected()).isEqualTo(3);
+		// only the first two rejections are kept
+		assertThat(summary.getErrors()).extracting("line").containsExactly(4L, 5L);
+		assertThat(summary.getErrors().get(0).getMessage()).isEqualTo("Account id Id-1 already exists!");
+		assertThat(summary.getErrors().get(1).getMessage()).isEqualTo("balance Initial balance must be positive.");
+		assertThat(summary.isErrorsTruncated()).isTrue();
+		assertThat(accountsService.getAccount("Id-1").getBalance()).isEqualByComparingTo("10.5");
+		assertThat(accountsService.getAccount("Id-2").getBalance()).isEqualByComparingTo("20");
+		assertThat(accountsService.getAccount("Id-5").getBalance()).isEqualByComparingTo("5");
+		assertThat(accountsService.getAccount("Id-3")).isNull();
+	}
+
+	@Test
+	void importsCsvWithHeaderAndQuotedIds() throws Exception {
+		AccountImportSummary summary = importService.importAccounts(body("accountId,balance\n"
+				+ "\"Id,1\",100\n"
+				+ "Id-2,abc\n"), Format.CSV);
+
+		assertThat(summary.getRecords()).isEqualTo(2);
+		assertThat(summary.getCreated()).isEqualTo(1);
+		assertThat(summary.getErrors()).hasSize(1);
+		assertThat(summary.getErrors().get(0).getLine()).isEqualTo(3);
+		assertThat(summary.getErrors().get(0).getMessage()).isEqualTo("balance must be a number");
+		assertThat(accountsService.getAccount("Id,1").getBalance()).isEqualByComparingTo("100");
+	}
+
+	@Test
+	void rejectsLinesLongerThanLimitWithoutBufferingThem() throws Exception {
+		String longId = new String(new char[200]).replace('\0', 'x');
+		AccountImportSummary summary = importService.importAccounts(body(longId + ",1\nId-1,1\n"), Format.CSV);
+
+		assertThat(summary.getCreated()).isEqualTo(1);
+		assertThat(summary.getErrors().get(0).getMessage()).isEqualTo("Line is longer than 64 characters");
+	}
+
+	@Test
+	void streamsLargeImportsInBatches() throws Exception {
+		int accounts = 100_000;
+		AccountImportSummary summary = importService.importAccounts(new GeneratedCsv(accounts), Format.CSV);
+
+		assertThat(summary.getCreated()).isEqualTo(accounts);
+		assertThat(summary.getRejected()).isZero();
+		assertThat(accountsService.getAccountsRepository().getAccountCount()).isEqualTo(accounts);
+		assertThat(accountsService.getAccount("Id-99999").getBalance()).isEqualByComparingTo(BigDecimal.ONE);
+	}
+
+	private static InputStream body(String content) {
+		return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	// produces its lines on demand, like a request body that is never in memory at once
+	private static final class GeneratedCsv extends InputStream {
+
+		private final int lines;
+
+		private int line;
+
+		private byte[] current = new byte[0];
+
+		private int position;
+
+		private GeneratedCsv(int lines) {
+			this.lines = lines;
+		}
+
+		@Override
+		public int read() {
+			if (position == current.length) {
+				if (line == lines) {
+					return -1;
+				}
+				current = ("Id-" + line++ + ",1\n").getBytes(StandardCharsets.US_ASCII);
+				position = 0;
+			}
+			return current[position++];
+		}
+	}
+}
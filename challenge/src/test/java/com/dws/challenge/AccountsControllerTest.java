@@ -2,14 +2,19 @@ package com.dws.challenge;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
 
 import java.math.BigDecimal;
+import java.util.Arrays;
 
+import org.json.JSONArray;
 import org.json.JSONObject;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.RepeatedTest;
@@ -25,7 +30,10 @@ import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.web.context.WebApplicationContext;
 
 import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.AccountTransfer;
+import com.dws.challenge.domain.TransferResult;
 import com.dws.challenge.service.AccountsService;
+import com.dws.challenge.web.BinaryTransferCodec;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -78,6 +86,13 @@ class AccountsControllerTest {
 				.content("{\"balance\":1000}")).andExpect(status().isBadRequest());
 	}
 
+	@Test
+	void createAccountIdTooLong() throws Exception {
+		String accountId = new String(new char[Account.MAX_ID_LENGTH + 1]).replace('\0', 'x');
+		this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountId\":\"" + accountId + "\",\"balance\":1000}")).andExpect(status().isBadRequest());
+	}
+
 	@Test
 	void createAccountNoBalance() throws Exception {
 		this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
@@ -113,6 +128,22 @@ class AccountsControllerTest {
 				content().string("{\"accountId\":\"" + uniqueAccountId + "\",\"balance\":123.45}"));
 	}
 
+	@Test
+	void getAccountNotModifiedUntilBalanceChanges() throws Exception {
+		this.accountsService.createAccount(new Account("Id-123", new BigDecimal("1000")));
+		this.accountsService.createAccount(new Account("Id-124", new BigDecimal("1000")));
+
+		String etag = this.mockMvc.perform(get("/v1/accounts/Id-123")).andExpect(status().isOk())
+				.andExpect(header().exists("ETag")).andReturn().getResponse().getHeader("ETag");
+		this.mockMvc.perform(get("/v1/accounts/Id-123").header("If-None-Match", etag))
+				.andExpect(status().isNotModified()).andExpect(content().string(""));
+
+		this.accountsService.performBalanceTransfer("Id-123", "Id-124", BigDecimal.TEN);
+
+		this.mockMvc.perform(get("/v1/accounts/Id-123").header("If-None-Match", etag)).andExpect(status().isOk())
+				.andExpect(content().string("{\"accountId\":\"Id-123\",\"balance\":990}"));
+	}
+
 	/*
 	 *  test case for account api request parameter validation
 	 */
@@ -295,4 +326,286 @@ class AccountsControllerTest {
 		
 		assertEquals(3500,accountsService.getAccount("Id-125").getBalance().intValue());
 	}
+
+	/*
+	 * batch transfer applies legs in order and reports every item separately
+	 */
+	@Test
+	void balanceTransfersBatch() throws Exception{
+
+		this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountId\":\"Id-123\",\"balance\":1000}")).andExpect(status().isCreated());
+		this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountId\":\"Id-124\",\"balance\":2000}")).andExpect(status().isCreated());
+
+		JSONArray request = new JSONArray();
+		request.put(new JSONObject().put("accountFrom","Id-123").put("accountTo","Id-124").put("transferAmount","600"));
+		request.put(new JSONObject().put("accountFrom","Id-123").put("accountTo","Id-124").put("transferAmount","600"));
+		request.put(new JSONObject().put("accountFrom","Id-124").put("accountTo","Id-123").put("transferAmount","200"));
+		request.put(new JSONObject().put("accountFrom","Id-12").put("accountTo","Id-123").put("transferAmount","1"));
+		request.put(new JSONObject().put("accountFrom","Id-124").put("accountTo","Id-123").put("transferAmount","-1"));
+
+		MvcResult mvcResult = this.mockMvc.perform(post("/v1/accounts/balanceTransfers").contentType(MediaType.APPLICATION_JSON)
+				.content(request.toString())).andExpect(status().isOk()).andReturn();
+
+		assertEquals("[{\"status\":\"balance transfer processed successfully\"},"
+				+ "{\"status\":\"Sender Account low balance\"},"
+				+ "{\"status\":\"balance transfer processed successfully\"},"
+				+ "{\"status\":\"Sender Account Not Found\"},"
+				+ "{\"status\":\"Transfer request is invalid\"}]", mvcResult.getResponse().getContentAsString());
+
+		assertEquals(600,accountsService.getAccount("Id-123").getBalance().intValue());
+
+		assertEquals(2400,accountsService.getAccount("Id-124").getBalance().intValue());
+	}
+
+	/*
+	 * a batch over accounts.batch.max-transfers is refused before any transfer is applied
+	 */
+	@Test
+	void balanceTransfersBatchTooLarge() throws Exception {
+		accountsService.createAccount(new Account("Id-123", new BigDecimal("5000")));
+		accountsService.createAccount(new Account("Id-124", new BigDecimal("0")));
+
+		JSONArray request = new JSONArray();
+		AccountTransfer[] transfers = new AccountTransfer[1001];
+		for (int i = 0; i < transfers.length; i++) {
+			request.put(new JSONObject().put("accountFrom","Id-123").put("accountTo","Id-124").put("transferAmount","1"));
+			transfers[i] = transfer("Id-123", "Id-124", BigDecimal.ONE);
+		}
+
+		this.mockMvc.perform(post("/v1/accounts/balanceTransfers").contentType(MediaType.APPLICATION_JSON)
+				.content(request.toString())).andExpect(status().isBadRequest())
+				.andExpect(content().json("[{\"status\":\"Transfer request is invalid\"}]"));
+
+		MediaType binary = MediaType.parseMediaType(BinaryTransferCodec.MEDIA_TYPE);
+		byte[] result = this.mockMvc.perform(post("/v1/accounts/balanceTransfers").contentType(binary)
+				.content(BinaryTransferCodec.encodeTransfers(Arrays.asList(transfers))))
+				.andExpect(status().isBadRequest()).andReturn().getResponse().getContentAsByteArray();
+		assertThat(BinaryTransferCodec.decodeResult(result)).isEqualTo(TransferResult.INVALID);
+
+		assertThat(accountsService.getAccount("Id-124").getBalance()).isEqualByComparingTo("0");
+	}
+
+	/*
+	 * one debit paying several receivers, all or nothing
+	 */
+	@Test
+	void multiLegTransfer() throws Exception{
+
+		this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountId\":\"Id-123\",\"balance\":1000}")).andExpect(status().isCreated());
+		this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountId\":\"Id-124\",\"balance\":0}")).andExpect(status().isCreated());
+		this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountId\":\"Id-125\",\"balance\":0}")).andExpect(status().isCreated());
+
+		JSONObject request = new JSONObject();
+		request.put("accountFrom","Id-123");
+		request.put("legs",new JSONArray()
+				.put(new JSONObject().put("accountTo","Id-124").put("transferAmount","300"))
+				.put(new JSONObject().put("accountTo","Id-125").put("transferAmount","200")));
+		MvcResult mvcResult = this.mockMvc.perform(post("/v1/accounts/multiLegTransfer").contentType(MediaType.APPLICATION_JSON)
+				.content(request.toString())).andExpect(status().isOk()).andReturn();
+		assertEquals("{\"status\":\"balance transfer processed successfully\"}", mvcResult.getResponse().getContentAsString());
+
+		// 600 more than the 500 left, so neither leg is paid
+		request.put("legs",new JSONArray()
+				.put(new JSONObject().put("accountTo","Id-124").put("transferAmount","300"))
+				.put(new JSONObject().put("accountTo","Id-125").put("transferAmount","300")));
+		this.mockMvc.perform(post("/v1/accounts/multiLegTransfer").contentType(MediaType.APPLICATION_JSON)
+				.content(request.toString())).andExpect(status().isPreconditionFailed());
+
+		request.put("legs",new JSONArray()
+				.put(new JSONObject().put("accountTo","Id-124").put("transferAmount","1"))
+				.put(new JSONObject().put("accountTo","Id-999").put("transferAmount","1")));
+		this.mockMvc.perform(post("/v1/accounts/multiLegTransfer").contentType(MediaType.APPLICATION_JSON)
+				.content(request.toString())).andExpect(status().isNotFound());
+
+		request.put("legs",new JSONArray()
+				.put(new JSONObject().put("accountTo","Id-124").put("transferAmount","-1")));
+		this.mockMvc.perform(post("/v1/accounts/multiLegTransfer").contentType(MediaType.APPLICATION_JSON)
+				.content(request.toString())).andExpect(status().isBadRequest());
+		request.put("legs",new JSONArray());
+		this.mockMvc.perform(post("/v1/accounts/multiLegTransfer").contentType(MediaType.APPLICATION_JSON)
+				.content(request.toString())).andExpect(status().isBadRequest());
+
+		assertEquals(500,accountsService.getAccount("Id-123").getBalance().intValue());
+		assertEquals(300,accountsService.getAccount("Id-124").getBalance().intValue());
+		assertEquals(200,accountsService.getAccount("Id-125").getBalance().intValue());
+	}
+
+	/*
+	 * retries carrying the same Idempotency-Key move the money once and get the first answer
+	 */
+	@Test
+	void balanceTransferIdempotencyKey() throws Exception{
+
+		this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountId\":\"Id-123\",\"balance\":1000}")).andExpect(status().isCreated());
+		this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountId\":\"Id-124\",\"balance\":2000}")).andExpect(status().isCreated());
+
+		JSONObject request = new JSONObject();
+		request.put("accountFrom","Id-123");
+		request.put("accountTo","Id-124");
+		request.put("transferAmount","600");
+		for (int i = 0; i < 3; i++) {
+			this.mockMvc.perform(post("/v1/accounts/balanceTransfer").contentType(MediaType.APPLICATION_JSON)
+					.header("Idempotency-Key", "retry-1").content(request.toString()))
+					.andExpect(status().isOk())
+					.andExpect(content().string("{\"status\":\"balance transfer processed successfully\"}"));
+		}
+
+		assertEquals(400,accountsService.getAccount("Id-123").getBalance().intValue());
+		assertEquals(2600,accountsService.getAccount("Id-124").getBalance().intValue());
+
+		// a low balance answer is replayed as well, even after funds arrive
+		this.mockMvc.perform(post("/v1/accounts/balanceTransfer").contentType(MediaType.APPLICATION_JSON)
+				.header("Idempotency-Key", "retry-2").content(request.toString()))
+				.andExpect(status().isPreconditionFailed());
+		accountsService.performBalanceTransfer("Id-124", "Id-123", new BigDecimal("1000"));
+		this.mockMvc.perform(post("/v1/accounts/balanceTransfer").contentType(MediaType.APPLICATION_JSON)
+				.header("Idempotency-Key", "retry-2").content(request.toString()))
+				.andExpect(status().isPreconditionFailed());
+
+		request.put("transferAmount","1");
+		this.mockMvc.perform(post("/v1/accounts/balanceTransfer").contentType(MediaType.APPLICATION_JSON)
+				.header("Idempotency-Key", "retry-1").content(request.toString()))
+				.andExpect(status().isUnprocessableEntity());
+		this.mockMvc.perform(post("/v1/accounts/balanceTransfer").contentType(MediaType.APPLICATION_JSON)
+				.header("Idempotency-Key", "").content(request.toString()))
+				.andExpect(status().isBadRequest());
+
+		assertEquals(1400,accountsService.getAccount("Id-123").getBalance().intValue());
+	}
+
+	/*
+	 * a key reused for another transfer is refused even when the two requests hash alike
+	 */
+	@Test
+	void balanceTransferIdempotencyKeyCollidingRequests() throws Exception{
+
+		// "Aa" and "BB" share a String hashCode
+		for (String accountId : new String[] { "Aa", "BB", "Id-124" }) {
+			this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+					.content("{\"accountId\":\"" + accountId + "\",\"balance\":1000}")).andExpect(status().isCreated());
+		}
+
+		this.mockMvc.perform(post("/v1/accounts/balanceTransfer").contentType(MediaType.APPLICATION_JSON)
+				.header("Idempotency-Key", "collide-1")
+				.content("{\"accountFrom\":\"Aa\",\"accountTo\":\"Id-124\",\"transferAmount\":100}"))
+				.andExpect(status().isOk());
+		this.mockMvc.perform(post("/v1/accounts/balanceTransfer").contentType(MediaType.APPLICATION_JSON)
+				.header("Idempotency-Key", "collide-1")
+				.content("{\"accountFrom\":\"BB\",\"accountTo\":\"Id-124\",\"transferAmount\":100}"))
+				.andExpect(status().isUnprocessableEntity());
+
+		assertEquals(1000,accountsService.getAccount("BB").getBalance().intValue());
+	}
+
+	/*
+	 * transfer history lists both legs and pages with the returned cursor
+	 */
+	@Test
+	void transferHistory() throws Exception{
+
+		this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountId\":\"Id-123\",\"balance\":1000}")).andExpect(status().isCreated());
+		this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountId\":\"Id-124\",\"balance\":2000}")).andExpect(status().isCreated());
+		accountsService.performBalanceTransfer("Id-123", "Id-124", new BigDecimal("100"));
+		accountsService.performBalanceTransfer("Id-124", "Id-123", new BigDecimal("30"));
+		accountsService.performBalanceTransfer("Id-123", "Id-124", new BigDecimal("5000"));
+
+		MvcResult mvcResult = this.mockMvc.perform(get("/v1/accounts/Id-123/transfers?limit=1"))
+				.andExpect(status().isOk()).andReturn();
+		JSONObject page = new JSONObject(mvcResult.getResponse().getContentAsString());
+		JSONObject first = page.getJSONArray("transfers").getJSONObject(0);
+		assertEquals("DEBIT", first.getString("direction"));
+		assertEquals("Id-124", first.getString("counterparty"));
+		assertEquals(100, first.getInt("amount"));
+
+		mvcResult = this.mockMvc.perform(get("/v1/accounts/Id-123/transfers?limit=1&cursor=" + page.getLong("nextCursor")))
+				.andExpect(status().isOk()).andReturn();
+		page = new JSONObject(mvcResult.getResponse().getContentAsString());
+		assertEquals("CREDIT", page.getJSONArray("transfers").getJSONObject(0).getString("direction"));
+		assertThat(page.isNull("nextCursor")).isTrue();
+
+		this.mockMvc.perform(get("/v1/accounts/Id-123/transfers?from=2000-01-01T00:00:00Z&to=2000-01-02T00:00:00Z"))
+				.andExpect(status().isOk()).andExpect(content().string("{\"transfers\":[],\"nextCursor\":null}"));
+		this.mockMvc.perform(get("/v1/accounts/Id-999/transfers")).andExpect(status().isNotFound());
+	}
+
+	@Test
+	void importAccounts() throws Exception {
+		this.mockMvc.perform(post("/v1/accounts/import").contentType(MediaType.APPLICATION_NDJSON)
+				.content("{\"accountId\":\"Id-123\",\"balance\":1000}\n{\"accountId\":\"\",\"balance\":1}\n"))
+				.andExpect(status().isOk())
+				.andExpect(content().json("{\"records\":2,\"created\":1,\"rejected\":1,\"errorsTruncated\":false,"
+						+ "\"errors\":[{\"line\":2,\"message\":\"accountId must not be empty\"}]}"));
+
+		this.mockMvc.perform(post("/v1/accounts/import").contentType("text/csv").content("Id-124,20.5\nId-123,1\n"))
+				.andExpect(status().isOk())
+				.andExpect(content().json("{\"records\":2,\"created\":1,\"rejected\":1}"));
+
+		assertThat(accountsService.getAccount("Id-123").getBalance()).isEqualByComparingTo("1000");
+		assertThat(accountsService.getAccount("Id-124").getBalance()).isEqualByComparingTo("20.5");
+	}
+
+	@Test
+	void exportAccounts() throws Exception {
+		accountsService.createAccount(new Account("Id-123", new BigDecimal("1000")));
+		accountsService.createAccount(new Account("Id-124", new BigDecimal("20.5")));
+
+		MvcResult mvcResult = this.mockMvc.perform(get("/v1/accounts/export?parallel=true"))
+				.andExpect(request().asyncStarted()).andReturn();
+		String body = this.mockMvc.perform(asyncDispatch(mvcResult)).andExpect(status().isOk())
+				.andExpect(header().string("Content-Type", MediaType.APPLICATION_NDJSON_VALUE))
+				.andReturn().getResponse().getContentAsString();
+
+		assertThat(body.split("\n")).containsExactlyInAnyOrder(
+				"{\"accountId\":\"Id-123\",\"balance\":1000,\"version\":0}",
+				"{\"accountId\":\"Id-124\",\"balance\":20.5,\"version\":0}");
+	}
+
+	@Test
+	void balanceTransferBinary() throws Exception {
+		accountsService.createAccount(new Account("Id-123", new BigDecimal("1000")));
+		accountsService.createAccount(new Account("Id-124", new BigDecimal("2000")));
+		MediaType binary = MediaType.parseMediaType(BinaryTransferCodec.MEDIA_TYPE);
+
+		byte[] result = this.mockMvc.perform(post("/v1/accounts/balanceTransfer").contentType(binary).accept(binary)
+				.content(BinaryTransferCodec.encodeTransfer(transfer("Id-123", "Id-124", new BigDecimal("100")))))
+				.andExpect(status().isOk()).andReturn().getResponse().getContentAsByteArray();
+		assertThat(BinaryTransferCodec.decodeResult(result)).isEqualTo(TransferResult.OK);
+
+		result = this.mockMvc.perform(post("/v1/accounts/balanceTransfer").contentType(binary)
+				.content(BinaryTransferCodec.encodeTransfer(transfer("Id-123", "Id-999", BigDecimal.ONE))))
+				.andExpect(status().isNotFound()).andReturn().getResponse().getContentAsByteArray();
+		assertThat(BinaryTransferCodec.decodeResult(result)).isEqualTo(TransferResult.RECEIVER_NOT_FOUND);
+
+		this.mockMvc.perform(post("/v1/accounts/balanceTransfer").contentType(binary).content(new byte[] { 0, 9 }))
+				.andExpect(status().isBadRequest());
+
+		result = this.mockMvc.perform(post("/v1/accounts/balanceTransfers").contentType(binary)
+				.content(BinaryTransferCodec.encodeTransfers(Arrays.asList(
+						transfer("Id-124", "Id-123", new BigDecimal("50")),
+						transfer("Id-124", "Id-123", BigDecimal.ZERO),
+						transfer("Id-123", "Id-124", new BigDecimal("5000"))))))
+				.andExpect(status().isOk()).andReturn().getResponse().getContentAsByteArray();
+		assertThat(BinaryTransferCodec.decodeResults(result)).containsExactly(TransferResult.OK,
+				TransferResult.INVALID, TransferResult.INSUFFICIENT);
+
+		assertThat(accountsService.getAccount("Id-123").getBalance()).isEqualByComparingTo("950");
+		assertThat(accountsService.getAccount("Id-124").getBalance()).isEqualByComparingTo("2050");
+	}
+
+	private static AccountTransfer transfer(String accountFrom, String accountTo, BigDecimal amount) {
+		AccountTransfer transfer = new AccountTransfer();
+		transfer.setAccountFrom(accountFrom);
+		transfer.setAccountTo(accountTo);
+		transfer.setTransferAmount(amount);
+		return transfer;
+	}
 }
@@ -0,0 +1,115 @@
+package com.dws.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.TransferLeg;
+import com.dws.challenge.domain.TransferResult;
+import com.dws.challenge.exception.InvalidBalanceException;
+import com.dws.challenge.repository.AccountsRepositoryFixedPoint;
+
+class AccountsRepositoryFixedPointTest {
+
+	private final AccountsRepositoryFixedPoint repository = new AccountsRepositoryFixedPoint(2);
+
+	@Test
+	void exposesBalanceAsBigDecimal() {
+		repository.createAccount(new Account("Id-123", new BigDecimal("123.45")));
+
+		assertThat(repository.getAccount("Id-123").getBalance()).isEqualByComparingTo("123.45");
+		assertThat(repository.getAccount("Id-999")).isNull();
+	}
+
+	@Test
+	void transferMovesMinorUnits() {
+		repository.createAccount(new Account("Id-123", new BigDecimal("10.00")));
+		repository.createAccount(new Account("Id-124", new BigDecimal("0.01")));
+
+		assertThat(repository.performBalanceTransfer("Id-123", "Id-124", new BigDecimal("9.99")))
+				.isEqualTo(TransferResult.OK);
+		assertThat(repository.performBalanceTransfer("Id-123", "Id-124", new BigDecimal("0.02")))
+				.isEqualTo(TransferResult.INSUFFICIENT);
+
+		assertThat(repository.getAccount("Id-123").getBalance()).isEqualByComparingTo("0.01");
+		assertThat(repository.getAccount("Id-124").getBalance()).isEqualByComparingTo("10.00");
+	}
+
+	@Test
+	void transferRejectsAmountFinerThanScale() {
+		repository.createAccount(new Account("Id-123", new BigDecimal("10.00")));
+		repository.createAccount(new Account("Id-124", BigDecimal.ZERO));
+
+		assertThat(repository.performBalanceTransfer("Id-123", "Id-124", new BigDecimal("0.001")))
+				.isEqualTo(TransferResult.INVALID);
+		assertThat(repository.performMultiLegTransfer("Id-123", Arrays.asList(new TransferLeg("Id-124", BigDecimal.ONE),
+				new TransferLeg("Id-124", new BigDecimal("0.001"))))).isEqualTo(TransferResult.INVALID);
+		assertThat(repository.getAccount("Id-123").getBalance()).isEqualByComparingTo("10.00");
+	}
+
+	@Test
+	void createRejectsBalanceItCannotHold() {
+		assertThatThrownBy(() -> repository.createAccount(new Account("Id-123", new BigDecimal("1.005"))))
+				.isInstanceOf(InvalidBalanceException.class);
+		assertThatThrownBy(() -> repository.createAccounts(Arrays.asList(new Account("Id-124", BigDecimal.ONE),
+				new Account("Id-125", new BigDecimal("1e20"))))).isInstanceOf(InvalidBalanceException.class);
+		assertThat(repository.getAccountCount()).isZero();
+
+		// trailing zeros beyond the scale are still whole minor units
+		repository.createAccount(new Account("Id-123", new BigDecimal("1.000")));
+		assertThat(repository.getAccount("Id-123").getBalance()).isEqualByComparingTo("1");
+	}
+
+	@Test
+	void multiLegChecksEveryReceiverHasRoomBeforeDebiting() {
+		repository.createAccount(new Account("Id-123", new BigDecimal("10.00")));
+		repository.createAccount(new Account("Id-124", BigDecimal.ZERO));
+		repository.createAccount(new Account("Id-125", BigDecimal.valueOf(Long.MAX_VALUE - 100, 2)));
+
+		assertThat(repository.performMultiLegTransfer("Id-123", Arrays.asList(
+				new TransferLeg("Id-124", BigDecimal.ONE), new TransferLeg("Id-125", new BigDecimal("0.60")),
+				new TransferLeg("Id-125", new BigDecimal("0.60"))))).isEqualTo(TransferResult.FAILED);
+
+		assertThat(repository.getAccount("Id-123").getBalance()).isEqualByComparingTo("10.00");
+		assertThat(repository.getAccount("Id-124").getBalance()).isEqualByComparingTo("0");
+		assertThat(repository.getAccount("Id-125").getBalance())
+				.isEqualByComparingTo(BigDecimal.valueOf(Long.MAX_VALUE - 100, 2));
+	}
+
+	@Test
+	void concurrentTransfersConserveMoney() throws Exception {
+		repository.createAccount(new Account("Id-A", new BigDecimal("1000.00")));
+		repository.createAccount(new Account("Id-B", new BigDecimal("1000.00")));
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		CountDownLatch start = new CountDownLatch(1);
+		for (int t = 0; t < 4; t++) {
+			boolean forward = t % 2 == 0;
+			executor.submit(() -> {
+				start.await();
+				for (int i = 0; i < 10000; i++) {
+					repository.performBalanceTransfer(forward ? "Id-A" : "Id-B", forward ? "Id-B" : "Id-A",
+							new BigDecimal("0.07"));
+				}
+				return null;
+			});
+		}
+		start.countDown();
+		executor.shutdown();
+		assertThat(executor.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+
+		BigDecimal total = repository.getAccount("Id-A").getBalance().add(repository.getAccount("Id-B").getBalance());
+		assertThat(total).isEqualByComparingTo("2000.00");
+		assertThat(repository.getAccount("Id-A").getBalance()).isNotNegative();
+		assertThat(repository.getAccount("Id-B").getBalance()).isNotNegative();
+	}
+}
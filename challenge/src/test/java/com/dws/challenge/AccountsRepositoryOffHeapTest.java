@@ -0,0 +1,139 @@
+package com.dws.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.TransferLeg;
+import com.dws.challenge.domain.TransferResult;
+import com.dws.challenge.exception.AccountStoreFullException;
+import com.dws.challenge.exception.DuplicateAccountIdException;
+import com.dws.challenge.exception.InvalidAccountIdException;
+import com.dws.challenge.exception.InvalidBalanceException;
+import com.dws.challenge.repository.AccountsRepositoryOffHeap;
+
+class AccountsRepositoryOffHeapTest {
+
+	private final AccountsRepositoryOffHeap repository = new AccountsRepositoryOffHeap(2, 10_000, 46, 64);
+
+	@Test
+	void storesAccountsInFixedWidthRecords() {
+		for (int i = 0; i < 10_000; i++) {
+			repository.createAccount(new Account("Id-" + i, BigDecimal.valueOf(i, 2)));
+		}
+
+		assertThat(repository.getAccountCount()).isEqualTo(10_000);
+		assertThat(repository.getAccount("Id-0").getBalance()).isEqualByComparingTo("0.00");
+		assertThat(repository.getAccount("Id-9999").getBalance()).isEqualByComparingTo("99.99");
+		assertThat(repository.getAccount("Id-10000")).isNull();
+		assertThatThrownBy(() -> repository.createAccount(new Account("Id-10000", BigDecimal.ONE)))
+				.isInstanceOf(AccountStoreFullException.class);
+		assertThatThrownBy(() -> repository.createAccount(new Account("Id-9999", BigDecimal.ONE)))
+				.isInstanceOf(DuplicateAccountIdException.class);
+	}
+
+	@Test
+	void scansRecordsWithTheirVersions() {
+		repository.createAccount(new Account("Id-1", new BigDecimal("10.00")));
+		repository.createAccount(new Account("Id-ü", new BigDecimal("0.50")));
+		repository.performBalanceTransfer("Id-1", "Id-ü", BigDecimal.ONE);
+
+		Map<String, Account> scanned = new ConcurrentHashMap<>();
+		repository.scan(true, account -> scanned.put(account.getAccountId(), account));
+
+		assertThat(scanned).containsOnlyKeys("Id-1", "Id-ü");
+		assertThat(scanned.get("Id-ü").getBalance()).isEqualByComparingTo("1.50");
+		assertThat(scanned.get("Id-ü").getVersion()).isEqualTo(1);
+	}
+
+	@Test
+	void rejectsIdsLongerThanRecord() {
+		String longId = "Id-" + new String(new char[50]).replace('\0', 'x');
+
+		assertThatThrownBy(() -> repository.createAccount(new Account(longId, BigDecimal.ONE)))
+				.isInstanceOf(InvalidAccountIdException.class);
+		assertThat(repository.getAccount(longId)).isNull();
+		assertThat(repository.performBalanceTransfer(longId, "Id-1", BigDecimal.ONE))
+				.isEqualTo(TransferResult.SENDER_NOT_FOUND);
+	}
+
+	@Test
+	void createRejectsBalanceItCannotHold() {
+		assertThatThrownBy(() -> repository.createAccount(new Account("Id-123", new BigDecimal("1.005"))))
+				.isInstanceOf(InvalidBalanceException.class);
+		assertThatThrownBy(() -> repository.createAccounts(Arrays.asList(new Account("Id-124", BigDecimal.ONE),
+				new Account("Id-125", new BigDecimal("1e20"))))).isInstanceOf(InvalidBalanceException.class);
+		assertThat(repository.getAccountCount()).isZero();
+	}
+
+	@Test
+	void transferUpdatesBalancesAndVersions() {
+		repository.createAccount(new Account("Id-123", new BigDecimal("10.00")));
+		repository.createAccount(new Account("Id-124", new BigDecimal("0.01")));
+
+		assertThat(repository.performBalanceTransfer("Id-123", "Id-124", new BigDecimal("9.99")))
+				.isEqualTo(TransferResult.OK);
+		assertThat(repository.performBalanceTransfer("Id-123", "Id-124", new BigDecimal("0.02")))
+				.isEqualTo(TransferResult.INSUFFICIENT);
+		assertThat(repository.performBalanceTransfer("Id-123", "Id-124", new BigDecimal("0.001")))
+				.isEqualTo(TransferResult.INVALID);
+		assertThat(repository.performMultiLegTransfer("Id-123", Arrays.asList(new TransferLeg("Id-124", BigDecimal.ONE),
+				new TransferLeg("Id-124", new BigDecimal("0.001"))))).isEqualTo(TransferResult.INVALID);
+		assertThat(repository.performBalanceTransfer("Id-123", "Id-999", BigDecimal.ONE))
+				.isEqualTo(TransferResult.RECEIVER_NOT_FOUND);
+
+		Account sender = repository.getAccount("Id-123");
+		assertThat(sender.getBalance()).isEqualByComparingTo("0.01");
+		assertThat(sender.getVersion()).isEqualTo(1);
+		assertThat(repository.getAccount("Id-124").getBalance()).isEqualByComparingTo("10.00");
+		assertThat(repository.findTransfers("Id-124", null, null, null, 10).getTransfers()).hasSize(1);
+
+		repository.clearAccounts();
+		assertThat(repository.getAccount("Id-123")).isNull();
+		repository.createAccount(new Account("Id-123", BigDecimal.ONE));
+		assertThat(repository.getAccount("Id-123").getBalance()).isEqualByComparingTo("1.00");
+	}
+
+	@Test
+	void concurrentTransfersConserveMoney() throws Exception {
+		for (int i = 0; i < 32; i++) {
+			repository.createAccount(new Account("Id-" + i, new BigDecimal("100.00")));
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		CountDownLatch start = new CountDownLatch(1);
+		for (int t = 0; t < 8; t++) {
+			int seed = t;
+			executor.submit(() -> {
+				start.await();
+				for (int i = 0; i < 10000; i++) {
+					repository.performBalanceTransfer("Id-" + (seed + i) % 32, "Id-" + (seed * 5 + i * 3 + 1) % 32,
+							new BigDecimal("1.13"));
+				}
+				return null;
+			});
+		}
+		start.countDown();
+		executor.shutdown();
+		assertThat(executor.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+
+		BigDecimal total = BigDecimal.ZERO;
+		for (int i = 0; i < 32; i++) {
+			BigDecimal balance = repository.getAccount("Id-" + i).getBalance();
+			assertThat(balance).isNotNegative();
+			total = total.add(balance);
+		}
+		assertThat(total).isEqualByComparingTo("3200.00");
+	}
+}
@@ -0,0 +1,161 @@
+package com.dws.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.TransferLeg;
+import com.dws.challenge.domain.TransferResult;
+import com.dws.challenge.exception.DuplicateAccountIdException;
+import com.dws.challenge.repository.AccountsRepositorySharded;
+
+class AccountsRepositoryShardedTest {
+
+	private static final int ACCOUNTS = 16;
+
+	private final AccountsRepositorySharded repository = new AccountsRepositorySharded(4, 64);
+
+	@AfterEach
+	void shutdown() {
+		repository.shutdown();
+	}
+
+	@Test
+	void createsBatchAcrossShards() {
+		repository.createAccount(new Account("Id-3", BigDecimal.ONE));
+		List<Account> batch = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			batch.add(new Account("Id-" + i, BigDecimal.TEN));
+		}
+
+		List<Boolean> created = repository.createAccounts(batch);
+
+		assertThat(created).hasSize(100).containsOnlyOnce(false);
+		assertThat(created.get(3)).isFalse();
+		assertThat(repository.getAccountCount()).isEqualTo(100);
+		assertThat(repository.getAccount("Id-3").getBalance()).isEqualByComparingTo("1");
+		assertThat(repository.getAccount("Id-99").getBalance()).isEqualByComparingTo("10");
+	}
+
+	@Test
+	void scansEveryShard() {
+		for (int i = 0; i < 100; i++) {
+			repository.createAccount(new Account("Id-" + i, BigDecimal.ONE));
+		}
+
+		Set<String> ids = ConcurrentHashMap.newKeySet();
+		repository.scan(true, account -> ids.add(account.getAccountId()));
+
+		assertThat(ids).hasSize(100).contains("Id-0", "Id-99");
+	}
+
+	@Test
+	void createsAndReadsAccountsOnOwningShard() {
+		repository.createAccount(new Account("Id-123", new BigDecimal("123.45")));
+
+		assertThat(repository.getAccount("Id-123").getBalance()).isEqualByComparingTo("123.45");
+		assertThat(repository.getAccount("Id-999")).isNull();
+		assertThatThrownBy(() -> repository.createAccount(new Account("Id-123", BigDecimal.ONE)))
+				.isInstanceOf(DuplicateAccountIdException.class);
+	}
+
+	@Test
+	void transfersReportSameOutcomesAsLockedRepository() {
+		createAccounts(new BigDecimal("10"));
+
+		for (int i = 1; i < ACCOUNTS; i++) {
+			assertThat(repository.performBalanceTransfer("Id-0", "Id-" + i, BigDecimal.ONE))
+					.isEqualTo(i <= 10 ? TransferResult.OK : TransferResult.INSUFFICIENT);
+		}
+		assertThat(repository.performBalanceTransfer("Id-999", "Id-1", BigDecimal.ONE))
+				.isEqualTo(TransferResult.SENDER_NOT_FOUND);
+		assertThat(repository.performBalanceTransfer("Id-1", "Id-999", BigDecimal.ONE))
+				.isEqualTo(TransferResult.RECEIVER_NOT_FOUND);
+		assertThat(repository.performBalanceTransfer("Id-11", "Id-11", BigDecimal.ONE)).isEqualTo(TransferResult.OK);
+
+		assertThat(repository.getAccount("Id-0").getBalance()).isEqualByComparingTo("0");
+		assertThat(repository.getAccount("Id-10").getBalance()).isEqualByComparingTo("11");
+		assertThat(repository.getAccount("Id-11").getBalance()).isEqualByComparingTo("10");
+		assertThat(repository.getAccount("Id-0").getVersion()).isEqualTo(10);
+		assertThat(repository.getAccount("Id-10").getVersion()).isEqualTo(1);
+		assertThat(repository.getAccount("Id-11").getVersion()).isEqualTo(1);
+		assertThat(repository.getAccount("Id-12").getVersion()).isZero();
+		assertThat(repository.findTransfers("Id-0", null, null, null, 100).getTransfers()).hasSize(10);
+	}
+
+	@Test
+	void concurrentCrossShardTransfersConserveMoney() throws Exception {
+		createAccounts(new BigDecimal("100.00"));
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		CountDownLatch start = new CountDownLatch(1);
+		for (int t = 0; t < 8; t++) {
+			int seed = t;
+			executor.submit(() -> {
+				start.await();
+				for (int i = 0; i < 5000; i++) {
+					int from = (seed + i) % ACCOUNTS;
+					int to = (seed * 7 + i * 3 + 1) % ACCOUNTS;
+					if (from != to) {
+						repository.performBalanceTransfer("Id-" + from, "Id-" + to, new BigDecimal("3.17"));
+					}
+				}
+				return null;
+			});
+		}
+		start.countDown();
+		executor.shutdown();
+		assertThat(executor.awaitTermination(60, TimeUnit.SECONDS)).isTrue();
+
+		BigDecimal total = BigDecimal.ZERO;
+		for (int i = 0; i < ACCOUNTS; i++) {
+			BigDecimal balance = repository.getAccount("Id-" + i).getBalance();
+			assertThat(balance).isNotNegative();
+			total = total.add(balance);
+		}
+		assertThat(total).isEqualByComparingTo("1600.00");
+		assertThat(repository.getTotalHoldings()).isEqualByComparingTo("1600.00");
+	}
+
+	@Test
+	void failedCreditRefundsTheSender() {
+		createAccounts(new BigDecimal("10"));
+		// a receiver whose credit throws, on the sender's shard or another one
+		for (int i = 1; i < ACCOUNTS; i++) {
+			repository.save(new Account("Id-" + i, null));
+		}
+
+		for (int i = 1; i < ACCOUNTS; i++) {
+			assertThat(repository.performBalanceTransfer("Id-0", "Id-" + i, BigDecimal.ONE))
+					.isEqualTo(TransferResult.FAILED);
+		}
+		assertThat(repository.performMultiLegTransfer("Id-0", Arrays.asList(new TransferLeg("Id-1", BigDecimal.ONE),
+				new TransferLeg("Id-2", BigDecimal.ONE)))).isEqualTo(TransferResult.FAILED);
+
+		assertThat(repository.getAccount("Id-0").getBalance()).isEqualByComparingTo("10");
+		for (int i = 1; i < ACCOUNTS; i++) {
+			repository.save(new Account("Id-" + i, BigDecimal.ZERO));
+		}
+		assertThat(repository.getTotalHoldings()).isEqualByComparingTo("10");
+	}
+
+	private void createAccounts(BigDecimal balance) {
+		for (int i = 0; i < ACCOUNTS; i++) {
+			repository.createAccount(new Account("Id-" + i, balance));
+		}
+	}
+}
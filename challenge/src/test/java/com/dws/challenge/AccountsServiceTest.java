@@ -4,9 +4,21 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.fail;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.TransferResult;
 import com.dws.challenge.exception.DuplicateAccountIdException;
+import com.dws.challenge.journal.TransferJournal;
+import com.dws.challenge.outbox.TransferOutbox;
+import com.dws.challenge.repository.AccountsRepositoryInMemory;
+import com.dws.challenge.repository.TransferHistory;
 import com.dws.challenge.service.AccountsService;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -30,6 +42,37 @@ class AccountsServiceTest {
     assertThat(this.accountsService.getAccount("Id-123")).isEqualTo(account);
   }
 
+  @Test
+  void getAccount_returnsDetachedSnapshot() {
+    String uniqueId = "Id-" + System.nanoTime();
+    this.accountsService.createAccount(new Account(uniqueId, new BigDecimal(1000)));
+
+    Account snapshot = this.accountsService.getAccount(uniqueId);
+    snapshot.setBalance(BigDecimal.ZERO);
+
+    assertThat(this.accountsService.getAccount(uniqueId).getBalance()).isEqualByComparingTo("1000");
+  }
+
+  @Test
+  void performBalanceTransfer_notifiesAccountsClearedSinceTheTransfer() {
+    List<String> notified = new ArrayList<>();
+    AccountsRepositoryInMemory repository = new AccountsRepositoryInMemory(16, (TransferJournal) null, null, null,
+        null, null, TransferHistory.DEFAULT_MAX_ENTRIES_PER_ACCOUNT) {
+      @Override
+      public Account getAccount(String accountId) {
+        // as if the accounts were cleared right after the transfer
+        return null;
+      }
+    };
+    repository.createAccount(new Account("Id-1", new BigDecimal(100)));
+    repository.createAccount(new Account("Id-2", BigDecimal.ZERO));
+    AccountsService service = new AccountsService(repository,
+        (account, description) -> notified.add(account.getAccountId()), (TransferOutbox) null, null, null, null);
+
+    assertThat(service.performBalanceTransfer("Id-1", "Id-2", BigDecimal.ONE)).isEqualTo(TransferResult.OK);
+    assertThat(notified).containsExactly("Id-1", "Id-2");
+  }
+
   @Test
   void addAccount_failsOnDuplicateId() {
     String uniqueId = "Id-" + System.currentTimeMillis();
@@ -43,4 +86,76 @@ class AccountsServiceTest {
       assertThat(ex.getMessage()).isEqualTo("Account id " + uniqueId + " already exists!");
     }
   }
+
+  @Test
+  void performBalanceTransfer_concurrentTransfersIntoSameAccount() throws Exception {
+    String prefix = "Id-" + System.nanoTime() + "-";
+    Account merchant = new Account(prefix + "merchant", BigDecimal.ZERO);
+    this.accountsService.createAccount(merchant);
+    Account[] senders = new Account[8];
+    for (int i = 0; i < senders.length; i++) {
+      senders[i] = new Account(prefix + i, new BigDecimal(1000));
+      this.accountsService.createAccount(senders[i]);
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(senders.length);
+    CountDownLatch start = new CountDownLatch(1);
+    for (Account sender : senders) {
+      executor.submit(() -> {
+        start.await();
+        for (int i = 0; i < 1000; i++) {
+          this.accountsService.performBalanceTransfer(sender.getAccountId(), merchant.getAccountId(), BigDecimal.ONE);
+        }
+        return null;
+      });
+    }
+    start.countDown();
+    executor.shutdown();
+    assertThat(executor.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+
+    assertThat(merchant.getBalance()).isEqualByComparingTo("8000");
+    for (Account sender : senders) {
+      assertThat(sender.getBalance()).isEqualByComparingTo("0");
+    }
+  }
+
+  @Test
+  void performBalanceTransfer_neverOverdrawsUnderConcurrentDebits() throws Exception {
+    String prefix = "Id-" + System.nanoTime() + "-";
+    this.accountsService.createAccount(new Account(prefix + "from", new BigDecimal(1000)));
+    this.accountsService.createAccount(new Account(prefix + "to", BigDecimal.ZERO));
+
+    AtomicInteger succeeded = new AtomicInteger();
+    AtomicInteger rejected = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(10);
+    CountDownLatch start = new CountDownLatch(1);
+    for (int i = 0; i < 10; i++) {
+      executor.submit(() -> {
+        start.await();
+        TransferResult result = this.accountsService.performBalanceTransfer(prefix + "from", prefix + "to",
+          new BigDecimal(300));
+        (result == TransferResult.OK ? succeeded : rejected).incrementAndGet();
+        return null;
+      });
+    }
+    start.countDown();
+    executor.shutdown();
+    assertThat(executor.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+
+    assertThat(succeeded.get()).isEqualTo(3);
+    assertThat(rejected.get()).isEqualTo(7);
+    assertThat(this.accountsService.getAccount(prefix + "from").getBalance()).isEqualByComparingTo("100");
+    assertThat(this.accountsService.getAccount(prefix + "to").getBalance()).isEqualByComparingTo("900");
+  }
+
+  @Test
+  void performBalanceTransfer_reportsMissingAccounts() {
+    String uniqueId = "Id-" + System.nanoTime();
+    this.accountsService.createAccount(new Account(uniqueId, new BigDecimal(10)));
+
+    assertThat(this.accountsService.performBalanceTransfer("missing", uniqueId, BigDecimal.ONE))
+      .isEqualTo(TransferResult.SENDER_NOT_FOUND);
+    assertThat(this.accountsService.performBalanceTransfer(uniqueId, "missing", BigDecimal.ONE))
+      .isEqualTo(TransferResult.RECEIVER_NOT_FOUND);
+  }
 }
@@ -0,0 +1,136 @@
+package com.dws.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.service.AsyncNotificationDispatcher;
+import com.dws.challenge.service.NotificationOverflowPolicy;
+import com.dws.challenge.service.NotificationService;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class AsyncNotificationDispatcherTest {
+
+	@TempDir
+	Path directory;
+
+	private final List<String> delivered = Collections.synchronizedList(new ArrayList<>());
+
+	@Test
+	void coalescesNotificationsPerAccount() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		NotificationService delegate = (account, description) -> {
+			await(release);
+			delivered.add(account.getAccountId() + ":" + description);
+		};
+		AsyncNotificationDispatcher dispatcher = new AsyncNotificationDispatcher(delegate, 1, 100, 100,
+				NotificationOverflowPolicy.BLOCK, directory, new SimpleMeterRegistry());
+
+		// the first notification occupies the worker so the rest queue up into one batch
+		dispatcher.notifyAboutTransfer(new Account("Id-0"), "warm up");
+		Thread.sleep(200);
+		dispatcher.notifyAboutTransfer(new Account("Id-123"), "first");
+		dispatcher.notifyAboutTransfer(new Account("Id-124"), "other");
+		dispatcher.notifyAboutTransfer(new Account("Id-123"), "second");
+		release.countDown();
+		dispatcher.close();
+
+		assertThat(delivered).containsExactly("Id-0:warm up", "Id-123:first\nsecond", "Id-124:other");
+	}
+
+	@Test
+	void looksAccountsUpOnTheWorker() {
+		List<String> lookups = Collections.synchronizedList(new ArrayList<>());
+		AsyncNotificationDispatcher dispatcher = new AsyncNotificationDispatcher(
+				(account, description) -> delivered.add(account.getAccountId() + ":" + description), 1, 10, 10,
+				NotificationOverflowPolicy.BLOCK, directory, new SimpleMeterRegistry());
+
+		dispatcher.notifyAboutTransfer("Id-123", accountId -> {
+			lookups.add(Thread.currentThread().getName());
+			return new Account(accountId);
+		}, "Received 1 from account Id-124");
+		dispatcher.close();
+
+		assertThat(delivered).containsExactly("Id-123:Received 1 from account Id-124");
+		assertThat(lookups).singleElement().asString().startsWith("notification-dispatcher-");
+	}
+
+	@Test
+	void dropsOldestWhenQueueIsFull() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		NotificationService delegate = (account, description) -> {
+			await(release);
+			delivered.add(description);
+		};
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		AsyncNotificationDispatcher dispatcher = new AsyncNotificationDispatcher(delegate, 1, 2, 10,
+				NotificationOverflowPolicy.DROP_OLDEST, directory, registry);
+
+		dispatcher.notifyAboutTransfer(new Account("Id-0"), "in flight");
+		Thread.sleep(200);
+		for (int i = 0; i < 5; i++) {
+			dispatcher.notifyAboutTransfer(new Account("Id-" + i), "n" + i);
+		}
+		release.countDown();
+		dispatcher.close();
+
+		assertThat(delivered).containsExactly("in flight", "n3", "n4");
+		assertThat(registry.counter("accounts.notifications.dropped").count()).isEqualTo(3);
+	}
+
+	@Test
+	void spillsOverflowToDiskAndReplaysItInOrder() throws Exception {
+		Semaphore deliveries = new Semaphore(0);
+		NotificationService delegate = (account, description) -> {
+			deliveries.acquireUninterruptibly();
+			delivered.add(description);
+		};
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		AsyncNotificationDispatcher dispatcher = new AsyncNotificationDispatcher(delegate, 1, 1, 10,
+				NotificationOverflowPolicy.SPILL, directory, registry);
+
+		dispatcher.notifyAboutTransfer(new Account("Id-0"), "in flight");
+		Thread.sleep(200);
+		for (int i = 0; i < 3; i++) {
+			dispatcher.notifyAboutTransfer(new Account("Id-" + i), "n" + i);
+		}
+		assertThat(Files.exists(directory.resolve("notifications-0.spill"))).isTrue();
+
+		// the worker takes n0, leaving the queue empty while n1 and n2 are still spilled
+		deliveries.release();
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (dispatcher.getQueueDepth() > 0 && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		dispatcher.notifyAboutTransfer(new Account("Id-3"), "n3");
+		deliveries.release(10);
+
+		while (delivered.size() < 5 && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		dispatcher.close();
+
+		assertThat(delivered).containsExactly("in flight", "n0", "n1", "n2", "n3");
+		assertThat(registry.counter("accounts.notifications.spilled").count()).isEqualTo(3);
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package com.dws.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.dws.challenge.domain.AccountTransfer;
+import com.dws.challenge.domain.TransferResult;
+import com.dws.challenge.web.BinaryTransferCodec;
+
+class BinaryTransferCodecTest {
+
+	@Test
+	void roundTripsTransfersAndResults() {
+		byte[] body = BinaryTransferCodec.encodeTransfer(transfer("Id-123", "Id-ü", new BigDecimal("10.05")));
+
+		AccountTransfer decoded = BinaryTransferCodec.decodeTransfer(body);
+
+		assertThat(body).hasSize(2 + 6 + 2 + 5 + 8 + 1);
+		assertThat(decoded.getAccountFrom()).isEqualTo("Id-123");
+		assertThat(decoded.getAccountTo()).isEqualTo("Id-ü");
+		assertThat(decoded.getTransferAmount()).isEqualTo(new BigDecimal("10.05"));
+		assertThat(BinaryTransferCodec.decodeResults(BinaryTransferCodec
+				.encodeResults(Arrays.asList(TransferResult.OK, TransferResult.INSUFFICIENT))))
+				.containsExactly(TransferResult.OK, TransferResult.INSUFFICIENT);
+	}
+
+	@Test
+	void rejectsWhatTheBeanConstraintsReject() {
+		assertThat(decode("", "Id-124", BigDecimal.ONE)).isNull();
+		assertThat(decode("Id-123", "", BigDecimal.ONE)).isNull();
+		assertThat(decode("Id-123", "Id-124", BigDecimal.ZERO)).isNull();
+		assertThat(decode("Id-123", "Id-124", new BigDecimal("-0.01"))).isNull();
+		assertThat(decode("Id-123", "Id-124", new BigDecimal("1E+3"))).isNotNull();
+	}
+
+	@Test
+	void rejectsBrokenFraming() {
+		byte[] body = BinaryTransferCodec.encodeTransfer(transfer("Id-123", "Id-124", BigDecimal.ONE));
+
+		assertThat(BinaryTransferCodec.decodeTransfer(Arrays.copyOf(body, body.length - 1))).isNull();
+		assertThat(BinaryTransferCodec.decodeTransfer(Arrays.copyOf(body, body.length + 1))).isNull();
+		assertThat(BinaryTransferCodec.decodeTransfer(new byte[] { (byte) 0xFF, (byte) 0xFF, 1 })).isNull();
+		assertThat(BinaryTransferCodec.decodeTransfers(ByteBuffer.allocate(4).putInt(Integer.MAX_VALUE).array()))
+				.isNull();
+	}
+
+	@Test
+	void decodesBatchWithInvalidItemsInPlace() throws Exception {
+		List<AccountTransfer> transfers = Arrays.asList(transfer("Id-123", "Id-124", BigDecimal.ONE),
+				transfer("Id-123", "", BigDecimal.ONE), transfer("Id-124", "Id-123", new BigDecimal("2.5")));
+		byte[] body = BinaryTransferCodec.encodeTransfers(transfers);
+
+		// without a Content-Length the body is read to the end of the stream
+		List<AccountTransfer> decoded = BinaryTransferCodec
+				.decodeTransfers(BinaryTransferCodec.readBody(new ByteArrayInputStream(body), -1));
+
+		assertThat(decoded).hasSize(3);
+		assertThat(decoded.get(1)).isNull();
+		assertThat(decoded.get(2).getTransferAmount()).isEqualTo(new BigDecimal("2.5"));
+	}
+
+	private static AccountTransfer decode(String accountFrom, String accountTo, BigDecimal amount) {
+		return BinaryTransferCodec.decodeTransfer(BinaryTransferCodec.encodeTransfer(transfer(accountFrom, accountTo, amount)));
+	}
+
+	private static AccountTransfer transfer(String accountFrom, String accountTo, BigDecimal amount) {
+		AccountTransfer transfer = new AccountTransfer();
+		transfer.setAccountFrom(accountFrom);
+		transfer.setAccountTo(accountTo);
+		transfer.setTransferAmount(amount);
+		return transfer;
+	}
+}
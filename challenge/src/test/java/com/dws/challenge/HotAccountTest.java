@@ -0,0 +1,155 @@
+package com.dws.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.TransferResult;
+import com.dws.challenge.journal.FsyncPolicy;
+import com.dws.challenge.journal.TransferJournal;
+import com.dws.challenge.repository.AccountsRepositoryInMemory;
+import com.dws.challenge.repository.HotAccountDetector;
+import com.dws.challenge.repository.TransferHistory;
+
+class HotAccountTest {
+
+	private static final int PAYERS = 32;
+
+	private HotAccountDetector detector;
+
+	@AfterEach
+	void closeDetector() {
+		if (detector != null) {
+			detector.close();
+		}
+	}
+
+	@Test
+	void splitsDesignatedAccountAndConservesMoney() throws Exception {
+		AccountsRepositoryInMemory repository = repository(
+				new HotAccountDetector(8, 200, 100, 0, Collections.singletonList("Merchant")));
+		repository.createAccount(new Account("Merchant", BigDecimal.ZERO));
+		for (int i = 0; i < PAYERS; i++) {
+			repository.createAccount(new Account("Id-" + i, new BigDecimal("1000")));
+		}
+		assertThat(detector.getSplits()).isEqualTo(1);
+		// already split
+		assertThat(repository.splitAccount("Merchant")).isFalse();
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		CountDownLatch start = new CountDownLatch(1);
+		AtomicBoolean negative = new AtomicBoolean();
+		for (int t = 0; t < 8; t++) {
+			int thread = t;
+			executor.submit(() -> {
+				start.await();
+				for (int i = 0; i < 2000; i++) {
+					String payer = "Id-" + ((thread * 2000 + i) % PAYERS);
+					repository.performBalanceTransfer(payer, "Merchant", new BigDecimal("0.25"));
+					// refunds drain the sub-balances while credits keep landing on them
+					if (i % 3 == 0) {
+						repository.performBalanceTransfer("Merchant", payer, new BigDecimal("0.50"));
+					}
+					if (repository.getAccount("Merchant").getBalance().signum() < 0) {
+						negative.set(true);
+					}
+				}
+				return null;
+			});
+		}
+		start.countDown();
+		executor.shutdown();
+		assertThat(executor.awaitTermination(60, TimeUnit.SECONDS)).isTrue();
+
+		assertThat(negative).isFalse();
+		BigDecimal total = repository.getAccount("Merchant").getBalance();
+		for (int i = 0; i < PAYERS; i++) {
+			total = total.add(repository.getAccount("Id-" + i).getBalance());
+		}
+		assertThat(total).isEqualByComparingTo(new BigDecimal("1000").multiply(BigDecimal.valueOf(PAYERS)));
+	}
+
+	@Test
+	void debitsAcrossSubBalancesButNeverBelowZero() {
+		AccountsRepositoryInMemory repository = repository(
+				new HotAccountDetector(4, 200, 100, 0, Collections.singletonList("Merchant")));
+		repository.createAccount(new Account("Merchant", BigDecimal.ZERO));
+		repository.createAccount(new Account("Id-1", new BigDecimal("100")));
+		for (int i = 0; i < 100; i++) {
+			repository.performBalanceTransfer("Id-1", "Merchant", BigDecimal.ONE);
+		}
+
+		// spread over four sub-balances, no single one holds 60
+		assertThat(repository.performBalanceTransfer("Merchant", "Id-1", new BigDecimal("100.01")))
+				.isEqualTo(TransferResult.INSUFFICIENT);
+		assertThat(repository.performBalanceTransfer("Merchant", "Id-1", new BigDecimal("60")))
+				.isEqualTo(TransferResult.OK);
+		assertThat(repository.performBalanceTransfer("Merchant", "Id-1", new BigDecimal("40")))
+				.isEqualTo(TransferResult.OK);
+		assertThat(repository.getAccount("Merchant").getBalance()).isEqualByComparingTo(BigDecimal.ZERO);
+		assertThat(repository.getAccount("Merchant").getVersion()).isEqualTo(102);
+		assertThat(repository.getAccount("Id-1").getBalance()).isEqualByComparingTo("100");
+		assertThat(repository.findTransfers("Merchant", null, null, null, 1000).getTransfers()).hasSize(102);
+
+		Account saved = new Account("Merchant", new BigDecimal("5"));
+		assertThat(repository.save(saved)).isTrue();
+		assertThat(repository.getAccount("Merchant").getBalance()).isEqualByComparingTo("5");
+		assertThat(repository.getAccount("Merchant").getVersion()).isEqualTo(saved.getVersion());
+	}
+
+	@Test
+	void splitsAccountWithSlowLockWaits() {
+		// every wait counts, so the merchant collects one per payer and each payer only one
+		AccountsRepositoryInMemory repository = repository(
+				new HotAccountDetector(4, 0, 10, 0, Collections.<String>emptyList()));
+		repository.createAccount(new Account("Merchant", BigDecimal.ZERO));
+		for (int i = 0; i < PAYERS; i++) {
+			repository.createAccount(new Account("Id-" + i, BigDecimal.TEN));
+			repository.performBalanceTransfer("Id-" + i, "Merchant", BigDecimal.ONE);
+		}
+
+		List<String> split = detector.evaluate();
+
+		assertThat(split).containsExactly("Merchant");
+		assertThat(detector.getSplits()).isEqualTo(1);
+		assertThat(repository.getAccount("Merchant").getBalance()).isEqualByComparingTo("32");
+		assertThat(repository.getAccount("Merchant").getVersion()).isEqualTo(PAYERS);
+		// counts start over after each evaluation
+		assertThat(detector.evaluate()).isEmpty();
+	}
+
+	@Test
+	void staysUnsplitWithJournal(@TempDir Path directory) {
+		detector = new HotAccountDetector(4, 0, 1, 0, Collections.singletonList("Merchant"));
+		TransferJournal journal = new TransferJournal(directory, 1 << 20, FsyncPolicy.PER_WRITE, 10);
+		AccountsRepositoryInMemory repository = new AccountsRepositoryInMemory(16, journal, null, null, null, detector,
+				TransferHistory.DEFAULT_MAX_ENTRIES_PER_ACCOUNT);
+		repository.recover();
+		repository.createAccount(new Account("Merchant", BigDecimal.ZERO));
+
+		assertThat(repository.splitAccount("Merchant")).isFalse();
+		assertThat(detector.getSplits()).isZero();
+		journal.close();
+	}
+
+	private AccountsRepositoryInMemory repository(HotAccountDetector hotAccounts) {
+		detector = hotAccounts;
+		AccountsRepositoryInMemory repository = new AccountsRepositoryInMemory(16, (TransferJournal) null, null,
+				null, null, hotAccounts, TransferHistory.DEFAULT_MAX_ENTRIES_PER_ACCOUNT);
+		repository.recover();
+		return repository;
+	}
+}
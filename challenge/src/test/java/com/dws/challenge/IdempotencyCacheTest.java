@@ -0,0 +1,140 @@
+package com.dws.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import com.dws.challenge.domain.TransferResult;
+import com.dws.challenge.exception.IdempotencyKeyReuseException;
+import com.dws.challenge.web.IdempotencyCache;
+
+class IdempotencyCacheTest {
+
+	private final AtomicLong clock = new AtomicLong();
+
+	private final AtomicInteger executions = new AtomicInteger();
+
+	@Test
+	void concurrentDuplicatesWaitForTheFirstResult() throws Exception {
+		IdempotencyCache cache = new IdempotencyCache(1024, 60_000, clock::get);
+		CountDownLatch running = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		List<Future<TransferResult>> results = new ArrayList<>();
+		results.add(executor.submit(() -> cache.execute("key", 1, () -> {
+			running.countDown();
+			await(release);
+			executions.incrementAndGet();
+			return TransferResult.OK;
+		})));
+		running.await();
+		for (int i = 0; i < 7; i++) {
+			results.add(executor.submit(() -> cache.execute("key", 1, this::count)));
+		}
+		Thread.sleep(100);
+		release.countDown();
+
+		for (Future<TransferResult> result : results) {
+			assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo(TransferResult.OK);
+		}
+		executor.shutdown();
+		assertThat(executions).hasValue(1);
+	}
+
+	@Test
+	void keysExpireAfterTtl() {
+		IdempotencyCache cache = new IdempotencyCache(1024, 1_000, clock::get);
+		cache.execute("key", 1, this::count);
+		clock.set(999);
+		cache.execute("key", 1, this::count);
+		assertThat(executions).hasValue(1);
+
+		clock.set(1_000);
+		cache.execute("key", 1, this::count);
+		assertThat(executions).hasValue(2);
+		assertThat(cache.size()).isEqualTo(1);
+	}
+
+	@Test
+	void staysBoundedAndRejectsReuseWithDifferentRequest() {
+		IdempotencyCache cache = new IdempotencyCache(64, 60_000, clock::get);
+		for (int i = 0; i < 10_000; i++) {
+			cache.execute("key-" + i, i, this::count);
+		}
+		assertThat(cache.size()).isLessThanOrEqualTo(64);
+		assertThat(cache.execute("key-9999", 9999, this::count)).isEqualTo(TransferResult.OK);
+		assertThatThrownBy(() -> cache.execute("key-9999", 1, this::count))
+				.isInstanceOf(IdempotencyKeyReuseException.class);
+	}
+
+	@Test
+	void failedTransferCanBeRetried() {
+		IdempotencyCache cache = new IdempotencyCache(1024, 60_000, clock::get);
+		assertThatThrownBy(() -> cache.execute("key", 1, () -> {
+			throw new IllegalStateException("boom");
+		})).isInstanceOf(IllegalStateException.class);
+
+		assertThat(cache.execute("key", 1, this::count)).isEqualTo(TransferResult.OK);
+		assertThat(executions).hasValue(1);
+	}
+
+	@Test
+	void retriedKeyIsNotEvictedByItsFailedAttempt() {
+		// three keys per segment, all of these in the same one
+		IdempotencyCache cache = new IdempotencyCache(48, 60_000, clock::get);
+		List<String> others = sameSegmentAs("key", 3);
+		cache.execute(others.get(0), 0, this::count);
+		assertThatThrownBy(() -> cache.execute("key", 1, () -> {
+			throw new IllegalStateException("rate limited");
+		})).isInstanceOf(IllegalStateException.class);
+		cache.execute("key", 1, this::count);
+
+		// the failed attempt's ring slot is passed over, not taken for the retry's entry
+		cache.execute(others.get(1), 1, this::count);
+		cache.execute(others.get(2), 2, this::count);
+
+		cache.execute("key", 1, this::count);
+		assertThat(executions).hasValue(4);
+	}
+
+	// keys landing in the same segment as key, by IdempotencyCache's segment choice
+	private static List<String> sameSegmentAs(String key, int count) {
+		List<String> keys = new ArrayList<>();
+		for (int i = 0; keys.size() < count; i++) {
+			String candidate = "other-" + i;
+			if (segment(candidate) == segment(key)) {
+				keys.add(candidate);
+			}
+		}
+		return keys;
+	}
+
+	private static int segment(String key) {
+		int h = key.hashCode();
+		return (h ^ (h >>> 16)) & 15;
+	}
+
+	private TransferResult count() {
+		executions.incrementAndGet();
+		return TransferResult.OK;
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
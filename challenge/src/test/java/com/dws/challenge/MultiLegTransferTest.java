@@ -0,0 +1,154 @@
+package com.dws.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.TransferLeg;
+import com.dws.challenge.domain.TransferResult;
+import com.dws.challenge.journal.FsyncPolicy;
+import com.dws.challenge.journal.TransferJournal;
+import com.dws.challenge.repository.AccountsRepository;
+import com.dws.challenge.repository.AccountsRepositoryFixedPoint;
+import com.dws.challenge.repository.AccountsRepositoryInMemory;
+import com.dws.challenge.repository.AccountsRepositoryOffHeap;
+import com.dws.challenge.repository.AccountsRepositorySharded;
+import com.dws.challenge.repository.TransferHistory;
+
+class MultiLegTransferTest {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void paysEveryLegOrNoneInMemory() {
+		paysEveryLegOrNone(repository(null));
+	}
+
+	@Test
+	void paysEveryLegOrNoneFixedPoint() {
+		paysEveryLegOrNone(new AccountsRepositoryFixedPoint(2));
+	}
+
+	@Test
+	void paysEveryLegOrNoneOffHeap() {
+		paysEveryLegOrNone(new AccountsRepositoryOffHeap(2, 100, 46, 64));
+	}
+
+	@Test
+	void paysEveryLegOrNoneSharded() {
+		AccountsRepositorySharded repository = new AccountsRepositorySharded(4, 64);
+		try {
+			paysEveryLegOrNone(repository);
+		} finally {
+			repository.shutdown();
+		}
+	}
+
+	@Test
+	void replaysAllLegsFromOneJournalRecord() {
+		TransferJournal journal = new TransferJournal(directory, 1 << 20, FsyncPolicy.PER_WRITE, 10);
+		AccountsRepositoryInMemory repository = repository(journal);
+		repository.recover();
+		createAccounts(repository);
+		assertThat(repository.performMultiLegTransfer("Id-1",
+				legs(leg("Id-2", "10"), leg("Id-3", "20"), leg("Id-2", "5")))).isEqualTo(TransferResult.OK);
+		journal.close();
+
+		journal = new TransferJournal(directory, 1 << 20, FsyncPolicy.PER_WRITE, 10);
+		AccountsRepositoryInMemory recovered = repository(journal);
+		recovered.recover();
+
+		assertThat(recovered.getAccount("Id-1").getBalance()).isEqualByComparingTo("65");
+		assertThat(recovered.getAccount("Id-2").getBalance()).isEqualByComparingTo("15");
+		assertThat(recovered.getAccount("Id-3").getBalance()).isEqualByComparingTo("20");
+		// Id-2 was credited twice, so carries two versions
+		assertThat(recovered.getAccount("Id-2").getVersion())
+				.isEqualTo(repository.getAccount("Id-2").getVersion());
+		journal.close();
+	}
+
+	@Test
+	void rollsBackEveryLegWhenOneFails() {
+		AccountsRepositoryInMemory repository = repository(null);
+		repository.createAccount(new Account("Id-1", new BigDecimal("100")));
+		repository.createAccount(new Account("Id-2", BigDecimal.ZERO));
+		repository.createAccount(new FailingAccount("Id-3"));
+
+		assertThat(repository.performMultiLegTransfer("Id-1", legs(leg("Id-2", "10"), leg("Id-3", "20"))))
+				.isEqualTo(TransferResult.FAILED);
+
+		assertThat(repository.getAccount("Id-1").getBalance()).isEqualByComparingTo("100");
+		assertThat(repository.getAccount("Id-2").getBalance()).isEqualByComparingTo("0");
+		assertThat(repository.getAccount("Id-3").getBalance()).isEqualByComparingTo("0");
+		assertThat(repository.findTransfers("Id-1", null, null, null, 10).getTransfers()).isEmpty();
+		// the failure was one off, so the same transfer now goes through
+		assertThat(repository.performMultiLegTransfer("Id-1", legs(leg("Id-2", "10"), leg("Id-3", "20"))))
+				.isEqualTo(TransferResult.OK);
+		assertThat(repository.getAccount("Id-1").getBalance()).isEqualByComparingTo("70");
+	}
+
+	private static AccountsRepositoryInMemory repository(TransferJournal journal) {
+		return new AccountsRepositoryInMemory(16, journal, null, null, null, null,
+				TransferHistory.DEFAULT_MAX_ENTRIES_PER_ACCOUNT);
+	}
+
+	private static void paysEveryLegOrNone(AccountsRepository repository) {
+		createAccounts(repository);
+
+		assertThat(repository.performMultiLegTransfer("Id-1", legs(leg("Id-2", "30"), leg("Id-3", "20"))))
+				.isEqualTo(TransferResult.OK);
+		// 50 left, the legs come to 51
+		assertThat(repository.performMultiLegTransfer("Id-1", legs(leg("Id-2", "1"), leg("Id-3", "50"))))
+				.isEqualTo(TransferResult.INSUFFICIENT);
+		assertThat(repository.performMultiLegTransfer("Id-1", legs(leg("Id-2", "1"), leg("Id-9", "1"))))
+				.isEqualTo(TransferResult.RECEIVER_NOT_FOUND);
+		assertThat(repository.performMultiLegTransfer("Id-9", legs(leg("Id-2", "1"))))
+				.isEqualTo(TransferResult.SENDER_NOT_FOUND);
+
+		assertThat(repository.getAccount("Id-1").getBalance()).isEqualByComparingTo("50");
+		assertThat(repository.getAccount("Id-2").getBalance()).isEqualByComparingTo("30");
+		assertThat(repository.getAccount("Id-3").getBalance()).isEqualByComparingTo("20");
+		assertThat(repository.findTransfers("Id-1", null, null, null, 10).getTransfers()).hasSize(2);
+	}
+
+	private static void createAccounts(AccountsRepository repository) {
+		repository.createAccount(new Account("Id-1", new BigDecimal("100")));
+		repository.createAccount(new Account("Id-2", BigDecimal.ZERO));
+		repository.createAccount(new Account("Id-3", BigDecimal.ZERO));
+	}
+
+	private static List<TransferLeg> legs(TransferLeg... legs) {
+		return Arrays.asList(legs);
+	}
+
+	private static TransferLeg leg(String accountTo, String amount) {
+		return new TransferLeg(accountTo, new BigDecimal(amount));
+	}
+
+	// refuses its first credit, as a failing write would
+	static final class FailingAccount extends Account {
+
+		private boolean failed;
+
+		FailingAccount(String accountId) {
+			super(accountId, BigDecimal.ZERO);
+		}
+
+		@Override
+		public void setBalance(BigDecimal balance) {
+			if (!failed && balance.signum() > 0) {
+				failed = true;
+				throw new IllegalStateException("write failed");
+			}
+			super.setBalance(balance);
+		}
+	}
+}
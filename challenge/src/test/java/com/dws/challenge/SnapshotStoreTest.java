@@ -0,0 +1,140 @@
+package com.dws.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.journal.FsyncPolicy;
+import com.dws.challenge.journal.SnapshotStore;
+import com.dws.challenge.journal.TransferJournal;
+import com.dws.challenge.repository.AccountsRepositoryInMemory;
+import com.dws.challenge.repository.TransferHistory;
+
+class SnapshotStoreTest {
+
+	private static final int ACCOUNTS = 16;
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void recoversFromSnapshotAndJournalTail() throws Exception {
+		TransferJournal journal = journal();
+		AccountsRepositoryInMemory repository = open(journal);
+		for (int i = 0; i < ACCOUNTS; i++) {
+			repository.createAccount(new Account("Id-" + i, new BigDecimal("1000")));
+		}
+		for (int i = 0; i < 200; i++) {
+			repository.performBalanceTransfer("Id-" + (i % ACCOUNTS), "Id-" + ((i + 3) % ACCOUNTS), BigDecimal.ONE);
+		}
+		repository.snapshot();
+		for (int i = 0; i < 50; i++) {
+			repository.performBalanceTransfer("Id-0", "Id-1", BigDecimal.TEN);
+		}
+		journal.close();
+
+		// segments wholly before the snapshot mark are gone, so recovery needs the snapshot
+		assertThat(segments()).first().isNotEqualTo(directory.resolve("journal").resolve(String.format("%020d.log", 0)));
+
+		AccountsRepositoryInMemory recovered = open(journal());
+		assertSameBalances(repository, recovered);
+	}
+
+	@Test
+	void snapshotsWhileTransfersRun() throws Exception {
+		TransferJournal journal = journal();
+		AccountsRepositoryInMemory repository = open(journal);
+		for (int i = 0; i < ACCOUNTS; i++) {
+			repository.createAccount(new Account("Id-" + i, new BigDecimal("1000")));
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		CountDownLatch start = new CountDownLatch(1);
+		for (int t = 0; t < 4; t++) {
+			int offset = t + 1;
+			executor.submit(() -> {
+				start.await();
+				for (int i = 0; i < 2000; i++) {
+					repository.performBalanceTransfer("Id-" + (i % ACCOUNTS), "Id-" + ((i + offset) % ACCOUNTS),
+							new BigDecimal("0.5"));
+				}
+				return null;
+			});
+		}
+		start.countDown();
+		executor.shutdown();
+		while (!executor.awaitTermination(5, TimeUnit.MILLISECONDS)) {
+			repository.snapshot();
+		}
+		journal.close();
+
+		AccountsRepositoryInMemory recovered = open(journal());
+		assertSameBalances(repository, recovered);
+	}
+
+	@Test
+	void fallsBackToOlderSnapshotWhenNewestIsCorrupt() throws Exception {
+		TransferJournal journal = journal();
+		AccountsRepositoryInMemory repository = open(journal);
+		repository.createAccount(new Account("Id-0", new BigDecimal("1000")));
+		repository.createAccount(new Account("Id-1", BigDecimal.ZERO));
+		repository.performBalanceTransfer("Id-0", "Id-1", BigDecimal.ONE);
+		repository.snapshot();
+		repository.performBalanceTransfer("Id-0", "Id-1", BigDecimal.ONE);
+		repository.snapshot();
+		repository.performBalanceTransfer("Id-0", "Id-1", BigDecimal.ONE);
+		journal.close();
+
+		List<Path> snapshots;
+		try (Stream<Path> files = Files.list(directory.resolve("snapshots"))) {
+			snapshots = files.sorted().collect(Collectors.toList());
+		}
+		assertThat(snapshots).hasSize(2);
+		Files.write(snapshots.get(1), new byte[] { 1, 2, 3 }, StandardOpenOption.TRUNCATE_EXISTING);
+
+		AccountsRepositoryInMemory recovered = open(journal());
+		assertThat(recovered.getAccount("Id-0").getBalance()).isEqualByComparingTo("997");
+		assertThat(recovered.getAccount("Id-1").getBalance()).isEqualByComparingTo("3");
+	}
+
+	private TransferJournal journal() {
+		return new TransferJournal(directory.resolve("journal"), 512, FsyncPolicy.OS, 10);
+	}
+
+	private AccountsRepositoryInMemory open(TransferJournal journal) {
+		AccountsRepositoryInMemory repository = new AccountsRepositoryInMemory(16, journal,
+				new SnapshotStore(directory.resolve("snapshots"), 2, 0), null, null, null,
+				TransferHistory.DEFAULT_MAX_ENTRIES_PER_ACCOUNT);
+		repository.recover();
+		return repository;
+	}
+
+	private List<Path> segments() throws Exception {
+		try (Stream<Path> files = Files.list(directory.resolve("journal"))) {
+			return files.sorted().collect(Collectors.toList());
+		}
+	}
+
+	private static void assertSameBalances(AccountsRepositoryInMemory expected, AccountsRepositoryInMemory actual) {
+		for (int i = 0; i < ACCOUNTS; i++) {
+			Account account = expected.getAccount("Id-" + i);
+			if (account != null) {
+				assertThat(actual.getAccount("Id-" + i).getBalance()).isEqualByComparingTo(account.getBalance());
+			}
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package com.dws.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.AccountTransfer;
+import com.dws.challenge.domain.TransferLeg;
+import com.dws.challenge.domain.TransferResult;
+import com.dws.challenge.exception.TransferRateLimitedException;
+import com.dws.challenge.journal.TransferJournal;
+import com.dws.challenge.outbox.TransferOutbox;
+import com.dws.challenge.repository.AccountsRepositoryInMemory;
+import com.dws.challenge.repository.TransferHistory;
+import com.dws.challenge.service.AccountsService;
+import com.dws.challenge.service.TransferAdmissionControl;
+import com.dws.challenge.service.TransferAdmissionControl.Limits;
+import com.dws.challenge.service.TransferAdmissionControl.Rejection;
+import com.dws.challenge.service.TransferLimitsEndpoint;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class TransferAdmissionControlTest {
+
+	private final AtomicLong clock = new AtomicLong(1_000_000);
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+	@Test
+	void limitsAccountRateWithBurstAndRefills() {
+		// 10 per second with a burst of 3
+		TransferAdmissionControl admission = admission(new Limits(0, 1, 10, 3, 0));
+
+		for (int i = 0; i < 3; i++) {
+			assertThat(admit(admission, "Id-1", "Id-" + (100 + i))).isNull();
+		}
+		assertThat(admit(admission, "Id-1", "Id-200")).isEqualTo(Rejection.ACCOUNT_RATE);
+		// the receiver counts as well, and the refused sender did not spend its token
+		assertThat(admit(admission, "Id-2", "Id-1")).isEqualTo(Rejection.ACCOUNT_RATE);
+		assertThat(admit(admission, "Id-2", "Id-3")).isNull();
+
+		clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+		assertThat(admit(admission, "Id-1", "Id-200")).isNull();
+		assertThat(admit(admission, "Id-1", "Id-200")).isEqualTo(Rejection.ACCOUNT_RATE);
+		assertThat(registry.get("accounts.admission.rejected").tag("reason", "account_rate").counter().count())
+				.isEqualTo(3);
+	}
+
+	@Test
+	void limitsGlobalRate() {
+		TransferAdmissionControl admission = admission(new Limits(100, 2, 0, 1, 0));
+
+		assertThat(admit(admission, "Id-1", "Id-2")).isNull();
+		assertThat(admit(admission, "Id-3", "Id-4")).isNull();
+		assertThat(admit(admission, "Id-5", "Id-6")).isEqualTo(Rejection.GLOBAL_RATE);
+		clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(10));
+		assertThat(admit(admission, "Id-5", "Id-6")).isNull();
+	}
+
+	@Test
+	void boundsTransfersInFlightPerAccount() {
+		TransferAdmissionControl admission = admission(new Limits(0, 1, 0, 1, 2));
+
+		assertThat(admission.tryAdmit("Id-1", "Id-2")).isNull();
+		assertThat(admission.tryAdmit("Id-3", "Id-1")).isNull();
+		assertThat(admission.tryAdmit("Id-1", "Id-4")).isEqualTo(Rejection.ACCOUNT_CONCURRENCY);
+		// a refused transfer holds nothing, so Id-4 is still free
+		assertThat(admission.tryAdmit("Id-4", "Id-5")).isNull();
+
+		admission.release("Id-1", "Id-2");
+		assertThat(admission.tryAdmit("Id-1", "Id-4")).isNull();
+	}
+
+	@Test
+	void changesLimitsAtRuntime() {
+		TransferAdmissionControl admission = admission(new Limits(0, 1, 1, 1, 0));
+		TransferLimitsEndpoint endpoint = new TransferLimitsEndpoint(admission);
+
+		assertThat(admit(admission, "Id-1", "Id-2")).isNull();
+		assertThat(admit(admission, "Id-1", "Id-2")).isEqualTo(Rejection.ACCOUNT_RATE);
+
+		Limits limits = endpoint.update(null, null, 0.0, null, 4);
+		assertThat(limits.getAccountRate()).isZero();
+		assertThat(limits.getAccountConcurrency()).isEqualTo(4);
+		assertThat(endpoint.limits().getGlobalBurst()).isEqualTo(1);
+		assertThat(admit(admission, "Id-1", "Id-2")).isNull();
+		assertThat(registry.get("accounts.admission.limit").tag("limit", "account.concurrency").gauge().value())
+				.isEqualTo(4);
+	}
+
+	@Test
+	void refusesTransfersBeforeTheRepository() {
+		TransferAdmissionControl admission = admission(new Limits(0, 1, 1, 1, 0));
+		AccountsService service = new AccountsService(new AccountsRepositoryInMemory(16, (TransferJournal) null,
+				null, null, null, null, TransferHistory.DEFAULT_MAX_ENTRIES_PER_ACCOUNT), (account, description) -> {
+				}, (TransferOutbox) null, null, null, admission);
+		service.createAccount(new Account("Id-1", new BigDecimal("100")));
+		service.createAccount(new Account("Id-2", BigDecimal.ZERO));
+		service.createAccount(new Account("Id-3", BigDecimal.ZERO));
+
+		assertThat(service.performBalanceTransfer("Id-1", "Id-2", BigDecimal.TEN)).isEqualTo(TransferResult.OK);
+		assertThatThrownBy(() -> service.performBalanceTransfer("Id-1", "Id-2", BigDecimal.TEN))
+				.isInstanceOf(TransferRateLimitedException.class);
+		assertThat(service.getAccount("Id-1").getBalance()).isEqualByComparingTo("90");
+
+		// Id-3 is under its limit, Id-1 and Id-2 are not
+		clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+		List<TransferResult> results = service.performBalanceTransfers(
+				Arrays.asList(transfer("Id-1", "Id-3"), transfer("Id-2", "Id-1"), transfer("Id-3", "Id-3")));
+		assertThat(results).containsExactly(TransferResult.OK, TransferResult.RATE_LIMITED,
+				TransferResult.RATE_LIMITED);
+		assertThat(service.getAccount("Id-3").getBalance()).isEqualByComparingTo("10");
+	}
+
+	@Test
+	void chargesEveryReceiverOfAMultiLegTransfer() {
+		TransferAdmissionControl admission = admission(new Limits(0, 1, 1, 1, 0));
+		AccountsService service = new AccountsService(new AccountsRepositoryInMemory(16, (TransferJournal) null,
+				null, null, null, null, TransferHistory.DEFAULT_MAX_ENTRIES_PER_ACCOUNT), (account, description) -> {
+				}, (TransferOutbox) null, null, null, admission);
+		service.createAccount(new Account("Id-1", new BigDecimal("100")));
+		service.createAccount(new Account("Id-2", BigDecimal.ZERO));
+		service.createAccount(new Account("Id-3", BigDecimal.ZERO));
+		service.createAccount(new Account("Id-4", BigDecimal.ZERO));
+		assertThat(admit(admission, "Id-4", "Id-3")).isNull();
+
+		assertThatThrownBy(() -> service.performMultiLegTransfer("Id-1",
+				Arrays.asList(new TransferLeg("Id-2", BigDecimal.TEN), new TransferLeg("Id-3", BigDecimal.TEN))))
+				.isInstanceOf(TransferRateLimitedException.class);
+		assertThat(service.getAccount("Id-1").getBalance()).isEqualByComparingTo("100");
+
+		// the refused transfer gave back what it took from Id-1 and Id-2
+		assertThat(admit(admission, "Id-1", "Id-2")).isNull();
+	}
+
+	private TransferAdmissionControl admission(Limits limits) {
+		return new TransferAdmissionControl(limits, 1024, registry, clock::get);
+	}
+
+	// rate only, so every call is independent of the ones before it
+	private static Rejection admit(TransferAdmissionControl admission, String accountFrom, String accountTo) {
+		Rejection rejection = admission.tryAdmit(accountFrom, accountTo);
+		if (rejection == null) {
+			admission.release(accountFrom, accountTo);
+		}
+		return rejection;
+	}
+
+	private static AccountTransfer transfer(String accountFrom, String accountTo) {
+		AccountTransfer transfer = new AccountTransfer();
+		transfer.setAccountFrom(accountFrom);
+		transfer.setAccountTo(accountTo);
+		transfer.setTransferAmount(BigDecimal.TEN);
+		return transfer;
+	}
+}
@@ -0,0 +1,63 @@
+package com.dws.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.dws.challenge.domain.TransferResult;
+import com.dws.challenge.service.TransferAuditLog;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class TransferAuditLogTest {
+
+	private final List<String> lines = new ArrayList<>();
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+	@Test
+	void writesEventsInOrderOffTheCallingThread() {
+		TransferAuditLog audit = new TransferAuditLog(8, 1.0, lines::add, registry);
+
+		audit.record("Id-123", "Id-124", new BigDecimal("10.50"), TransferResult.OK);
+		audit.record("Id-124", "Id-999", BigDecimal.ONE, TransferResult.RECEIVER_NOT_FOUND);
+		// nothing is formatted until the writer drains
+		assertThat(lines).isEmpty();
+
+		assertThat(audit.drain()).isEqualTo(2);
+		assertThat(lines).hasSize(2);
+		assertThat(lines.get(0)).contains("from=Id-123 to=Id-124 amount=10.50 result=OK");
+		assertThat(lines.get(1)).contains("from=Id-124 to=Id-999 amount=1 result=RECEIVER_NOT_FOUND");
+	}
+
+	@Test
+	void dropsEventsWhenWriterIsFullRingBehind() {
+		TransferAuditLog audit = new TransferAuditLog(4, 1.0, lines::add, registry);
+
+		for (int i = 0; i < 6; i++) {
+			audit.record("Id-" + i, "Id-124", BigDecimal.ONE, TransferResult.OK);
+		}
+
+		assertThat(audit.drain()).isEqualTo(4);
+		assertThat(registry.get("accounts.audit.dropped").counter().count()).isEqualTo(2);
+		// slots are reused once written
+		audit.record("Id-7", "Id-124", BigDecimal.ONE, TransferResult.OK);
+		assertThat(audit.drain()).isEqualTo(1);
+		assertThat(lines.get(4)).contains("from=Id-7");
+	}
+
+	@Test
+	void samplesOnlySuccessfulTransfers() {
+		TransferAuditLog audit = new TransferAuditLog(64, 0, lines::add, registry);
+
+		audit.record("Id-123", "Id-124", BigDecimal.ONE, TransferResult.OK);
+		audit.record("Id-123", "Id-124", new BigDecimal("1000"), TransferResult.INSUFFICIENT);
+
+		assertThat(audit.drain()).isEqualTo(1);
+		assertThat(lines.get(0)).contains("result=INSUFFICIENT");
+	}
+}
@@ -0,0 +1,123 @@
+package com.dws.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import com.dws.challenge.domain.TransferDirection;
+import com.dws.challenge.domain.TransferHistoryEntry;
+import com.dws.challenge.domain.TransferHistoryPage;
+import com.dws.challenge.repository.TransferHistory;
+
+class TransferHistoryTest {
+
+	private final AtomicLong clock = new AtomicLong(1_000);
+
+	private final TransferHistory history = new TransferHistory(clock::get);
+
+	@Test
+	void recordsBothLegsUnderOneTransferId() {
+		history.record("Id-123", "Id-124", new BigDecimal("12.50"));
+
+		TransferHistoryEntry debit = history.find("Id-123", null, null, null, 10).getTransfers().get(0);
+		TransferHistoryEntry credit = history.find("Id-124", null, null, null, 10).getTransfers().get(0);
+		assertThat(debit.getDirection()).isEqualTo(TransferDirection.DEBIT);
+		assertThat(debit.getCounterparty()).isEqualTo("Id-124");
+		assertThat(credit.getDirection()).isEqualTo(TransferDirection.CREDIT);
+		assertThat(credit.getCounterparty()).isEqualTo("Id-123");
+		assertThat(credit.getTransferId()).isEqualTo(debit.getTransferId());
+		assertThat(credit.getAmount()).isEqualByComparingTo("12.50");
+		assertThat(credit.getTimestamp()).isEqualTo(Instant.ofEpochMilli(1_000));
+	}
+
+	@Test
+	void pagesThroughTimeRangeAcrossChunks() {
+		for (int i = 0; i < 10_000; i++) {
+			clock.set(i);
+			history.record("Id-123", "Id-124", BigDecimal.ONE);
+		}
+
+		Instant from = Instant.ofEpochMilli(4_000);
+		Instant to = Instant.ofEpochMilli(9_000);
+		Long cursor = null;
+		int pages = 0;
+		long expected = 4_000;
+		do {
+			TransferHistoryPage page = history.find("Id-123", from, to, cursor, 1_000);
+			for (TransferHistoryEntry entry : page.getTransfers()) {
+				assertThat(entry.getTimestamp().toEpochMilli()).isEqualTo(expected++);
+			}
+			cursor = page.getNextCursor();
+			pages++;
+		} while (cursor != null);
+
+		assertThat(expected).isEqualTo(9_000);
+		assertThat(pages).isEqualTo(5);
+	}
+
+	@Test
+	void timestampsNeverGoBackwardsWithinAnAccount() {
+		clock.set(5_000);
+		history.record("Id-123", "Id-124", BigDecimal.ONE);
+		clock.set(4_000);
+		history.record("Id-123", "Id-124", BigDecimal.TEN);
+
+		TransferHistoryPage page = history.find("Id-123", Instant.ofEpochMilli(5_000), null, null, 10);
+		assertThat(page.getTransfers()).hasSize(2);
+		assertThat(page.getNextCursor()).isNull();
+	}
+
+	@Test
+	void dropsOldestChunksOnceAnAccountHoldsMoreThanItsLimit() {
+		TransferHistory bounded = new TransferHistory(clock::get, 5_000);
+		for (int i = 0; i < 20_000; i++) {
+			clock.set(i);
+			bounded.record("Id-123", "Id-124", BigDecimal.ONE);
+		}
+
+		// kept from the start of the oldest 4096 entry chunk still needed for the newest 5000
+		TransferHistoryPage page = bounded.find("Id-123", null, null, null, 10);
+		assertThat(page.getTransfers().get(0).getTimestamp().toEpochMilli()).isEqualTo(12_288);
+		assertThat(page.getNextCursor()).isEqualTo(12_298L);
+
+		// a cursor or range into dropped entries continues at the oldest one kept
+		assertThat(bounded.find("Id-123", null, null, 100L, 1).getTransfers().get(0).getTimestamp())
+				.isEqualTo(Instant.ofEpochMilli(12_288));
+		assertThat(bounded.find("Id-123", Instant.ofEpochMilli(0), Instant.ofEpochMilli(12_289), null, 10)
+				.getTransfers()).hasSize(1);
+
+		TransferHistoryPage newest = bounded.find("Id-123", null, null, 19_999L, 10);
+		assertThat(newest.getTransfers()).singleElement()
+				.satisfies(entry -> assertThat(entry.getTimestamp().toEpochMilli()).isEqualTo(19_999));
+		assertThat(newest.getNextCursor()).isNull();
+	}
+
+	@Test
+	void readersSeeConsistentPrefixWhileWriterAppends() throws Exception {
+		AtomicBoolean running = new AtomicBoolean(true);
+		Thread writer = new Thread(() -> {
+			for (int i = 0; i < 200_000; i++) {
+				history.record("Id-123", "Id-" + (i % 7), BigDecimal.valueOf(i));
+			}
+			running.set(false);
+		});
+		writer.start();
+		while (running.get()) {
+			TransferHistoryPage page = history.find("Id-123", null, null, 150_000L, 1_000);
+			long previous = -1;
+			for (TransferHistoryEntry entry : page.getTransfers()) {
+				assertThat(entry.getAmount()).isNotNull();
+				assertThat(entry.getCounterparty()).isNotNull();
+				assertThat(entry.getTransferId()).isGreaterThan(previous);
+				previous = entry.getTransferId();
+			}
+		}
+		writer.join();
+		assertThat(history.find("Id-123", null, null, 199_999L, 10).getTransfers()).hasSize(1);
+	}
+}
@@ -0,0 +1,236 @@
+package com.dws.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.TransferResult;
+import com.dws.challenge.exception.TransferOutcomeUnknownException;
+import com.dws.challenge.exception.WritesSuspendedException;
+import com.dws.challenge.journal.FsyncPolicy;
+import com.dws.challenge.journal.GroupCommitter;
+import com.dws.challenge.journal.TransferJournal;
+import com.dws.challenge.repository.AccountsRepositoryInMemory;
+import com.dws.challenge.repository.TransferHistory;
+
+class TransferJournalTest {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void replaysAccountsAndTransfersOnRestart() {
+		TransferJournal journal = new TransferJournal(directory, 1 << 20, FsyncPolicy.PER_WRITE, 10);
+		AccountsRepositoryInMemory repository = repository(journal);
+		repository.recover();
+		repository.createAccount(new Account("Id-123", new BigDecimal("1000.50")));
+		repository.createAccount(new Account("Id-124", new BigDecimal("2000")));
+		assertThat(repository.performBalanceTransfer("Id-123", "Id-124", new BigDecimal("500.25")))
+				.isEqualTo(TransferResult.OK);
+		assertThat(repository.performBalanceTransfer("Id-123", "Id-124", new BigDecimal("5000")))
+				.isEqualTo(TransferResult.INSUFFICIENT);
+		journal.close();
+
+		AccountsRepositoryInMemory recovered = reopen(1 << 20);
+
+		assertThat(recovered.getAccount("Id-123").getBalance()).isEqualByComparingTo("500.25");
+		assertThat(recovered.getAccount("Id-124").getBalance()).isEqualByComparingTo("2500.25");
+	}
+
+	@Test
+	void rollsOverToNewSegments() throws Exception {
+		TransferJournal journal = new TransferJournal(directory, 256, FsyncPolicy.OS, 10);
+		AccountsRepositoryInMemory repository = repository(journal);
+		repository.recover();
+		repository.createAccount(new Account("Id-123", new BigDecimal("1000")));
+		repository.createAccount(new Account("Id-124", BigDecimal.ZERO));
+		for (int i = 0; i < 100; i++) {
+			repository.performBalanceTransfer("Id-123", "Id-124", BigDecimal.ONE);
+		}
+		journal.close();
+
+		try (Stream<Path> segments = Files.list(directory)) {
+			assertThat(segments.count()).isGreaterThan(1);
+		}
+		AccountsRepositoryInMemory recovered = reopen(256);
+
+		assertThat(recovered.getAccount("Id-123").getBalance()).isEqualByComparingTo("900");
+		assertThat(recovered.getAccount("Id-124").getBalance()).isEqualByComparingTo("100");
+	}
+
+	@Test
+	void stopsReplayAtCorruptRecord() throws Exception {
+		TransferJournal journal = new TransferJournal(directory, 1 << 16, FsyncPolicy.PER_WRITE, 10);
+		AccountsRepositoryInMemory repository = repository(journal);
+		repository.recover();
+		repository.createAccount(new Account("Id-123", new BigDecimal("1000")));
+		repository.createAccount(new Account("Id-124", BigDecimal.ZERO));
+		repository.performBalanceTransfer("Id-123", "Id-124", BigDecimal.TEN);
+		journal.close();
+
+		// flip the last byte of the transfer record, the final record in the segment
+		Path segment = directory.resolve(String.format("%020d.log", 0));
+		try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			ByteBuffer data = ByteBuffer.allocate(1 << 16);
+			channel.read(data, 0);
+			int position = 0;
+			while (data.getInt(position) != 0) {
+				position += 8 + data.getInt(position);
+			}
+			channel.write(ByteBuffer.wrap(new byte[] { (byte) ~data.get(position - 1) }), position - 1);
+		}
+
+		AccountsRepositoryInMemory recovered = reopen(1 << 16);
+
+		assertThat(recovered.getAccount("Id-123").getBalance()).isEqualByComparingTo("1000");
+		assertThat(recovered.getAccount("Id-124").getBalance()).isEqualByComparingTo("0");
+		assertThat(recovered.performBalanceTransfer("Id-123", "Id-124", BigDecimal.ONE)).isEqualTo(TransferResult.OK);
+	}
+
+	@Test
+	void groupCommitSharesForcesBetweenConcurrentTransfers() throws Exception {
+		TransferJournal journal = new TransferJournal(directory, 1 << 20, FsyncPolicy.GROUP_COMMIT, 10, 2000, 64);
+		AccountsRepositoryInMemory repository = repository(journal);
+		repository.recover();
+		for (int i = 0; i < 8; i++) {
+			repository.createAccount(new Account("Id-" + i, new BigDecimal("1000")));
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		CountDownLatch start = new CountDownLatch(1);
+		for (int t = 0; t < 8; t++) {
+			String from = "Id-" + t;
+			String to = "Id-" + ((t + 1) % 8);
+			executor.submit(() -> {
+				start.await();
+				for (int i = 0; i < 50; i++) {
+					repository.performBalanceTransfer(from, to, BigDecimal.ONE);
+				}
+				return null;
+			});
+		}
+		start.countDown();
+		executor.shutdown();
+		assertThat(executor.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+
+		assertThat(journal.getGroupCommitter().getCommits()).isGreaterThanOrEqualTo(400);
+		assertThat(journal.getGroupCommitter().getBatches()).isLessThan(journal.getGroupCommitter().getCommits());
+		journal.close();
+
+		AccountsRepositoryInMemory recovered = reopen(1 << 20);
+		for (int i = 0; i < 8; i++) {
+			assertThat(recovered.getAccount("Id-" + i).getBalance()).isEqualByComparingTo("1000");
+		}
+	}
+
+	@Test
+	void refusesValuesItCouldNotReplay() {
+		TransferJournal journal = new TransferJournal(directory, 1 << 20, FsyncPolicy.PER_WRITE, 10);
+		AccountsRepositoryInMemory repository = repository(journal);
+		repository.recover();
+		repository.createAccount(new Account("Id-123", new BigDecimal("1000")));
+		// 2^2100 takes over 255 bytes unscaled
+		BigDecimal huge = new BigDecimal(BigInteger.ONE.shiftLeft(2100));
+
+		assertThatThrownBy(() -> repository.createAccount(new Account("Id-124", huge)))
+				.isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> journal.appendCreate(new String(new char[70_000]).replace('\0', 'x'), BigDecimal.ONE))
+				.isInstanceOf(IllegalArgumentException.class);
+		assertThat(repository.getAccount("Id-124")).isNull();
+		journal.close();
+
+		AccountsRepositoryInMemory recovered = reopen(1 << 20);
+		assertThat(recovered.getAccount("Id-123").getBalance()).isEqualByComparingTo("1000");
+		assertThat(recovered.getAccountCount()).isEqualTo(1);
+	}
+
+	@Test
+	void groupCommitReleasesWaitersWithTheFailedForce() {
+		AtomicLong appended = new AtomicLong(100);
+		AtomicBoolean failing = new AtomicBoolean(true);
+		GroupCommitter committer = new GroupCommitter(appended::get, () -> {
+			if (failing.get()) {
+				throw new UncheckedIOException(new IOException("disk failed"));
+			}
+			return appended.get();
+		}, 100, 8);
+
+		assertThatThrownBy(() -> committer.awaitDurable(100)).isInstanceOf(IllegalStateException.class)
+				.hasRootCauseMessage("disk failed");
+		// a later force that succeeds covers what was appended since
+		failing.set(false);
+		appended.set(200);
+		committer.awaitDurable(200);
+
+		// the force on close fails too, so nothing after 200 is reported durable
+		failing.set(true);
+		appended.set(300);
+		committer.close();
+		committer.awaitDurable(200);
+		assertThatThrownBy(() -> committer.awaitDurable(300)).isInstanceOf(IllegalStateException.class);
+	}
+
+	@Test
+	void failedCommitLeavesTheOutcomeUnknownAndSuspendsWrites() {
+		AtomicBoolean failing = new AtomicBoolean();
+		TransferJournal journal = new TransferJournal(directory, 1 << 20, FsyncPolicy.PER_WRITE, 10) {
+			@Override
+			public void commit() {
+				if (failing.get()) {
+					throw new UncheckedIOException(new IOException("disk failed"));
+				}
+			}
+		};
+		AccountsRepositoryInMemory repository = repository(journal);
+		repository.recover();
+		repository.createAccount(new Account("Id-123", new BigDecimal("1000")));
+		repository.createAccount(new Account("Id-124", new BigDecimal("0")));
+
+		// applied in memory and written, just not known to be forced, so it must not be answered FAILED
+		failing.set(true);
+		assertThatThrownBy(() -> repository.performBalanceTransfer("Id-123", "Id-124", BigDecimal.TEN))
+				.isInstanceOf(TransferOutcomeUnknownException.class).hasRootCauseMessage("disk failed");
+
+		failing.set(false);
+		assertThatThrownBy(() -> repository.performBalanceTransfer("Id-123", "Id-124", BigDecimal.ONE))
+				.isInstanceOf(WritesSuspendedException.class);
+		assertThatThrownBy(() -> repository.createAccount(new Account("Id-125", BigDecimal.ONE)))
+				.isInstanceOf(WritesSuspendedException.class);
+		assertThat(repository.getAccount("Id-124").getBalance()).isEqualByComparingTo("10");
+		journal.close();
+
+		assertThat(reopen(1 << 20).getAccount("Id-124").getBalance()).isEqualByComparingTo("10");
+	}
+
+	private static AccountsRepositoryInMemory repository(TransferJournal journal) {
+		return new AccountsRepositoryInMemory(16, journal, null, null, null, null,
+				TransferHistory.DEFAULT_MAX_ENTRIES_PER_ACCOUNT);
+	}
+
+	private AccountsRepositoryInMemory reopen(int segmentSize) {
+		TransferJournal journal = new TransferJournal(directory, segmentSize, FsyncPolicy.PER_WRITE, 10);
+		AccountsRepositoryInMemory repository = repository(journal);
+		repository.recover();
+		return repository;
+	}
+}
@@ -0,0 +1,139 @@
+package com.dws.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.dws.challenge.domain.TransferLeg;
+import com.dws.challenge.domain.TransferResult;
+import com.dws.challenge.load.LoadOptions;
+import com.dws.challenge.load.LoadReport;
+import com.dws.challenge.load.ServiceTransferTarget;
+import com.dws.challenge.load.TransferLoadGenerator;
+import com.dws.challenge.load.TransferTarget;
+
+class TransferLoadGeneratorTest {
+
+	private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+	@Test
+	void everyRepositoryKeepsItsInvariantsUnderSkewedLoad() throws Exception {
+		for (String repository : new String[] { "in-memory", "fixed-point", "off-heap", "sharded" }) {
+			// few, small accounts and large amounts, so low balances are hit often
+			LoadOptions options = LoadOptions.parse("--target=" + repository, "--threads=8", "--accounts=50",
+					"--skew=1.2", "--operations=2000", "--warmup=0", "--check-interval=20ms",
+					"--opening-balance=100.00", "--max-amount=40.00", "--multi-leg-ratio=0.2");
+
+			LoadReport report = run(options).get(0);
+
+			assertThat(report.getViolations()).as(repository).isEmpty();
+			assertThat(report.getTransfers()).isEqualTo(16_000);
+			assertThat(report.getUnknown()).isZero();
+			assertThat(report.getCount(TransferResult.OK)).isPositive();
+			assertThat(report.getCount(TransferResult.INSUFFICIENT)).isPositive();
+			assertThat(report.getLatency().getTotalCount()).isEqualTo(16_000);
+		}
+		assertThat(output.toString()).contains("ok          money conserved, 5000.00 over 50 accounts");
+	}
+
+	@Test
+	void catchesLostUpdatesThatConserveMoney() throws Exception {
+		LoadOptions options = LoadOptions.parse("--threads=1", "--accounts=10", "--operations=500", "--warmup=0",
+				"--check-interval=0", "--multi-leg-ratio=0");
+
+		// every 50th transfer is answered OK but never applied, so the total still adds up
+		LoadReport report = new TransferLoadGenerator(options, () -> new FaultyTarget(50, false),
+				new PrintStream(output)).run().get(0);
+
+		assertThat(report.isConsistent()).isFalse();
+		assertThat(report.getViolations()).noneMatch(violation -> violation.startsWith("money not conserved"))
+				.anyMatch(violation -> violation.contains("but its OK transfers add up to"));
+	}
+
+	@Test
+	void catchesOverdrawnAccounts() throws Exception {
+		LoadOptions options = LoadOptions.parse("--threads=1", "--accounts=10", "--operations=500", "--warmup=0",
+				"--check-interval=0", "--multi-leg-ratio=0", "--opening-balance=10.00");
+
+		LoadReport report = new TransferLoadGenerator(options, () -> new FaultyTarget(0, true),
+				new PrintStream(output)).run().get(0);
+
+		assertThat(report.getViolations()).anyMatch(violation -> violation.matches("Load-.* ended at -.*"));
+	}
+
+	@Test
+	void sweepsThreadsWritesHistogramsAndGates(@TempDir Path directory) throws Exception {
+		LoadOptions options = LoadOptions.parse("--threads=1,2", "--accounts=20", "--duration=200ms",
+				"--warmup=50ms", "--min-throughput=1e12", "--histogram-dir=" + directory);
+
+		List<LoadReport> reports = run(options);
+
+		assertThat(reports).extracting(LoadReport::getThreads).containsExactly(1, 2);
+		assertThat(reports.get(1).getViolations()).singleElement().asString().startsWith("throughput");
+		assertThat(directory.toFile().list()).containsExactlyInAnyOrder("in-memory-1t.hgrm", "in-memory-2t.hgrm");
+		assertThat(new File(directory.toFile(), "in-memory-2t.hgrm")).content().contains("Percentile");
+		assertThat(output.toString()).contains("transfers/s");
+	}
+
+	private List<LoadReport> run(LoadOptions options) throws Exception {
+		return new TransferLoadGenerator(options, new PrintStream(output)).run();
+	}
+
+	// single threaded accounts that can be told to drop a transfer they answered OK, or to overdraw
+	private static final class FaultyTarget implements TransferTarget {
+
+		private final Map<String, BigDecimal> balances = new HashMap<>();
+
+		private final int dropEvery;
+
+		private final boolean overdraw;
+
+		private int transfers;
+
+		FaultyTarget(int dropEvery, boolean overdraw) {
+			this.dropEvery = dropEvery;
+			this.overdraw = overdraw;
+		}
+
+		@Override
+		public void createAccount(String accountId, BigDecimal balance) {
+			balances.put(accountId, balance);
+		}
+
+		@Override
+		public TransferResult transfer(String accountFrom, String accountTo, BigDecimal amount) {
+			if (!overdraw && balances.get(accountFrom).compareTo(amount) < 0) {
+				return TransferResult.INSUFFICIENT;
+			}
+			if (dropEvery == 0 || ++transfers % dropEvery != 0) {
+				balances.put(accountFrom, balances.get(accountFrom).subtract(amount));
+				balances.put(accountTo, balances.get(accountTo).add(amount));
+			}
+			return TransferResult.OK;
+		}
+
+		@Override
+		public TransferResult multiLegTransfer(String accountFrom, List<TransferLeg> legs) {
+			return TransferResult.INVALID;
+		}
+
+		@Override
+		public BigDecimal balance(String accountId) {
+			return balances.get(accountId);
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package com.dws.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.journal.TransferJournal;
+import com.dws.challenge.metrics.TransferMetrics;
+import com.dws.challenge.outbox.TransferOutbox;
+import com.dws.challenge.repository.AccountsRepositoryInMemory;
+import com.dws.challenge.repository.TransferHistory;
+import com.dws.challenge.service.AccountsService;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class TransferMetricsTest {
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+	private final TransferMetrics metrics = new TransferMetrics(registry, true);
+
+	private final AccountsRepositoryInMemory repository = new AccountsRepositoryInMemory(4, (TransferJournal) null,
+			null, null, metrics, null, TransferHistory.DEFAULT_MAX_ENTRIES_PER_ACCOUNT);
+
+	private final AccountsService service = new AccountsService(repository, (account, description) -> {
+	}, (TransferOutbox) null, metrics, null, null);
+
+	@Test
+	void countsOutcomesAndTimesStages() {
+		service.createAccount(new Account("Id-123", new BigDecimal("100")));
+		service.createAccount(new Account("Id-124", BigDecimal.ZERO));
+
+		service.performBalanceTransfer("Id-123", "Id-124", BigDecimal.TEN);
+		service.performBalanceTransfer("Id-123", "Id-124", new BigDecimal("1000"));
+		service.performBalanceTransfer("Id-999", "Id-124", BigDecimal.ONE);
+
+		assertThat(outcome("ok")).isEqualTo(1);
+		assertThat(outcome("insufficient")).isEqualTo(1);
+		assertThat(outcome("sender_not_found")).isEqualTo(1);
+		assertThat(registry.get("accounts.transfer.stage").tag("stage", "lookup").timer().count()).isEqualTo(3);
+		// the unknown sender never reaches the locks
+		assertThat(registry.get("accounts.transfer.stage").tag("stage", "lock.wait").timer().count()).isEqualTo(2);
+		assertThat(registry.get("accounts.transfer.stage").tag("stage", "lock.hold").timer().count()).isEqualTo(2);
+		assertThat(registry.get("accounts.count").gauge().value()).isEqualTo(2);
+	}
+
+	@Test
+	void countsContendedStripeAcquisitions() throws Exception {
+		service.createAccount(new Account("Id-123", new BigDecimal("100000")));
+		service.createAccount(new Account("Id-124", new BigDecimal("100000")));
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		CountDownLatch start = new CountDownLatch(1);
+		for (int t = 0; t < 4; t++) {
+			executor.submit(() -> {
+				start.await();
+				for (int i = 0; i < 5000; i++) {
+					service.performBalanceTransfer("Id-123", "Id-124", BigDecimal.ONE);
+					service.performBalanceTransfer("Id-124", "Id-123", BigDecimal.ONE);
+				}
+				return null;
+			});
+		}
+		start.countDown();
+		executor.shutdown();
+		assertThat(executor.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+
+		double total = registry.get("accounts.lock.contended").functionCounter().count();
+		double perStripe = registry.get("accounts.lock.stripe.contended").functionCounters().stream()
+				.mapToDouble(counter -> counter.count()).sum();
+		assertThat(total).isPositive();
+		assertThat(perStripe).isEqualTo(total);
+		assertThat(outcome("ok")).isEqualTo(40000);
+	}
+
+	private double outcome(String outcome) {
+		return registry.get("accounts.transfer.outcome").tag("outcome", outcome).counter().count();
+	}
+}
@@ -0,0 +1,191 @@
+package com.dws.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.dws.challenge.domain.Account;
+import com.dws.challenge.domain.TransferResult;
+import com.dws.challenge.journal.FsyncPolicy;
+import com.dws.challenge.journal.TransferJournal;
+import com.dws.challenge.outbox.FileTransferOutbox;
+import com.dws.challenge.outbox.InMemoryTransferOutbox;
+import com.dws.challenge.outbox.OutboxEntry;
+import com.dws.challenge.outbox.OutboxRelay;
+import com.dws.challenge.outbox.TransferOutbox;
+import com.dws.challenge.repository.AccountsRepositoryInMemory;
+import com.dws.challenge.repository.TransferHistory;
+import com.dws.challenge.service.AccountsService;
+import com.dws.challenge.service.NotificationService;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class TransferOutboxTest {
+
+	@TempDir
+	Path directory;
+
+	private final List<String> delivered = Collections.synchronizedList(new ArrayList<>());
+
+	private final NotificationService recorder = (account, description) -> delivered
+			.add(account.getAccountId() + ":" + description);
+
+	@Test
+	void relaysSenderAndReceiverNotificationsForCommittedTransfers() {
+		InMemoryTransferOutbox outbox = new InMemoryTransferOutbox();
+		AccountsRepositoryInMemory repository = repository(null, outbox);
+		AccountsService service = new AccountsService(repository, recorder, outbox, null, null, null);
+		service.createAccount(new Account("Id-123", new BigDecimal("100")));
+		service.createAccount(new Account("Id-124", BigDecimal.ZERO));
+
+		assertThat(service.performBalanceTransfer("Id-123", "Id-124", new BigDecimal("40")))
+				.isEqualTo(TransferResult.OK);
+		assertThat(service.performBalanceTransfer("Id-123", "Id-124", new BigDecimal("400")))
+				.isEqualTo(TransferResult.INSUFFICIENT);
+		// nothing is sent from the request thread
+		assertThat(delivered).isEmpty();
+
+		OutboxRelay relay = relay(outbox, repository);
+		assertThat(relay.relayOnce()).isEqualTo(1);
+		assertThat(relay.relayOnce()).isZero();
+
+		assertThat(delivered).containsExactly("Id-123:Transferred 40 to account Id-124",
+				"Id-124:Received 40 from account Id-123");
+		assertThat(outbox.getAcknowledgedOffset()).isEqualTo(1);
+	}
+
+	@Test
+	void resumesFromAcknowledgedOffsetAfterRestart() {
+		FileTransferOutbox outbox = new FileTransferOutbox(directory);
+		AccountsRepositoryInMemory repository = accounts(outbox);
+		for (int i = 0; i < 5; i++) {
+			repository.performBalanceTransfer("Id-123", "Id-124", BigDecimal.valueOf(i + 1));
+		}
+		OutboxRelay relay = new OutboxRelay(outbox, repository, recorder, 2, 10, new SimpleMeterRegistry());
+		relay.relayOnce();
+		outbox.close();
+		assertThat(delivered).hasSize(4);
+
+		delivered.clear();
+		FileTransferOutbox reopened = new FileTransferOutbox(directory);
+		assertThat(reopened.getAcknowledgedOffset()).isEqualTo(2);
+		assertThat(reopened.getNextOffset()).isEqualTo(5);
+		OutboxRelay resumed = relay(reopened, repository);
+		assertThat(resumed.relayOnce()).isEqualTo(3);
+
+		assertThat(delivered).containsExactly("Id-123:Transferred 3 to account Id-124",
+				"Id-124:Received 3 from account Id-123", "Id-123:Transferred 4 to account Id-124",
+				"Id-124:Received 4 from account Id-123", "Id-123:Transferred 5 to account Id-124",
+				"Id-124:Received 5 from account Id-123");
+		reopened.close();
+	}
+
+	@Test
+	void recoversEntriesLostBeforeOutboxSyncFromJournal() throws Exception {
+		Path journalDirectory = directory.resolve("journal");
+		Path outboxDirectory = directory.resolve("outbox");
+		TransferJournal journal = new TransferJournal(journalDirectory, 1 << 20, FsyncPolicy.PER_WRITE, 10);
+		FileTransferOutbox outbox = new FileTransferOutbox(outboxDirectory);
+		AccountsRepositoryInMemory repository = repository(journal, outbox);
+		repository.recover();
+		repository.createAccount(new Account("Id-123", new BigDecimal("100")));
+		repository.createAccount(new Account("Id-124", BigDecimal.ZERO));
+		repository.performBalanceTransfer("Id-123", "Id-124", BigDecimal.ONE);
+		repository.performBalanceTransfer("Id-123", "Id-124", BigDecimal.TEN);
+		relay(outbox, repository).relayOnce();
+		repository.performBalanceTransfer("Id-124", "Id-123", new BigDecimal("2"));
+		journal.close();
+		outbox.close();
+
+		// simulate a crash after the journal append but before the outbox was written
+		Files.delete(outboxDirectory.resolve("outbox.log"));
+		delivered.clear();
+
+		TransferJournal reopenedJournal = new TransferJournal(journalDirectory, 1 << 20, FsyncPolicy.PER_WRITE, 10);
+		FileTransferOutbox reopenedOutbox = new FileTransferOutbox(outboxDirectory);
+		AccountsRepositoryInMemory recovered = repository(reopenedJournal, reopenedOutbox);
+		recovered.recover();
+		relay(reopenedOutbox, recovered).relayOnce();
+
+		assertThat(delivered).containsExactly("Id-124:Transferred 2 to account Id-123",
+				"Id-123:Received 2 from account Id-124");
+		assertThat(reopenedOutbox.getNextOffset()).isEqualTo(3);
+		reopenedJournal.close();
+		reopenedOutbox.close();
+	}
+
+	@Test
+	void rolledBackTransfersNeverReachTheRelay() throws Exception {
+		Path journalDirectory = directory.resolve("journal");
+		Path outboxDirectory = directory.resolve("outbox");
+		TransferJournal journal = new TransferJournal(journalDirectory, 1 << 20, FsyncPolicy.PER_WRITE, 10);
+		FileTransferOutbox outbox = new FileTransferOutbox(outboxDirectory);
+		AccountsRepositoryInMemory repository = repository(journal, outbox);
+		repository.recover();
+		repository.createAccount(new Account("Id-123", new BigDecimal("100")));
+		repository.createAccount(new MultiLegTransferTest.FailingAccount("Id-124"));
+
+		assertThat(repository.performBalanceTransfer("Id-123", "Id-124", BigDecimal.TEN))
+				.isEqualTo(TransferResult.FAILED);
+		assertThat(repository.performBalanceTransfer("Id-123", "Id-124", BigDecimal.ONE))
+				.isEqualTo(TransferResult.OK);
+		assertThat(outbox.read(0, 10)).extracting(OutboxEntry::getOffset).containsExactly(1L);
+		journal.close();
+		outbox.close();
+
+		// the journal still names the cancelled entry, and replay must not bring it back
+		Files.delete(outboxDirectory.resolve("outbox.log"));
+		TransferJournal reopenedJournal = new TransferJournal(journalDirectory, 1 << 20, FsyncPolicy.PER_WRITE, 10);
+		FileTransferOutbox reopenedOutbox = new FileTransferOutbox(outboxDirectory);
+		AccountsRepositoryInMemory recovered = repository(reopenedJournal, reopenedOutbox);
+		recovered.recover();
+		relay(reopenedOutbox, recovered).relayOnce();
+
+		assertThat(delivered).containsExactly("Id-123:Transferred 1 to account Id-124",
+				"Id-124:Received 1 from account Id-123");
+		assertThat(reopenedOutbox.getNextOffset()).isEqualTo(2);
+		reopenedJournal.close();
+		reopenedOutbox.close();
+	}
+
+	@Test
+	void cancelledEntriesStayCancelledAfterRestart() {
+		FileTransferOutbox outbox = new FileTransferOutbox(directory);
+		outbox.append("Id-123", "Id-124", BigDecimal.ONE);
+		outbox.append("Id-123", "Id-124", BigDecimal.TEN);
+		outbox.sync();
+		outbox.cancel(0);
+		outbox.append("Id-124", "Id-123", BigDecimal.ONE);
+		outbox.cancel(2);
+		outbox.close();
+
+		FileTransferOutbox reopened = new FileTransferOutbox(directory);
+		assertThat(reopened.read(0, 10)).extracting(OutboxEntry::getOffset).containsExactly(1L);
+		assertThat(reopened.getNextOffset()).isEqualTo(3);
+		reopened.close();
+	}
+
+	private static AccountsRepositoryInMemory repository(TransferJournal journal, TransferOutbox outbox) {
+		return new AccountsRepositoryInMemory(16, journal, null, outbox, null, null,
+				TransferHistory.DEFAULT_MAX_ENTRIES_PER_ACCOUNT);
+	}
+
+	private AccountsRepositoryInMemory accounts(TransferOutbox outbox) {
+		AccountsRepositoryInMemory repository = repository(null, outbox);
+		repository.createAccount(new Account("Id-123", new BigDecimal("100")));
+		repository.createAccount(new Account("Id-124", BigDecimal.ZERO));
+		return repository;
+	}
+
+	private OutboxRelay relay(TransferOutbox outbox, AccountsRepositoryInMemory repository) {
+		return new OutboxRelay(outbox, repository, recorder, 100, 10, new SimpleMeterRegistry());
+	}
+}